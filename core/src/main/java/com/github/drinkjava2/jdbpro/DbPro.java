@@ -19,6 +19,8 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.sql.DataSource;
 
@@ -27,6 +29,8 @@ import org.apache.commons.dbutils.ResultSetHandler;
 import org.apache.commons.dbutils.handlers.MapListHandler;
 import org.apache.commons.dbutils.handlers.ScalarHandler;
 
+import com.github.drinkjava2.jdbpro.improve.QueryStream;
+import com.github.drinkjava2.jdbpro.improve.RowCallback;
 import com.github.drinkjava2.jdbpro.inline.InlineQueryRunner;
 import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
 import com.github.drinkjava2.jdbpro.template.SqlTemplateEngine;
@@ -64,6 +68,20 @@ public class DbPro extends TemplateQueryRunner implements NormalJdbcTool {// NOS
 		this.allowShowSQL = config.getAllowSqlSql();
 		this.logger = config.getLogger();
 		this.batchSize = config.getBatchSize();
+		this.batchMode = config.getBatchMode();
+		this.maxBatchGroups = config.getMaxBatchGroups();
+		this.asyncBatchFlusher = config.getAsyncBatchFlusher();
+		this.asyncQueryExecutor = config.getAsyncQueryExecutor();
+		this.multiRowInsert = config.getMultiRowInsert();
+		this.singleFlightCache = config.getSingleFlightCache();
+		this.cacheRefreshSeconds = config.getCacheRefreshSeconds();
+		this.streamFetchSize = config.getStreamFetchSize();
+		this.fetchSize = config.getFetchSize();
+		this.maxRows = config.getMaxRows();
+		this.queryTimeout = config.getQueryTimeout();
+		this.statementCacheSize = config.getStatementCacheSize();
+		this.sqlLogger = config.getSqlLogger();
+		this.metricsListener = config.getMetricsListener();
 		this.handlers = config.getHandlers();
 	}
 
@@ -74,6 +92,20 @@ public class DbPro extends TemplateQueryRunner implements NormalJdbcTool {// NOS
 		this.allowShowSQL = config.getAllowSqlSql();
 		this.logger = config.getLogger();
 		this.batchSize = config.getBatchSize();
+		this.batchMode = config.getBatchMode();
+		this.maxBatchGroups = config.getMaxBatchGroups();
+		this.asyncBatchFlusher = config.getAsyncBatchFlusher();
+		this.asyncQueryExecutor = config.getAsyncQueryExecutor();
+		this.multiRowInsert = config.getMultiRowInsert();
+		this.singleFlightCache = config.getSingleFlightCache();
+		this.cacheRefreshSeconds = config.getCacheRefreshSeconds();
+		this.streamFetchSize = config.getStreamFetchSize();
+		this.fetchSize = config.getFetchSize();
+		this.maxRows = config.getMaxRows();
+		this.queryTimeout = config.getQueryTimeout();
+		this.statementCacheSize = config.getStatementCacheSize();
+		this.sqlLogger = config.getSqlLogger();
+		this.metricsListener = config.getMetricsListener();
 		this.handlers = config.getHandlers();
 	}
 
@@ -101,6 +133,14 @@ public class DbPro extends TemplateQueryRunner implements NormalJdbcTool {// NOS
 		InlineQueryRunner.clearParams();
 	}
 
+	/**
+	 * Create an explicit session, it carries its own in-line parameters, template
+	 * parameters, handlers and batch state instead of store them in ThreadLocal
+	 */
+	public DbProSession session() {
+		return new DbProSession(this);
+	}
+
 	// ==========================================================
 	// DbUtils style methods, throw SQLException
 
@@ -316,6 +356,44 @@ public class DbPro extends TemplateQueryRunner implements NormalJdbcTool {// NOS
 		}
 	}
 
+	/**
+	 * Execute query and return a QueryStream to read rows one by one, must close
+	 * it in a finally block. Note: This method does not close connection.
+	 */
+	public QueryStream nQueryStream(Connection conn, String sql, Object... params) {
+		try {
+			return openQueryStream(conn, null, sql, params);
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Execute query and return a QueryStream to read rows one by one, must close
+	 * it in a finally block. Note: This method does not close connection.
+	 */
+	public QueryStream nQueryStream(Connection conn, PreparedSQL preparedSQL) {
+		try {
+			return openQueryStream(conn, preparedSQL.getWrappedHandler(), preparedSQL.getSql(),
+					preparedSQL.getParams());
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Execute query and call rowCallback for each row until it return false,
+	 * return how many rows be handled. Note: This method does not close
+	 * connection.
+	 */
+	public int nQueryEach(Connection conn, RowCallback rowCallback, String sql, Object... params) {
+		try {
+			return queryEach(conn, sql, rowCallback, params);
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		}
+	}
+
 	/**
 	 * Executes the given INSERT, UPDATE, or DELETE SQL statement. Note: This method
 	 * does not close connection.
@@ -440,6 +518,18 @@ public class DbPro extends TemplateQueryRunner implements NormalJdbcTool {// NOS
 		}
 	}
 
+	/**
+	 * Force flush cached SQLs and wait asynchronous batches of current thread be
+	 * executed
+	 */
+	public void nBatchFlushAndWait() {
+		try {
+			batchFlushAndWait();
+		} catch (Exception e) {
+			throw new DbProRuntimeException(e);
+		}
+	}
+
 	/** Start batch sql */
 	public void nBatchBegin() {
 		try {
@@ -560,6 +650,56 @@ public class DbPro extends TemplateQueryRunner implements NormalJdbcTool {// NOS
 		}
 	}
 
+	/**
+	 * Execute query and return a QueryStream to read rows one by one, must close
+	 * it in a finally block, connection will be released when QueryStream closed
+	 */
+	public QueryStream nQueryStream(String sql, Object... params) {
+		try {
+			return openQueryStream(null, null, sql, params);
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Execute query and return a QueryStream to read rows one by one, must close
+	 * it in a finally block, connection will be released when QueryStream closed
+	 */
+	public QueryStream nQueryStream(PreparedSQL preparedSQL) {
+		try {
+			return openQueryStream(null, preparedSQL.getWrappedHandler(), preparedSQL.getSql(),
+					preparedSQL.getParams());
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Execute query and call rowCallback for each row until it return false,
+	 * return how many rows be handled
+	 */
+	public int nQueryEach(RowCallback rowCallback, String sql, Object... params) {
+		try {
+			return queryEach(sql, rowCallback, params);
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Execute query and call rowCallback for each row until it return false,
+	 * return how many rows be handled
+	 */
+	public int nQueryEach(RowCallback rowCallback, PreparedSQL preparedSQL) {
+		try {
+			return queryEach(openQueryStream(null, preparedSQL.getWrappedHandler(), preparedSQL.getSql(),
+					preparedSQL.getParams()), rowCallback);
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		}
+	}
+
 	/**
 	 * Executes the given INSERT, UPDATE, or DELETE SQL statement. Transaction mode
 	 * is determined by connectionManager property.
@@ -591,6 +731,73 @@ public class DbPro extends TemplateQueryRunner implements NormalJdbcTool {// NOS
 		return nUpdate(preparedSQL.getSql(), preparedSQL.getParams());
 	}
 
+	/**
+	 * Asynchronous version of nQuery method, run in asyncQueryExecutor, handlers
+	 * and cache work same as nQuery. Note: it's out of current transaction.
+	 * 
+	 * @param rsh
+	 *            The handler used to create the result object from the
+	 *            <code>ResultSet</code>.
+	 * @param sql
+	 *            the SQL
+	 * @param params
+	 *            the parameters if have
+	 * @return A Future of the object generated by the handler, its get() method
+	 *         throw ExecutionException if query failed
+	 */
+	public <T> Future<T> nQueryAsync(final ResultSetHandler rsh, final String sql, final Object... params) {
+		return submitAsync(new Callable<T>() {
+			@Override
+			public T call() {
+				return (T) nQuery(rsh, sql, params);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous version of nQuery method, run in asyncQueryExecutor. Note:
+	 * it's out of current transaction.
+	 * 
+	 * @param preparedSQL
+	 *            The preparedSQL with include SQL, parameters and handlers
+	 * @return A Future of the object generated by the handler
+	 */
+	public <T> Future<T> nQueryAsync(final PreparedSQL preparedSQL) {
+		return submitAsync(new Callable<T>() {
+			@Override
+			public T call() {
+				return (T) nQuery(preparedSQL);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous version of nQueryForObject method, run in asyncQueryExecutor.
+	 * Note: it's out of current transaction.
+	 */
+	public <T> Future<T> nQueryForObjectAsync(String sql, Object... params) {
+		return nQueryAsync(new ScalarHandler<T>(1), sql, params);
+	}
+
+	/**
+	 * Asynchronous version of nUpdate method, run in asyncQueryExecutor. Note:
+	 * it's out of current transaction.
+	 * 
+	 * @param sql
+	 *            the SQL
+	 * @param params
+	 *            the parameters if have
+	 * @return A Future of the number of rows updated
+	 */
+	public Future<Integer> nUpdateAsync(final String sql, final Object... params) {
+		return submitAsync(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return nUpdate(sql, params);
+			}
+		});
+	}
+
 	/**
 	 * Executes the given INSERT SQL statement. Transaction mode is determined by
 	 * connectionManager property.
@@ -790,8 +997,8 @@ public class DbPro extends TemplateQueryRunner implements NormalJdbcTool {// NOS
 					sb.append(str);
 				sql = sb.toString();
 			}
-			Map<String, Object> paramMap = templateThreadlocalParamMapCache.get();
-			return sqlTemplateEngine.render(sql, paramMap, directReplaceKeysCache.get());
+			DbProSession session = getThreadSession();
+			return sqlTemplateEngine.render(sql, session.getTemplateParams(), session.getReplaceKeys());
 		} finally {
 			clearBind();
 		}
@@ -15,6 +15,11 @@ import java.util.List;
 
 import org.apache.commons.dbutils.ResultSetHandler;
 
+import com.github.drinkjava2.jdbpro.improve.AsyncBatchFlusher;
+import com.github.drinkjava2.jdbpro.improve.AsyncQueryExecutor;
+import com.github.drinkjava2.jdbpro.improve.AsyncSqlLogger;
+import com.github.drinkjava2.jdbpro.improve.SqlMetricsListener;
+import com.github.drinkjava2.jdbpro.improve.BatchMode;
 import com.github.drinkjava2.jdbpro.template.SqlTemplateEngine;
 import com.github.drinkjava2.jtransactions.ConnectionManager;
 
@@ -31,6 +36,20 @@ public class DbProConfig {
 	private DbProLogger logger = DbPro.getGlobalLogger();
 	private Boolean allowSqlSql = DbPro.getGlobalAllowShowSql();
 	private Integer batchSize = DbPro.getGlobalBatchSize();
+	private BatchMode batchMode = DbPro.getGlobalBatchMode();
+	private Integer maxBatchGroups = DbPro.getGlobalMaxBatchGroups();
+	private AsyncBatchFlusher asyncBatchFlusher = DbPro.getGlobalAsyncBatchFlusher();
+	private AsyncQueryExecutor asyncQueryExecutor = DbPro.getGlobalAsyncQueryExecutor();
+	private Boolean multiRowInsert = DbPro.getGlobalMultiRowInsert();
+	private Boolean singleFlightCache = DbPro.getGlobalSingleFlightCache();
+	private Integer cacheRefreshSeconds = DbPro.getGlobalCacheRefreshSeconds();
+	private Integer streamFetchSize = DbPro.getGlobalStreamFetchSize();
+	private Integer fetchSize = DbPro.getGlobalFetchSize();
+	private Integer maxRows = DbPro.getGlobalMaxRows();
+	private Integer queryTimeout = DbPro.getGlobalQueryTimeout();
+	private Integer statementCacheSize = DbPro.getGlobalStatementCacheSize();
+	private AsyncSqlLogger sqlLogger = DbPro.getGlobalSqlLogger();
+	private SqlMetricsListener metricsListener = DbPro.getGlobalMetricsListener();
 	private ConnectionManager connectionManager = DbPro.getGlobalConnectionManager();
 	private List<ResultSetHandler> handlers = DbPro.getGlobalHandlers();
 
@@ -66,6 +85,118 @@ public class DbProConfig {
 		this.batchSize = batchSize;
 	}
 
+	public BatchMode getBatchMode() {
+		return batchMode;
+	}
+
+	public void setBatchMode(BatchMode batchMode) {
+		this.batchMode = batchMode;
+	}
+
+	public Integer getMaxBatchGroups() {
+		return maxBatchGroups;
+	}
+
+	public void setMaxBatchGroups(Integer maxBatchGroups) {
+		this.maxBatchGroups = maxBatchGroups;
+	}
+
+	public AsyncBatchFlusher getAsyncBatchFlusher() {
+		return asyncBatchFlusher;
+	}
+
+	public void setAsyncBatchFlusher(AsyncBatchFlusher asyncBatchFlusher) {
+		this.asyncBatchFlusher = asyncBatchFlusher;
+	}
+
+	public AsyncQueryExecutor getAsyncQueryExecutor() {
+		return asyncQueryExecutor;
+	}
+
+	public void setAsyncQueryExecutor(AsyncQueryExecutor asyncQueryExecutor) {
+		this.asyncQueryExecutor = asyncQueryExecutor;
+	}
+
+	public Boolean getMultiRowInsert() {
+		return multiRowInsert;
+	}
+
+	public void setMultiRowInsert(Boolean multiRowInsert) {
+		this.multiRowInsert = multiRowInsert;
+	}
+
+	public Boolean getSingleFlightCache() {
+		return singleFlightCache;
+	}
+
+	public void setSingleFlightCache(Boolean singleFlightCache) {
+		this.singleFlightCache = singleFlightCache;
+	}
+
+	public Integer getCacheRefreshSeconds() {
+		return cacheRefreshSeconds;
+	}
+
+	public void setCacheRefreshSeconds(Integer cacheRefreshSeconds) {
+		this.cacheRefreshSeconds = cacheRefreshSeconds;
+	}
+
+	public Integer getStreamFetchSize() {
+		return streamFetchSize;
+	}
+
+	public void setStreamFetchSize(Integer streamFetchSize) {
+		this.streamFetchSize = streamFetchSize;
+	}
+
+	public Integer getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(Integer fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public Integer getMaxRows() {
+		return maxRows;
+	}
+
+	public void setMaxRows(Integer maxRows) {
+		this.maxRows = maxRows;
+	}
+
+	public Integer getQueryTimeout() {
+		return queryTimeout;
+	}
+
+	public void setQueryTimeout(Integer queryTimeout) {
+		this.queryTimeout = queryTimeout;
+	}
+
+	public Integer getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public void setStatementCacheSize(Integer statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public AsyncSqlLogger getSqlLogger() {
+		return sqlLogger;
+	}
+
+	public void setSqlLogger(AsyncSqlLogger sqlLogger) {
+		this.sqlLogger = sqlLogger;
+	}
+
+	public SqlMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	public void setMetricsListener(SqlMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
 	public ConnectionManager getConnectionManager() {
 		return connectionManager;
 	}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+
+import com.github.drinkjava2.jdbpro.handler.StatementOptionHandler;
+import com.github.drinkjava2.jdbpro.improve.SqlBatchCache;
+import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
+
+/**
+ * DbProSession carry the state of SQL method calls: in-line parameters,
+ * template parameters, handlers, batch state and statement option. <br/>
+ *
+ * ThreadLocal style methods like DbPro.param(), DbPro.put() and nBatchBegin()
+ * store state in a session bound to current thread. A session created by
+ * DbPro.session() is an explicit alternative, it carries its own state, so can
+ * be handed over to another thread, and its in-line or template parameters
+ * never mix with other threads' or other sessions'. <br/>
+ *
+ * Usage: <br/>
+ * DbProSession s = dbPro.session(); <br/>
+ * s.iUpdate("update users set name=", s.question("Tom"), " where id=",
+ * s.question(1)); <br/>
+ *
+ * Note: A session is not thread safe, use it in one thread at a time. Internal
+ * collections are created when first used, so an unused session is cheap.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class DbProSession {
+	/** Collections larger than this are dropped instead of cleared */
+	private static final int MAX_KEPT_SIZE = 64;
+
+	private final DbPro dbPro;
+	private ArrayList<Object> params;
+	private Map<String, Object> templateParams;
+	private Set<String> replaceKeys;
+	private ArrayList<ResultSetHandler> handlers;
+	private boolean batchEnabled = false;
+	private SqlBatchCache batchCache;
+	private StatementOptionHandler statementOption;
+
+	/** Build a session only used to store state, used by ThreadLocal style */
+	public DbProSession() {
+		this.dbPro = null;
+	}
+
+	/** Build a session execute SQL by given DbPro */
+	public DbProSession(DbPro dbPro) {
+		DbProRuntimeException.assertNotNull(dbPro, "DbProSession's dbPro can not be null");
+		this.dbPro = dbPro;
+	}
+
+	// ======== in-line and template parameters ========
+
+	/** Cache parameters in this session and return an empty String */
+	public String param(Object... parameters) {
+		ArrayList<Object> list = getParams();
+		for (Object o : parameters)
+			list.add(o);
+		return "";
+	}
+
+	/** Cache parameters in this session and return a "?" String */
+	public String question(Object... parameters) {
+		param(parameters);
+		return "?";
+	}
+
+	/**
+	 * Create "values(?,?,?...,?)" String according how many in-line parameters
+	 * be cached in this session
+	 */
+	public String valuesQuesions() {
+		int howManyQuestionMarks = params == null ? 0 : params.size();
+		StringBuilder sb = new StringBuilder("values(");
+		for (int i = 0; i < howManyQuestionMarks; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append('?');
+		}
+		return sb.append(')').toString();
+	}
+
+	/** Put a name-value pair into template parameters, return an empty String */
+	public String put(String name, Object value) {
+		getTemplateParams().put(name, value);
+		return "";
+	}
+
+	/**
+	 * Put a name-value pair into template parameters, return an empty String, the
+	 * value will directly replace text in template
+	 */
+	public String replace(String name, Object value) {
+		getTemplateParams().put(name, value);
+		getReplaceKeys().add(name);
+		return "";
+	}
+
+	/** Add handlers used by next SQL method call of this session */
+	public DbProSession handlers(ResultSetHandler... handlerArray) {
+		ArrayList<ResultSetHandler> list = getHandlers();
+		for (ResultSetHandler handler : handlerArray)
+			list.add(handler);
+		return this;
+	}
+
+	/** Clear in-line parameters */
+	public void clearParams() {
+		if (params != null && params.size() > MAX_KEPT_SIZE)
+			params = null;
+		else if (params != null)
+			params.clear();
+	}
+
+	/** Clear template parameters and direct-replace keys */
+	public void clearTemplateParams() {
+		if (templateParams != null && templateParams.size() > MAX_KEPT_SIZE)
+			templateParams = null;
+		else if (templateParams != null)
+			templateParams.clear();
+		if (replaceKeys != null)
+			replaceKeys.clear();
+	}
+
+	/** Clear handlers */
+	public void clearHandlers() {
+		if (handlers != null)
+			handlers.clear();
+	}
+
+	/**
+	 * Build a PreparedSQL by given in-line style SQL and in-line parameters, then
+	 * clear in-line parameters
+	 */
+	public PreparedSQL inlineToSqlAndParams(String... inlineSQL) {
+		try {
+			PreparedSQL sp = new PreparedSQL();
+			sp.setSql(joinSql(inlineSQL));
+			sp.setParams(params == null ? new Object[0] : params.toArray(new Object[params.size()]));
+			return sp;
+		} finally {
+			clearParams();
+		}
+	}
+
+	/**
+	 * Render a template style SQL by template parameters use DbPro's template
+	 * engine, then clear template parameters
+	 */
+	public PreparedSQL templateToSqlAndParams(String... templateSQL) {
+		try {
+			Map<String, Object> map = templateParams == null ? new HashMap<String, Object>() : templateParams;
+			return getDbPro().getSqlTemplateEngine().render(joinSql(templateSQL), map, replaceKeys);
+		} finally {
+			clearTemplateParams();
+		}
+	}
+
+	private static String joinSql(String... sqlPieces) {
+		if (sqlPieces == null)
+			return null;
+		if (sqlPieces.length == 1)
+			return sqlPieces[0];
+		StringBuilder sb = new StringBuilder();
+		for (String str : sqlPieces)
+			sb.append(str);
+		return sb.toString();
+	}
+
+	// ======== SQL methods ========
+
+	/**
+	 * Bind this session to DbPro in current thread, return the session bound
+	 * before
+	 */
+	private DbProSession bind() {
+		return getDbPro().bindSession(this);
+	}
+
+	/** Restore the session bound before, clear handlers of this session */
+	private void unbind(DbProSession previous) {
+		dbPro.bindSession(previous);
+		clearHandlers();
+	}
+
+	/** Same as DbPro.nQuery but use this session */
+	public <T> T nQuery(ResultSetHandler rsh, String sql, Object... parameters) {
+		DbProSession previous = bind();
+		try {
+			return (T) dbPro.nQuery(rsh, sql, parameters);
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	/** Same as DbPro.nQueryForObject but use this session */
+	public <T> T nQueryForObject(String sql, Object... parameters) {
+		return nQuery(new ScalarHandler<T>(1), sql, parameters);
+	}
+
+	/** Same as DbPro.nQueryForLongValue but use this session */
+	public long nQueryForLongValue(String sql, Object... parameters) {
+		return ((Number) nQueryForObject(sql, parameters)).longValue();// NOSONAR
+	}
+
+	/** Same as DbPro.nUpdate but use this session */
+	public int nUpdate(String sql, Object... parameters) {
+		DbProSession previous = bind();
+		try {
+			return dbPro.nUpdate(sql, parameters);
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	/** Same as DbPro.nInsert but use this session */
+	public <T> T nInsert(ResultSetHandler rsh, String sql, Object... parameters) {
+		DbProSession previous = bind();
+		try {
+			return (T) dbPro.nInsert(rsh, sql, parameters);
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	/** Same as DbPro.nExecute but use this session */
+	public int nExecute(String sql, Object... parameters) {
+		DbProSession previous = bind();
+		try {
+			return dbPro.nExecute(sql, parameters);
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	/** In-line style query, parameters are cached by param() or question() */
+	public <T> T iQuery(ResultSetHandler rsh, String... inlineSQL) {
+		PreparedSQL sp = inlineToSqlAndParams(inlineSQL);
+		return (T) nQuery(rsh, sp.getSql(), sp.getParams());
+	}
+
+	/** In-line style query for an Object */
+	public <T> T iQueryForObject(String... inlineSQL) {
+		return iQuery(new ScalarHandler<T>(1), inlineSQL);
+	}
+
+	/** In-line style query, force return a long value */
+	public long iQueryForLongValue(String... inlineSQL) {
+		return ((Number) iQueryForObject(inlineSQL)).longValue();// NOSONAR
+	}
+
+	/** In-line style update */
+	public int iUpdate(String... inlineSQL) {
+		PreparedSQL sp = inlineToSqlAndParams(inlineSQL);
+		return nUpdate(sp.getSql(), sp.getParams());
+	}
+
+	/** In-line style insert */
+	public <T> T iInsert(ResultSetHandler rsh, String... inlineSQL) {
+		PreparedSQL sp = inlineToSqlAndParams(inlineSQL);
+		return (T) nInsert(rsh, sp.getSql(), sp.getParams());
+	}
+
+	/** In-line style execute */
+	public int iExecute(String... inlineSQL) {
+		PreparedSQL sp = inlineToSqlAndParams(inlineSQL);
+		return nExecute(sp.getSql(), sp.getParams());
+	}
+
+	/** Template style query, parameters are cached by put() or replace() */
+	public <T> T xQuery(ResultSetHandler rsh, String... templateSQL) {
+		PreparedSQL sp = templateToSqlAndParams(templateSQL);
+		return (T) nQuery(rsh, sp.getSql(), sp.getParams());
+	}
+
+	/** Template style query for an Object */
+	public <T> T xQueryForObject(String... templateSQL) {
+		return xQuery(new ScalarHandler<T>(1), templateSQL);
+	}
+
+	/** Template style query, force return a long value */
+	public long xQueryForLongValue(String... templateSQL) {
+		return ((Number) xQueryForObject(templateSQL)).longValue();// NOSONAR
+	}
+
+	/** Template style update */
+	public int xUpdate(String... templateSQL) {
+		PreparedSQL sp = templateToSqlAndParams(templateSQL);
+		return nUpdate(sp.getSql(), sp.getParams());
+	}
+
+	/** Template style execute */
+	public int xExecute(String... templateSQL) {
+		PreparedSQL sp = templateToSqlAndParams(templateSQL);
+		return nExecute(sp.getSql(), sp.getParams());
+	}
+
+	/** Start batch mode of this session */
+	public void batchBegin() {
+		DbProSession previous = bind();
+		try {
+			dbPro.batchBegin();
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	/** Force flush cached batch SQLs of this session */
+	public void batchFlush() {
+		DbProSession previous = bind();
+		try {
+			dbPro.batchFlush();
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	/** Flush cached batch SQLs and stop batch mode of this session */
+	public void batchEnd() {
+		DbProSession previous = bind();
+		try {
+			dbPro.batchEnd();
+		} catch (SQLException e) {
+			throw new DbProRuntimeException(e);
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	// ======== getter & setter ========
+
+	/** @return The DbPro this session bind to, throw exception if no */
+	public DbPro getDbPro() {
+		if (dbPro == null)
+			throw new DbProRuntimeException("This DbProSession is not created by a DbPro, can not execute SQL");
+		return dbPro;
+	}
+
+	/** @return true if this session is created by a DbPro */
+	public boolean isExplicit() {
+		return dbPro != null;
+	}
+
+	public ArrayList<Object> getParams() {
+		if (params == null)
+			params = new ArrayList<Object>();
+		return params;
+	}
+
+	public Map<String, Object> getTemplateParams() {
+		if (templateParams == null)
+			templateParams = new HashMap<String, Object>();
+		return templateParams;
+	}
+
+	public Set<String> getReplaceKeys() {
+		if (replaceKeys == null)
+			replaceKeys = new HashSet<String>();
+		return replaceKeys;
+	}
+
+	public ArrayList<ResultSetHandler> getHandlers() {
+		if (handlers == null)
+			handlers = new ArrayList<ResultSetHandler>();
+		return handlers;
+	}
+
+	/** @return true if have handlers */
+	public boolean hasHandlers() {
+		return handlers != null && !handlers.isEmpty();
+	}
+
+	public boolean isBatchEnabled() {
+		return batchEnabled;
+	}
+
+	public void setBatchEnabled(boolean batchEnabled) {
+		this.batchEnabled = batchEnabled;
+	}
+
+	public SqlBatchCache getBatchCache() {
+		if (batchCache == null)
+			batchCache = new SqlBatchCache();
+		return batchCache;
+	}
+
+	public StatementOptionHandler getStatementOption() {
+		return statementOption;
+	}
+
+	public void setStatementOption(StatementOptionHandler statementOption) {
+		this.statementOption = statementOption;
+	}
+}
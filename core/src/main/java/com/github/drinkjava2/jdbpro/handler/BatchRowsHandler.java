@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * BatchRowsHandler is a ResultSetHandler used by insert SQLs in batch mode, it
+ * handles generated keys after its batch group executed. If rows of the group
+ * are discarded without handle (execute failed, or batch cache cleared),
+ * ImprovedQueryRunner call its rowsDiscarded method, so handler can forget
+ * state kept for these rows.
+ * 
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public interface BatchRowsHandler<T> extends ResultSetHandler<T> {
+
+	/**
+	 * Called when cached rows of handler's batch group are discarded without
+	 * calling handle method
+	 */
+	public void rowsDiscarded();
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+
+/**
+ * ConcurrentCacheHandler is a memory cache used to cache SQL query result, it
+ * store values in a SegmentedLruCache, compare to SimpleCacheHandler, reads of
+ * different keys do not block each other, each entry expires exactly after
+ * aliveSeconds, and cache size is limited by entry count and estimated bytes.
+ * A StaleServableValue is kept getStaleMillis() longer than aliveSeconds, so it
+ * can be served while being refreshed.
+ *
+ * Usage: ctx.nQuery(new Wrap(new MapListHandler(), new
+ * ConcurrentCacheHandler(60)), sql, params); or put it in global handlers list
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+@SuppressWarnings("rawtypes")
+public class ConcurrentCacheHandler implements ResultSetHandler, KeyCacheSqlHandler {
+	private static final SegmentedLruCache defaultCache = new SegmentedLruCache();
+	private final SegmentedLruCache cache;
+	private final long aliveMillis;
+
+	/** Use default shared cache, values alive 1000 seconds */
+	public ConcurrentCacheHandler() {
+		this(defaultCache, 1000);
+	}
+
+	/** Use default shared cache, values alive given seconds */
+	public ConcurrentCacheHandler(int aliveSeconds) {
+		this(defaultCache, aliveSeconds);
+	}
+
+	/** Use given cache, values alive given seconds, aliveSeconds should > 0 */
+	public ConcurrentCacheHandler(SegmentedLruCache cache, int aliveSeconds) {
+		if (aliveSeconds <= 0)
+			throw new DbProRuntimeException("ConcurrentCacheHandler aliveSeconds should > 0, but got " + aliveSeconds);
+		this.cache = cache;
+		this.aliveMillis = aliveSeconds * 1000L;
+	}
+
+	@Override
+	public Object handle(ResultSet result) throws SQLException {
+		return result;
+	}
+
+	@Override
+	public void writeToCache(String key, Object value) {
+		if ((key == null || key.length() == 0) || value == null)
+			return;
+		put(key, value);
+	}
+
+	@Override
+	public Object readFromCache(String key) {
+		if ((key == null || key.length() == 0))
+			return null;
+		return cache.get(key);
+	}
+
+	@Override
+	public void writeToCache(SqlCacheKey key, Object value) {
+		if (key == null || value == null)
+			return;
+		put(key, value);
+	}
+
+	@Override
+	public Object readFromCache(SqlCacheKey key) {
+		if (key == null)
+			return null;
+		return cache.get(key);
+	}
+
+	private void put(Object key, Object value) {
+		if (value instanceof StaleServableValue) {
+			StaleServableValue stale = (StaleServableValue) value;
+			stale.setFreshUntil(System.currentTimeMillis() + aliveMillis);
+			cache.put(key, value, aliveMillis + stale.getStaleMillis());
+		} else
+			cache.put(key, value, aliveMillis);
+	}
+
+	public SegmentedLruCache getCache() {
+		return cache;
+	}
+
+	/** @return The default cache shared by handlers not given a cache */
+	public static SegmentedLruCache getDefaultCache() {
+		return defaultCache;
+	}
+
+	public static void clearCache() {
+		defaultCache.clear();
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * GeneratedKeysHandler read auto-generated keys returned by
+ * Statement.getGeneratedKeys(), one key for each inserted row, in insert order.
+ * Some drivers return all columns of inserted rows (PostgreSQL) so key column
+ * is found by given column name, if not found (H2 return "SCOPE_IDENTITY()",
+ * MySQL return "GENERATED_KEY"...), the first column is used.
+ * 
+ * Usage: List<Object> keys = dbPro.nInsert(new GeneratedKeysHandler("id"),
+ * sql, params);
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class GeneratedKeysHandler implements ResultSetHandler<List<Object>> {
+	private final String columnName;
+
+	public GeneratedKeysHandler() {
+		this(null);
+	}
+
+	/**
+	 * @param columnName
+	 *            The key column name, can be null
+	 */
+	public GeneratedKeysHandler(String columnName) {
+		this.columnName = columnName;
+	}
+
+	@Override
+	public List<Object> handle(ResultSet rs) throws SQLException {
+		List<Object> keys = new ArrayList<Object>();
+		int column = 1;
+		if (columnName != null && rs.getMetaData().getColumnCount() > 1)
+			try {
+				column = rs.findColumn(columnName);
+			} catch (SQLException e) {// NOSONAR
+				column = 1;
+			}
+		while (rs.next())
+			keys.add(rs.getObject(column));
+		return keys;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+}
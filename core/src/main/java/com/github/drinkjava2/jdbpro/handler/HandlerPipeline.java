@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * HandlerPipeline is a compiled form of a handlers list, AroundSqlHandlers and
+ * CacheSqlHandlers are picked out once when compile, so each SQL execution do
+ * not need scan the list and check types again. An empty pipeline do nothing.
+ * <br/>
+ *
+ * A pipeline remember the list and its items it compiled from, use
+ * isCompiledFrom method to check if the list changed and need compile again.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+@SuppressWarnings("rawtypes")
+public final class HandlerPipeline {
+	private static final AroundSqlHandler[] NO_AROUND_SQL_HANDLERS = new AroundSqlHandler[0];
+	private static final CacheSqlHandler[] NO_CACHE_HANDLERS = new CacheSqlHandler[0];
+
+	/** An empty pipeline compiled from null */
+	public static final HandlerPipeline EMPTY = new HandlerPipeline(null, new ResultSetHandler[0],
+			NO_AROUND_SQL_HANDLERS, NO_CACHE_HANDLERS);
+
+	private final List<?> source;
+	private final ResultSetHandler[] sourceItems;
+	private final AroundSqlHandler[] aroundSqlHandlers;
+	private final CacheSqlHandler[] cacheHandlers;
+	private final boolean empty;
+
+	private HandlerPipeline(List<?> source, ResultSetHandler[] sourceItems, AroundSqlHandler[] aroundSqlHandlers,
+			CacheSqlHandler[] cacheHandlers) {
+		this.source = source;
+		this.sourceItems = sourceItems;
+		this.aroundSqlHandlers = aroundSqlHandlers;
+		this.cacheHandlers = cacheHandlers;
+		this.empty = aroundSqlHandlers.length == 0 && cacheHandlers.length == 0;
+	}
+
+	/** Compile a handlers list, null or empty list get an empty pipeline */
+	public static HandlerPipeline compile(List<ResultSetHandler> handlers) {
+		if (handlers == null)
+			return EMPTY;
+		ResultSetHandler[] array = handlers.toArray(new ResultSetHandler[handlers.size()]);
+		return compile(handlers, array);
+	}
+
+	/** Compile a handlers array */
+	public static HandlerPipeline compile(ResultSetHandler... handlers) {
+		if (handlers == null || handlers.length == 0)
+			return EMPTY;
+		return compile(null, handlers);
+	}
+
+	private static HandlerPipeline compile(List<?> source, ResultSetHandler[] handlers) {
+		List<AroundSqlHandler> arounds = new ArrayList<AroundSqlHandler>();
+		List<CacheSqlHandler> caches = new ArrayList<CacheSqlHandler>();
+		for (ResultSetHandler handler : handlers) {
+			if (handler instanceof AroundSqlHandler)
+				arounds.add((AroundSqlHandler) handler);
+			if (isCacheHandler(handler))
+				caches.add((CacheSqlHandler) handler);
+		}
+		return new HandlerPipeline(source, handlers,
+				arounds.isEmpty() ? NO_AROUND_SQL_HANDLERS : arounds.toArray(new AroundSqlHandler[arounds.size()]),
+				caches.isEmpty() ? NO_CACHE_HANDLERS : caches.toArray(new CacheSqlHandler[caches.size()]));
+	}
+
+	/**
+	 * @return true if handler is a CacheSqlHandler really store values, a Wrap
+	 *         is a cache only if it wraps a cache
+	 */
+	public static boolean isCacheHandler(Object handler) {
+		if (handler instanceof Wrap)
+			return ((Wrap) handler).getPipeline().getCacheHandlers().length > 0;
+		return handler instanceof CacheSqlHandler;
+	}
+
+	/**
+	 * @return true if this pipeline is compiled from given list and the list still
+	 *         has same handlers in same order
+	 */
+	public boolean isCompiledFrom(List<?> handlers) {
+		if (source != handlers)
+			return false;
+		if (handlers == null)
+			return true;
+		if (sourceItems.length != handlers.size())
+			return false;
+		for (int i = 0; i < sourceItems.length; i++)
+			if (sourceItems[i] != handlers.get(i))
+				return false;
+		return true;
+	}
+
+	/** Call handleSql method of all AroundSqlHandlers in order */
+	public String handleSql(QueryRunner query, String sql, Object... params) {
+		String newSql = sql;
+		for (AroundSqlHandler handler : aroundSqlHandlers)
+			newSql = handler.handleSql(query, newSql, params);
+		return newSql;
+	}
+
+	/** Call handleResult method of all AroundSqlHandlers in order */
+	public Object handleResult(QueryRunner query, Object result) {
+		Object newResult = result;
+		for (AroundSqlHandler handler : aroundSqlHandlers)
+			newResult = handler.handleResult(query, newResult);
+		return newResult;
+	}
+
+	/** @return The first CacheSqlHandler, query result write to it */
+	public CacheSqlHandler getFirstCacheHandler() {
+		return cacheHandlers.length == 0 ? null : cacheHandlers[0];
+	}
+
+	/** @return true if no AroundSqlHandler and no CacheSqlHandler */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	// getter ====
+	public AroundSqlHandler[] getAroundSqlHandlers() {
+		return aroundSqlHandlers;
+	}
+
+	public CacheSqlHandler[] getCacheHandlers() {
+		return cacheHandlers;
+	}
+
+}
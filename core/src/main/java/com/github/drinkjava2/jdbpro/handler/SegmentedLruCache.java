@@ -0,0 +1,319 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SegmentedLruCache is a thread-safe LRU cache divided into segments, each
+ * segment has its own lock, so threads read or write different segments do not
+ * block each other. Each entry has its own expire time, and cache size is
+ * limited by both entry count and estimated bytes, when a segment is full its
+ * expired entries are removed first, then least recently used entries.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class SegmentedLruCache {
+	private final Segment[] segments;
+	private final int segmentMask;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong expirationCount = new AtomicLong();
+
+	/** Cache entry, store value, expire time and estimated size */
+	private static class Entry {
+		final Object value;
+		final long expireAt;
+		final long bytes;
+
+		Entry(Object value, long expireAt, long bytes) {
+			this.value = value;
+			this.expireAt = expireAt;
+			this.bytes = bytes;
+		}
+	}
+
+	/** One segment, an access ordered LinkedHashMap guarded by a lock */
+	@SuppressWarnings("serial")
+	private static class Segment extends ReentrantLock {
+		final LinkedHashMap<Object, Entry> map = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+		final int maxEntries;
+		final long maxBytes;
+		long bytes = 0;
+
+		Segment(int maxEntries, long maxBytes) {
+			this.maxEntries = maxEntries;
+			this.maxBytes = maxBytes;
+		}
+
+		boolean isFull() {
+			return map.size() > maxEntries || bytes > maxBytes;
+		}
+	}
+
+	/**
+	 * Build a SegmentedLruCache with 16 segments, at most 1000 entries and 64M
+	 * estimated bytes
+	 */
+	public SegmentedLruCache() {
+		this(16, 1000, 64L * 1024 * 1024);
+	}
+
+	/**
+	 * Build a SegmentedLruCache
+	 *
+	 * @param segmentCount
+	 *            How many segments, will be round up to power of 2, but not
+	 *            more than maxEntries
+	 * @param maxEntries
+	 *            Max entries can be stored in cache
+	 * @param maxBytes
+	 *            Max estimated bytes can be stored in cache
+	 */
+	public SegmentedLruCache(int segmentCount, int maxEntries, long maxBytes) {
+		int entries = Math.max(1, maxEntries);
+		long bytes = Math.max(1, maxBytes);
+		int count = 1;
+		while (count < segmentCount && (count << 1) <= entries && (count << 1) <= bytes)
+			count <<= 1;
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++)// spread remainder to first segments
+			segments[i] = new Segment(entries / count + (i < entries % count ? 1 : 0),
+					bytes / count + (i < bytes % count ? 1 : 0));
+		segmentMask = count - 1;
+	}
+
+	private Segment segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & segmentMask];
+	}
+
+	/**
+	 * Get value by key, return null if not found or expired
+	 */
+	public Object get(Object key) {
+		if (key == null)
+			return null;
+		Segment seg = segmentFor(key);
+		Entry entry;
+		seg.lock();
+		try {
+			entry = seg.map.get(key);
+			if (entry != null && entry.expireAt <= System.currentTimeMillis()) {
+				seg.map.remove(key);
+				seg.bytes -= entry.bytes;
+				expirationCount.incrementAndGet();
+				entry = null;
+			}
+		} finally {
+			seg.unlock();
+		}
+		if (entry == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * Put value into cache
+	 *
+	 * @param key
+	 *            The key, usually a String or SqlCacheKey
+	 * @param value
+	 *            The value, null value will not be cached
+	 * @param aliveMillis
+	 *            How long the value will be kept, in milliseconds
+	 */
+	public void put(Object key, Object value, long aliveMillis) {
+		if (key == null || value == null)
+			return;
+		long bytes = estimateBytes(key) + estimateBytes(value);
+		Segment seg = segmentFor(key);
+		if (bytes > seg.maxBytes) {// too big to cache, old value is out of date now
+			remove(key);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(value, now + aliveMillis, bytes);
+		seg.lock();
+		try {
+			Entry old = seg.map.put(key, entry);
+			if (old != null)
+				seg.bytes -= old.bytes;
+			seg.bytes += bytes;
+			if (seg.isFull())
+				removeExpired(seg, now);
+			Iterator<Map.Entry<Object, Entry>> it = seg.map.entrySet().iterator();
+			while (seg.isFull() && it.hasNext()) {
+				Map.Entry<Object, Entry> eldest = it.next();
+				if (eldest.getValue() == entry)
+					break;
+				seg.bytes -= eldest.getValue().bytes;
+				it.remove();
+				evictionCount.incrementAndGet();
+			}
+		} finally {
+			seg.unlock();
+		}
+	}
+
+	/** Remove all expired entries of a segment, should be called in its lock */
+	private void removeExpired(Segment seg, long now) {
+		Iterator<Entry> it = seg.map.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.expireAt <= now) {
+				seg.bytes -= entry.bytes;
+				it.remove();
+				expirationCount.incrementAndGet();
+			}
+		}
+	}
+
+	/** Remove a key from cache */
+	public void remove(Object key) {
+		if (key == null)
+			return;
+		Segment seg = segmentFor(key);
+		seg.lock();
+		try {
+			Entry old = seg.map.remove(key);
+			if (old != null)
+				seg.bytes -= old.bytes;
+		} finally {
+			seg.unlock();
+		}
+	}
+
+	/** Clear all entries, counters are not reset */
+	public void clear() {
+		for (Segment seg : segments) {
+			seg.lock();
+			try {
+				seg.map.clear();
+				seg.bytes = 0;
+			} finally {
+				seg.unlock();
+			}
+		}
+	}
+
+	/** @return How many entries in cache, include expired but not removed */
+	public int size() {
+		int size = 0;
+		for (Segment seg : segments) {
+			seg.lock();
+			try {
+				size += seg.map.size();
+			} finally {
+				seg.unlock();
+			}
+		}
+		return size;
+	}
+
+	/** @return Estimated bytes of all entries in cache */
+	public long getEstimatedBytes() {
+		long bytes = 0;
+		for (Segment seg : segments) {
+			seg.lock();
+			try {
+				bytes += seg.bytes;
+			} finally {
+				seg.unlock();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Estimate memory bytes of an object, subclass can override this method to
+	 * give a more exact value
+	 */
+	protected long estimateBytes(Object obj) {
+		return estimateBytes(obj, 0);
+	}
+
+	private static long estimateBytes(Object obj, int depth) {
+		if (obj == null)
+			return 4;
+		if (obj instanceof String)
+			return 40 + 2L * ((String) obj).length();
+		if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character)
+			return 16;
+		if (obj instanceof java.util.Date)
+			return 24;
+		if (depth > 3)
+			return 64;
+		if (obj instanceof SqlCacheKey)
+			return 24 + estimateBytes(((SqlCacheKey) obj).getSql(), depth + 1)
+					+ estimateBytes(((SqlCacheKey) obj).getParams(), depth + 1);
+		if (obj instanceof CacheValueHolder)
+			return 32 + estimateBytes(((CacheValueHolder) obj).getValue(), depth);
+		if (obj instanceof Collection) {
+			long bytes = 40;
+			for (Object item : (Collection<?>) obj)
+				bytes += 8 + estimateBytes(item, depth + 1);
+			return bytes;
+		}
+		if (obj instanceof Map) {
+			long bytes = 48;
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) obj).entrySet())
+				bytes += 32 + estimateBytes(e.getKey(), depth + 1) + estimateBytes(e.getValue(), depth + 1);
+			return bytes;
+		}
+		if (obj instanceof Object[]) {
+			long bytes = 16;
+			for (Object item : (Object[]) obj)
+				bytes += 8 + estimateBytes(item, depth + 1);
+			return bytes;
+		}
+		return 64;
+	}
+
+	// getter ====
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getExpirationCount() {
+		return expirationCount.get();
+	}
+
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+}
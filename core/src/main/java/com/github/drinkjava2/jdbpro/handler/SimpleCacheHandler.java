@@ -21,13 +21,15 @@ import org.apache.commons.dbutils.ResultSetHandler;
 
 /**
  * SimpleCacheHandler is a simple memory cache used to cache SQL query result .
+ * A StaleServableValue is still served getStaleMillis() after its time bucket
+ * expired, so it can be served while being refreshed.
  * 
  * @author Yong Zhu
  * @since 1.7.0.2
  */
 @SuppressWarnings("rawtypes")
-public class SimpleCacheHandler implements ResultSetHandler, CacheSqlHandler {
-	private static final Map<String, Object> cache = Collections.synchronizedMap(new LRULinkedHashMap(500));
+public class SimpleCacheHandler implements ResultSetHandler, KeyCacheSqlHandler {
+	private static final Map<Object, Object> cache = Collections.synchronizedMap(new KeyLRULinkedHashMap(500));
 	private int aliveSeconds;
 
 	public SimpleCacheHandler() {
@@ -58,14 +60,101 @@ public class SimpleCacheHandler implements ResultSetHandler, CacheSqlHandler {
 	public void writeToCache(String key, Object value) {
 		if ((key == null || key.length() == 0) || value == null)
 			return;
-		cache.put(Long.toString(System.currentTimeMillis() / 1000 / aliveSeconds) + key, value);
+		put(key, value);
 	}
 
 	@Override
 	public Object readFromCache(String key) {
 		if ((key == null || key.length() == 0))
 			return null;
-		return cache.get(Long.toString(System.currentTimeMillis() / 1000 / aliveSeconds) + key);
+		return get(key);
+	}
+
+	@Override
+	public void writeToCache(SqlCacheKey key, Object value) {
+		if (key == null || value == null)
+			return;
+		put(key, value);
+	}
+
+	@Override
+	public Object readFromCache(SqlCacheKey key) {
+		if (key == null)
+			return null;
+		return get(key);
+	}
+
+	/**
+	 * Key stored with aliveSeconds, so handlers with different aliveSeconds do
+	 * not share values
+	 */
+	private static class AliveKey {
+		final int aliveSeconds;
+		final Object key;
+
+		AliveKey(int aliveSeconds, Object key) {
+			this.aliveSeconds = aliveSeconds;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof AliveKey))
+				return false;
+			AliveKey other = (AliveKey) o;
+			return aliveSeconds == other.aliveSeconds && key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * key.hashCode() + aliveSeconds;
+		}
+	}
+
+	/**
+	 * Value stored with the time bucket it be written, value of old time bucket
+	 * is treated as expired
+	 */
+	private static class BucketValue {
+		final int aliveSeconds;
+		final long bucket;
+		final Object value;
+
+		BucketValue(int aliveSeconds, Object value) {
+			this.aliveSeconds = aliveSeconds;
+			this.bucket = bucketOf(aliveSeconds);
+			this.value = value;
+		}
+	}
+
+	private static long bucketOf(int aliveSeconds) {
+		return System.currentTimeMillis() / 1000 / aliveSeconds;
+	}
+
+	private void put(Object key, Object value) {
+		BucketValue bv = new BucketValue(aliveSeconds, value);
+		if (value instanceof StaleServableValue)
+			((StaleServableValue) value).setFreshUntil((bv.bucket + 1) * aliveSeconds * 1000L);
+		cache.put(new AliveKey(aliveSeconds, key), bv);
+	}
+
+	private Object get(Object key) {
+		AliveKey aliveKey = new AliveKey(aliveSeconds, key);
+		BucketValue bv = (BucketValue) cache.get(aliveKey);
+		if (bv == null)
+			return null;
+		if (bv.bucket != bucketOf(bv.aliveSeconds)) {
+			if (bv.value instanceof StaleServableValue) {
+				StaleServableValue stale = (StaleServableValue) bv.value;
+				if (System.currentTimeMillis() < (bv.bucket + 1) * bv.aliveSeconds * 1000L + stale.getStaleMillis())
+					return bv.value;
+			}
+			cache.remove(aliveKey);
+			return null;
+		}
+		return bv.value;
 	}
 
 	public static void clearCache() {
@@ -90,4 +179,22 @@ public class SimpleCacheHandler implements ResultSetHandler, CacheSqlHandler {
 		}
 	}
 
+	/**
+	 * LRU Cache of String and SqlCacheKey keys, used as the store of this handler
+	 */
+	@SuppressWarnings("serial")
+	private static class KeyLRULinkedHashMap extends LinkedHashMap<Object, Object> {// NOSONAR
+		private int capacity;
+
+		KeyLRULinkedHashMap(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		public boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+			return size() > capacity;
+		}
+	}
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.util.Arrays;
+
+/**
+ * SqlCacheKey is the cache key of a query, made by SQL and parameters, hash
+ * code is computed only once when created, equals() compare SQL reference
+ * first. toString() return the old style String key, it's only built when be
+ * called, for CacheSqlHandler only accept String key.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public final class SqlCacheKey {
+	private static final Object[] NO_PARAMS = new Object[0];
+
+	private final String sql;
+	private final Object[] params;
+	private final int hash;
+	private String stringKey;
+
+	public SqlCacheKey(String sql, Object... params) {
+		this.sql = sql;
+		this.params = params == null || params.length == 0 ? NO_PARAMS : params.clone();
+		this.hash = 31 * (sql == null ? 0 : sql.hashCode()) + Arrays.deepHashCode(this.params);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof SqlCacheKey))
+			return false;
+		SqlCacheKey other = (SqlCacheKey) obj;
+		if (hash != other.hash)
+			return false;
+		if (sql != other.sql && (sql == null || !sql.equals(other.sql)))// NOSONAR
+			return false;
+		return Arrays.deepEquals(params, other.params);
+	}
+
+	@Override
+	public String toString() {
+		if (stringKey == null)
+			stringKey = new StringBuilder("SQL:").append(sql).append("  Params:").append(Arrays.deepToString(params))
+					.toString();
+		return stringKey;
+	}
+
+	/**
+	 * Read from a CacheSqlHandler, if it's a KeyCacheSqlHandler use SqlCacheKey
+	 * directly, otherwise use String key
+	 */
+	public static Object readFromCache(CacheSqlHandler handler, SqlCacheKey key) {
+		if (handler instanceof KeyCacheSqlHandler)
+			return ((KeyCacheSqlHandler) handler).readFromCache(key);
+		return handler.readFromCache(key.toString());
+	}
+
+	/**
+	 * Write to a CacheSqlHandler, if it's a KeyCacheSqlHandler use SqlCacheKey
+	 * directly, otherwise use String key
+	 */
+	public static void writeToCache(CacheSqlHandler handler, SqlCacheKey key, Object value) {
+		if (handler instanceof KeyCacheSqlHandler)
+			((KeyCacheSqlHandler) handler).writeToCache(key, value);
+		else
+			handler.writeToCache(key.toString(), value);
+	}
+
+	// getter ====
+	public String getSql() {
+		return sql;
+	}
+
+	public Object[] getParams() {
+		return params;
+	}
+
+}
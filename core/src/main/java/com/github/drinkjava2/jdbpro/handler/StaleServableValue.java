@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+/**
+ * StaleServableValue is a cached value can still be served for a while after
+ * its alive time passed, while a background query refresh it. A cache handler
+ * support it should keep the value getStaleMillis() longer than its alive time,
+ * and call setFreshUntil() when store it. Handlers do not support it just
+ * evict the value at its alive time, then no stale value is served.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public interface StaleServableValue extends CacheValueHolder {
+
+	/** @return How many milliseconds the value can be served after expired */
+	public long getStaleMillis();
+
+	/** Set the time value expire and need be refreshed, called by cache handler */
+	public void setFreshUntil(long freshUntil);
+}
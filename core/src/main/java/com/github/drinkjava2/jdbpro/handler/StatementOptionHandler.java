@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.improve.ImprovedQueryRunner;
+
+/**
+ * StatementOptionHandler is an AroundSqlHandler used to override fetchSize,
+ * maxRows and queryTimeout of the statement for one SQL method call, a null
+ * value means use the default value of current DbPro/SqlBoxContext.
+ * 
+ * Usage: ctx.nQuery(new Wrap(new MapListHandler(), new
+ * StatementOptionHandler(1000, null, 30)), sql, params);
+ * 
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+@SuppressWarnings("rawtypes")
+public class StatementOptionHandler implements ResultSetHandler, AroundSqlHandler {
+	private final Integer fetchSize;
+	private final Integer maxRows;
+	private final Integer queryTimeout;
+
+	/**
+	 * @param fetchSize
+	 *            Fetch size, null means use default
+	 * @param maxRows
+	 *            Max rows, null means use default
+	 * @param queryTimeout
+	 *            Query timeout in seconds, null means use default
+	 */
+	public StatementOptionHandler(Integer fetchSize, Integer maxRows, Integer queryTimeout) {
+		this.fetchSize = fetchSize;
+		this.maxRows = maxRows;
+		this.queryTimeout = queryTimeout;
+	}
+
+	@Override
+	public String handleSql(QueryRunner query, String sql, Object... params) {
+		if (query instanceof ImprovedQueryRunner)
+			((ImprovedQueryRunner) query).setCurrentStatementOption(this);
+		return sql;
+	}
+
+	@Override
+	public Object handleResult(QueryRunner query, Object result) {
+		return result;
+	}
+
+	@Override
+	public Object handle(ResultSet result) throws SQLException {
+		return result;
+	}
+
+	public Integer getFetchSize() {
+		return fetchSize;
+	}
+
+	public Integer getMaxRows() {
+		return maxRows;
+	}
+
+	public Integer getQueryTimeout() {
+		return queryTimeout;
+	}
+}
@@ -32,8 +32,9 @@ import com.github.drinkjava2.jdbpro.DbProRuntimeException;
  * @since 1.7.0.2
  */
 @SuppressWarnings({ "all" })
-public class Wrap implements ResultSetHandler, AroundSqlHandler, CacheSqlHandler {
+public class Wrap implements ResultSetHandler, AroundSqlHandler, KeyCacheSqlHandler {
 	private final ResultSetHandler[] handlers;
+	private final HandlerPipeline pipeline;
 
 	public Wrap(Object... handlerClassOrHandlers) {
 		handlers = new ResultSetHandler[handlerClassOrHandlers.length];
@@ -49,26 +50,17 @@ public class Wrap implements ResultSetHandler, AroundSqlHandler, CacheSqlHandler
 				}
 
 		}
+		pipeline = HandlerPipeline.compile(handlers);
 	}
 
 	@Override
 	public String handleSql(QueryRunner query, String sql, Object... params) {
-		String newSql = sql;
-		for (ResultSetHandler handle : handlers) {
-			if (handle instanceof AroundSqlHandler)
-				newSql = ((AroundSqlHandler) handle).handleSql(query, newSql, params);
-		}
-		return newSql;
+		return pipeline.handleSql(query, sql, params);
 	}
 
 	@Override
 	public Object handleResult(QueryRunner query, Object result) {
-		Object newResult = result;
-		for (ResultSetHandler handle : handlers) {
-			if (handle instanceof AroundSqlHandler)
-				newResult = ((AroundSqlHandler) handle).handleResult(query, newResult);
-		}
-		return newResult;
+		return pipeline.handleResult(query, result);
 	}
 
 	@Override
@@ -82,21 +74,40 @@ public class Wrap implements ResultSetHandler, AroundSqlHandler, CacheSqlHandler
 
 	@Override
 	public Object readFromCache(String key) {
-		for (ResultSetHandler handle : handlers)
-			if (handle instanceof CacheSqlHandler) {
-				Object result = ((CacheSqlHandler) handle).readFromCache(key);
-				if (result != null)
-					return result;
-			}
+		for (CacheSqlHandler handle : pipeline.getCacheHandlers()) {
+			Object result = handle.readFromCache(key);
+			if (result != null)
+				return result;
+		}
 		return null;
 	}
 
 	@Override
 	public void writeToCache(String key, Object value) {
-		for (ResultSetHandler handle : handlers)
-			if (handle instanceof CacheSqlHandler) {
-				((CacheSqlHandler) handle).writeToCache(key, value);
-				return;
-			}
+		CacheSqlHandler handle = pipeline.getFirstCacheHandler();
+		if (handle != null)
+			handle.writeToCache(key, value);
+	}
+
+	@Override
+	public Object readFromCache(SqlCacheKey key) {
+		for (CacheSqlHandler handle : pipeline.getCacheHandlers()) {
+			Object result = SqlCacheKey.readFromCache(handle, key);
+			if (result != null)
+				return result;
+		}
+		return null;
+	}
+
+	@Override
+	public void writeToCache(SqlCacheKey key, Object value) {
+		CacheSqlHandler handle = pipeline.getFirstCacheHandler();
+		if (handle != null)
+			SqlCacheKey.writeToCache(handle, key, value);
+	}
+
+	/** @return The pipeline compiled from wrapped handlers */
+	public HandlerPipeline getPipeline() {
+		return pipeline;
 	}
 }
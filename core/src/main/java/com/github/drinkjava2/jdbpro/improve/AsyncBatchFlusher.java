@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+
+/**
+ * AsyncBatchFlusher is a write-behind batch executor, if set to an
+ * ImprovedQueryRunner, full batch groups will be put into a bounded queue and
+ * executed by dedicated flusher threads, each batch get its own connection from
+ * DataSource or ConnectionManager, so caller thread need not wait database
+ * round trip. <br/>
+ *
+ * Note:<br/>
+ * 1) If queue is full, caller thread will be blocked until queue has space<br/>
+ * 2) Batch groups which bind to a given Connection are still executed in caller
+ * thread<br/>
+ * 3) Batches executed by flusher threads are out of caller's transaction<br/>
+ * 4) If more than 1 flusher threads, there is no execute order guarantee
+ * between batches, use 1 thread if need keep order <br/>
+ * 5) Failures be reported to caller at next batch SQL call or at batchEnd()
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class AsyncBatchFlusher {
+	private final BlockingQueue<BatchJob> queue;
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private final Object lock = new Object();
+	private int inFlight = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * Build an AsyncBatchFlusher
+	 *
+	 * @param threads
+	 *            How many flusher threads
+	 * @param queueCapacity
+	 *            Max batch groups can be put in queue
+	 */
+	public AsyncBatchFlusher(int threads, int queueCapacity) {
+		if (threads < 1 || queueCapacity < 1)
+			throw new DbProRuntimeException("AsyncBatchFlusher threads and queueCapacity should be bigger than 0");
+		queue = new ArrayBlockingQueue<BatchJob>(queueCapacity);
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "AsyncBatchFlusher-" + i);
+			t.setDaemon(true);
+			workers.add(t);
+			t.start();
+		}
+	}
+
+	/** A batch group waiting to be executed */
+	private static class BatchJob {
+		final ImprovedQueryRunner runner;
+		final SqlBatchBuffer buffer;
+		final SqlBatchCache owner;
+
+		BatchJob(ImprovedQueryRunner runner, SqlBatchBuffer buffer, SqlBatchCache owner) {
+			this.runner = runner;
+			this.buffer = buffer;
+			this.owner = owner;
+		}
+	}
+
+	/**
+	 * Put a batch group into queue, if queue is full, block until queue has space
+	 */
+	void submit(ImprovedQueryRunner runner, SqlBatchBuffer buffer, SqlBatchCache owner) {
+		synchronized (lock) {// close() can not slip in between check and count
+			if (closed)
+				throw new DbProRuntimeException("AsyncBatchFlusher already closed");
+			inFlight++;
+		}
+		owner.asyncSubmitted();
+		BatchJob job = new BatchJob(runner, buffer, owner);
+		try {
+			queue.put(job);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			finished(job, e);
+			throw new DbProRuntimeException("Interrupted when put batch into AsyncBatchFlusher queue", e);
+		}
+	}
+
+	private void work() {
+		while (!closed || !queue.isEmpty()) {
+			BatchJob job;
+			try {
+				job = queue.take();
+			} catch (InterruptedException e) {// NOSONAR loop exit when closed and queue empty
+				continue;
+			}
+			Throwable failure = null;
+			try {
+				job.runner.executeBatchBufferInFlusher(job.buffer);
+			} catch (Throwable e) {// NOSONAR
+				failure = e;
+			}
+			finished(job, failure);
+		}
+	}
+
+	private void finished(BatchJob job, Throwable failure) {
+		synchronized (lock) {
+			inFlight--;
+			lock.notifyAll();
+		}
+		job.owner.asyncFinished(failure);
+	}
+
+	/**
+	 * Block until all batches in queue (submitted by all threads) be executed
+	 */
+	public void flushAndWait() {
+		synchronized (lock) {
+			waitIdle();
+		}
+	}
+
+	/** Wait until inFlight drop to 0, should be called in lock */
+	private void waitIdle() {
+		while (inFlight > 0)
+			try {
+				lock.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DbProRuntimeException("Interrupted when wait AsyncBatchFlusher", e);
+			}
+	}
+
+	/**
+	 * Wait all batches be executed, then stop flusher threads, batches submitted
+	 * before close() are always executed, later ones are rejected
+	 */
+	public void close() {
+		synchronized (lock) {
+			waitIdle();
+			closed = true;
+		}
+		for (Thread t : workers)
+			t.interrupt();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/** @return How many batches submitted but not finished */
+	public int getInFlight() {
+		synchronized (lock) {
+			return inFlight;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+
+/**
+ * AsyncQueryExecutor run asynchronous SQL methods like nQueryAsync, it has a
+ * fixed number of threads and a bounded queue, threads should be sized to the
+ * connection pool, so asynchronous calls never wait for connections inside
+ * worker threads. <br/>
+ *
+ * Note:<br/>
+ * 1) If queue is full, caller thread will be blocked until queue has space, if
+ * executor be closed meanwhile, the task is cancelled and an exception thrown<br/>
+ * 2) SQL methods run in worker threads get their own connections from
+ * DataSource or ConnectionManager, so are out of caller's transaction<br/>
+ * 3) If no AsyncQueryExecutor is set, a default one with 10 threads is used
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class AsyncQueryExecutor {
+	private static AsyncQueryExecutor defaultExecutor = null;
+
+	private final ThreadPoolExecutor executor;
+	private final int threads;
+
+	/**
+	 * Build an AsyncQueryExecutor
+	 *
+	 * @param threads
+	 *            How many worker threads, usually same as max connections of
+	 *            connection pool
+	 * @param queueCapacity
+	 *            Max tasks waiting in queue
+	 */
+	public AsyncQueryExecutor(int threads, int queueCapacity) {
+		if (threads < 1 || queueCapacity < 1)
+			throw new DbProRuntimeException("AsyncQueryExecutor threads and queueCapacity should be bigger than 0");
+		this.threads = threads;
+		final AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "AsyncQueryExecutor-" + count.getAndIncrement());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor pool) {
+						if (pool.isShutdown())
+							throw new DbProRuntimeException("AsyncQueryExecutor already closed");
+						try {
+							pool.getQueue().put(r);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new DbProRuntimeException("Interrupted when put task into AsyncQueryExecutor queue", e);
+						}
+						if (pool.isShutdown() && pool.remove(r)) {// closed while waiting, no worker may take it
+							if (r instanceof Future)
+								((Future<?>) r).cancel(false);
+							throw new DbProRuntimeException("AsyncQueryExecutor already closed");
+						}
+					}
+				});
+	}
+
+	/** @return The default AsyncQueryExecutor, 10 threads, queue capacity 1000 */
+	public static synchronized AsyncQueryExecutor getDefault() {
+		if (defaultExecutor == null || defaultExecutor.isClosed())
+			defaultExecutor = new AsyncQueryExecutor(10, 1000);
+		return defaultExecutor;
+	}
+
+	/** Submit a task, if queue is full, block until queue has space */
+	public <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/** Stop accept new tasks, wait running and queued tasks finished */
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbProRuntimeException("Interrupted when close AsyncQueryExecutor", e);
+		}
+	}
+
+	public boolean isClosed() {
+		return executor.isShutdown();
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/** @return How many tasks are running */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/** @return How many tasks are waiting in queue */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.drinkjava2.jdbpro.DbProLogger;
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+
+/**
+ * AsyncSqlLogger is a SQL logger can be used in production, if set to an
+ * ImprovedQueryRunner, each executed statement's SQL, parameters, elapsed time
+ * and row count are recorded, but only statements slower than slowMillis and
+ * passed sampling be put into a bounded queue, SQL and parameters are formatted
+ * and logged by a background thread. <br/>
+ *
+ * Note:<br/>
+ * 1) If queue is full, log records are dropped, caller thread never blocked
+ * <br/>
+ * 2) Cache hits do not execute statement so are not logged <br/>
+ * 3) For batch, parameters are not logged, row count is the total affected rows
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class AsyncSqlLogger {
+	private final DbProLogger logger;
+	private final double sampleRate;
+	private final long slowNanos;
+	private final BlockingQueue<SqlLogRecord> queue;
+	private final Thread worker;
+	private final AtomicLong sampleCounter = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong loggedCount = new AtomicLong();
+	private final AtomicInteger pending = new AtomicInteger();
+	/** flush() waits on it, only notified when pending drops to 0 */
+	private final Object lock = new Object();
+	private volatile boolean closed = false;
+
+	/** One executed statement waiting to be logged */
+	public static class SqlLogRecord {
+		private final String sql;
+		private final Object[] params;
+		private final long elapsedNanos;
+		private final int rows;
+
+		SqlLogRecord(String sql, Object[] params, long elapsedNanos, int rows) {
+			this.sql = sql;
+			this.params = params;
+			this.elapsedNanos = elapsedNanos;
+			this.rows = rows;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		/** @return Parameters, null for batch */
+		public Object[] getParams() {
+			return params;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		/** @return Rows be read or affected, -1 if unknown */
+		public int getRows() {
+			return rows;
+		}
+	}
+
+	/**
+	 * Build an AsyncSqlLogger with a queue can store 10000 log records
+	 *
+	 * @param logger
+	 *            The logger to output
+	 * @param sampleRate
+	 *            A number between 0 and 1, for example 0.01 means log 1 of 100
+	 *            statements, 1 means log all statements
+	 * @param slowMillis
+	 *            Only log statements take more milliseconds than it, 0 means log
+	 *            all statements
+	 */
+	public AsyncSqlLogger(DbProLogger logger, double sampleRate, long slowMillis) {
+		this(logger, sampleRate, slowMillis, 10000);
+	}
+
+	/**
+	 * Build an AsyncSqlLogger
+	 *
+	 * @param logger
+	 *            The logger to output
+	 * @param sampleRate
+	 *            A number between 0 and 1, for example 0.01 means log 1 of 100
+	 *            statements, 1 means log all statements
+	 * @param slowMillis
+	 *            Only log statements take more milliseconds than it, 0 means log
+	 *            all statements
+	 * @param queueCapacity
+	 *            Max log records can be put in queue
+	 */
+	public AsyncSqlLogger(DbProLogger logger, double sampleRate, long slowMillis, int queueCapacity) {
+		if (logger == null)
+			throw new DbProRuntimeException("AsyncSqlLogger logger can not be null");
+		if (queueCapacity < 1)
+			throw new DbProRuntimeException("AsyncSqlLogger queueCapacity should be bigger than 0");
+		this.logger = logger;
+		this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+		this.slowNanos = slowMillis * 1000000L;
+		this.queue = new ArrayBlockingQueue<SqlLogRecord>(queueCapacity);
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "AsyncSqlLogger");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Return true if a statement take given nanoseconds should be logged, only
+	 * statements slower than threshold are counted for sampling
+	 */
+	public boolean isLoggable(long elapsedNanos) {
+		if (closed || elapsedNanos < slowNanos || sampleRate <= 0)
+			return false;
+		if (sampleRate >= 1)
+			return true;
+		long n = sampleCounter.incrementAndGet();
+		return (long) (n * sampleRate) != (long) ((n - 1) * sampleRate);
+	}
+
+	/**
+	 * Put a log record into queue without format it, if queue is full the record
+	 * is dropped
+	 */
+	public void log(String sql, Object[] params, long elapsedNanos, int rows) {
+		SqlLogRecord record = new SqlLogRecord(sql, params == null ? null : params.clone(), elapsedNanos, rows);
+		pending.incrementAndGet();
+		if (!queue.offer(record)) {
+			droppedCount.incrementAndGet();
+			finished(false);
+		}
+	}
+
+	private void work() {
+		while (!closed || !queue.isEmpty()) {
+			SqlLogRecord record;
+			try {
+				record = queue.take();
+			} catch (InterruptedException e) {
+				if (closed)
+					return;
+				continue;
+			}
+			try {
+				logger.info(format(record));
+			} catch (Exception e) {// NOSONAR
+				// a logger failure should not stop logger thread
+			}
+			finished(true);
+		}
+	}
+
+	private void finished(boolean logged) {
+		if (logged)
+			loggedCount.incrementAndGet();
+		if (pending.decrementAndGet() == 0)
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+	}
+
+	/**
+	 * Format a log record, subclass can override this method to customise output
+	 */
+	protected String format(SqlLogRecord record) {
+		StringBuilder sb = new StringBuilder(record.getSql().length() + 64);
+		sb.append(slowNanos > 0 ? "Slow SQL: " : "SQL: ").append(record.getSql());
+		if (record.getParams() != null)
+			sb.append("  Parameters: ").append(Arrays.deepToString(record.getParams()));
+		sb.append("  Time: ").append(record.getElapsedNanos() / 1000000.0).append(" ms");
+		if (record.getRows() >= 0)
+			sb.append("  Rows: ").append(record.getRows());
+		return sb.toString();
+	}
+
+	/** Block until all log records in queue be logged */
+	public void flush() {
+		synchronized (lock) {
+			while (pending.get() > 0)
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new DbProRuntimeException("Interrupted when wait AsyncSqlLogger", e);
+				}
+		}
+	}
+
+	/** Log all records in queue, then stop logger thread */
+	public void close() {
+		flush();
+		closed = true;
+		worker.interrupt();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/** @return How many log records be logged */
+	public long getLoggedCount() {
+		return loggedCount.get();
+	}
+
+	/** @return How many log records be dropped because queue is full */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	public long getSlowMillis() {
+		return slowNanos / 1000000L;
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+/**
+ * BatchMode decide how ImprovedQueryRunner group SQLs in batch mode (between
+ * batchBegin() and batchEnd())
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public enum BatchMode {
+	/**
+	 * Only keep one group, if SQL/handler/connection changed, flush cached SQLs
+	 * first, execute order is exactly same as SQL order, this is default mode
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * Keep one group for each different SQL/handler/connection, each group be
+	 * flushed when reach batchSize or batchEnd() be called, no execute order
+	 * guarantee between groups
+	 */
+	GROUPED,
+
+	/**
+	 * Same as GROUPED, but when a group be flushed, all groups which appeared
+	 * earlier will be flushed first, so if parent table SQLs always appear before
+	 * child table SQLs (for example insert parent first then insert child), they
+	 * will be executed in table dependency order and not break foreign keys
+	 */
+	GROUPED_ORDERED
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+/**
+ * BatchType tell ImprovedQueryRunner how to send a group of cached batch SQL to
+ * JDBC driver
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public enum BatchType {
+	/**
+	 * execute/update methods, send to JDBC by executeBatch(), results be ignored
+	 */
+	BATCH,
+
+	/**
+	 * insert methods or execute methods with a handler, send to JDBC by
+	 * executeBatch() and give generated keys to the handler
+	 */
+	INSERT_BATCH
+}
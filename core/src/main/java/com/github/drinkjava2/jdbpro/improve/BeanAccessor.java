@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+
+/**
+ * BeanAccessor store read and write methods of a bean class, it's built only
+ * once for each class and shared by template engines, inline methods and
+ * entity parser, so no need call Introspector or build PropertyDescriptor for
+ * each SQL. Methods are set accessible to skip access check when invoke. <br/>
+ *
+ * Properties are in the same order as Introspector returned (sorted by name),
+ * the "class" property is excluded.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public final class BeanAccessor {
+	private static final ConcurrentHashMap<Class<?>, BeanAccessor> accessors = new ConcurrentHashMap<Class<?>, BeanAccessor>();
+
+	private final Class<?> beanClass;
+	private final String[] propertyNames;
+	private final Method[] readMethods;
+	private final Method[] writeMethods;
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+	private BeanAccessor(Class<?> beanClass) {
+		this.beanClass = beanClass;
+		PropertyDescriptor[] pds;
+		try {
+			BeanInfo beanInfo = Introspector.getBeanInfo(beanClass);
+			pds = beanInfo.getPropertyDescriptors();
+		} catch (Exception e) {
+			throw new DbProRuntimeException("Fail to get bean properties of class " + beanClass, e);
+		}
+		List<PropertyDescriptor> list = new ArrayList<PropertyDescriptor>();
+		if (pds != null)
+			for (PropertyDescriptor pd : pds)
+				if (!"class".equals(pd.getName()))
+					list.add(pd);
+		propertyNames = new String[list.size()];
+		readMethods = new Method[list.size()];
+		writeMethods = new Method[list.size()];
+		for (int i = 0; i < list.size(); i++) {
+			PropertyDescriptor pd = list.get(i);
+			propertyNames[i] = pd.getName();
+			readMethods[i] = accessible(pd.getReadMethod());
+			writeMethods[i] = accessible(pd.getWriteMethod());
+			indexes.put(pd.getName(), i);
+		}
+	}
+
+	private static Method accessible(Method method) {
+		if (method != null)
+			try {
+				method.setAccessible(true);
+			} catch (SecurityException e) {// NOSONAR
+				// keep access check
+			}
+		return method;
+	}
+
+	/** @return The shared BeanAccessor of given class, build it if not found */
+	public static BeanAccessor of(Class<?> beanClass) {
+		BeanAccessor accessor = accessors.get(beanClass);
+		if (accessor == null) {
+			accessor = new BeanAccessor(beanClass);
+			BeanAccessor old = accessors.putIfAbsent(beanClass, accessor);
+			if (old != null)
+				accessor = old;
+		}
+		return accessor;
+	}
+
+	/** @return Index of property, or -1 if not found */
+	public int indexOf(String propertyName) {
+		Integer index = indexes.get(propertyName);
+		return index == null ? -1 : index;
+	}
+
+	/** @return true if property exists and has a read method */
+	public boolean isReadable(String propertyName) {
+		int index = indexOf(propertyName);
+		return index >= 0 && readMethods[index] != null;
+	}
+
+	/** @return true if property exists and has a write method */
+	public boolean isWritable(String propertyName) {
+		int index = indexOf(propertyName);
+		return index >= 0 && writeMethods[index] != null;
+	}
+
+	/** Read property value of bean by property index */
+	public Object getValue(Object bean, int index) {
+		Method method = readMethods[index];
+		if (method == null)
+			throw new DbProRuntimeException(
+					"No read method found for property '" + propertyNames[index] + "' of class " + beanClass);
+		try {
+			return method.invoke(bean);
+		} catch (Exception e) {
+			throw new DbProRuntimeException(
+					"Fail to read property '" + propertyNames[index] + "' of class " + beanClass, e);
+		}
+	}
+
+	/** Read property value of bean by property name */
+	public Object getValue(Object bean, String propertyName) {
+		int index = indexOf(propertyName);
+		if (index < 0)
+			throw new DbProRuntimeException("No property '" + propertyName + "' found in class " + beanClass);
+		return getValue(bean, index);
+	}
+
+	/** Write property value of bean by property index */
+	public void setValue(Object bean, int index, Object value) {
+		Method method = writeMethods[index];
+		if (method == null)
+			throw new DbProRuntimeException(
+					"No write method found for property '" + propertyNames[index] + "' of class " + beanClass);
+		try {
+			method.invoke(bean, value);
+		} catch (Exception e) {
+			throw new DbProRuntimeException(
+					"Fail to write property '" + propertyNames[index] + "' of class " + beanClass, e);
+		}
+	}
+
+	/** Write property value of bean by property name */
+	public void setValue(Object bean, String propertyName, Object value) {
+		int index = indexOf(propertyName);
+		if (index < 0)
+			throw new DbProRuntimeException("No property '" + propertyName + "' found in class " + beanClass);
+		setValue(bean, index, value);
+	}
+
+	// getter ====
+	public Class<?> getBeanClass() {
+		return beanClass;
+	}
+
+	/** @return How many properties, "class" property not included */
+	public int getPropertyCount() {
+		return propertyNames.length;
+	}
+
+	public String getPropertyName(int index) {
+		return propertyNames[index];
+	}
+
+	public Method getReadMethod(int index) {
+		return readMethods[index];
+	}
+
+	public Method getWriteMethod(int index) {
+		return writeMethods[index];
+	}
+}
@@ -18,22 +18,31 @@ package com.github.drinkjava2.jdbpro.improve;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.sql.DataSource;
 
+import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.ResultSetHandler;
 
 import com.github.drinkjava2.jdbpro.DbPro;
 import com.github.drinkjava2.jdbpro.DbProLogger;
-import com.github.drinkjava2.jdbpro.DbProRuntimeException;
 import com.github.drinkjava2.jdbpro.DbProLogger.DefaultDbProLogger;
+import com.github.drinkjava2.jdbpro.DbProSession;
 import com.github.drinkjava2.jdbpro.handler.AroundSqlHandler;
 import com.github.drinkjava2.jdbpro.handler.CacheSqlHandler;
+import com.github.drinkjava2.jdbpro.handler.HandlerPipeline;
+import com.github.drinkjava2.jdbpro.handler.SqlCacheKey;
+import com.github.drinkjava2.jdbpro.handler.StatementOptionHandler;
 import com.github.drinkjava2.jdbpro.template.NamedParamSqlTemplate;
 import com.github.drinkjava2.jdbpro.template.SqlTemplateEngine;
 import com.github.drinkjava2.jtransactions.ConnectionManager;
@@ -55,11 +64,31 @@ import com.github.drinkjava2.jtransactions.ConnectionManager;
  */
 @SuppressWarnings({ "all" })
 public class ImprovedQueryRunner extends QueryRunner {
+	/** Max rows in one multiple rows insert SQL */
+	protected static final int MAX_ROWS_PER_INSERT = 1000;
+
+	/** Key prefix of CallableStatements in statement cache */
+	private static final String CALL_KEY_PREFIX = "{call}";
+
 	protected static Boolean globalAllowShowSql = false;
 	protected static ConnectionManager globalConnectionManager = null;
 	protected static List<ResultSetHandler> globalHandlers = null;
 	protected static DbProLogger globalLogger = DefaultDbProLogger.getLog(ImprovedQueryRunner.class);
 	protected static Integer globalBatchSize = 100;
+	protected static BatchMode globalBatchMode = BatchMode.SEQUENTIAL;
+	protected static Integer globalMaxBatchGroups = 100;
+	protected static AsyncBatchFlusher globalAsyncBatchFlusher = null;
+	protected static AsyncQueryExecutor globalAsyncQueryExecutor = null;
+	protected static Boolean globalMultiRowInsert = false;
+	protected static Boolean globalSingleFlightCache = false;
+	protected static Integer globalCacheRefreshSeconds = 0;
+	protected static Integer globalStreamFetchSize = 500;
+	protected static Integer globalFetchSize = 0;
+	protected static Integer globalMaxRows = 0;
+	protected static Integer globalQueryTimeout = 0;
+	protected static Integer globalStatementCacheSize = 0;
+	protected static AsyncSqlLogger globalSqlLogger = null;
+	protected static SqlMetricsListener globalMetricsListener = null;
 	protected static SqlTemplateEngine globalTemplateEngine = NamedParamSqlTemplate.instance();
 
 	protected SqlTemplateEngine sqlTemplateEngine = globalTemplateEngine;
@@ -67,40 +96,57 @@ public class ImprovedQueryRunner extends QueryRunner {
 	protected Boolean allowShowSQL = globalAllowShowSql;
 	protected DbProLogger logger = globalLogger;
 	protected Integer batchSize = globalBatchSize;
+	protected BatchMode batchMode = globalBatchMode;
+	protected Integer maxBatchGroups = globalMaxBatchGroups;
+	protected AsyncBatchFlusher asyncBatchFlusher = globalAsyncBatchFlusher;
+	protected AsyncQueryExecutor asyncQueryExecutor = globalAsyncQueryExecutor;
+	protected Boolean multiRowInsert = globalMultiRowInsert;
+	protected Boolean singleFlightCache = globalSingleFlightCache;
+	protected Integer cacheRefreshSeconds = globalCacheRefreshSeconds;
+	protected Integer streamFetchSize = globalStreamFetchSize;
+	protected Integer fetchSize = globalFetchSize;
+	protected Integer maxRows = globalMaxRows;
+	protected Integer queryTimeout = globalQueryTimeout;
+	protected Integer statementCacheSize = globalStatementCacheSize;
+	protected AsyncSqlLogger sqlLogger = globalSqlLogger;
+	protected SqlMetricsListener metricsListener = globalMetricsListener;
 	protected List<ResultSetHandler> handlers = globalHandlers;
 
-	/**
-	 * A ThreadLocal type cache to store handlers, all handlers will be cleaned
-	 * after any SQL method be executed
-	 */
-	private static ThreadLocal<ArrayList<ResultSetHandler>> threadedHandlers = new ThreadLocal<ArrayList<ResultSetHandler>>() {
-		@Override
-		protected ArrayList<ResultSetHandler> initialValue() {
-			return new ArrayList<ResultSetHandler>();
-		}
-	};
+	/** Compiled from handlers list, compile again if handlers list changed */
+	private HandlerPipeline handlerPipeline = HandlerPipeline.EMPTY;
 
 	/**
-	 * A ThreadLocal type tag to indicate current all SQL operations should be
-	 * cached
+	 * Session of current thread used by ThreadLocal style static methods like
+	 * param(), put() and getThreadedHandlers(), handlers will be cleaned after any
+	 * SQL method be executed
 	 */
-	private ThreadLocal<Boolean> batchEnabled = new ThreadLocal<Boolean>() {
+	private static ThreadLocal<DbProSession> threadSession = new ThreadLocal<DbProSession>() {
 		@Override
-		protected Boolean initialValue() {
-			return false;
+		protected DbProSession initialValue() {
+			return new DbProSession();
 		}
 	};
 
 	/**
-	 * A ThreadLocal type cache to store batch SQL and parameters
+	 * Session used by current SQL method call in current thread, store batch
+	 * state and statement option, an explicit DbProSession is bound to it only
+	 * during its SQL method call
 	 */
-	private ThreadLocal<ArrayList<Object[]>> sqlBatchCache = new ThreadLocal<ArrayList<Object[]>>() {
+	private ThreadLocal<DbProSession> currentSession = new ThreadLocal<DbProSession>() {
 		@Override
-		protected ArrayList<Object[]> initialValue() {
-			return new ArrayList<Object[]>();
+		protected DbProSession initialValue() {
+			return new DbProSession();
 		}
 	};
 
+	/** PreparedStatement cache, created when first used */
+	private PreparedStatementCache statementCache;
+	/** Set when a SQL method call failed, its statement will not be cached */
+	private final ThreadLocal<Boolean> statementFailed = new ThreadLocal<Boolean>();
+
+	/** Coalesce concurrent queries of same cache key */
+	private final SingleFlight singleFlight = new SingleFlight();
+
 	public ImprovedQueryRunner() {
 		super();
 	}
@@ -127,8 +173,74 @@ public class ImprovedQueryRunner extends QueryRunner {
 		return batchSize;
 	}
 
+	public BatchMode getBatchMode() {
+		return batchMode;
+	}
+
+	public Integer getMaxBatchGroups() {
+		return maxBatchGroups;
+	}
+
+	public AsyncBatchFlusher getAsyncBatchFlusher() {
+		return asyncBatchFlusher;
+	}
+
+	public AsyncQueryExecutor getAsyncQueryExecutor() {
+		return asyncQueryExecutor;
+	}
+
+	public Boolean getMultiRowInsert() {
+		return multiRowInsert;
+	}
+
+	public Boolean getSingleFlightCache() {
+		return singleFlightCache;
+	}
+
+	public Integer getCacheRefreshSeconds() {
+		return cacheRefreshSeconds;
+	}
+
+	public Integer getStreamFetchSize() {
+		return streamFetchSize;
+	}
+
+	public Integer getFetchSize() {
+		return fetchSize;
+	}
+
+	public Integer getMaxRows() {
+		return maxRows;
+	}
+
+	public Integer getQueryTimeout() {
+		return queryTimeout;
+	}
+
+	public Integer getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * @return The PreparedStatement cache, null if statementCacheSize is not
+	 *         greater than 0
+	 */
+	public synchronized PreparedStatementCache getStatementCache() {
+		if (statementCache == null && statementCacheSize != null && statementCacheSize > 0)
+			statementCache = new PreparedStatementCache(statementCacheSize);
+		return statementCache;
+	}
+
+	public AsyncSqlLogger getSqlLogger() {
+		return sqlLogger;
+	}
+
+	public SqlMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
 	public boolean isBatchEnabled() {
-		return batchEnabled.get();
+		return currentSession.get().isBatchEnabled();
 	}
 
 	public static DbProLogger getGlobalLogger() {
@@ -147,6 +259,122 @@ public class ImprovedQueryRunner extends QueryRunner {
 		ImprovedQueryRunner.globalBatchSize = globalBatchSize;
 	}
 
+	public static BatchMode getGlobalBatchMode() {
+		return globalBatchMode;
+	}
+
+	public static void setGlobalBatchMode(BatchMode globalBatchMode) {
+		ImprovedQueryRunner.globalBatchMode = globalBatchMode;
+	}
+
+	public static Integer getGlobalMaxBatchGroups() {
+		return globalMaxBatchGroups;
+	}
+
+	public static void setGlobalMaxBatchGroups(Integer globalMaxBatchGroups) {
+		ImprovedQueryRunner.globalMaxBatchGroups = globalMaxBatchGroups;
+	}
+
+	public static AsyncBatchFlusher getGlobalAsyncBatchFlusher() {
+		return globalAsyncBatchFlusher;
+	}
+
+	public static void setGlobalAsyncBatchFlusher(AsyncBatchFlusher globalAsyncBatchFlusher) {
+		ImprovedQueryRunner.globalAsyncBatchFlusher = globalAsyncBatchFlusher;
+	}
+
+	public static AsyncQueryExecutor getGlobalAsyncQueryExecutor() {
+		return globalAsyncQueryExecutor;
+	}
+
+	public static void setGlobalAsyncQueryExecutor(AsyncQueryExecutor globalAsyncQueryExecutor) {
+		ImprovedQueryRunner.globalAsyncQueryExecutor = globalAsyncQueryExecutor;
+	}
+
+	public static Boolean getGlobalMultiRowInsert() {
+		return globalMultiRowInsert;
+	}
+
+	public static void setGlobalMultiRowInsert(Boolean globalMultiRowInsert) {
+		ImprovedQueryRunner.globalMultiRowInsert = globalMultiRowInsert;
+	}
+
+	public static Boolean getGlobalSingleFlightCache() {
+		return globalSingleFlightCache;
+	}
+
+	public static void setGlobalSingleFlightCache(Boolean globalSingleFlightCache) {
+		ImprovedQueryRunner.globalSingleFlightCache = globalSingleFlightCache;
+	}
+
+	public static Integer getGlobalCacheRefreshSeconds() {
+		return globalCacheRefreshSeconds;
+	}
+
+	/**
+	 * Set how many seconds a cached value can still be served after cache
+	 * handler's alive time, while a background query refresh it, 0 means disabled
+	 */
+	public static void setGlobalCacheRefreshSeconds(Integer globalCacheRefreshSeconds) {
+		ImprovedQueryRunner.globalCacheRefreshSeconds = globalCacheRefreshSeconds;
+	}
+
+	public static Integer getGlobalStreamFetchSize() {
+		return globalStreamFetchSize;
+	}
+
+	public static void setGlobalStreamFetchSize(Integer globalStreamFetchSize) {
+		ImprovedQueryRunner.globalStreamFetchSize = globalStreamFetchSize;
+	}
+
+	public static Integer getGlobalFetchSize() {
+		return globalFetchSize;
+	}
+
+	public static void setGlobalFetchSize(Integer globalFetchSize) {
+		ImprovedQueryRunner.globalFetchSize = globalFetchSize;
+	}
+
+	public static Integer getGlobalMaxRows() {
+		return globalMaxRows;
+	}
+
+	public static void setGlobalMaxRows(Integer globalMaxRows) {
+		ImprovedQueryRunner.globalMaxRows = globalMaxRows;
+	}
+
+	public static Integer getGlobalQueryTimeout() {
+		return globalQueryTimeout;
+	}
+
+	public static void setGlobalQueryTimeout(Integer globalQueryTimeout) {
+		ImprovedQueryRunner.globalQueryTimeout = globalQueryTimeout;
+	}
+
+	public static Integer getGlobalStatementCacheSize() {
+		return globalStatementCacheSize;
+	}
+
+	public static void setGlobalStatementCacheSize(Integer globalStatementCacheSize) {
+		ImprovedQueryRunner.globalStatementCacheSize = globalStatementCacheSize;
+	}
+
+	public static AsyncSqlLogger getGlobalSqlLogger() {
+		return globalSqlLogger;
+	}
+
+	public static void setGlobalSqlLogger(AsyncSqlLogger globalSqlLogger) {
+		ImprovedQueryRunner.globalSqlLogger = globalSqlLogger;
+	}
+
+	public static SqlMetricsListener getGlobalMetricsListener() {
+		return globalMetricsListener;
+	}
+
+	public static void setGlobalMetricsListener(SqlMetricsListener globalMetricsListener) {
+		ImprovedQueryRunner.globalMetricsListener = globalMetricsListener;
+	}
+
 	public static SqlTemplateEngine getGlobalTemplateEngine() {
 		return globalTemplateEngine;
 	}
@@ -157,12 +385,65 @@ public class ImprovedQueryRunner extends QueryRunner {
 
 	// End of getter & setters
 
+	/**
+	 * Release connection, if statement cache is enabled, close cached statements
+	 * of this connection before it be closed, or after found it be closed by
+	 * ConnectionManager. A connection not in auto commit mode may be kept by a
+	 * transaction, its statements are kept for next use, when the transaction
+	 * end and ConnectionManager close it, the statements are closed by the
+	 * periodical check of PreparedStatementCache.
+	 */
 	@Override
 	public void close(Connection conn) throws SQLException {
+		PreparedStatementCache cache = statementCache;
+		boolean keepStatements = false;
+		if (cache != null && conn != null && cache.contains(conn)) {
+			keepStatements = connectionManager != null && !conn.getAutoCommit();
+			if (!keepStatements)
+				cache.closeStatements(conn);
+		}
 		if (connectionManager == null)
 			super.close(conn);
 		else
 			connectionManager.releaseConnection(conn, this.getDataSource());
+		if (keepStatements && conn.isClosed())
+			cache.closeStatements(conn);
+	}
+
+	/**
+	 * If statement is from statement cache, put it back instead of close it. A
+	 * statement failed in execution is closed, it may have rows left in batch
+	 */
+	@Override
+	protected void close(Statement stmt) throws SQLException {
+		PreparedStatementCache cache = statementCache;
+		if (cache != null && statementFailed.get() != null) {
+			statementFailed.remove();
+			discardStatement(stmt);
+			return;
+		}
+		if (cache != null && stmt instanceof PreparedStatement && cache.giveBack((PreparedStatement) stmt))
+			return;
+		super.close(stmt);
+	}
+
+	/** Close a statement, never put it back into statement cache */
+	protected void discardStatement(Statement stmt) throws SQLException {
+		PreparedStatementCache cache = statementCache;
+		if (cache != null && stmt instanceof PreparedStatement)
+			cache.discard((PreparedStatement) stmt);
+		super.close(stmt);
+	}
+
+	/**
+	 * Mark statement of current SQL method call failed, the statement will be
+	 * closed instead of put back into statement cache
+	 */
+	@Override
+	protected void rethrow(SQLException cause, String sql, Object... params) throws SQLException {
+		if (statementCache != null)
+			statementFailed.set(Boolean.TRUE);
+		super.rethrow(cause, sql, params);
 	}
 
 	@Override
@@ -175,25 +456,150 @@ public class ImprovedQueryRunner extends QueryRunner {
 
 	@Override
 	protected CallableStatement prepareCall(Connection conn, String sql) throws SQLException {
-		if (this.getAllowShowSQL() && !batchEnabled.get())
+		if (this.getAllowShowSQL() && !isBatchEnabled())
 			logger.info("SQL: " + sql);
-		return super.prepareCall(conn, sql);
+		PreparedStatementCache cache = getStatementCache();
+		CallableStatement stmt = cache == null ? null : (CallableStatement) cache.take(conn, CALL_KEY_PREFIX + sql);
+		if (stmt == null)
+			stmt = super.prepareCall(conn, sql);
+		else
+			resetStatementOption(stmt);
+		if (cache != null)
+			cache.register(conn, CALL_KEY_PREFIX + sql, stmt);
+		try {
+			applyStatementOption(stmt);
+		} catch (SQLException e) {
+			discardStatement(stmt);
+			throw e;
+		}
+		return stmt;
 	}
 
 	@Override
 	protected PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
-		if (this.getAllowShowSQL() && !batchEnabled.get())
+		if (this.getAllowShowSQL() && !isBatchEnabled())
 			logger.info(formatSqlForLoggerOutput(sql));
-		return super.prepareStatement(conn, sql);
+		PreparedStatementCache cache = getStatementCache();
+		PreparedStatement stmt = cache == null ? null : cache.take(conn, sql);
+		if (stmt == null)
+			stmt = super.prepareStatement(conn, sql);
+		else
+			resetStatementOption(stmt);
+		if (cache != null)
+			cache.register(conn, sql, stmt);
+		try {
+			applyStatementOption(stmt);
+		} catch (SQLException e) {
+			discardStatement(stmt);
+			throw e;
+		}
+		return stmt;
+	}
+
+	/**
+	 * Set fetchSize, maxRows and queryTimeout of statement, values set by a
+	 * StatementOptionHandler of current SQL method call override default values,
+	 * 0 or null means keep JDBC driver's default. The statement option of current
+	 * call is used only once, and is ignored in batch mode.
+	 */
+	protected void applyStatementOption(Statement stmt) throws SQLException {
+		StatementOptionHandler option = null;
+		DbProSession session = currentSession.get();
+		if (!session.isBatchEnabled()) {
+			option = session.getStatementOption();
+			if (option != null)
+				session.setStatementOption(null);
+		}
+		Integer size = option != null && option.getFetchSize() != null ? option.getFetchSize() : fetchSize;
+		if (size != null && size != 0)
+			stmt.setFetchSize(size);
+		Integer rows = option != null && option.getMaxRows() != null ? option.getMaxRows() : maxRows;
+		if (rows != null && rows > 0)
+			stmt.setMaxRows(rows);
+		Integer timeout = option != null && option.getQueryTimeout() != null ? option.getQueryTimeout()
+				: queryTimeout;
+		if (timeout != null && timeout > 0)
+			stmt.setQueryTimeout(timeout);
+	}
+
+	/** Reset options of a statement taken from statement cache */
+	private static void resetStatementOption(PreparedStatement stmt) throws SQLException {
+		if (stmt.getFetchSize() != 0)
+			stmt.setFetchSize(0);
+		if (stmt.getMaxRows() != 0)
+			stmt.setMaxRows(0);
+		if (stmt.getQueryTimeout() != 0)
+			stmt.setQueryTimeout(0);
+	}
+
+	/**
+	 * Set statement option of current SQL method call, usually called by
+	 * StatementOptionHandler
+	 */
+	public void setCurrentStatementOption(StatementOptionHandler option) {
+		currentSession.get().setStatementOption(option);
 	}
 
 	@Override
 	public void fillStatement(PreparedStatement stmt, Object... params) throws SQLException {
-		if (this.getAllowShowSQL() && !batchEnabled.get())
+		if (this.getAllowShowSQL() && !isBatchEnabled())
 			logger.info(formatParametersForLoggerOutput(params));
 		super.fillStatement(stmt, params);
 	}
 
+	/**
+	 * Return start time used by afterExecute method, 0 if no sqlLogger and no
+	 * metricsListener
+	 */
+	private long executeStart() {
+		return sqlLogger == null && metricsListener == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Called after a statement executed, send SQL, parameters, elapsed time and
+	 * rows to sqlLogger and metricsListener if they are set, SQL and parameters
+	 * are formatted in logger thread only if it's loggable
+	 */
+	void afterExecute(String sql, long start, int rows, Object... params) {
+		if (start == 0)
+			return;
+		long elapsed = System.nanoTime() - start;
+		AsyncSqlLogger log = sqlLogger;
+		if (log != null && log.isLoggable(elapsed))
+			log.log(sql, params, elapsed, rows);
+		SqlMetricsListener listener = metricsListener;
+		if (listener != null)
+			listener.onExecute(sql, elapsed, rows, 0);
+	}
+
+	/** Called after a batch executed, parameters are not logged */
+	private void afterBatchExecute(String sql, long start, int rows, int batchSize) {
+		if (start == 0)
+			return;
+		long elapsed = System.nanoTime() - start;
+		AsyncSqlLogger log = sqlLogger;
+		if (log != null && log.isLoggable(elapsed))
+			log.log(sql, null, elapsed, rows);
+		SqlMetricsListener listener = metricsListener;
+		if (listener != null)
+			listener.onExecute(sql, elapsed, rows, batchSize);
+	}
+
+	/** Return row count of a query result or affected rows of a batch result */
+	private static int rowsOf(Object result) {
+		if (result == null)
+			return 0;
+		if (result instanceof Collection)
+			return ((Collection<?>) result).size();
+		if (result instanceof int[]) {
+			int rows = 0;
+			for (int i : (int[]) result)
+				rows += i == Statement.SUCCESS_NO_INFO ? 1 : Math.max(i, 0);
+			return rows;
+		}
+		return 1;
+	}
+
 	// =========== Explain SQL about methods========================
 	/**
 	 * Format SQL for logger output, subClass can override this method to customise
@@ -215,100 +621,267 @@ public class ImprovedQueryRunner extends QueryRunner {
 	 * Add a explainer
 	 */
 	public static ArrayList<ResultSetHandler> getThreadedHandlers() {
-		return threadedHandlers.get();
+		return threadSession.get().getHandlers();
+	}
+
+	/** @return The session used by ThreadLocal style static methods */
+	public static DbProSession getThreadSession() {
+		return threadSession.get();
+	}
+
+	/** @return The session used by current SQL method call in current thread */
+	public DbProSession getCurrentSession() {
+		return currentSession.get();
+	}
+
+	/**
+	 * Bind a session to this runner in current thread, return the session bound
+	 * before, usually called by DbProSession
+	 */
+	public DbProSession bindSession(DbProSession session) {
+		DbProSession previous = currentSession.get();
+		currentSession.set(session);
+		return previous;
+	}
+
+	/**
+	 * Return the session which store handlers of current SQL method call, it's
+	 * the explicit session if bound, otherwise the session of current thread
+	 */
+	private DbProSession handlerSession() {
+		DbProSession session = currentSession.get();
+		return session.isExplicit() ? session : threadSession.get();
+	}
+
+	/**
+	 * Submit a SQL method call to asyncQueryExecutor, or the default
+	 * AsyncQueryExecutor if not set. Handlers stored in ThreadLocal of current
+	 * thread are moved to the task, so they work same as a sync call
+	 */
+	protected <T> Future<T> submitAsync(final Callable<T> task) {
+		AsyncQueryExecutor executor = asyncQueryExecutor != null ? asyncQueryExecutor
+				: AsyncQueryExecutor.getDefault();
+		DbProSession session = threadSession.get();
+		final ResultSetHandler[] threadHandlers = session.hasHandlers()
+				? session.getHandlers().toArray(new ResultSetHandler[session.getHandlers().size()])
+				: null;
+		session.clearHandlers();
+		return executor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				DbProSession workerSession = threadSession.get();
+				workerSession.clearHandlers();
+				if (threadHandlers != null)
+					workerSession.handlers(threadHandlers);
+				try {
+					return task.call();
+				} finally {
+					workerSession.clearHandlers();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Return the HandlerPipeline compiled from handlers list, if handlers list
+	 * be replaced or its items changed, compile it again
+	 */
+	protected HandlerPipeline getHandlerPipeline() {
+		HandlerPipeline pipeline = handlerPipeline;
+		if (!pipeline.isCompiledFrom(handlers)) {
+			pipeline = HandlerPipeline.compile(handlers);
+			handlerPipeline = pipeline;
+		}
+		return pipeline;
 	}
 
 	/**
 	 * Explain SQL to add extra features like pagination...
 	 */
 	private String explainSql(ResultSetHandler<?> rsh, String sql, Object... params) {
-		String newSQL = sql;
-		if (handlers != null)
-			for (ResultSetHandler handler : handlers) {
+		DbProSession session = currentSession.get();
+		session.setStatementOption(null);
+		HandlerPipeline pipeline = getHandlerPipeline();
+		String newSQL = pipeline.isEmpty() ? sql : pipeline.handleSql(this, sql, params);
+
+		if (!session.isExplicit())
+			session = threadSession.get();
+		if (session.hasHandlers())
+			for (ResultSetHandler handler : session.getHandlers()) {
 				if (handler instanceof AroundSqlHandler)
 					newSQL = ((AroundSqlHandler) handler).handleSql(this, newSQL, params);
 			}
 
-		for (ResultSetHandler handler : getThreadedHandlers()) {
-			if (handler instanceof AroundSqlHandler)
-				newSQL = ((AroundSqlHandler) handler).handleSql(this, newSQL, params);
-		}
-
-		if (rsh != null && rsh instanceof AroundSqlHandler)
+		if (rsh instanceof AroundSqlHandler)
 			newSQL = ((AroundSqlHandler) rsh).handleSql(this, newSQL, params);
 		return newSQL;
 	}
 
-	private static String createKey(String sql, Object... params) {
-		return new StringBuilder("SQL:").append(sql).append("  Params:").append(Arrays.toString(params)).toString();
-	}
-
 	/**
-	 * Explain SQL to cached result object, if have
+	 * Explain SQL to cached result object, if have. Return an array, item 0 is the
+	 * cache key, item 1 is the cached value, item 2 is the table versions
+	 * snapshot taken when cache missed, item 3 is Boolean.TRUE if cached value
+	 * need be refreshed. Item 0 is null if no cache handler found, a Wrap without
+	 * cache handler inside is not a cache handler.
 	 */
 	private Object[] readCache(ResultSetHandler<?> rsh, String sql, Object... params) {
-		Object[] result = new Object[2];
-		String key = null;
-		if (handlers != null)
-			for (ResultSetHandler handler : handlers)
-				if (handler instanceof CacheSqlHandler) {
-					if (key == null)
-						key = createKey(sql, params);
-					result[0] = key;
-
-					Object value = ((CacheSqlHandler) handler).readFromCache(key);
-					if (value != null) {
-						result[1] = value;
-						return result;
-					}
-				}
-
-		for (ResultSetHandler handler : getThreadedHandlers())
-			if (handler instanceof CacheSqlHandler) {
-				if (key == null)
-					key = createKey(sql, params);
-				result[0] = key;
+		Object[] result = new Object[4];
+		for (CacheSqlHandler handler : getHandlerPipeline().getCacheHandlers())
+			if (readCache(handler, sql, params, result))
+				return result;
 
-				Object value = ((CacheSqlHandler) handler).readFromCache(key);
-				if (value != null) {
-					result[1] = value;
+		DbProSession session = handlerSession();
+		if (session.hasHandlers())
+			for (ResultSetHandler handler : session.getHandlers())
+				if (HandlerPipeline.isCacheHandler(handler)
+						&& readCache((CacheSqlHandler) handler, sql, params, result))
 					return result;
-				}
-			}
 
-		if (rsh != null && rsh instanceof CacheSqlHandler) {
-			if (key == null)
-				key = createKey(sql, params);
-			result[0] = key;
+		if (HandlerPipeline.isCacheHandler(rsh) && readCache((CacheSqlHandler) rsh, sql, params, result))
+			return result;
+		if (result[0] != null)
+			result[2] = TableCacheTags.snapshot(sql);
+		return result;
+	}
 
-			Object value = ((CacheSqlHandler) rsh).readFromCache(key);
-			if (value != null)
-				result[1] = value;
+	/**
+	 * Read from one CacheSqlHandler, cache key is created when first used and
+	 * stored in item 0 of cached array, return true if found
+	 */
+	private static boolean readCache(CacheSqlHandler handler, String sql, Object[] params, Object[] cached) {
+		if (cached[0] == null)
+			cached[0] = new SqlCacheKey(sql, params);
+		Object value = unwrapCached(SqlCacheKey.readFromCache(handler, (SqlCacheKey) cached[0]), cached);
+		if (value == null)
+			return false;
+		cached[1] = value;
+		return true;
+	}
+
+	/**
+	 * Return the real value of a cached object, or null if its tables changed,
+	 * if it's a RefreshableValue need refresh, set item 3 of cached array to true
+	 */
+	private static Object unwrapCached(Object cachedObj, Object[] cached) {
+		Object obj = cachedObj;
+		if (obj instanceof RefreshableValue) {
+			RefreshableValue refreshable = (RefreshableValue) obj;
+			obj = refreshable.getValue();
+			cached[3] = refreshable.needRefresh();
 		}
-		return result;
+		return TableCacheTags.untag(obj);
 	}
 
 	/**
-	 * Explain SQL to cached result object, if have
+	 * Find the CacheSqlHandler query result should be written to, return null if
+	 * no
 	 */
-	private void writeToCache(ResultSetHandler<?> rsh, String key, Object value) {
-		if (key == null || key.length() == 0 || value == null)
+	private CacheSqlHandler findCacheHandler(ResultSetHandler<?> rsh) {
+		CacheSqlHandler first = getHandlerPipeline().getFirstCacheHandler();
+		if (first != null)
+			return first;
+		DbProSession session = handlerSession();
+		if (session.hasHandlers())
+			for (ResultSetHandler handler : session.getHandlers())
+				if (HandlerPipeline.isCacheHandler(handler))
+					return (CacheSqlHandler) handler;
+		if (HandlerPipeline.isCacheHandler(rsh))
+			return (CacheSqlHandler) rsh;
+		return null;
+	}
+
+	/**
+	 * Write query result to cache, tagged with tables referenced in SQL
+	 */
+	private void writeToCache(CacheSqlHandler cacheHandler, Object[] cached, Object result) {
+		SqlCacheKey key = (SqlCacheKey) cached[0];
+		if (cacheHandler == null || key == null || result == null)
 			return;
-		if (handlers != null)
-			for (ResultSetHandler handler : handlers)
-				if (handler instanceof CacheSqlHandler) {
-					((CacheSqlHandler) handler).writeToCache(key, value);
-					return;
-				}
+		Object value = TableCacheTags.tag(result, (TableCacheTags.TaggedValue) cached[2]);
+		if (cacheRefreshSeconds != null && cacheRefreshSeconds > 0)
+			value = new RefreshableValue(value, cacheRefreshSeconds * 1000L);
+		SqlCacheKey.writeToCache(cacheHandler, key, value);
+	}
+
+	/**
+	 * Run query on given connection, or on a connection from DataSource if conn
+	 * is null
+	 */
+	private Object doQuery(Connection conn, String sql, ResultSetHandler<?> rsh, Object[] params)
+			throws SQLException {
+		long start = executeStart();
+		Object result;
+		if (conn == null)
+			result = super.query(sql, rsh, params);
+		else
+			result = super.query(conn, sql, rsh, params);
+		afterExecute(sql, start, rowsOf(result), params);
+		return result;
+	}
 
-		for (ResultSetHandler handler : getThreadedHandlers())
-			if (handler instanceof CacheSqlHandler) {
-				((CacheSqlHandler) handler).writeToCache(key, value);
-				return;
+	/**
+	 * Query with cache, if singleFlightCache is true, only one thread run the
+	 * query for same cache key, if cacheRefreshSeconds > 0, after cache handler's
+	 * alive time the cached value is still returned for cacheRefreshSeconds while
+	 * a background thread refresh it. Only cache handlers support
+	 * StaleServableValue (SimpleCacheHandler and ConcurrentCacheHandler) keep the
+	 * value after alive time, other handlers evict it and query run as usual
+	 */
+	private Object cachedQuery(Connection conn, String sql, ResultSetHandler<?> rsh, Object[] params)
+			throws SQLException {
+		String explainedSql = explainSql(rsh, sql, params);
+		Object[] cached = readCache(rsh, explainedSql, params);
+		if (cached[1] != null) {
+			if (metricsListener != null)
+				metricsListener.onCacheHit(explainedSql);
+			if (Boolean.TRUE.equals(cached[3]))
+				refreshInBackground(rsh, explainedSql, params, cached);
+			return cached[1];
+		}
+		if (cached[0] == null)
+			return explainResult(rsh, doQuery(conn, explainedSql, rsh, params));
+		Object result;
+		if (Boolean.TRUE.equals(singleFlightCache))
+			result = singleFlightQuery(conn, explainedSql, rsh, params, cached);
+		else {
+			result = doQuery(conn, explainedSql, rsh, params);
+			writeToCache(findCacheHandler(rsh), cached, result);
+		}
+		return explainResult(rsh, result);
+	}
+
+	private Object singleFlightQuery(final Connection conn, final String sql, final ResultSetHandler<?> rsh,
+			final Object[] params, final Object[] cached) throws SQLException {
+		final CacheSqlHandler cacheHandler = findCacheHandler(rsh);
+		return singleFlight.execute(cached[0], new Callable<Object>() {
+			@Override
+			public Object call() throws SQLException {
+				Object result = doQuery(conn, sql, rsh, params);
+				writeToCache(cacheHandler, cached, result);
+				return result;
 			}
+		});
+	}
 
-		if (rsh != null && rsh instanceof CacheSqlHandler)
-			((CacheSqlHandler) rsh).writeToCache(key, value);
+	/**
+	 * Start a background query to refresh cached value, always use a new
+	 * connection from DataSource, do nothing if no DataSource
+	 */
+	private void refreshInBackground(final ResultSetHandler<?> rsh, final String sql, final Object[] params,
+			Object[] cached) {
+		if (this.getDataSource() == null)
+			return;
+		final CacheSqlHandler cacheHandler = findCacheHandler(rsh);
+		final Object[] refreshCached = new Object[] { cached[0], null, null, null };
+		singleFlight.executeInBackground(cached[0], new Callable<Object>() {
+			@Override
+			public Object call() throws SQLException {
+				refreshCached[2] = TableCacheTags.snapshot(sql);
+				Object result = doQuery(null, sql, rsh, params);
+				writeToCache(cacheHandler, refreshCached, result);
+				return result;
+			}
+		});
 	}
 
 	/**
@@ -319,14 +892,14 @@ public class ImprovedQueryRunner extends QueryRunner {
 		if (rsh instanceof AroundSqlHandler)
 			newObj = ((AroundSqlHandler) rsh).handleResult(this, newObj);
 
-		if (handlers != null)
-			for (ResultSetHandler explainer : handlers) {
+		HandlerPipeline pipeline = getHandlerPipeline();
+		if (!pipeline.isEmpty())
+			newObj = pipeline.handleResult(this, newObj);
+		DbProSession session = handlerSession();
+		if (session.hasHandlers())
+			for (ResultSetHandler explainer : session.getHandlers())
 				if (explainer instanceof AroundSqlHandler)
 					newObj = ((AroundSqlHandler) explainer).handleResult(this, newObj);
-			}
-		for (ResultSetHandler explainer : getThreadedHandlers())
-			if (explainer instanceof AroundSqlHandler)
-				newObj = ((AroundSqlHandler) explainer).handleResult(this, newObj);
 
 		return newObj;
 	}
@@ -348,24 +921,44 @@ public class ImprovedQueryRunner extends QueryRunner {
 	}
 
 	/**
-	 * Add SQL to cache, if full (reach batchSize) then call batchFlush() <br/>
+	 * Add SQL to cache, in SEQUENTIAL batch mode if SQL is not same group of
+	 * cached SQLs, call batchFlush() first; in GROUPED modes if groups reach
+	 * maxBatchGroups, flush all groups before add a new one, so pending rows are
+	 * at most maxBatchGroups * batchSize; if group is full (reach batchSize) then
+	 * flush the group <br/>
 	 * 
 	 * @throws SQLException
 	 * 
 	 */
-	private <T> T addToCacheIfFullFlush(String execteType, ResultSetHandler<T> rsh, Object param, String sql,
-			Connection conn, Object... params) throws SQLException {
-		Object[] forCache = new Object[] { execteType, rsh, param, sql, conn, params };
-		List<Object[]> cached = sqlBatchCache.get();
-		if (cached.size() >= this.batchSize)
-			this.batchFlush();
-		else if (!cached.isEmpty()) {
-			Object[] last = cached.get(cached.size() - 1);
-			if (!last[0].equals(forCache[0]) || !last[3].equals(forCache[3]) || (last[1] != forCache[1])
-					|| (last[4] != forCache[4]))
-				this.batchFlush();
-		}
-		sqlBatchCache.get().add(forCache);
+	private <T> T addToBatch(BatchType type, ResultSetHandler<T> rsh, String sql, Connection conn, Object[] params)
+			throws SQLException {
+		SqlBatchCache cache = currentSession.get().getBatchCache();
+		if (asyncBatchFlusher != null)
+			checkAsyncBatchError(cache);
+		SqlBatchBuffer buffer = cache.findBuffer(type, sql, rsh, conn);
+		if (buffer == null) {
+			if (BatchMode.SEQUENTIAL == batchMode
+					|| (maxBatchGroups != null && maxBatchGroups > 0 && cache.groupCount() >= maxBatchGroups))
+				flushAllBuffers(cache);
+			buffer = cache.addBuffer(type, sql, rsh, conn);
+		}
+		buffer.addRow(params);
+		if (buffer.size() >= this.batchSize) {
+			boolean flushed = false;
+			try {
+				if (BatchMode.GROUPED_ORDERED == batchMode)
+					for (SqlBatchBuffer earlier : cache.getBuffers()) {
+						if (earlier == buffer)
+							break;
+						flushBuffer(earlier);
+					}
+				flushBuffer(buffer);
+				flushed = true;
+			} finally {
+				if (!flushed)
+					buffer.discardRows();// same as batchFlush, rows after a failure are discarded
+			}
+		}
 		return null;
 	}
 
@@ -374,66 +967,327 @@ public class ImprovedQueryRunner extends QueryRunner {
 	 * Force flush cached SQLs
 	 */
 	public void batchFlush() throws SQLException {
-		List<Object[]> sqlCacheList = sqlBatchCache.get();
-		if (sqlCacheList.isEmpty())
+		SqlBatchCache cache = currentSession.get().getBatchCache();
+		try {
+			flushAllBuffers(cache);
+		} finally {
+			cache.clearAttributes();
+		}
+	}
+
+	/** Flush and remove all groups, attributes of cache are kept */
+	private void flushAllBuffers(SqlBatchCache cache) throws SQLException {
+		try {
+			for (SqlBatchBuffer buffer : cache.getBuffers())
+				flushBuffer(buffer);
+		} finally {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Force flush cached SQLs, if an AsyncBatchFlusher is used, wait until all
+	 * batches submitted by current thread be executed, and throw the first
+	 * failure if have
+	 */
+	public void batchFlushAndWait() throws SQLException {
+		SqlBatchCache cache = currentSession.get().getBatchCache();
+		batchFlush();
+		waitAsyncBatch(cache);
+	}
+
+	private void waitAsyncBatch(SqlBatchCache cache) throws SQLException {
+		try {
+			cache.waitAsyncFinished();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted when wait asynchronous batch", e);
+		}
+		checkAsyncBatchError(cache);
+	}
+
+	private void checkAsyncBatchError(SqlBatchCache cache) throws SQLException {
+		Throwable e = cache.takeAsyncError();
+		if (e != null)
+			throw new SQLException("Asynchronous batch execute failed: " + e.getMessage(), e);
+	}
+
+	/**
+	 * Execute and clear rows of one group, group header is kept. If an
+	 * AsyncBatchFlusher is used and the group not bind to a connection or
+	 * handler, the rows will be handed over to AsyncBatchFlusher
+	 */
+	private void flushBuffer(SqlBatchBuffer buffer) throws SQLException {
+		if (buffer.isEmpty())
 			return;
-		Object[] f = sqlCacheList.get(0);// first row
-		if (f.length != 6)
-			throw new DbProRuntimeException("Unexpected batch cached SQL format");
-		int paramLenth = 0;
-		if ("i1".equals(f[0]) || "i3".equals(f[0]) || "u1".equals(f[0]) || "u4".equals(f[0]))
-			paramLenth = 0;
-		if ("u2".equals(f[0]) || "u5".equals(f[0]))
-			paramLenth = 1;
-		else
-			paramLenth = ((Object[]) sqlCacheList.get(0)[5]).length;
-		Object[][] allParams = new Object[sqlCacheList.size()][paramLenth];
-		int i = 0;
-		for (Object[] c : sqlCacheList) {// cached parameters
-			Object param = c[2];
-			Object[] params = (Object[]) c[5];
-			if ("i1".equals(f[0]) || "i3".equals(f[0]) || "u1".equals(f[0]) || "u4".equals(f[0]))
-				allParams[i] = new Object[0];
-			if ("u2".equals(f[0]) || "u5".equals(f[0]))
-				allParams[i] = new Object[] { param };
+		boolean executed = false;
+		try {
+			if (this.getAllowShowSQL()) {
+				logger.info("Batch execute " + buffer.size() + " SQLs");
+				logger.info(formatSqlForLoggerOutput(buffer.getSql()));
+				logger.info("First row " + formatParametersForLoggerOutput(buffer.getRow(0)));
+				logger.info("Last row " + formatParametersForLoggerOutput(buffer.getRow(buffer.size() - 1)));
+			}
+			if (asyncBatchFlusher != null && buffer.getConn() == null && buffer.getRsh() == null)
+				asyncBatchFlusher.submit(this, buffer.detachRows(), currentSession.get().getBatchCache());
 			else
-				allParams[i] = params;
-			i++;
-		}
-		String sql = (String) f[3];
-		Connection conn = (Connection) f[4];
-		ResultSetHandler rsh = (ResultSetHandler) f[1];
-		if (this.getAllowShowSQL()) {
-			logger.info("Batch execute " + sqlCacheList.size() + " SQLs");
-			logger.info(formatSqlForLoggerOutput(sql));
-			logger.info("First row " + formatParametersForLoggerOutput(allParams[0]));
-			logger.info("Last row " + formatParametersForLoggerOutput(allParams[allParams.length - 1]));
-		}
-		if ("e1".equals(f[0]) || "i1".equals(f[0]) || "u1".equals(f[0]) || "u2".equals(f[0]) || "u3".equals(f[0]))
-			super.batch(conn, sql, allParams);
-		else if ("e3".equals(f[0]) || "i3".equals(f[0]) || "u4".equals(f[0]) || "u5".equals(f[0]) || "u6".equals(f[0]))
-			super.batch(sql, allParams);
-		else if ("e2".equals(f[0]) || "i2".equals(f[0]))
-			super.insertBatch(conn, sql, rsh, allParams);
-		else if ("e4".equals(f[0]) || "i4".equals(f[0]))
-			super.insertBatch(sql, rsh, allParams);
-		else
-			throw new DbProRuntimeException("unknow batch sql operation type +'" + f[0] + "'");
-		sqlBatchCache.get().clear();
+				executeBatchBuffer(buffer);
+			executed = true;
+		} finally {
+			if (executed)
+				buffer.clearRows();
+			else
+				buffer.discardRows();
+		}
+	}
+
+	/**
+	 * Send all rows in SqlBatchBuffer to JDBC driver by one executeBatch() call,
+	 * if buffer's connection is null, will get connection from DataSource or
+	 * ConnectionManager and close it after execute
+	 */
+	protected int[] executeBatchBuffer(SqlBatchBuffer buffer) throws SQLException {
+		String sql = buffer.getSql();
+		if (sql == null)
+			throw new SQLException("Null SQL statement");
+		MultiRowInsert multiRow = null;
+		if (buffer.getRsh() == null)
+			multiRow = getMultiRowInsert(sql, buffer.rows(), buffer.size());
+		Connection conn = buffer.getConn();
+		boolean closeConn = false;
+		if (conn == null) {
+			conn = this.prepareConnection();
+			closeConn = true;
+		}
+		long start = executeStart();
+		if (multiRow != null)
+			try {
+				int[] result = executeMultiRowInsert(conn, multiRow, buffer.rows(), buffer.size());
+				afterBatchExecute(sql, start, rowsOf(result), buffer.size());
+				return result;
+			} finally {
+				if (closeConn)
+					close(conn);
+			}
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		int[] rows = null;
+		int row = 0;
+		try {
+			boolean insert = BatchType.INSERT_BATCH == buffer.getType();
+			if (insert)
+				stmt = this.prepareStatement(conn, sql, Statement.RETURN_GENERATED_KEYS);
+			else
+				stmt = this.prepareStatement(conn, sql);
+			for (row = 0; row < buffer.size(); row++) {
+				this.fillStatement(stmt, buffer.getRow(row));
+				stmt.addBatch();
+			}
+			rows = stmt.executeBatch();
+			afterBatchExecute(sql, start, rowsOf(rows), buffer.size());
+			if (insert && buffer.getRsh() != null) {
+				rs = stmt.getGeneratedKeys();
+				buffer.getRsh().handle(rs);
+			}
+		} catch (SQLException e) {
+			this.rethrow(e, sql, row < buffer.size() ? buffer.getRow(row) : buffer.getRow(buffer.size() - 1));
+		} finally {
+			TableCacheTags.invalidate(sql); // part of batch may be committed even if failed
+			try {
+				close(rs);
+			} finally {
+				try {
+					close(stmt);
+				} finally {
+					if (closeConn)
+						close(conn);
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Return max bind parameters allowed in one statement for multiple rows
+	 * insert SQL, return 0 means not support multiple rows insert, subclass can
+	 * override this method to give a value according database type
+	 */
+	protected int getMaxBindParams() {
+		return 0;
+	}
+
+	/**
+	 * Return a MultiRowInsert if multiRowInsert option is on, database support it
+	 * and SQL can be rewritten, otherwise return null
+	 */
+	private MultiRowInsert getMultiRowInsert(String sql, Object[][] rows, int size) {
+		if (!Boolean.TRUE.equals(multiRowInsert) || size < 2)
+			return null;
+		int maxParams = getMaxBindParams();
+		if (maxParams <= 0)
+			return null;
+		MultiRowInsert multiRow = MultiRowInsert.parse(sql);
+		if (multiRow == null || maxParams / multiRow.getParamCount() < 2)
+			return null;
+		for (int i = 0; i < size; i++)
+			if (rows[i] == null || rows[i].length != multiRow.getParamCount())
+				return null;
+		return multiRow;
+	}
+
+	/**
+	 * Execute rows by multiple rows insert SQLs, each SQL insert at most
+	 * MAX_ROWS_PER_INSERT rows and not exceed max bind parameters limit. Return
+	 * array follow executeBatch() rule, each item is 1 or
+	 * Statement.SUCCESS_NO_INFO
+	 */
+	private int[] executeMultiRowInsert(Connection conn, MultiRowInsert multiRow, Object[][] rows, int size)
+			throws SQLException {
+		int paramCount = multiRow.getParamCount();
+		int rowsPerSql = Math.min(getMaxBindParams() / paramCount, MAX_ROWS_PER_INSERT);
+		int[] result = new int[size];
+		PreparedStatement stmt = null;
+		String sql = null;
+		int lastRows = 0;
+		Object[] params = null;
+		try {
+			for (int start = 0; start < size; start += rowsPerSql) {
+				int n = Math.min(rowsPerSql, size - start);
+				if (n != lastRows) {
+					close(stmt);
+					stmt = null;
+					sql = multiRow.buildSql(n);
+					stmt = this.prepareStatement(conn, sql);
+					params = new Object[n * paramCount];
+					lastRows = n;
+				}
+				for (int i = 0; i < n; i++)
+					System.arraycopy(rows[start + i], 0, params, i * paramCount, paramCount);
+				this.fillStatement(stmt, params);
+				int updated = stmt.executeUpdate();
+				Arrays.fill(result, start, start + n, updated == n ? 1 : Statement.SUCCESS_NO_INFO);
+			}
+		} catch (SQLException e) {
+			this.rethrow(e, sql, params);
+		} finally {
+			if (sql != null)
+				TableCacheTags.invalidate(sql);
+			close(stmt);
+		}
+		return result;
+	}
+
+	/**
+	 * If multiRowInsert option is on and SQL is an insert SQL, use multiple rows
+	 * insert SQLs instead of JDBC batch
+	 */
+	@Override
+	public int[] batch(Connection conn, String sql, Object[][] params) throws SQLException {
+		MultiRowInsert multiRow = params == null ? null : getMultiRowInsert(sql, params, params.length);
+		long start = executeStart();
+		int[] result;
+		if (multiRow == null) {
+			try {
+				result = super.batch(conn, sql, params);
+			} finally {
+				TableCacheTags.invalidate(sql);
+			}
+		} else
+			result = executeMultiRowInsert(conn, multiRow, params, params.length);
+		afterBatchExecute(sql, start, rowsOf(result), params == null ? 0 : params.length);
+		return result;
+	}
+
+	/**
+	 * If multiRowInsert option is on and SQL is an insert SQL, use multiple rows
+	 * insert SQLs instead of JDBC batch
+	 */
+	@Override
+	public int[] batch(String sql, Object[][] params) throws SQLException {
+		MultiRowInsert multiRow = params == null ? null : getMultiRowInsert(sql, params, params.length);
+		long start = executeStart();
+		int[] result;
+		if (multiRow == null) {
+			try {
+				result = super.batch(sql, params);
+			} finally {
+				TableCacheTags.invalidate(sql);
+			}
+		} else {
+			Connection conn = this.prepareConnection();
+			try {
+				result = executeMultiRowInsert(conn, multiRow, params, params.length);
+			} finally {
+				close(conn);
+			}
+		}
+		afterBatchExecute(sql, start, rowsOf(result), params == null ? 0 : params.length);
+		return result;
+	}
+
+	@Override
+	public <T> T insertBatch(Connection conn, String sql, ResultSetHandler<T> rsh, Object[][] params)
+			throws SQLException {
+		long start = executeStart();
+		T result;
+		try {
+			result = super.insertBatch(conn, sql, rsh, params);
+		} finally {
+			TableCacheTags.invalidate(sql);
+		}
+		afterBatchExecute(sql, start, params == null ? 0 : params.length, params == null ? 0 : params.length);
+		return result;
+	}
+
+	@Override
+	public <T> T insertBatch(String sql, ResultSetHandler<T> rsh, Object[][] params) throws SQLException {
+		long start = executeStart();
+		T result;
+		try {
+			result = super.insertBatch(sql, rsh, params);
+		} finally {
+			TableCacheTags.invalidate(sql);
+		}
+		afterBatchExecute(sql, start, params == null ? 0 : params.length, params == null ? 0 : params.length);
+		return result;
+	}
+
+	/**
+	 * Called by AsyncBatchFlusher thread, mark flusher thread as in batch mode to
+	 * avoid print each SQL
+	 */
+	void executeBatchBufferInFlusher(SqlBatchBuffer buffer) throws SQLException {
+		DbProSession session = currentSession.get();
+		session.setBatchEnabled(true);
+		try {
+			executeBatchBuffer(buffer);
+		} finally {
+			session.setBatchEnabled(false);
+		}
 	}
 
 	/** Start batch sql */
 	public void batchBegin() throws SQLException {
-		if (!sqlBatchCache.get().isEmpty())
+		DbProSession session = currentSession.get();
+		if (!session.getBatchCache().isEmpty())
 			batchFlush();
-		this.batchEnabled.set(true);
+		session.setBatchEnabled(true);
 	}
 
 	/** Stop batch sql */
 	public void batchEnd() throws SQLException {
-		if (!sqlBatchCache.get().isEmpty())
-			batchFlush();
-		this.batchEnabled.set(false);
+		DbProSession session = currentSession.get();
+		try {
+			SqlBatchCache cache = session.getBatchCache();
+			if (!cache.isEmpty())
+				batchFlush();
+			if (asyncBatchFlusher != null)
+				waitAsyncBatch(cache);
+		} finally {
+			session.getBatchCache().clear();
+			session.getBatchCache().clearAttributes();
+			session.setBatchEnabled(false);
+		}
 	}
 
 	// ===override execute/insert/update methods to support batch and explainSql
@@ -444,15 +1298,18 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public int execute(Connection conn, String sql, Object... params) throws SQLException {
 		try {
 			String explainedSql = explainSql(null, sql, params);
-			if (batchEnabled.get()) {
-				addToCacheIfFullFlush("e1", null, null, explainedSql, conn, params);
+			if (isBatchEnabled()) {
+				addToBatch(BatchType.BATCH, null, explainedSql, conn, params);
 				return 0;
 			} else {
+				long start = executeStart();
 				int result = super.execute(conn, explainedSql, params);
+				afterExecute(explainedSql, start, result, params);
+				TableCacheTags.invalidate(explainedSql);
 				return (Integer) explainResult(null, result);
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -461,15 +1318,18 @@ public class ImprovedQueryRunner extends QueryRunner {
 			throws SQLException {
 		try {
 			String explainedSql = explainSql(rsh, sql, params);
-			if (batchEnabled.get()) {
-				return (List<T>) addToCacheIfFullFlush("e2", rsh, null, explainedSql, conn, params);
+			if (isBatchEnabled()) {
+				return (List<T>) addToBatch(BatchType.INSERT_BATCH, rsh, explainedSql, conn, params);
 			} else {
+				long start = executeStart();
 				List<T> result = super.execute(conn, explainedSql, rsh, params);
+				afterExecute(explainedSql, start, rowsOf(result), params);
+				TableCacheTags.invalidate(explainedSql);
 				result = (List<T>) explainResult(rsh, result);
 				return result;
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -477,15 +1337,18 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public int execute(String sql, Object... params) throws SQLException {
 		try {
 			String explainedSql = explainSql(null, sql, params);
-			if (batchEnabled.get()) {
-				addToCacheIfFullFlush("e3", null, null, explainedSql, null, params);
+			if (isBatchEnabled()) {
+				addToBatch(BatchType.BATCH, null, explainedSql, null, params);
 				return 0;
 			} else {
+				long start = executeStart();
 				int result = super.execute(explainedSql, params);
+				afterExecute(explainedSql, start, result, params);
+				TableCacheTags.invalidate(explainedSql);
 				return (Integer) explainResult(null, result);
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -493,12 +1356,15 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public <T> List<T> execute(String sql, ResultSetHandler<T> rsh, Object... params) throws SQLException {
 		try {
 			String explainedSql = explainSql(rsh, sql, params);
-			if (batchEnabled.get())
-				return (List<T>) addToCacheIfFullFlush("e4", rsh, null, explainedSql, null, params);
+			if (isBatchEnabled())
+				return (List<T>) addToBatch(BatchType.INSERT_BATCH, rsh, explainedSql, null, params);
+			long start = executeStart();
 			List<T> result = super.execute(explainedSql, rsh, params);
+			afterExecute(explainedSql, start, rowsOf(result), params);
+			TableCacheTags.invalidate(explainedSql);
 			return (List<T>) explainResult(rsh, result);
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -506,12 +1372,15 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public <T> T insert(Connection conn, String sql, ResultSetHandler<T> rsh) throws SQLException {
 		try {
 			String explainedSql = explainSql(rsh, sql, null);
-			if (batchEnabled.get())
-				return addToCacheIfFullFlush("i1", rsh, null, explainedSql, conn, null);
+			if (isBatchEnabled())
+				return addToBatch(BatchType.INSERT_BATCH, rsh, explainedSql, conn, SqlBatchBuffer.EMPTY_ROW);
+			long start = executeStart();
 			T result = super.insert(conn, explainedSql, rsh);
+			afterExecute(explainedSql, start, rowsOf(result), (Object[]) null);
+			TableCacheTags.invalidate(explainedSql);
 			return (T) explainResult(rsh, result);
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -519,12 +1388,15 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public <T> T insert(Connection conn, String sql, ResultSetHandler<T> rsh, Object... params) throws SQLException {
 		try {
 			String explainedSql = explainSql(rsh, sql, params);
-			if (batchEnabled.get())
-				return addToCacheIfFullFlush("i2", rsh, null, explainedSql, conn, params);
+			if (isBatchEnabled())
+				return addToBatch(BatchType.INSERT_BATCH, rsh, explainedSql, conn, params);
+			long start = executeStart();
 			T result = super.insert(conn, explainedSql, rsh, params);
+			afterExecute(explainedSql, start, rowsOf(result), params);
+			TableCacheTags.invalidate(explainedSql);
 			return (T) explainResult(rsh, result);
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -532,12 +1404,15 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public <T> T insert(String sql, ResultSetHandler<T> rsh) throws SQLException {
 		try {
 			String explainedSql = explainSql(rsh, sql, null);
-			if (batchEnabled.get())
-				return addToCacheIfFullFlush("i3", rsh, null, explainedSql, null, null);
+			if (isBatchEnabled())
+				return addToBatch(BatchType.INSERT_BATCH, rsh, explainedSql, null, SqlBatchBuffer.EMPTY_ROW);
+			long start = executeStart();
 			T result = super.insert(explainedSql, rsh);
+			afterExecute(explainedSql, start, rowsOf(result), (Object[]) null);
+			TableCacheTags.invalidate(explainedSql);
 			return (T) explainResult(rsh, result);
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -545,12 +1420,15 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public <T> T insert(String sql, ResultSetHandler<T> rsh, Object... params) throws SQLException {
 		try {
 			String explainedSql = explainSql(rsh, sql, params);
-			if (batchEnabled.get())
-				return addToCacheIfFullFlush("i4", rsh, null, explainedSql, null, params);
+			if (isBatchEnabled())
+				return addToBatch(BatchType.INSERT_BATCH, rsh, explainedSql, null, params);
+			long start = executeStart();
 			T result = super.insert(explainedSql, rsh, params);
+			afterExecute(explainedSql, start, rowsOf(result), params);
+			TableCacheTags.invalidate(explainedSql);
 			return (T) explainResult(rsh, result);
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -558,15 +1436,18 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public int update(Connection conn, String sql) throws SQLException {
 		try {
 			String explainedSql = explainSql(null, sql, null);
-			if (batchEnabled.get()) {
-				addToCacheIfFullFlush("u1", null, null, explainedSql, conn, null);
+			if (isBatchEnabled()) {
+				addToBatch(BatchType.BATCH, null, explainedSql, conn, SqlBatchBuffer.EMPTY_ROW);
 				return 0;
 			} else {
+				long start = executeStart();
 				int result = super.update(conn, explainedSql);
+				afterExecute(explainedSql, start, result, (Object[]) null);
+				TableCacheTags.invalidate(explainedSql);
 				return (Integer) explainResult(null, result);
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -574,15 +1455,18 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public int update(Connection conn, String sql, Object param) throws SQLException {
 		try {
 			String explainedSql = explainSql(null, sql, param);
-			if (batchEnabled.get()) {
-				addToCacheIfFullFlush("u2", null, param, explainedSql, conn, null);
+			if (isBatchEnabled()) {
+				addToBatch(BatchType.BATCH, null, explainedSql, conn, new Object[] { param });
 				return 0;
 			} else {
+				long start = executeStart();
 				int result = super.update(conn, explainedSql, param);
+				afterExecute(explainedSql, start, result, param);
+				TableCacheTags.invalidate(explainedSql);
 				return (Integer) explainResult(null, result);
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -590,15 +1474,18 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public int update(Connection conn, String sql, Object... params) throws SQLException {
 		try {
 			String explainedSql = explainSql(null, sql, params);
-			if (batchEnabled.get()) {
-				addToCacheIfFullFlush("u3", null, null, explainedSql, conn, params);
+			if (isBatchEnabled()) {
+				addToBatch(BatchType.BATCH, null, explainedSql, conn, params);
 				return 0;
 			} else {
+				long start = executeStart();
 				int result = super.update(conn, explainedSql, params);
+				afterExecute(explainedSql, start, result, params);
+				TableCacheTags.invalidate(explainedSql);
 				return (Integer) explainResult(null, result);
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -606,15 +1493,18 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public int update(String sql) throws SQLException {
 		try {
 			String explainedSql = explainSql(null, sql, null);
-			if (batchEnabled.get()) {
-				addToCacheIfFullFlush("u4", null, null, explainedSql, null, null);
+			if (isBatchEnabled()) {
+				addToBatch(BatchType.BATCH, null, explainedSql, null, SqlBatchBuffer.EMPTY_ROW);
 				return 0;
 			} else {
+				long start = executeStart();
 				int result = super.update(explainedSql);
+				afterExecute(explainedSql, start, result, (Object[]) null);
+				TableCacheTags.invalidate(explainedSql);
 				return (Integer) explainResult(null, result);
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -622,15 +1512,18 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public int update(String sql, Object param) throws SQLException {
 		try {
 			String explainedSql = explainSql(null, sql, param);
-			if (batchEnabled.get()) {
-				addToCacheIfFullFlush("u5", null, param, explainedSql, null, null);
+			if (isBatchEnabled()) {
+				addToBatch(BatchType.BATCH, null, explainedSql, null, new Object[] { param });
 				return 0;
 			} else {
+				long start = executeStart();
 				int result = super.update(explainedSql, param);
+				afterExecute(explainedSql, start, result, param);
+				TableCacheTags.invalidate(explainedSql);
 				return (Integer) explainResult(null, result);
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
@@ -638,82 +1531,163 @@ public class ImprovedQueryRunner extends QueryRunner {
 	public int update(String sql, Object... params) throws SQLException {
 		try {
 			String explainedSql = explainSql(null, sql, params);
-			if (batchEnabled.get()) {
-				addToCacheIfFullFlush("u6", null, null, explainedSql, null, params);
+			if (isBatchEnabled()) {
+				addToBatch(BatchType.BATCH, null, explainedSql, null, params);
 				return 0;
 			} else {
+				long start = executeStart();
 				int result = super.update(explainedSql, params);
+				afterExecute(explainedSql, start, result, params);
+				TableCacheTags.invalidate(explainedSql);
 				return (Integer) explainResult(null, result);
 			}
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
 	public <T> T query(Connection conn, String sql, ResultSetHandler<T> rsh, Object... params) throws SQLException {
 		try {
-			String explainedSql = explainSql(rsh, sql, params);
-			Object[] cached = readCache(rsh, explainedSql, params);
-			if (cached != null && cached[1] != null)
-				return (T) cached[1];
-			Object result = super.query(conn, explainedSql, rsh, params);
-			if (cached != null)
-				writeToCache(rsh, (String) cached[0], result);
-			result = explainResult(rsh, result);
-			return (T) result;
+			return (T) cachedQuery(conn, sql, rsh, params);
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
 	@Override
 	public <T> T query(Connection conn, String sql, ResultSetHandler<T> rsh) throws SQLException {
 		try {
-			String explainedSql = explainSql(rsh, sql, null);
-			Object[] cached = readCache(rsh, explainedSql, null);
-			if (cached != null && cached[1] != null)
-				return (T) cached[1];
-			Object result = super.query(conn, explainedSql, rsh);
-			if (cached != null)
-				writeToCache(rsh, (String) cached[0], result);
-			result = explainResult(rsh, result);
-			return (T) result;
+			return (T) cachedQuery(conn, sql, rsh, null);
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
 	@Override
 	public <T> T query(String sql, ResultSetHandler<T> rsh, Object... params) throws SQLException {
 		try {
-			String explainedSql = explainSql(rsh, sql, params);
-			Object[] cached = readCache(rsh, explainedSql, params);
-			if (cached != null && cached[1] != null)
-				return (T) cached[1];
-			T result = super.query(explainedSql, rsh, params);
-			if (cached != null)
-				writeToCache(rsh, (String) cached[0], result);
-			result = (T) explainResult(rsh, result);
-			return (T) result;
+			return (T) cachedQuery(null, sql, rsh, params);
 		} finally {
-			getThreadedHandlers().clear();
+			handlerSession().clearHandlers();
 		}
 	}
 
 	@Override
 	public <T> T query(String sql, ResultSetHandler<T> rsh) throws SQLException {
 		try {
-			String explainedSql = explainSql(rsh, sql, null);
-			Object[] cached = readCache(rsh, explainedSql, null);
-			if (cached != null && cached[1] != null)
-				return (T) cached[1];
-			Object result = super.query(explainedSql, rsh);
-			if (cached != null)
-				writeToCache(rsh, (String) cached[0], result);
-			result = explainResult(rsh, result);
-			return (T) result;
+			return (T) cachedQuery(null, sql, rsh, null);
+		} finally {
+			handlerSession().clearHandlers();
+		}
+	}
+
+	// === Streaming query methods======
+	/**
+	 * Return the fetch size used by streaming query, 0 means use JDBC driver's
+	 * default, subclass can override this method to return a dialect special
+	 * value
+	 */
+	protected int getQueryStreamFetchSize() {
+		return streamFetchSize == null ? 0 : streamFetchSize;
+	}
+
+	/**
+	 * Execute a query SQL and return a QueryStream, connection and ResultSet are
+	 * kept open until QueryStream be closed or all rows be read, query result will
+	 * not be cached
+	 * 
+	 * @param conn
+	 *            The connection, if is null, will get a connection from
+	 *            DataSource and release it when QueryStream closed
+	 * @param sqlHandler
+	 *            Optional, if is an AroundSqlHandler, will be used to explain SQL
+	 */
+	protected QueryStream openQueryStream(Connection conn, ResultSetHandler<?> sqlHandler, String sql,
+			Object... params) throws SQLException {
+		boolean closeConn = conn == null;
+		Connection con = conn;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		String explainedSql = sql;
+		try {
+			explainedSql = explainSql(sqlHandler, sql, params);
+			StatementOptionHandler option = currentSession.get().getStatementOption();
+			if (closeConn)
+				con = this.prepareConnection();
+			stmt = this.prepareStatement(con, explainedSql);
+			int streamSize = getQueryStreamFetchSize();
+			if (streamSize != 0 && (option == null || option.getFetchSize() == null))
+				stmt.setFetchSize(streamSize);
+			this.fillStatement(stmt, params);
+			long start = executeStart();
+			rs = this.wrap(stmt.executeQuery());
+			QueryStream stream = new QueryStream(this, con, closeConn, stmt, rs);
+			stream.setSqlLog(explainedSql, params, start);
+			return stream;
+		} catch (SQLException e) {
+			DbUtils.closeQuietly(rs);
+			if (stmt != null)
+				try {
+					this.discardStatement(stmt);
+				} catch (SQLException e2) {// NOSONAR
+					// ignore
+				}
+			if (closeConn && con != null)
+				try {
+					this.close(con);
+				} catch (SQLException e2) {// NOSONAR
+					// ignore
+				}
+			super.rethrow(e, explainedSql, params);
+			return null;
+		} finally {
+			handlerSession().clearHandlers();
+		}
+	}
+
+	/**
+	 * Execute a query SQL and read rows one by one from a QueryStream, must close
+	 * it in a finally block
+	 */
+	public QueryStream queryStream(Connection conn, String sql, Object... params) throws SQLException {
+		return openQueryStream(conn, null, sql, params);
+	}
+
+	/**
+	 * Execute a query SQL and read rows one by one from a QueryStream, must close
+	 * it in a finally block, connection got from DataSource will be released when
+	 * QueryStream closed
+	 */
+	public QueryStream queryStream(String sql, Object... params) throws SQLException {
+		return openQueryStream(null, null, sql, params);
+	}
+
+	/**
+	 * Execute a query SQL and call rowCallback for each row, stop if rowCallback
+	 * return false, return how many rows be handled
+	 */
+	public int queryEach(Connection conn, String sql, RowCallback rowCallback, Object... params)
+			throws SQLException {
+		return queryEach(openQueryStream(conn, null, sql, params), rowCallback);
+	}
+
+	/**
+	 * Execute a query SQL and call rowCallback for each row, stop if rowCallback
+	 * return false, return how many rows be handled
+	 */
+	public int queryEach(String sql, RowCallback rowCallback, Object... params) throws SQLException {
+		return queryEach(openQueryStream(null, null, sql, params), rowCallback);
+	}
+
+	/** Read all rows of a QueryStream by given rowCallback and close it */
+	protected static int queryEach(QueryStream stream, RowCallback rowCallback) throws SQLException {
+		try {
+			while (stream.nextRow())
+				if (!rowCallback.handleRow(stream.getResultSet()))
+					break;
+			return stream.getRowCount();
 		} finally {
-			getThreadedHandlers().clear();
+			stream.close();
 		}
 	}
 
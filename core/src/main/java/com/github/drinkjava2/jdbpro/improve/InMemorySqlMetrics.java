@@ -0,0 +1,356 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+
+/**
+ * InMemorySqlMetrics is a SqlMetricsListener keep statistics in memory, SQL are
+ * grouped by SqlFingerprint, for each fingerprint it records executed count,
+ * latency histogram, rows returned or affected, cache hits and batch sizes.
+ * Latency histogram use 4 linear sub-buckets in each power of 2 microseconds,
+ * so percentile error is less than 25%. <br/>
+ *
+ * It can be exported as a JMX MBean by registerMBean method, no extra
+ * dependency needed.
+ *
+ * Usage: ImprovedQueryRunner.setGlobalMetricsListener(new
+ * InMemorySqlMetrics()); or config.setMetricsListener(metrics);
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class InMemorySqlMetrics implements SqlMetricsListener, InMemorySqlMetricsMBean {
+	/** Fingerprints more than maxFingerprints are recorded in this key */
+	public static final String OTHERS = "<others>";
+
+	private static final int BUCKETS = 168;
+
+	private final ConcurrentHashMap<String, StatementStats> stats = new ConcurrentHashMap<String, StatementStats>();
+	private final int maxFingerprints;
+	private ObjectName registeredName;
+
+	/** Statistics of one fingerprint */
+	private static class StatementStats {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong totalNanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong cacheHits = new AtomicLong();
+		final AtomicLong batches = new AtomicLong();
+		final AtomicLong batchItems = new AtomicLong();
+		final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		void record(long elapsedNanos, int rowCount, int batchSize) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(elapsedNanos);
+			long max = maxNanos.get();
+			while (elapsedNanos > max && !maxNanos.compareAndSet(max, elapsedNanos))
+				max = maxNanos.get();
+			rows.addAndGet(rowCount);
+			if (batchSize > 0) {
+				batches.incrementAndGet();
+				batchItems.addAndGet(batchSize);
+			}
+			histogram.incrementAndGet(bucketOf(elapsedNanos / 1000));
+		}
+	}
+
+	/** An immutable copy of statistics of one fingerprint */
+	public static class Snapshot {
+		private final String fingerprint;
+		private final long count;
+		private final long totalNanos;
+		private final long maxNanos;
+		private final long rows;
+		private final long cacheHits;
+		private final long batches;
+		private final long batchItems;
+		private final long[] histogram;
+
+		Snapshot(String fingerprint, StatementStats s) {
+			this.fingerprint = fingerprint;
+			this.histogram = new long[BUCKETS];
+			long histogramCount = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram[i] = s.histogram.get(i);
+				histogramCount += histogram[i];
+			}
+			this.count = histogramCount;
+			this.totalNanos = s.totalNanos.get();
+			this.maxNanos = s.maxNanos.get();
+			this.rows = s.rows.get();
+			this.cacheHits = s.cacheHits.get();
+			this.batches = s.batches.get();
+			this.batchItems = s.batchItems.get();
+		}
+
+		/**
+		 * @param percentile
+		 *            0 to 100, for example 99 means 99% statements faster than the
+		 *            returned value
+		 * @return Percentile time in milliseconds, 0 if no statement executed
+		 */
+		public double getPercentileMillis(double percentile) {
+			if (count == 0)
+				return 0;
+			long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+			if (rank < 1)
+				rank = 1;
+			long sum = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				sum += histogram[i];
+				if (sum >= rank)
+					return Math.min(upperMicrosOf(i) * 1000, maxNanos) / 1000000.0;
+			}
+			return maxNanos / 1000000.0;
+		}
+
+		public double getMeanMillis() {
+			return count == 0 ? 0 : totalNanos / 1000000.0 / count;
+		}
+
+		public double getTotalMillis() {
+			return totalNanos / 1000000.0;
+		}
+
+		public double getMaxMillis() {
+			return maxNanos / 1000000.0;
+		}
+
+		/** @return Average batch size, 0 if no batch executed */
+		public double getMeanBatchSize() {
+			return batches == 0 ? 0 : (double) batchItems / batches;
+		}
+
+		// getter ====
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getCacheHits() {
+			return cacheHits;
+		}
+
+		public long getBatches() {
+			return batches;
+		}
+
+		public long getBatchItems() {
+			return batchItems;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"count=%d, mean=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, max=%.3fms, rows=%d, cacheHits=%d, batches=%d, batchItems=%d  %s",
+					count, getMeanMillis(), getPercentileMillis(50), getPercentileMillis(90),
+					getPercentileMillis(99), getMaxMillis(), rows, cacheHits, batches, batchItems, fingerprint);
+		}
+	}
+
+	/** Build an InMemorySqlMetrics records at most 1000 fingerprints */
+	public InMemorySqlMetrics() {
+		this(1000);
+	}
+
+	/**
+	 * @param maxFingerprints
+	 *            Max fingerprints be recorded, others are recorded under key
+	 *            "&lt;others&gt;"
+	 */
+	public InMemorySqlMetrics(int maxFingerprints) {
+		this.maxFingerprints = maxFingerprints;
+	}
+
+	/**
+	 * Bucket index of a time in microseconds, 0 to 3 microseconds use their own
+	 * bucket, others use 4 sub-buckets per power of 2
+	 */
+	static int bucketOf(long micros) {
+		if (micros < 4)
+			return micros < 0 ? 0 : (int) micros;
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		int index = exp * 4 + (int) ((micros >>> (exp - 2)) & 3);
+		return index < BUCKETS ? index : BUCKETS - 1;
+	}
+
+	/** Exclusive upper bound of a bucket, in microseconds */
+	static long upperMicrosOf(int index) {
+		if (index < 4)
+			return index + 1L;
+		int exp = index / 4;
+		return (5L + index % 4) << (exp - 2);
+	}
+
+	private StatementStats statsOf(String sql) {
+		String fingerprint = SqlFingerprint.of(sql);
+		StatementStats s = stats.get(fingerprint);
+		if (s == null) {
+			if (stats.size() >= maxFingerprints)
+				fingerprint = OTHERS;
+			StatementStats newStats = new StatementStats();
+			s = stats.putIfAbsent(fingerprint, newStats);
+			if (s == null)
+				s = newStats;
+		}
+		return s;
+	}
+
+	@Override
+	public void onExecute(String sql, long elapsedNanos, int rows, int batchSize) {
+		if (sql != null)
+			statsOf(sql).record(elapsedNanos, rows, batchSize);
+	}
+
+	@Override
+	public void onCacheHit(String sql) {
+		if (sql != null)
+			statsOf(sql).cacheHits.incrementAndGet();
+	}
+
+	/** @return Snapshot of given fingerprint, null if not found */
+	public Snapshot getSnapshot(String fingerprint) {
+		StatementStats s = stats.get(fingerprint);
+		return s == null ? null : new Snapshot(fingerprint, s);
+	}
+
+	/** @return Snapshots of all fingerprints, slowest total time first */
+	public List<Snapshot> getSnapshots() {
+		List<Snapshot> result = new ArrayList<Snapshot>();
+		for (String fingerprint : stats.keySet()) {
+			Snapshot snapshot = getSnapshot(fingerprint);
+			if (snapshot != null)
+				result.add(snapshot);
+		}
+		Collections.sort(result, new Comparator<Snapshot>() {
+			@Override
+			public int compare(Snapshot a, Snapshot b) {
+				return a.totalNanos < b.totalNanos ? 1 : (a.totalNanos == b.totalNanos ? 0 : -1);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Register this object to platform MBeanServer
+	 *
+	 * @param name
+	 *            ObjectName, for example
+	 *            "com.github.drinkjava2.jdbpro:type=SqlMetrics,name=ds1"
+	 */
+	public synchronized void registerMBean(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			server.registerMBean(this, objectName);
+			registeredName = objectName;
+		} catch (Exception e) {
+			throw new DbProRuntimeException("Can not register SQL metrics MBean '" + name + "'", e);
+		}
+	}
+
+	/** Unregister this object from platform MBeanServer if registered */
+	public synchronized void unregisterMBean() {
+		if (registeredName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch (Exception e) {
+			throw new DbProRuntimeException("Can not unregister SQL metrics MBean '" + registeredName + "'", e);
+		} finally {
+			registeredName = null;
+		}
+	}
+
+	// MBean methods ====
+	@Override
+	public int getFingerprintCount() {
+		return stats.size();
+	}
+
+	@Override
+	public String[] getFingerprints() {
+		return stats.keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public long getTotalCount() {
+		long total = 0;
+		for (StatementStats s : stats.values())
+			total += s.count.get();
+		return total;
+	}
+
+	@Override
+	public long getTotalCacheHits() {
+		long total = 0;
+		for (StatementStats s : stats.values())
+			total += s.cacheHits.get();
+		return total;
+	}
+
+	@Override
+	public String getReport() {
+		StringBuilder sb = new StringBuilder();
+		for (Snapshot snapshot : getSnapshots())
+			sb.append(snapshot).append('\n');
+		return sb.toString();
+	}
+
+	@Override
+	public long getCount(String fingerprint) {
+		StatementStats s = stats.get(fingerprint);
+		return s == null ? 0 : s.count.get();
+	}
+
+	@Override
+	public double getMeanMillis(String fingerprint) {
+		Snapshot snapshot = getSnapshot(fingerprint);
+		return snapshot == null ? 0 : snapshot.getMeanMillis();
+	}
+
+	@Override
+	public double getPercentileMillis(String fingerprint, double percentile) {
+		Snapshot snapshot = getSnapshot(fingerprint);
+		return snapshot == null ? 0 : snapshot.getPercentileMillis(percentile);
+	}
+
+	@Override
+	public void reset() {
+		stats.clear();
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+/**
+ * JMX MBean interface of InMemorySqlMetrics, times are in milliseconds
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public interface InMemorySqlMetricsMBean {
+
+	/** @return How many fingerprints be recorded */
+	public int getFingerprintCount();
+
+	/** @return All recorded fingerprints */
+	public String[] getFingerprints();
+
+	/** @return Total executed statements of all fingerprints */
+	public long getTotalCount();
+
+	/** @return Total cache hits of all fingerprints */
+	public long getTotalCacheHits();
+
+	/** @return A text report of all fingerprints, slowest total time first */
+	public String getReport();
+
+	/** @return Executed count of given fingerprint */
+	public long getCount(String fingerprint);
+
+	/** @return Average time of given fingerprint */
+	public double getMeanMillis(String fingerprint);
+
+	/** @return Percentile time of given fingerprint, percentile is 0 to 100 */
+	public double getPercentileMillis(String fingerprint, double percentile);
+
+	/** Clear all recorded statistics */
+	public void reset();
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+/**
+ * MultiRowInsert parse an "insert into tb (...) values (?,?...)" SQL and can
+ * build a multiple rows SQL like "insert into tb (...) values (?,?),(?,?)...",
+ * so K rows can be sent to database by one statement instead of K statements.
+ * <br/>
+ * Only SQL which has exactly one values group and all "?" parameters are in the
+ * values group be supported, for other SQL parse() method return null.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class MultiRowInsert {
+	private final String head;
+	private final String valuesGroup;
+	private final int paramCount;
+
+	private MultiRowInsert(String head, String valuesGroup, int paramCount) {
+		this.head = head;
+		this.valuesGroup = valuesGroup;
+		this.paramCount = paramCount;
+	}
+
+	/**
+	 * Parse an insert SQL, return null if it can not be rewritten to multiple
+	 * rows SQL
+	 */
+	public static MultiRowInsert parse(String sql) {
+		if (sql == null)
+			return null;
+		String trimed = sql.trim();
+		if (trimed.length() < 6 || !trimed.regionMatches(true, 0, "insert", 0, 6))
+			return null;
+		int len = trimed.length();
+		int valuesStart = -1;
+		char quote = 0;
+		int totalParams = 0;
+		for (int i = 0; i < len; i++) {
+			char c = trimed.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+			} else if (c == '\'' || c == '"' || c == '`')
+				quote = c;
+			else if (c == '?')
+				totalParams++;
+			else if (valuesStart < 0 && (c == 'v' || c == 'V') && trimed.regionMatches(true, i, "values", 0, 6)
+					&& (i == 0 || !isWordChar(trimed.charAt(i - 1)))
+					&& (i + 6 == len || !isWordChar(trimed.charAt(i + 6))))
+				valuesStart = i + 6;
+		}
+		if (valuesStart < 0 || quote != 0)
+			return null;
+		int groupStart = valuesStart;
+		while (groupStart < len && Character.isWhitespace(trimed.charAt(groupStart)))
+			groupStart++;
+		if (groupStart == len || trimed.charAt(groupStart) != '(')
+			return null;
+		int depth = 0;
+		int groupParams = 0;
+		int groupEnd = -1;
+		for (int i = groupStart; i < len && groupEnd < 0; i++) {
+			char c = trimed.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+			} else if (c == '\'' || c == '"' || c == '`')
+				quote = c;
+			else if (c == '?')
+				groupParams++;
+			else if (c == '(')
+				depth++;
+			else if (c == ')' && --depth == 0)
+				groupEnd = i + 1;
+		}
+		if (groupEnd < 0 || groupParams == 0 || groupParams != totalParams)
+			return null;
+		for (int i = groupEnd; i < len; i++)
+			if (!Character.isWhitespace(trimed.charAt(i)))
+				return null;
+		return new MultiRowInsert(trimed.substring(0, groupStart), trimed.substring(groupStart, groupEnd),
+				groupParams);
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	/** Build a SQL which insert given rows */
+	public String buildSql(int rows) {
+		StringBuilder sb = new StringBuilder(head.length() + rows * (valuesGroup.length() + 1));
+		sb.append(head);
+		for (int i = 0; i < rows; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(valuesGroup);
+		}
+		return sb.toString();
+	}
+
+	/** @return How many "?" parameters in one row */
+	public int getParamCount() {
+		return paramCount;
+	}
+}
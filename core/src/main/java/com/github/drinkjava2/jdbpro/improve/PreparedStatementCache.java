@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.dbutils.DbUtils;
+
+/**
+ * PreparedStatementCache cache PreparedStatements by SQL text for each
+ * connection, so if a connection is kept by a transaction, execute same SQL
+ * many times only need prepare it once. Each connection has a LRU cache with
+ * limited size, eldest statement will be closed if cache is full. <br/>
+ * 
+ * A statement is taken out from cache when be used, and put back when be
+ * closed, so same SQL used in nested way on same connection will not share one
+ * statement. Batch and parameters of a statement are cleared before it be put
+ * back, a statement failed in execution should be discarded instead. All
+ * statements of a connection are closed when it be released. A connection
+ * closed out of this cache (for example by ConnectionManager when transaction
+ * end) is found and removed every SWEEP_INTERVAL times of take and giveBack,
+ * or when removeClosedConnections method be called. <br/>
+ * 
+ * Each connection has its own lock, threads use different connections do not
+ * block each other.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class PreparedStatementCache {
+	/** How many take and giveBack calls between two closed connections checks */
+	public static final int SWEEP_INTERVAL = 1000;
+
+	private final int maxSize;
+	private final AtomicInteger opCount = new AtomicInteger();
+	private final ConcurrentHashMap<Connection, ConnectionStatements> cached = new ConcurrentHashMap<Connection, ConnectionStatements>();
+	private final ConcurrentHashMap<PreparedStatement, Borrowed> inUse = new ConcurrentHashMap<PreparedStatement, Borrowed>();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/** Cached statements of one connection, guarded by itself */
+	private static class ConnectionStatements {
+		final Connection conn;
+		final LinkedHashMap<String, PreparedStatement> stmts = new LinkedHashMap<String, PreparedStatement>(16, 0.75f,
+				true);
+		final AtomicInteger borrowed = new AtomicInteger();
+		boolean removed = false;
+
+		ConnectionStatements(Connection conn) {
+			this.conn = conn;
+		}
+
+		synchronized void closeAll() {
+			removed = true;
+			for (PreparedStatement stmt : stmts.values())
+				DbUtils.closeQuietly(stmt);
+			stmts.clear();
+		}
+	}
+
+	/** A statement in use, and where it come from */
+	private static class Borrowed {
+		final ConnectionStatements owner;
+		final String sql;
+
+		Borrowed(ConnectionStatements owner, String sql) {
+			this.owner = owner;
+			this.sql = sql;
+		}
+	}
+
+	/**
+	 * @param maxSize
+	 *            Max statements can be cached for each connection
+	 */
+	public PreparedStatementCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Take out a cached statement of given connection and SQL, return null if not
+	 * found
+	 */
+	public PreparedStatement take(Connection conn, String sql) {
+		sweepIfNeeded();
+		ConnectionStatements cs = cached.get(conn);
+		PreparedStatement stmt = null;
+		if (cs != null)
+			synchronized (cs) {
+				stmt = cs.stmts.remove(sql);
+			}
+		if (stmt == null)
+			missCount.incrementAndGet();
+		else
+			hitCount.incrementAndGet();
+		return stmt;
+	}
+
+	/**
+	 * Register a statement be used by given connection and SQL, it will be put
+	 * back into cache when giveBack method be called
+	 */
+	public void register(Connection conn, String sql, PreparedStatement stmt) {
+		ConnectionStatements cs = cached.get(conn);
+		if (cs == null) {
+			ConnectionStatements newCs = new ConnectionStatements(conn);
+			cs = cached.putIfAbsent(conn, newCs);
+			if (cs == null)
+				cs = newCs;
+		}
+		cs.borrowed.incrementAndGet();
+		inUse.put(stmt, new Borrowed(cs, sql));
+	}
+
+	/**
+	 * Put back a registered statement into cache, its batch and parameters are
+	 * cleared. Return false if statement is not registered, its connection is
+	 * closed or it can not be cleared, caller should close it
+	 */
+	public boolean giveBack(PreparedStatement stmt) {
+		Borrowed b = inUse.remove(stmt);
+		if (b == null)
+			return false;
+		ConnectionStatements cs = b.owner;
+		cs.borrowed.decrementAndGet();
+		sweepIfNeeded();
+		if (isClosed(cs.conn)) {
+			removeConnection(cs);
+			return false;
+		}
+		try {
+			stmt.clearBatch();
+			stmt.clearParameters();
+		} catch (SQLException e) {// NOSONAR
+			return false;
+		}
+		synchronized (cs) {
+			if (cs.removed)
+				return false;
+			PreparedStatement old = cs.stmts.put(b.sql, stmt);
+			if (old != null && old != stmt)
+				DbUtils.closeQuietly(old);
+			Iterator<PreparedStatement> it = cs.stmts.values().iterator();
+			while (cs.stmts.size() > maxSize && it.hasNext()) {
+				DbUtils.closeQuietly(it.next());
+				it.remove();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Forget a registered statement without put it back, used when execution of
+	 * the statement failed, caller should close it
+	 */
+	public void discard(PreparedStatement stmt) {
+		Borrowed b = inUse.remove(stmt);
+		if (b != null)
+			b.owner.borrowed.decrementAndGet();
+	}
+
+	/** Close all cached statements of given connection */
+	public void closeStatements(Connection conn) {
+		ConnectionStatements cs = cached.get(conn);
+		if (cs == null)
+			return;
+		removeConnection(cs);
+		Iterator<Borrowed> it = inUse.values().iterator();
+		while (it.hasNext())
+			if (it.next().owner == cs)
+				it.remove();
+	}
+
+	/** @return true if has cached statements for given connection */
+	public boolean contains(Connection conn) {
+		return cached.containsKey(conn);
+	}
+
+	/**
+	 * Close statements of all connections closed out of this cache, connections
+	 * have statements in use are not checked
+	 */
+	public void removeClosedConnections() {
+		dropClosedConnections(null);
+	}
+
+	private void sweepIfNeeded() {
+		if (opCount.incrementAndGet() % SWEEP_INTERVAL == 0)
+			dropClosedConnections(null);
+	}
+
+	private void removeConnection(ConnectionStatements cs) {
+		cached.remove(cs.conn, cs);
+		cs.closeAll();
+	}
+
+	/**
+	 * Remove connections closed out of this cache (for example closed by
+	 * ConnectionManager when transaction end), connections have statements in use
+	 * are not checked
+	 */
+	private void dropClosedConnections(Connection current) {
+		for (ConnectionStatements cs : cached.values())
+			if (cs.conn != current && cs.borrowed.get() == 0 && isClosed(cs.conn))
+				removeConnection(cs);
+	}
+
+	private static boolean isClosed(Connection conn) {
+		try {
+			return conn.isClosed();
+		} catch (SQLException e) {// NOSONAR
+			return true;
+		}
+	}
+
+	/** @return How many statements cached, not include statements in use */
+	public int size() {
+		int size = 0;
+		for (ConnectionStatements cs : cached.values())
+			synchronized (cs) {
+				size += cs.stmts.size();
+			}
+		return size;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
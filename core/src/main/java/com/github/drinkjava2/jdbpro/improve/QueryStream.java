@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.dbutils.BasicRowProcessor;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.dbutils.RowProcessor;
+
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+
+/**
+ * QueryStream is a closeable iterator of a streaming query, rows are read from
+ * database only when be iterated, so can handle a very big result set without
+ * load all rows into memory. The connection, statement and ResultSet are kept
+ * open until all rows are read or close() method be called, so always close it
+ * in a finally block.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class QueryStream implements Iterator<Map<String, Object>>, Closeable {
+	private static final RowProcessor ROW_PROCESSOR = new BasicRowProcessor();
+
+	private final ImprovedQueryRunner runner;
+	private final Connection conn;
+	private final boolean closeConn;
+	private final Statement stmt;
+	private final ResultSet rs;
+	private Boolean hasNextRow = null;
+	private boolean closed = false;
+	private int rowCount = 0;
+	private String logSql;
+	private Object[] logParams;
+	private long logStart;
+
+	public QueryStream(ImprovedQueryRunner runner, Connection conn, boolean closeConn, Statement stmt,
+			ResultSet rs) {
+		this.runner = runner;
+		this.conn = conn;
+		this.closeConn = closeConn;
+		this.stmt = stmt;
+		this.rs = rs;
+	}
+
+	/**
+	 * Set SQL, parameters and start time, they will be sent to sqlLogger and
+	 * metricsListener of runner when stream be closed
+	 */
+	void setSqlLog(String sql, Object[] params, long start) {
+		this.logSql = sql;
+		this.logParams = params;
+		this.logStart = start;
+	}
+
+	/** Move to next row, return false and close the stream if no more rows */
+	public boolean nextRow() {
+		if (hasNextRow == null)
+			hasNext();
+		boolean result = hasNextRow;
+		if (result) {
+			hasNextRow = null;
+			rowCount++;
+		}
+		return result;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed)
+			return false;
+		if (hasNextRow == null) {
+			try {
+				hasNextRow = rs.next();
+			} catch (SQLException e) {
+				close();
+				throw new DbProRuntimeException(e);
+			}
+			if (!hasNextRow)
+				close();
+		}
+		return hasNextRow;
+	}
+
+	/** @return Current row as a Map, key is column label */
+	@Override
+	public Map<String, Object> next() {
+		if (!nextRow())
+			throw new NoSuchElementException();
+		try {
+			return ROW_PROCESSOR.toMap(rs);
+		} catch (SQLException e) {
+			close();
+			throw new DbProRuntimeException(e);
+		}
+	}
+
+	/** @return Current row as a bean of given class */
+	public <T> T next(Class<T> beanClass) {
+		if (!nextRow())
+			throw new NoSuchElementException();
+		try {
+			return ROW_PROCESSOR.toBean(rs, beanClass);
+		} catch (SQLException e) {
+			close();
+			throw new DbProRuntimeException(e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("QueryStream is read only");
+	}
+
+	/**
+	 * Close ResultSet and statement, if connection is got by this stream, release
+	 * it also
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		hasNextRow = Boolean.FALSE;
+		DbUtils.closeQuietly(rs);
+		runner.afterExecute(logSql, logStart, rowCount, logParams);
+		try {
+			runner.close(stmt);
+		} catch (SQLException e) {// NOSONAR
+			// ignore
+		}
+		if (closeConn)
+			try {
+				runner.close(conn);
+			} catch (SQLException e) {
+				throw new DbProRuntimeException(e);
+			}
+	}
+
+	/**
+	 * @return The ResultSet, after nextRow() returned true it's positioned at
+	 *         current row
+	 */
+	public ResultSet getResultSet() {
+		return rs;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/** @return How many rows be read */
+	public int getRowCount() {
+		return rowCount;
+	}
+}
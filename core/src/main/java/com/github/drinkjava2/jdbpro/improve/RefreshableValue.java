@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import com.github.drinkjava2.jdbpro.handler.StaleServableValue;
+
+/**
+ * RefreshableValue is a cached query result used for stale-while-revalidate
+ * cache mode, after cache handler's alive time the value is still be served
+ * for staleMillis, but a background refresh will be started
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class RefreshableValue implements StaleServableValue {
+	private final Object value;
+	private final long staleMillis;
+	private volatile long freshUntil = Long.MAX_VALUE;
+
+	public RefreshableValue(Object value, long staleMillis) {
+		this.value = value;
+		this.staleMillis = staleMillis;
+	}
+
+	/** @return true if value is out of date and need be refreshed */
+	public boolean needRefresh() {
+		return System.currentTimeMillis() >= freshUntil;
+	}
+
+	@Override
+	public Object getValue() {
+		return value;
+	}
+
+	@Override
+	public long getStaleMillis() {
+		return staleMillis;
+	}
+
+	@Override
+	public void setFreshUntil(long freshUntil) {
+		this.freshUntil = freshUntil;
+	}
+
+	public long getFreshUntil() {
+		return freshUntil;
+	}
+}
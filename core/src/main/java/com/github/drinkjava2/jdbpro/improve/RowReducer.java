@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.util.Map;
+
+/**
+ * RowReducer is used by scatter/gather query methods, rows of all queries are
+ * passed to reduce method one by one in caller thread, so it need not be
+ * thread-safe.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public interface RowReducer<R> {
+	/**
+	 * Reduce one row into result
+	 * 
+	 * @param result
+	 *            The result of previous rows, or the initial value
+	 * @param row
+	 *            Current row, key is column label
+	 * @return The new result
+	 */
+	public R reduce(R result, Map<String, Object> row);
+}
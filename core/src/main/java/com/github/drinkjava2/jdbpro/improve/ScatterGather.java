@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.drinkjava2.jdbpro.DbPro;
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
+
+/**
+ * ScatterGather run a list of independent queries concurrently, each query in
+ * its own thread with its own connection, rows are streamed by QueryStream into
+ * bounded buffers and merged in caller thread by a RowReducer, so memory used
+ * is bounded no matter how big the result sets are. <br/>
+ *
+ * 3 merge modes are supported:<br/>
+ * 1) Concatenate: rows of first query, then rows of second query...<br/>
+ * 2) Ordered merge: each query's result is already sorted, do a k-way merge by
+ * given comparator, all queries must be opened at same time, so maxConcurrency
+ * can not less than query count<br/>
+ * 3) Arrival order: rows are reduced in the order they arrived, fastest one
+ * <br/>
+ *
+ * Note: queries run in worker threads, so are out of caller's transaction.
+ * Worker threads come from a shared cached pool, not from AsyncQueryExecutor:
+ * workers block on bounded row buffers until caller drains them, and ordered
+ * merge need all queries streaming at same time, a bounded executor shared with
+ * other tasks (or a scatter query called inside an async task) could deadlock.
+ * At most maxConcurrency queries of a call run at same time. A ScatterGather
+ * can be reused, each call has its own cancel state.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class ScatterGather {// NOSONAR
+	/** Rows can be buffered for each query */
+	private static final int BUFFER_ROWS = 256;
+
+	/** A RowReducer add all rows into a List */
+	public static final RowReducer<List<Map<String, Object>>> TO_LIST = new RowReducer<List<Map<String, Object>>>() {
+		@Override
+		public List<Map<String, Object>> reduce(List<Map<String, Object>> result, Map<String, Object> row) {
+			result.add(row);
+			return result;
+		}
+	};
+
+	private static final Object END = new Object();
+	private static final AtomicInteger threadNo = new AtomicInteger();
+
+	/** Shared worker threads, idle threads exit after 60 seconds */
+	private static final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ScatterGather-" + threadNo.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final DbPro dbPro;
+	private final int maxConcurrency;
+	private final PreparedSQL[] sqls;
+
+	/** Error happened in worker thread */
+	private static class Failure {
+		final Throwable error;
+
+		Failure(Throwable error) {
+			this.error = error;
+		}
+	}
+
+	/** Current row of a query in ordered merge */
+	private static class Head {
+		final Map<String, Object> row;
+		final int source;
+
+		Head(Map<String, Object> row, int source) {
+			this.row = row;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Build a ScatterGather
+	 *
+	 * @param dbPro
+	 *            The DbPro used to run queries
+	 * @param maxConcurrency
+	 *            Max queries can run at same time, should not bigger than max
+	 *            connections of connection pool
+	 * @param sqls
+	 *            The queries, handlers of PreparedSQL like PaginHandler are
+	 *            applied
+	 */
+	public ScatterGather(DbPro dbPro, int maxConcurrency, List<PreparedSQL> sqls) {
+		if (maxConcurrency < 1)
+			throw new DbProRuntimeException("maxConcurrency should be at least 1");
+		this.dbPro = dbPro;
+		this.maxConcurrency = maxConcurrency;
+		this.sqls = sqls.toArray(new PreparedSQL[sqls.size()]);
+	}
+
+	/** Reduce rows query by query, in the order of the query list */
+	public <R> R concat(R initial, RowReducer<R> reducer) {
+		List<BlockingQueue<Object>> queues = createQueues(sqls.length, BUFFER_ROWS);
+		AtomicBoolean cancelled = start(queues);
+		try {
+			R result = initial;
+			for (BlockingQueue<Object> queue : queues) {
+				Object item = take(queue);
+				while (item != END) {
+					result = reduce(reducer, result, item);
+					item = take(queue);
+				}
+			}
+			return result;
+		} finally {
+			cancelled.set(true);
+		}
+	}
+
+	/**
+	 * Reduce rows in order of given comparator, result of each query must be
+	 * already sorted by same order, if 2 rows equal, row of former query first
+	 */
+	public <R> R merge(final Comparator<Map<String, Object>> comparator, R initial, RowReducer<R> reducer) {
+		if (maxConcurrency < sqls.length)
+			throw new DbProRuntimeException("Ordered merge need all " + sqls.length
+					+ " queries be opened at same time, but maxConcurrency is " + maxConcurrency);
+		List<BlockingQueue<Object>> queues = createQueues(sqls.length, BUFFER_ROWS);
+		AtomicBoolean cancelled = start(queues);
+		try {
+			PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, sqls.length), new Comparator<Head>() {
+				@Override
+				public int compare(Head h1, Head h2) {
+					int result = comparator.compare(h1.row, h2.row);
+					return result != 0 ? result : h1.source - h2.source;
+				}
+			});
+			for (int i = 0; i < queues.size(); i++)
+				addHead(heads, queues.get(i), i);
+			R result = initial;
+			while (!heads.isEmpty()) {
+				Head head = heads.poll();
+				result = reducer.reduce(result, head.row);
+				addHead(heads, queues.get(head.source), head.source);
+			}
+			return result;
+		} finally {
+			cancelled.set(true);
+		}
+	}
+
+	/** Reduce rows in the order they arrived from all queries */
+	public <R> R arrival(R initial, RowReducer<R> reducer) {
+		BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(
+				BUFFER_ROWS * Math.min(maxConcurrency, Math.max(1, sqls.length)));
+		List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>(sqls.length);
+		for (int i = 0; i < sqls.length; i++)
+			queues.add(queue);
+		AtomicBoolean cancelled = start(queues);
+		try {
+			R result = initial;
+			int finished = 0;
+			while (finished < sqls.length) {
+				Object item = take(queue);
+				if (item == END)
+					finished++;
+				else
+					result = reduce(reducer, result, item);
+			}
+			return result;
+		} finally {
+			cancelled.set(true);
+		}
+	}
+
+	private static List<BlockingQueue<Object>> createQueues(int count, int capacity) {
+		List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>(count);
+		for (int i = 0; i < count; i++)
+			queues.add(new ArrayBlockingQueue<Object>(capacity));
+		return queues;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> R reduce(RowReducer<R> reducer, R result, Object row) {
+		return reducer.reduce(result, (Map<String, Object>) row);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addHead(PriorityQueue<Head> heads, BlockingQueue<Object> queue, int source) {
+		Object item = take(queue);
+		if (item != END)
+			heads.add(new Head((Map<String, Object>) item, source));
+	}
+
+	/**
+	 * Start workers, at most maxConcurrency queries run at same time, queries are
+	 * started in list order, so a query always start before queries after it.
+	 * Return the cancel flag of this call, set it to stop all queries not
+	 * finished
+	 */
+	private AtomicBoolean start(final List<BlockingQueue<Object>> queues) {
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+		final AtomicInteger next = new AtomicInteger();
+		int count = Math.min(maxConcurrency, sqls.length);
+		try {
+			for (int i = 0; i < count; i++)
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						for (int index = next.getAndIncrement(); index < sqls.length
+								&& !cancelled.get(); index = next.getAndIncrement())
+							fetch(sqls[index], queues.get(index), cancelled);
+					}
+				});
+		} catch (RuntimeException e) {
+			cancelled.set(true);
+			throw e;
+		}
+		return cancelled;
+	}
+
+	/** Run in worker thread, stream rows of a query into queue */
+	private void fetch(PreparedSQL sql, BlockingQueue<Object> queue, AtomicBoolean cancelled) {
+		QueryStream stream = null;
+		try {
+			stream = dbPro.nQueryStream(sql);
+			while (!cancelled.get() && stream.hasNext())
+				put(queue, stream.next(), cancelled);
+			put(queue, END, cancelled);
+		} catch (Throwable e) {// NOSONAR
+			put(queue, new Failure(e), cancelled);
+		} finally {
+			if (stream != null)
+				stream.close();
+		}
+	}
+
+	/** Put item into queue, give up if cancelled */
+	private static void put(BlockingQueue<Object> queue, Object item, AtomicBoolean cancelled) {
+		boolean added = false;
+		try {
+			while (!cancelled.get() && !added)
+				added = queue.offer(item, 100, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelled.set(true);
+		}
+	}
+
+	/** Take an item from queue, if it's a Failure throw its error */
+	private static Object take(BlockingQueue<Object> queue) {
+		Object item;
+		try {
+			item = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbProRuntimeException(e);
+		}
+		if (item instanceof Failure) {
+			Throwable error = ((Failure) item).error;
+			throw new DbProRuntimeException("Scatter query failed: " + error.getMessage(), error);
+		}
+		return item;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.github.drinkjava2.jdbpro.DbProLogger.DefaultDbProLogger;
+
+/**
+ * SingleFlight make sure for one key only one loader is running at same time,
+ * other threads asking the same key wait and share the result of the running
+ * loader, used to avoid many threads run the same query when a popular cached
+ * value expired.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class SingleFlight {
+	private static ThreadPoolExecutor refreshExecutor = null;// NOSONAR
+
+	private final ConcurrentHashMap<Object, FutureTask<Object>> calls = new ConcurrentHashMap<Object, FutureTask<Object>>();
+
+	/**
+	 * Run loader for given key, if a loader of same key is running, wait and
+	 * return its result instead of run again
+	 */
+	public Object execute(Object key, Callable<Object> loader) throws SQLException {
+		FutureTask<Object> task = new FutureTask<Object>(loader);
+		FutureTask<Object> running = calls.putIfAbsent(key, task);
+		if (running == null) {
+			try {
+				task.run();
+			} finally {
+				calls.remove(key, task);
+			}
+			running = task;
+		}
+		return getResult(running);
+	}
+
+	/**
+	 * Run loader in background thread if no loader of same key is running,
+	 * return false if not started because a same key loader is running or
+	 * background threads are too busy
+	 */
+	public boolean executeInBackground(final Object key, Callable<Object> loader) {
+		final FutureTask<Object> task = new FutureTask<Object>(loader) {
+			@Override
+			protected void done() {
+				calls.remove(key, this);
+				if (isCancelled())
+					return;
+				try {
+					get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					DefaultDbProLogger.getLog(SingleFlight.class)
+							.warn("Background refresh of cache key '" + key + "' failed: " + e.getCause());
+				}
+			}
+		};
+		if (calls.putIfAbsent(key, task) != null)
+			return false;
+		try {
+			getRefreshExecutor().execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			calls.remove(key, task);
+			return false;
+		}
+	}
+
+	/** @return How many loaders are running */
+	public int getRunningCount() {
+		return calls.size();
+	}
+
+	private static Object getResult(FutureTask<Object> task) throws SQLException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted when wait for query result", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException)
+				throw (SQLException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new SQLException(cause);
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor getRefreshExecutor() {
+		if (refreshExecutor == null) {
+			refreshExecutor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(1000), new ThreadFactory() {
+						private int count = 0;
+
+						@Override
+						public synchronized Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "SingleFlight-refresh-" + count++);
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			refreshExecutor.allowCoreThreadTimeOut(true);
+		}
+		return refreshExecutor;
+	}
+}
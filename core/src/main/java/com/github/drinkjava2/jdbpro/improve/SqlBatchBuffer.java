@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.sql.Connection;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.handler.BatchRowsHandler;
+
+/**
+ * SqlBatchBuffer store a group of batch SQL, all rows in one group share same
+ * BatchType, SQL, handler and connection, so they are only stored once as group
+ * header, only parameter rows be stored in a growable 2d array, the array will
+ * be reused after clear() be called.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+@SuppressWarnings("rawtypes")
+public class SqlBatchBuffer {
+	/** Shared parameter row for SQL has no parameter */
+	public static final Object[] EMPTY_ROW = new Object[0];
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private BatchType type;
+	private String sql;
+	private ResultSetHandler rsh;
+	private Connection conn;
+	private Object[][] rows;
+	private int size = 0;
+
+	public SqlBatchBuffer() {
+		rows = new Object[DEFAULT_CAPACITY][];
+	}
+
+	public SqlBatchBuffer(int initialCapacity) {
+		rows = new Object[initialCapacity > 0 ? initialCapacity : DEFAULT_CAPACITY][];
+	}
+
+	private SqlBatchBuffer(SqlBatchBuffer from) {
+		this.type = from.type;
+		this.sql = from.sql;
+		this.rsh = from.rsh;
+		this.conn = from.conn;
+		this.rows = from.rows;
+		this.size = from.size;
+	}
+
+	/**
+	 * Set the group header, should only be called when buffer is empty
+	 */
+	public void startGroup(BatchType type, String sql, ResultSetHandler rsh, Connection conn) {
+		this.type = type;
+		this.sql = sql;
+		this.rsh = rsh;
+		this.conn = conn;
+	}
+
+	/**
+	 * @return true if given SQL can be put into current group
+	 */
+	public boolean isSameGroup(BatchType type, String sql, ResultSetHandler rsh, Connection conn) {
+		return this.type == type && this.rsh == rsh && this.conn == conn
+				&& (this.sql == sql || (this.sql != null && this.sql.equals(sql)));
+	}
+
+	/** Add a parameter row, array will grow if full */
+	public void addRow(Object[] row) {
+		if (size == rows.length) {
+			Object[][] newRows = new Object[rows.length << 1][];
+			System.arraycopy(rows, 0, newRows, 0, size);
+			rows = newRows;
+		}
+		rows[size++] = row == null ? EMPTY_ROW : row;
+	}
+
+	/**
+	 * Clear rows but keep group header, the rows array is kept for reuse
+	 */
+	public void clearRows() {
+		for (int i = 0; i < size; i++)
+			rows[i] = null;
+		size = 0;
+	}
+
+	/**
+	 * Clear rows not be executed, if handler of the group is a BatchRowsHandler,
+	 * tell it rows are discarded
+	 */
+	public void discardRows() {
+		if (size > 0 && rsh instanceof BatchRowsHandler)
+			((BatchRowsHandler) rsh).rowsDiscarded();
+		clearRows();
+	}
+
+	/**
+	 * Move all rows to a new SqlBatchBuffer which has same group header, this
+	 * buffer keep its header and become empty, used to hand over a full group to
+	 * other thread
+	 */
+	public SqlBatchBuffer detachRows() {
+		SqlBatchBuffer detached = new SqlBatchBuffer(this);
+		rows = new Object[rows.length][];
+		size = 0;
+		return detached;
+	}
+
+	/**
+	 * Clear group header and rows, the rows array is kept for reuse, rows not
+	 * executed are discarded
+	 */
+	public void clear() {
+		discardRows();
+		type = null;
+		sql = null;
+		rsh = null;
+		conn = null;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** @return the parameter row at given index */
+	public Object[] getRow(int index) {
+		return rows[index];
+	}
+
+	/** @return the internal rows array, only first size() items are valid */
+	Object[][] rows() {
+		return rows;
+	}
+
+	// getter ====
+	public BatchType getType() {
+		return type;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public ResultSetHandler getRsh() {
+		return rsh;
+	}
+
+	public Connection getConn() {
+		return conn;
+	}
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * SqlBatchCache store all pending SqlBatchBuffer groups of one thread, groups
+ * are kept in the order they first appeared, and can be found by a map keyed
+ * by type, SQL, handler and connection. Removed SqlBatchBuffer instances are
+ * kept for reuse, at most MAX_SPARES of them.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+@SuppressWarnings("rawtypes")
+public class SqlBatchCache {
+	/** Max removed SqlBatchBuffer instances kept for reuse */
+	private static final int MAX_SPARES = 16;
+
+	private final List<SqlBatchBuffer> buffers = new ArrayList<SqlBatchBuffer>();
+	private final Map<GroupKey, SqlBatchBuffer> groups = new HashMap<GroupKey, SqlBatchBuffer>();
+	private final List<SqlBatchBuffer> spares = new ArrayList<SqlBatchBuffer>();
+	private SqlBatchBuffer lastUsed = null;
+	private Map<Object, Object> attributes = null;
+
+	// Below fields are shared with AsyncBatchFlusher threads, guarded by this
+	private int asyncPending = 0;
+	private Throwable asyncError = null;
+
+	/** Key of a group, handler and connection are compared by identity */
+	private static class GroupKey {
+		final BatchType type;
+		final String sql;
+		final ResultSetHandler rsh;
+		final Connection conn;
+
+		GroupKey(BatchType type, String sql, ResultSetHandler rsh, Connection conn) {
+			this.type = type;
+			this.sql = sql;
+			this.rsh = rsh;
+			this.conn = conn;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof GroupKey))
+				return false;
+			GroupKey k = (GroupKey) o;
+			return type == k.type && rsh == k.rsh && conn == k.conn
+					&& (sql == k.sql || (sql != null && sql.equals(k.sql)));
+		}
+
+		@Override
+		public int hashCode() {
+			int h = sql == null ? 0 : sql.hashCode();
+			h = 31 * h + (type == null ? 0 : type.hashCode());
+			h = 31 * h + System.identityHashCode(rsh);
+			return 31 * h + System.identityHashCode(conn);
+		}
+	}
+
+	/**
+	 * Find the group for given type, SQL, handler and connection, return null if
+	 * not found
+	 */
+	public SqlBatchBuffer findBuffer(BatchType type, String sql, ResultSetHandler rsh, Connection conn) {
+		if (lastUsed != null && lastUsed.isSameGroup(type, sql, rsh, conn))
+			return lastUsed;
+		SqlBatchBuffer buffer = groups.get(new GroupKey(type, sql, rsh, conn));
+		if (buffer != null)
+			lastUsed = buffer;
+		return buffer;
+	}
+
+	/**
+	 * Add a new group at the end of groups list
+	 */
+	public SqlBatchBuffer addBuffer(BatchType type, String sql, ResultSetHandler rsh, Connection conn) {
+		SqlBatchBuffer buffer = spares.isEmpty() ? new SqlBatchBuffer() : spares.remove(spares.size() - 1);
+		buffer.startGroup(type, sql, rsh, conn);
+		buffers.add(buffer);
+		groups.put(new GroupKey(type, sql, rsh, conn), buffer);
+		lastUsed = buffer;
+		return buffer;
+	}
+
+	/** @return How many groups, include groups have no pending row */
+	public int groupCount() {
+		return buffers.size();
+	}
+
+	/** @return All groups in the order they first appeared */
+	public List<SqlBatchBuffer> getBuffers() {
+		return buffers;
+	}
+
+	/** @return true if no pending row in any group */
+	public boolean isEmpty() {
+		for (SqlBatchBuffer buffer : buffers)
+			if (!buffer.isEmpty())
+				return false;
+		return true;
+	}
+
+	/** @return how many pending rows in all groups */
+	public int size() {
+		int size = 0;
+		for (SqlBatchBuffer buffer : buffers)
+			size += buffer.size();
+		return size;
+	}
+
+	/**
+	 * Remove all groups, SqlBatchBuffer instances be kept for reuse, rows not
+	 * executed are discarded
+	 */
+	public void clear() {
+		for (SqlBatchBuffer buffer : buffers) {
+			buffer.clear();
+			if (spares.size() < MAX_SPARES)
+				spares.add(buffer);
+		}
+		buffers.clear();
+		groups.clear();
+		lastUsed = null;
+	}
+
+	/** Remove all attributes */
+	public void clearAttributes() {
+		attributes = null;
+	}
+
+	/**
+	 * @return The attribute bound to pending groups by given key, null if not
+	 *         found
+	 */
+	public Object getAttribute(Object key) {
+		return attributes == null ? null : attributes.get(key);
+	}
+
+	/**
+	 * Bind an attribute to pending groups, for example a handler should be reused
+	 * by SQLs of same group, attributes are removed when batch be flushed by
+	 * batchFlush() or ended
+	 */
+	public void setAttribute(Object key, Object value) {
+		if (attributes == null)
+			attributes = new HashMap<Object, Object>();
+		attributes.put(key, value);
+	}
+
+	// ======== AsyncBatchFlusher methods ========
+
+	synchronized void asyncSubmitted() {
+		asyncPending++;
+	}
+
+	synchronized void asyncFinished(Throwable failure) {
+		asyncPending--;
+		if (failure != null && asyncError == null)
+			asyncError = failure;
+		notifyAll();
+	}
+
+	/** Block until all groups submitted to AsyncBatchFlusher be executed */
+	synchronized void waitAsyncFinished() throws InterruptedException {
+		while (asyncPending > 0)
+			wait();
+	}
+
+	/** @return The first failure of AsyncBatchFlusher and clear it */
+	synchronized Throwable takeAsyncError() {
+		Throwable e = asyncError;
+		asyncError = null;
+		return e;
+	}
+}
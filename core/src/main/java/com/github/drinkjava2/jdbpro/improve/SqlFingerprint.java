@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SqlFingerprint normalize a SQL so statements only have different literal
+ * values or different count of "?" in IN list or multiple rows values be
+ * grouped together, for example: <br/>
+ * "select * from Users where id in (1, 2 ,3) and name='Tom'" and <br/>
+ * "SELECT * FROM users WHERE id IN (?,?) AND name=?" <br/>
+ * both become: "select * from users where id in(?) and name=?" <br/>
+ *
+ * Comments are removed, whitespaces are collapsed, spaces around brackets,
+ * commas and compare operators are removed, quoted identifiers are kept.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public final class SqlFingerprint {// NOSONAR
+	private static final int MAX_CACHED_SQL = 2000;
+	private static final ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<String, String>();
+
+	private SqlFingerprint() {
+		// default constructor
+	}
+
+	/** @return The fingerprint of SQL, result is cached */
+	public static String of(String sql) {
+		if (sql == null)
+			return null;
+		String fingerprint = cache.get(sql);
+		if (fingerprint == null) {
+			fingerprint = normalize(sql);
+			if (cache.size() > MAX_CACHED_SQL)
+				cache.clear();
+			cache.put(sql, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	/** Normalize SQL, result is not cached */
+	public static String normalize(String sql) {
+		int len = sql.length();
+		StringBuilder sb = new StringBuilder(len);
+		boolean space = false;
+		for (int i = 0; i < len; i++) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+			if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+				while (i < len && sql.charAt(i) != '\n')
+					i++;
+				space = true;
+				continue;
+			}
+			if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? len : end + 1;
+				space = true;
+				continue;
+			}
+			if (space && sb.length() > 0 && !isSymbol(sb.charAt(sb.length() - 1)) && !isSymbol(c) && c != ')')
+				sb.append(' ');
+			space = false;
+			if (c == '\'') {
+				int j = i + 1;
+				while (j < len && (sql.charAt(j) != '\'' || (j + 1 < len && sql.charAt(j + 1) == '\'')))
+					j += sql.charAt(j) == '\'' ? 2 : 1;
+				i = j;
+				sb.append('?');
+			} else if (c == '"' || c == '`' || c == '[') {
+				int end = sql.indexOf(c == '[' ? ']' : c, i + 1);
+				if (end < 0)
+					end = len - 1;
+				sb.append(sql, i, end + 1);
+				i = end;
+			} else if (Character.isDigit(c) && (i == 0 || !isWordChar(sql.charAt(i - 1)))) {
+				while (i + 1 < len && (isWordChar(sql.charAt(i + 1))))
+					i++;
+				sb.append('?');
+			} else if (c == ')') {
+				collapseList(sb);
+				sb.append(c);
+			} else
+				sb.append(Character.toLowerCase(c));
+		}
+		if (sb.length() > 0 && sb.charAt(sb.length() - 1) == ';')
+			sb.setLength(sb.length() - 1);
+		return collapseValues(sb.toString());
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+	}
+
+	/** Spaces around these characters are removed, and spaces before ")" */
+	private static boolean isSymbol(char c) {
+		return c == '(' || c == ',' || c == '=' || c == '<' || c == '>' || c == '!';
+	}
+
+	/** Collapse "in(?,?,?" at tail to "in(?" */
+	private static void collapseList(StringBuilder sb) {
+		int len = sb.length();
+		int i = len - 1;
+		while (i >= 1 && sb.charAt(i) == '?' && sb.charAt(i - 1) == ',')
+			i -= 2;
+		if (i == len - 1 || i < 3 || sb.charAt(i) != '?' || sb.charAt(i - 1) != '(')
+			return;
+		if (sb.charAt(i - 2) == 'n' && sb.charAt(i - 3) == 'i' && (i == 3 || !isWordChar(sb.charAt(i - 4))))
+			sb.setLength(i + 1);
+	}
+
+	/** Collapse multiple rows values "values (?,?),(?,?)" to "values (?,?)" */
+	private static String collapseValues(String sql) {
+		int pos = sql.indexOf(" values(");
+		if (pos < 0)
+			return sql;
+		int groupStart = sql.indexOf('(', pos);
+		int groupEnd = sql.indexOf(')', groupStart);
+		if (groupEnd < 0)
+			return sql;
+		String group = sql.substring(groupStart, groupEnd + 1);
+		int end = groupEnd + 1;
+		while (sql.startsWith("," + group, end))
+			end += group.length() + 1;
+		if (end == groupEnd + 1)
+			return sql;
+		return sql.substring(0, groupEnd + 1) + sql.substring(end);
+	}
+}
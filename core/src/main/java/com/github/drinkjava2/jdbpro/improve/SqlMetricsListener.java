@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+/**
+ * SqlMetricsListener receive statistics of each statement executed by an
+ * ImprovedQueryRunner, methods are called in caller thread right after
+ * statement executed, so implementation should be fast and thread-safe. <br/>
+ *
+ * SQL sent to listener is the real executed SQL, use SqlFingerprint to group
+ * SQL which only have different literal values.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public interface SqlMetricsListener {
+
+	/**
+	 * Called after a statement or batch executed
+	 *
+	 * @param sql
+	 *            The executed SQL
+	 * @param elapsedNanos
+	 *            Time used, in nanoseconds
+	 * @param rows
+	 *            Rows returned by query or affected by write SQL
+	 * @param batchSize
+	 *            How many parameter rows in batch, 0 if not a batch
+	 */
+	public void onExecute(String sql, long elapsedNanos, int rows, int batchSize);
+
+	/** Called when a query result is read from cache, no statement executed */
+	public void onCacheHit(String sql);
+}
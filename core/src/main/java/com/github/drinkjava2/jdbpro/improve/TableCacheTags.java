@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.improve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.drinkjava2.jdbpro.handler.CacheValueHolder;
+
+/**
+ * TableCacheTags tag cached query results with the table names referenced in
+ * query SQL, each table has a version number, a write SQL (insert, update,
+ * delete...) increase the versions of tables it touches, a cached result is
+ * treated as stale if version of any of its tables changed since the query be
+ * executed. <br/>
+ *
+ * Because versions are checked when read, it works with any CacheSqlHandler
+ * implementation, stale entries will be evicted by the cache's own LRU or
+ * expire policy.<br/>
+ *
+ * Note: versions are increased when write SQL be executed, not when transaction
+ * committed, a query in another thread run between them may cache old data
+ * until its alive time out.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public final class TableCacheTags {// NOSONAR
+	private static final String[] EMPTY = new String[0];
+	private static final String[] ALL = new String[] { "*" };
+	private static final int MAX_PARSED_SQL = 2000;
+
+	private static final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+	private static final AtomicLong globalVersion = new AtomicLong();
+
+	/** Set when first value be tagged, before it writes need not be parsed */
+	private static volatile boolean anyTagged = false;
+	private static final ConcurrentHashMap<String, String[]> readTablesCache = new ConcurrentHashMap<String, String[]>();
+	private static final ConcurrentHashMap<String, String[]> writeTablesCache = new ConcurrentHashMap<String, String[]>();
+
+	private static final Set<String> STOP_WORDS = new HashSet<String>(Arrays.asList("where", "group", "order",
+			"having", "limit", "join", "inner", "left", "right", "full", "outer", "cross", "on", "union", "set",
+			"values", "select", "natural", "using", "offset", "for", "straight_join", "fetch", "window", "(", ")",
+			",", ";", "into", "from", "default", "partition", "with"));
+
+	private static final Set<String> NOT_WRITE_WORDS = new HashSet<String>(Arrays.asList("select", "set",
+			"show", "explain", "create", "describe", "desc", "use", "commit", "rollback", "begin", "start",
+			"savepoint", "release", "grant", "revoke", "comment", "analyze"));
+
+	private static final Set<String> DML_WORDS = new HashSet<String>(
+			Arrays.asList("insert", "update", "delete", "merge", "replace", "truncate"));
+
+	private TableCacheTags() {
+		// default constructor
+	}
+
+	/** A cached value with tables and their versions when query executed */
+	public static class TaggedValue implements CacheValueHolder {
+		private final Object value;
+		private final String[] tables;
+		private final long[] tableVersions;
+		private final long global;
+
+		TaggedValue(Object value, String[] tables, long[] tableVersions, long global) {
+			this.value = value;
+			this.tables = tables;
+			this.tableVersions = tableVersions;
+			this.global = global;
+		}
+
+		/** @return true if no table changed since the value be cached */
+		public boolean isValid() {
+			if (global != globalVersion.get())
+				return false;
+			for (int i = 0; i < tables.length; i++)
+				if (tableVersions[i] != versionOf(tables[i]).get())
+					return false;
+			return true;
+		}
+
+		@Override
+		public Object getValue() {
+			return value;
+		}
+
+		public String[] getTables() {
+			return tables;
+		}
+	}
+
+	/**
+	 * Take a snapshot of versions of tables referenced in query SQL, should be
+	 * called before query be executed
+	 */
+	public static TaggedValue snapshot(String sql) {
+		String[] tables = findReadTables(sql);
+		long global = globalVersion.get();
+		long[] tableVersions = new long[tables.length];
+		for (int i = 0; i < tables.length; i++)
+			tableVersions[i] = versionOf(tables[i]).get();
+		return new TaggedValue(null, tables, tableVersions, global);
+	}
+
+	/**
+	 * Build a TaggedValue by given value and a snapshot, a value of query no
+	 * table found (like "select f()" or unparsable SQL) is also tagged with only
+	 * the global version, so invalidateAll() or an unknown write still evict it
+	 */
+	public static Object tag(Object value, TaggedValue snapshot) {
+		if (value == null || snapshot == null)
+			return value;
+		if (!anyTagged)
+			anyTagged = true;
+		return new TaggedValue(value, snapshot.tables, snapshot.tableVersions, snapshot.global);
+	}
+
+	/**
+	 * Return the real value of a cached object, if it's a stale TaggedValue
+	 * return null
+	 */
+	public static Object untag(Object cached) {
+		if (!(cached instanceof TaggedValue))
+			return cached;
+		TaggedValue tagged = (TaggedValue) cached;
+		return tagged.isValid() ? tagged.value : null;
+	}
+
+	/**
+	 * Invalidate cached results of tables touched by given write SQL, do nothing
+	 * if no query result be tagged yet
+	 */
+	public static void invalidate(String sql) {
+		if (!anyTagged || sql == null)
+			return;
+		String[] tables = findWriteTables(sql);
+		if (tables == ALL)
+			invalidateAll();
+		else
+			invalidateTables(tables);
+	}
+
+	/** Invalidate cached results of given tables */
+	public static void invalidateTables(String... tables) {
+		for (String table : tables)
+			versionOf(table.toLowerCase()).incrementAndGet();
+	}
+
+	/** Invalidate all tagged cached results */
+	public static void invalidateAll() {
+		globalVersion.incrementAndGet();
+	}
+
+	private static AtomicLong versionOf(String table) {
+		AtomicLong v = versions.get(table);
+		if (v == null) {
+			AtomicLong newV = new AtomicLong();
+			v = versions.putIfAbsent(table, newV);
+			if (v == null)
+				v = newV;
+		}
+		return v;
+	}
+
+	/** @return All table names referenced in SQL, in lower case */
+	public static String[] findReadTables(String sql) {
+		String[] tables = readTablesCache.get(sql);
+		if (tables == null) {
+			tables = parseReadTables(tokenize(sql));
+			if (readTablesCache.size() > MAX_PARSED_SQL)
+				readTablesCache.clear();
+			readTablesCache.put(sql, tables);
+		}
+		return tables;
+	}
+
+	/**
+	 * @return Table names a write SQL will change, in lower case; an empty array
+	 *         if SQL is not a write SQL, or ALL if unknown
+	 */
+	static String[] findWriteTables(String sql) {
+		String[] tables = writeTablesCache.get(sql);
+		if (tables == null) {
+			tables = parseWriteTables(tokenize(sql));
+			if (writeTablesCache.size() > MAX_PARSED_SQL)
+				writeTablesCache.clear();
+			writeTablesCache.put(sql, tables);
+		}
+		return tables;
+	}
+
+	private static String[] parseReadTables(List<String> tokens) {
+		Set<String> tables = new HashSet<String>();
+		int size = tokens.size();
+		for (int i = 0; i < size; i++) {
+			String word = tokens.get(i);
+			if ("from".equals(word) || "join".equals(word) || "into".equals(word) || "update".equals(word)) {
+				boolean isFrom = "from".equals(word);
+				i++;
+				while (i < size && !STOP_WORDS.contains(tokens.get(i))) {
+					tables.add(tableName(tokens.get(i++)));
+					if (!isFrom)
+						break;
+					if (i < size && "as".equals(tokens.get(i)))
+						i++;
+					if (i < size && !STOP_WORDS.contains(tokens.get(i)))
+						i++;// alias
+					if (i < size && ",".equals(tokens.get(i)))
+						i++;
+					else
+						break;
+				}
+				i--;
+			}
+		}
+		return tables.toArray(new String[tables.size()]);
+	}
+
+	private static String[] parseWriteTables(List<String> tokens) {
+		if (tokens.isEmpty())
+			return EMPTY;
+		String first = tokens.get(0);
+		if (NOT_WRITE_WORDS.contains(first))
+			return EMPTY;
+		if ("with".equals(first)) {// writable CTE, target table not parsed
+			for (String word : tokens)
+				if (DML_WORDS.contains(word))
+					return ALL;
+			return EMPTY;
+		}
+		String keyword = null;
+		if ("insert".equals(first) || "replace".equals(first) || "merge".equals(first))
+			keyword = "into";
+		else if ("delete".equals(first))
+			keyword = "from";
+		else if ("truncate".equals(first) || "drop".equals(first) || "alter".equals(first))
+			keyword = "table";
+		int start = -1;
+		if ("update".equals(first))
+			start = 1;
+		else if (keyword != null)
+			for (int i = 1; i < tokens.size(); i++)
+				if (keyword.equals(tokens.get(i))) {
+					start = i + 1;
+					break;
+				}
+		if ("truncate".equals(first) && start < 0)
+			start = 1;
+		if (start < 0)
+			return "drop".equals(first) || "alter".equals(first) ? EMPTY : ALL;
+		for (int i = start; i < tokens.size(); i++) {
+			String word = tokens.get(i);
+			if ("low_priority".equals(word) || "ignore".equals(word) || "only".equals(word) || "if".equals(word)
+					|| "exists".equals(word) || "quick".equals(word))
+				continue;
+			if (STOP_WORDS.contains(word))
+				break;
+			return new String[] { tableName(word) };
+		}
+		return ALL;
+	}
+
+	private static String tableName(String identifier) {
+		int pos = identifier.lastIndexOf('.');
+		return pos >= 0 ? identifier.substring(pos + 1) : identifier;
+	}
+
+	/**
+	 * Split SQL to lower case words and punctuations, string literals and
+	 * comments are skipped, quote characters of identifiers are removed
+	 */
+	private static List<String> tokenize(String sql) {
+		List<String> tokens = new ArrayList<String>();
+		int len = sql.length();
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i < len; i++) {
+			char c = sql.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.') {
+				word.append(Character.toLowerCase(c));
+				continue;
+			}
+			if (c == '"' || c == '`' || c == '[') {
+				char end = c == '[' ? ']' : c;
+				int j = i + 1;
+				while (j < len && sql.charAt(j) != end)
+					word.append(Character.toLowerCase(sql.charAt(j++)));
+				i = j;
+				continue;
+			}
+			if (word.length() > 0) {
+				tokens.add(word.toString());
+				word.setLength(0);
+			}
+			if (c == '\'') {
+				int j = i + 1;
+				while (j < len && sql.charAt(j) != '\'')
+					j++;
+				i = j;
+				tokens.add("'");
+			} else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+				while (i < len && sql.charAt(i) != '\n')
+					i++;
+			} else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? len : end + 1;
+			} else if (!Character.isWhitespace(c))
+				tokens.add(String.valueOf(c));
+		}
+		if (word.length() > 0)
+			tokens.add(word.toString());
+		return tokens;
+	}
+}
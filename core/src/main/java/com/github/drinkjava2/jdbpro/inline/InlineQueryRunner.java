@@ -15,10 +15,6 @@
  */
 package com.github.drinkjava2.jdbpro.inline;
 
-import java.beans.BeanInfo;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -34,6 +30,7 @@ import org.apache.commons.dbutils.handlers.ScalarHandler;
 
 import com.github.drinkjava2.jdbpro.DbPro;
 import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+import com.github.drinkjava2.jdbpro.improve.BeanAccessor;
 import com.github.drinkjava2.jdbpro.improve.ImprovedQueryRunner;
 import com.github.drinkjava2.jtransactions.ConnectionManager;
 
@@ -60,17 +57,33 @@ public class InlineQueryRunner extends ImprovedQueryRunner {
 
 	/**
 	 * A ThreadLocal variant for temporally store parameters in current Thread
+	 * 
+	 * @deprecated in-line parameters are stored in session of current thread now,
+	 *             this field only delegates to getThreadSession().getParams()
 	 */
+	@Deprecated
 	protected static ThreadLocal<ArrayList<Object>> inlineThreadlocalParamCache = new ThreadLocal<ArrayList<Object>>() {
 		@Override
-		protected ArrayList<Object> initialValue() {
-			return new ArrayList<Object>();
+		public ArrayList<Object> get() {
+			return getThreadSession().getParams();
+		}
+
+		@Override
+		public void set(ArrayList<Object> value) {
+			getThreadSession().clearParams();
+			if (value != null)
+				getThreadSession().getParams().addAll(value);
+		}
+
+		@Override
+		public void remove() {
+			getThreadSession().clearParams();
 		}
 	};
 
 	/** Clear all in-line parameters stored in ThreadLocal */
 	protected static void clearParams() {
-		inlineThreadlocalParamCache.get().clear();
+		getThreadSession().clearParams();
 	}
 
 	/**
@@ -87,9 +100,7 @@ public class InlineQueryRunner extends ImprovedQueryRunner {
 	 * Cache parameters in ThreadLocal and return an empty String
 	 */
 	public static String param(Object... parameters) {
-		for (Object o : parameters)
-			inlineThreadlocalParamCache.get().add(o);
-		return "";
+		return getThreadSession().param(parameters);
 	}
 
 	/**
@@ -105,9 +116,7 @@ public class InlineQueryRunner extends ImprovedQueryRunner {
 	 * Cache parameters in ThreadLocal and return a "?" String
 	 */
 	public static String question(Object... parameters) {
-		for (Object o : parameters)
-			inlineThreadlocalParamCache.get().add(o);
-		return "?";
+		return getThreadSession().question(parameters);
 	}
 
 	/**
@@ -115,16 +124,7 @@ public class InlineQueryRunner extends ImprovedQueryRunner {
 	 * cached in ThreadLocal
 	 */
 	public static String valuesQuesions() {
-		int howManyQuestionMarks = inlineThreadlocalParamCache.get().size();
-		StringBuilder sb = new StringBuilder("values(");
-		for (int i = 0; i < howManyQuestionMarks; i++) {
-			if (i != howManyQuestionMarks - 1)
-				sb.append("?,");
-			else
-				sb.append("?");
-		}
-		sb.append(")");
-		return sb.toString();
+		return getThreadSession().valuesQuesions();
 	}
 
 	/**
@@ -135,22 +135,7 @@ public class InlineQueryRunner extends ImprovedQueryRunner {
 	 * @return PreparedSQL instance
 	 */
 	public static PreparedSQL inlineToSqlAndParams(String... inlineSQL) {
-		try {
-			String sql = null;
-			if (inlineSQL != null) {
-				StringBuilder sb = new StringBuilder("");
-				for (String str : inlineSQL)
-					sb.append(str);
-				sql = sb.toString();
-			}
-			ArrayList<Object> params = inlineThreadlocalParamCache.get();
-			PreparedSQL sp = new PreparedSQL();
-			sp.setSql(sql);
-			sp.setParams(params.toArray(new Object[params.size()]));
-			return sp;
-		} finally {
-			clearParams();
-		}
+		return getThreadSession().inlineToSqlAndParams(inlineSQL);
 	}
 
 	/**
@@ -169,38 +154,20 @@ public class InlineQueryRunner extends ImprovedQueryRunner {
 	 */
 	public static String inline(Object bean, String conditionStr, String separatorStr) {
 		DbProRuntimeException.assertNotNull(bean, "DbProBeanUtils bean can not be null");
-		Class<?> beanClass = bean.getClass();
-		BeanInfo beanInfo = null;
-		PropertyDescriptor[] pds = null;
-		try {
-			beanInfo = Introspector.getBeanInfo(beanClass);
-			pds = beanInfo.getPropertyDescriptors();
-		} catch (Exception e) {
-			throw new DbProRuntimeException("DbProBeanUtils  fail to get bean Properties.", e);
-		}
-		if (pds == null || pds.length < 1)
-			return "";
-
+		BeanAccessor accessor = BeanAccessor.of(bean.getClass());
 		StringBuilder sb = new StringBuilder();
-		Object[] params = new Object[pds.length - 1];
-		int i = 0;
-		for (PropertyDescriptor pd : pds) {
-			String fieldName = pd.getName();
-			if (!"class".equals(fieldName)) {
-				Method md = pd.getReadMethod();
-				try {
-					Object value = md.invoke(bean);
-					sb.append(fieldName).append(conditionStr).append(separatorStr);
-					params[i++] = value;
-				} catch (Exception e) {
-					throw new DbProRuntimeException("DbProBeanUtils fail to get bean Properties.", e);
-				}
+		Object[] params = new Object[accessor.getPropertyCount()];
+		int count = 0;
+		for (int i = 0; i < accessor.getPropertyCount(); i++)
+			if (accessor.getReadMethod(i) != null) {
+				params[count++] = accessor.getValue(bean, i);
+				sb.append(accessor.getPropertyName(i)).append(conditionStr).append(separatorStr);
 			}
-		}
+		if (count == 0)
+			return "";
 		sb.setLength(sb.length() - separatorStr.length());
-		for (Object param : params) {
-			DbPro.param(param);
-		}
+		for (int i = 0; i < count; i++)
+			DbPro.param(params[i]);
 		return sb.toString();
 	}
 
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.drinkjava2.jdbpro.improve.BeanAccessor;
+import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
+import com.github.drinkjava2.jdbpro.template.BasicSqlTemplate.BasicSqlTemplateException;
+
+/**
+ * CompiledSqlTemplate is the parse result of a BasicSqlTemplate format
+ * template, it's a list of segments (literal text, bind parameter,
+ * direct-replace parameter, bean property), render a compiled template only
+ * need walk through the segments. Compiled templates are cached by template
+ * text and delimiters, cache size is limited to MAX_CACHED_TEMPLATES. Other
+ * template engines like NamedParamSqlTemplate can use Builder to build their
+ * own compiled form.
+ * 
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public final class CompiledSqlTemplate {
+	private static final int MAX_CACHED_TEMPLATES = 2000;
+	private static final String DIRECT_REPLACE_START_DELIMITER = "${";
+	private static final String DIRECT_REPLACE_END_DELIMITER = "}";
+
+	private static final ConcurrentHashMap<CacheKey, CompiledSqlTemplate> cache = new ConcurrentHashMap<CacheKey, CompiledSqlTemplate>();
+
+	private final String template;
+	private final Segment[] segments;
+	private final int textLength;
+	private final int paramCount;
+
+	/** Cache key of compiled template */
+	private static class CacheKey {
+		final String template;
+		final String startDelimiter;
+		final String endDelimiter;
+
+		CacheKey(String template, String startDelimiter, String endDelimiter) {
+			this.template = template;
+			this.startDelimiter = startDelimiter;
+			this.endDelimiter = endDelimiter;
+		}
+
+		@Override
+		public int hashCode() {
+			return template.hashCode() * 31 + startDelimiter.hashCode() * 7 + endDelimiter.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey))
+				return false;
+			CacheKey other = (CacheKey) obj;
+			return template.equals(other.template) && startDelimiter.equals(other.startDelimiter)
+					&& endDelimiter.equals(other.endDelimiter);
+		}
+	}
+
+	/**
+	 * A segment of template, if key is null it's a literal text, otherwise it's
+	 * a parameter
+	 */
+	private static class Segment {
+		final String text;
+		final String key;
+		final boolean directRep;
+		final String beanName;
+		final String propertyName;
+
+		Segment(String text, String key, boolean directRep, String beanName, String propertyName) {
+			this.text = text;
+			this.key = key;
+			this.directRep = directRep;
+			this.beanName = beanName;
+			this.propertyName = propertyName;
+		}
+	}
+
+	/** Build a CompiledSqlTemplate segment by segment, used by parsers */
+	static class Builder {
+		private final String template;
+		private final List<Segment> segments = new ArrayList<Segment>();
+		private final StringBuilder text = new StringBuilder();
+		private int textLength = 0;
+		private int paramCount = 0;
+
+		Builder(String template) {
+			this.template = template;
+		}
+
+		Builder appendText(char c) {
+			text.append(c);
+			return this;
+		}
+
+		Builder appendText(String str) {
+			text.append(str);
+			return this;
+		}
+
+		/** Remove last n characters of current literal text */
+		void trimText(int n) {
+			text.setLength(text.length() - n);
+		}
+
+		private void flushText() {
+			if (text.length() > 0) {
+				segments.add(new Segment(text.toString(), null, false, null, null));
+				textLength += text.length();
+				text.setLength(0);
+			}
+		}
+
+		/**
+		 * Add a parameter, if key has a "." it's a bean property like "user.name"
+		 * 
+		 * @param key
+		 *            The parameter name
+		 * @param directRep
+		 *            true if it's a direct-replace parameter like ${xxx}
+		 */
+		Builder addParameter(String key, boolean directRep) {
+			String beanName = null;
+			String propertyName = null;
+			if (key.indexOf('.') >= 0) {// JavaBean
+				beanName = BasicSqlTemplate.substringBefore(key, ".");
+				propertyName = BasicSqlTemplate.substringAfter(key, ".");
+				if (BasicSqlTemplate.isEmpty(beanName) || BasicSqlTemplate.isEmpty(propertyName))
+					throwEX("illegal parameter name '" + key + "' found in template: " + template);
+			}
+			flushText();
+			segments.add(new Segment(null, key, directRep, beanName, propertyName));
+			if (!directRep)
+				paramCount++;
+			return this;
+		}
+
+		CompiledSqlTemplate build() {
+			flushText();
+			return new CompiledSqlTemplate(template, segments.toArray(new Segment[segments.size()]), textLength,
+					paramCount);
+		}
+	}
+
+	private CompiledSqlTemplate(String template, Segment[] segments, int textLength, int paramCount) {
+		this.template = template;
+		this.segments = segments;
+		this.textLength = textLength;
+		this.paramCount = paramCount;
+	}
+
+	/**
+	 * Get a compiled template from cache, if not found compile it and put into
+	 * cache
+	 */
+	public static CompiledSqlTemplate compile(String template, String startDelimiter, String endDelimiter) {
+		if (template == null)
+			throw new NullPointerException("Template can not be null");
+		CacheKey key = new CacheKey(template, startDelimiter, endDelimiter);
+		CompiledSqlTemplate compiled = cache.get(key);
+		if (compiled == null) {
+			compiled = doCompile(template, startDelimiter, endDelimiter);
+			if (cache.size() >= MAX_CACHED_TEMPLATES)
+				cache.clear();
+			cache.put(key, compiled);
+		}
+		return compiled;
+	}
+
+	/** Clear compiled templates cache */
+	public static void clearCache() {
+		cache.clear();
+	}
+
+	/** @return How many compiled templates in cache */
+	public static int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Parse a template to segments, the parse rule is same as the old
+	 * BasicSqlTemplate.doRender method
+	 */
+	private static CompiledSqlTemplate doCompile(String template, String startDelimiter, String endDelimiter) {
+		Builder builder = new Builder(template);
+		StringBuilder keyNameSB = new StringBuilder();
+		char[] chars = ("   " + template + "   ").toCharArray();
+
+		int lg = startDelimiter.length();
+		char start1 = startDelimiter.charAt(0);
+		char start2 = '\u0000';
+		if (lg == 2)
+			start2 = startDelimiter.charAt(1);
+		char e = endDelimiter.charAt(0);
+
+		int drlg = DIRECT_REPLACE_START_DELIMITER.length();
+		char drst1 = DIRECT_REPLACE_START_DELIMITER.charAt(0);
+		char drst2 = '\u0000';
+		if (drlg == 2)
+			drst2 = DIRECT_REPLACE_START_DELIMITER.charAt(1);
+		char eDirect = DIRECT_REPLACE_END_DELIMITER.charAt(0);
+
+		// - - # { - - - } - - - $ { - - - } - -
+		// 0 0 1 1 2 2 2 3 0 0 0 1 1 2 2 2 3 0 0
+		// - - - - - - - - - - - D D D D D - - -
+		int status = 0; // 0:normal 1:start-delimiter 2:inside 3: end-delimiter
+		boolean directRep = false; // direct replace tag
+		for (int i = 3; i < chars.length - 2; i++) {
+			char c = chars[i];
+			char c1 = chars[i + 1];
+			char cm1 = chars[i - 1];
+			char cm2 = chars[i - 2];
+			if (status == 0 && ((lg == 1 && c == start1) || (lg == 2 && c == start1 && c1 == start2))) {
+				status = 1;
+				keyNameSB.setLength(0);
+				directRep = false;
+			} else if (status == 0 && ((drlg == 1 && c == drst1) || (drlg == 2 && c == drst1 && c1 == drst2))) {
+				status = 1;
+				keyNameSB.setLength(0);
+				directRep = true;
+			} else if (status == 1 && ((lg == 1 && cm1 == start1) || (lg == 2 && (cm2 == start1 && cm1 == start2)))) {
+				status = 2;
+			} else if (status == 1 && ((drlg == 1 && cm1 == drst1) || (drlg == 2 && (cm2 == drst1 && cm1 == drst2)))) {
+				status = 2;
+			} else if (status == 2 && (((c == e) && !directRep) || ((c == eDirect) && directRep))) {
+				status = 3;
+				if (keyNameSB.length() == 0)
+					throwEX("Empty parameter name '" + startDelimiter + endDelimiter + "' found in template: "
+							+ template);
+				builder.addParameter(keyNameSB.toString(), directRep);
+				keyNameSB.setLength(0);
+			} else if (status == 3 && cm1 == e) {
+				status = 0;
+			}
+			if (status == 0)
+				builder.appendText(c);
+			else if (status == 2)
+				keyNameSB.append(c);
+		}
+		if (status != 0)
+			throwEX("Missing end delimiter '" + endDelimiter + "' in template: " + template);
+		builder.trimText(1);
+		return builder.build();
+	}
+
+	/**
+	 * Render compiled template with parameters
+	 * 
+	 * @param paramMap
+	 *            A Map stored SQL parameters
+	 * @param directReplaceNamesSet
+	 *            Names of direct-replace parameters, can be null
+	 * @return A PreparedSQL instance
+	 */
+	public PreparedSQL render(Map<String, Object> paramMap, Set<String> directReplaceNamesSet) {
+		StringBuilder sql = new StringBuilder(textLength + segments.length * 8);
+		List<Object> paramList = new ArrayList<Object>(paramCount);
+		for (Segment seg : segments) {
+			if (seg.key == null) {
+				sql.append(seg.text);
+				continue;
+			}
+			Object value;
+			boolean directReplaceType;
+			if (seg.beanName != null) {
+				directReplaceType = isDirectReplaceTypeParameter(paramMap, directReplaceNamesSet, seg.directRep,
+						seg.beanName);
+				if (!paramMap.containsKey(seg.beanName))
+					throwEX("Not found bean '" + seg.beanName + "' when render template: " + template);
+				value = readBeanProperty(seg, paramMap.get(seg.beanName));
+			} else {
+				directReplaceType = isDirectReplaceTypeParameter(paramMap, directReplaceNamesSet, seg.directRep,
+						seg.key);
+				if (!paramMap.containsKey(seg.key))
+					throwEX("No parameter found for '" + seg.key + "' in template: " + template + ". Current params="
+							+ paramMap);
+				value = paramMap.get(seg.key);
+			}
+			if (directReplaceType)
+				sql.append(value);
+			else {
+				sql.append('?');
+				paramList.add(value);
+			}
+		}
+		PreparedSQL sp = new PreparedSQL();
+		sp.setSql(sql.toString());
+		sp.setParams(paramList.toArray(new Object[paramList.size()]));
+		return sp;
+	}
+
+	private Object readBeanProperty(Segment seg, Object bean) {
+		BeanAccessor accessor = BeanAccessor.of(bean.getClass());
+		int index = accessor.indexOf(seg.propertyName);
+		if (index < 0 || accessor.getReadMethod(index) == null)
+			throwEX("Not found read method of bean property '" + seg.key + "' in template: " + template);
+		try {
+			return accessor.getValue(bean, index);
+		} catch (Exception e1) {
+			throwEX("Exception happen when read bean property '" + seg.key + "' in template: " + template, e1);
+		}
+		return null;
+	}
+
+	private boolean isDirectReplaceTypeParameter(Map<String, Object> paramMap, Set<String> directReplaceNamesSet,
+			boolean directRep, String keyName) {
+		boolean directReplaceType = false;
+		if (directReplaceNamesSet != null && directReplaceNamesSet.contains(keyName)) {
+			if (!paramMap.containsKey(keyName))
+				throwEX("'" + keyName + "' is indicated as a direct replace parameter but can not in parameter Map");
+			directReplaceType = true;
+		}
+		if (directReplaceType && !directRep)
+			throwEX("'" + keyName
+					+ "' is a SQL parameter, should use put() or put0() method to set SQL parameter, in template: "
+					+ template);
+		if (!directReplaceType && directRep)
+			throwEX("'" + keyName
+					+ "' is a direct-replace type parameter, should use replace() or replace0() method to put parameter, in template: "
+					+ template);
+		return directReplaceType;
+	}
+
+	static void throwEX(String message, Exception... cause) {
+		if (cause != null && cause.length > 0)
+			throw new BasicSqlTemplateException(message, cause[0]);
+		else
+			throw new BasicSqlTemplateException(message);
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	/** @return How many segments, include literal texts and parameters */
+	public int getSegmentCount() {
+		return segments.length;
+	}
+}
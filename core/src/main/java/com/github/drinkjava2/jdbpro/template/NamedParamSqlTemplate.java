@@ -17,17 +17,23 @@ package com.github.drinkjava2.jdbpro.template;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
 
 /**
  * NamedParamSqlTemplate is an implementation of SqlTemplateEngine. It allow use
- * :xxxx or #{xxxx} format parameters in SQL template
+ * :xxxx or #{xxxx} format parameters in SQL template, and replace ${xxxx}
+ * pieces directly. Templates are compiled in one scan and cached, ':' in quoted
+ * strings, comments and PostgreSQL '::' casts are not treated as parameters.
  * 
  * @author Yong Zhu
  * @since 1.7.0
  */
 public class NamedParamSqlTemplate implements SqlTemplateEngine {
+	private static final int MAX_CACHED_TEMPLATES = 2000;
+	private static final ConcurrentHashMap<String, CompiledSqlTemplate> cache = new ConcurrentHashMap<String, CompiledSqlTemplate>();
+
 	/** A lazy initialization singleton pattern */
 	private static class InnerNamedParamSqlTemplate {
 		private InnerNamedParamSqlTemplate() {
@@ -45,30 +51,90 @@ public class NamedParamSqlTemplate implements SqlTemplateEngine {
 		return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || c == '_' || c == '.';
 	}
 
-	private String toBasicSqlTemplate(String sql) {
-		StringBuilder sb = new StringBuilder();
-		int status = 0;// status 0:normal, 1:in parameter
-		for (int i = 0; i < sql.length(); i++) {
+	/**
+	 * Get compiled form of a template from cache, if not found compile it and
+	 * put into cache
+	 */
+	public static CompiledSqlTemplate compile(String template) {
+		if (template == null)
+			throw new NullPointerException("Template can not be null");
+		CompiledSqlTemplate compiled = cache.get(template);
+		if (compiled == null) {
+			compiled = doCompile(template);
+			if (cache.size() >= MAX_CACHED_TEMPLATES)
+				cache.clear();
+			cache.put(template, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Scan template once, :xxx, #{xxx} and ${xxx} are parameters. ':' in quoted
+	 * strings, comments and PostgreSQL '::' casts are not parameters, but
+	 * #{xxx} and ${xxx} are still recognized there, like BasicSqlTemplate does
+	 */
+	private static CompiledSqlTemplate doCompile(String sql) {
+		CompiledSqlTemplate.Builder builder = new CompiledSqlTemplate.Builder(sql);
+		int len = sql.length();
+		int literalEnd = 0; // ':' before this position is not a parameter
+		int i = 0;
+		while (i < len) {
 			char c = sql.charAt(i);
-			if (status == 0 && c != ':')
-				sb.append(c);
-			else if (status == 0 && c == ':') {
-				sb.append("#{");
-				status = 1;
-			} else if (status == 1 && isParamChars(c))
-				sb.append(c);
-			else {
-				sb.append("}").append(c);
-				status = 0;
+			char next = i + 1 < len ? sql.charAt(i + 1) : '\u0000';
+			if (i >= literalEnd)
+				literalEnd = findLiteralEnd(sql, i, c, next);
+			if ((c == '#' || c == '$') && next == '{') {
+				int end = sql.indexOf('}', i + 2);
+				if (end < 0)
+					CompiledSqlTemplate.throwEX("Missing end delimiter '}' in template: " + sql);
+				if (end == i + 2)
+					CompiledSqlTemplate.throwEX("Empty parameter name '" + c + "{}' found in template: " + sql);
+				builder.addParameter(sql.substring(i + 2, end), c == '$');
+				i = end + 1;
+			} else if (c == ':' && i >= literalEnd && next == ':') {// PostgreSQL cast
+				builder.appendText("::");
+				i += 2;
+			} else if (c == ':' && i >= literalEnd && isParamChars(next)) {
+				int end = i + 1;
+				while (end < len && isParamChars(sql.charAt(end)))
+					end++;
+				builder.addParameter(sql.substring(i + 1, end), false);
+				i = end;
+			} else {
+				builder.appendText(c);
+				i++;
 			}
 		}
-		if (status == 1)
-			sb.append("}");
-		return sb.toString();
+		return builder.build();
 	}
 
+	/**
+	 * If a quoted string or comment start at position i, return its end
+	 * position, otherwise return i
+	 */
+	private static int findLiteralEnd(String sql, int i, char c, char next) {
+		int end = i;
+		if (c == '\'' || c == '"') {
+			end = sql.indexOf(c, i + 1);
+			end = end < 0 ? sql.length() : end + 1;
+		} else if (c == '-' && next == '-') {
+			end = sql.indexOf('\n', i);
+			end = end < 0 ? sql.length() : end;
+		} else if (c == '/' && next == '*') {
+			end = sql.indexOf("*/", i + 2);
+			end = end < 0 ? sql.length() : end + 2;
+		}
+		return end;
+	}
+
+	@Override
 	public PreparedSQL render(String sqlTemplate, Map<String, Object> paramMap, Set<String> directReplaceNamesSet) {
-		return BasicSqlTemplate.instance().render(toBasicSqlTemplate(sqlTemplate), paramMap, directReplaceNamesSet);
+		return compile(sqlTemplate).render(paramMap, directReplaceNamesSet);
+	}
+
+	/** Clear compiled templates cache */
+	public static void clearCache() {
+		cache.clear();
 	}
 
 }
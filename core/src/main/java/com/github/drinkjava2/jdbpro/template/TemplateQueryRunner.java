@@ -17,11 +17,11 @@ package com.github.drinkjava2.jdbpro.template;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.sql.DataSource;
 
@@ -73,11 +73,29 @@ public class TemplateQueryRunner extends InlineQueryRunner {
 	/**
 	 * A ThreadLocal variant for temporally store parameter key names which is a
 	 * direct-replace type parameter in current Thread
+	 * 
+	 * @deprecated direct-replace keys are stored in session of current thread
+	 *             now, this field only delegates to
+	 *             getThreadSession().getReplaceKeys()
 	 */
+	@Deprecated
 	protected static ThreadLocal<Set<String>> directReplaceKeysCache = new ThreadLocal<Set<String>>() {
 		@Override
-		protected Set<String> initialValue() {
-			return new HashSet<String>();
+		public Set<String> get() {
+			return getThreadSession().getReplaceKeys();
+		}
+
+		@Override
+		public void set(Set<String> value) {
+			Set<String> keys = getThreadSession().getReplaceKeys();
+			keys.clear();
+			if (value != null)
+				keys.addAll(value);
+		}
+
+		@Override
+		public void remove() {
+			getThreadSession().getReplaceKeys().clear();
 		}
 	};
 
@@ -88,11 +106,29 @@ public class TemplateQueryRunner extends InlineQueryRunner {
 
 	/**
 	 * A ThreadLocal variant for temporally store parameter Map in current Thread
+	 * 
+	 * @deprecated template parameters are stored in session of current thread
+	 *             now, this field only delegates to
+	 *             getThreadSession().getTemplateParams()
 	 */
+	@Deprecated
 	protected static ThreadLocal<Map<String, Object>> templateThreadlocalParamMapCache = new ThreadLocal<Map<String, Object>>() {
 		@Override
-		protected Map<String, Object> initialValue() {
-			return new HashMap<String, Object>();
+		public Map<String, Object> get() {
+			return getThreadSession().getTemplateParams();
+		}
+
+		@Override
+		public void set(Map<String, Object> value) {
+			Map<String, Object> map = getThreadSession().getTemplateParams();
+			map.clear();
+			if (value != null)
+				map.putAll(value);
+		}
+
+		@Override
+		public void remove() {
+			getThreadSession().getTemplateParams().clear();
 		}
 	};
 
@@ -101,8 +137,7 @@ public class TemplateQueryRunner extends InlineQueryRunner {
 	 * ""
 	 */
 	public static String put(String name, Object value) {
-		templateThreadlocalParamMapCache.get().put(name, value);
-		return "";
+		return getThreadSession().put(name, value);
 	}
 
 	/**
@@ -110,9 +145,7 @@ public class TemplateQueryRunner extends InlineQueryRunner {
 	 * Note: use replace() method the value will directly replace text in template
 	 */
 	public static String replace(String name, Object value) {
-		templateThreadlocalParamMapCache.get().put(name, value);
-		directReplaceKeysCache.get().add(name);
-		return "";
+		return getThreadSession().replace(name, value);
 	}
 
 	/**
@@ -146,8 +179,7 @@ public class TemplateQueryRunner extends InlineQueryRunner {
 	 * Clear all template ThreadLocal parameters
 	 */
 	protected static void clearBind() {
-		templateThreadlocalParamMapCache.get().clear();
-		directReplaceKeysCache.get().clear();
+		getThreadSession().clearTemplateParams();
 	}
 
 	/**
@@ -215,6 +247,30 @@ public class TemplateQueryRunner extends InlineQueryRunner {
 		}
 	}
 
+	/**
+	 * Asynchronous version of tQuery method, template is rendered in current
+	 * thread, query run in asyncQueryExecutor. Note: it's out of current
+	 * transaction.
+	 * 
+	 * @param rsh
+	 *            The handler used to create the result object from the
+	 *            <code>ResultSet</code>.
+	 * @param templateSQL
+	 *            the SQL template
+	 * @param paramMap
+	 *            The parameters stored in Map
+	 * @return A Future of the object generated by the handler
+	 */
+	public <T> Future<T> tQueryAsync(final ResultSetHandler rsh, String templateSQL, Map<String, Object> paramMap) {
+		final PreparedSQL sp = templateToSqlAndParams(paramMap, templateSQL);
+		return submitAsync(new Callable<T>() {
+			@Override
+			public T call() throws SQLException {
+				return (T) query(sp.getSql(), rsh, sp.getParams());
+			}
+		});
+	}
+
 	/**
 	 * Executes the template style given INSERT SQL statement. Note: This method
 	 * does not close connection
@@ -11,10 +11,8 @@
  */
 package com.github.drinkjava2.jsqlbox;
 
-import java.lang.reflect.Method;
 
 import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
-import com.github.drinkjava2.jdialects.ClassCacheUtils;
 import com.github.drinkjava2.jdialects.model.ColumnModel;
 import com.github.drinkjava2.jdialects.model.TableModel;
 
@@ -156,12 +154,12 @@ public class ActiveRecord implements ActiveRecordSupport {
 
 	@Override
 	public ActiveRecordSupport put(Object... fieldAndValues) {
+		EntityAccessor accessor = EntityAccessor.of(this.getClass());
 		for (int i = 0; i < fieldAndValues.length / 2; i++) {
 			String field = (String) fieldAndValues[i * 2];
 			Object value = fieldAndValues[i * 2 + 1];
-			Method writeMethod = ClassCacheUtils.getClassFieldWriteMethod(this.getClass(), field);
 			try {
-				writeMethod.invoke(this, value);
+				accessor.setValue(this, field, value);
 			} catch (Exception e) {
 				throw new SqlBoxException(e);
 			}
@@ -182,13 +180,13 @@ public class ActiveRecord implements ActiveRecordSupport {
 			throw new SqlBoxException("putValues fields or values can not be empty");
 		if (values.length != fields.length)
 			throw new SqlBoxException("putValues fields and values number not match");
+		EntityAccessor accessor = EntityAccessor.of(this.getClass());
 		for (int i = 0; i < fields.length; i++) {
-			Method writeMethod = ClassCacheUtils.getClassFieldWriteMethod(this.getClass(), fields[i]);
-			if (writeMethod == null)
+			if (!accessor.isWritable(fields[i]))
 				throw new SqlBoxException(
 						"Not found writeMethod for '" + this.getClass() + "' class's method '" + fields[i] + "'");
 			try {
-				writeMethod.invoke(this, values[i]);
+				accessor.setValue(this, fields[i], values[i]);
 			} catch (Exception e) {
 				throw new SqlBoxException(e);
 			}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jsqlbox;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.github.drinkjava2.jdbpro.DbProLogger.DefaultDbProLogger;
+import com.github.drinkjava2.jdbpro.improve.BeanAccessor;
+import com.github.drinkjava2.jsqlbox.compiler.DynamicCompileEngine;
+
+/**
+ * EntityAccessor read and write properties of entity beans by property index.
+ * For each entity class a subclass is generated and compiled by
+ * DynamicCompileEngine, it calls getter and setter methods directly instead of
+ * Method.invoke. If can not generate (class is not public, no Java compiler
+ * found...), EntityAccessor itself is used, it calls the methods cached in
+ * BeanAccessor by reflection. <br/>
+ *
+ * Note: the Java compiler runs once for each entity class, at its first use,
+ * usually the first CRUD call, it may take tens of milliseconds. Call warmUp()
+ * at startup to move this cost out of the first requests, or call
+ * setGenerateAccessors(false) to always use reflection. <br/>
+ *
+ * Properties are in the same order as BeanAccessor, "class" property is
+ * excluded.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public class EntityAccessor {
+	private static final String GENERATED_PACKAGE = "com.github.drinkjava2.jsqlbox.accessor";
+	private static final ConcurrentHashMap<Class<?>, EntityAccessor> accessors = new ConcurrentHashMap<Class<?>, EntityAccessor>();
+
+	/** Accessors being built, other threads wait the same class only */
+	private static final ConcurrentHashMap<Class<?>, FutureTask<EntityAccessor>> building = new ConcurrentHashMap<Class<?>, FutureTask<EntityAccessor>>();
+
+	private static final AtomicBoolean fallbackLogged = new AtomicBoolean(false);
+	private static volatile boolean generateAccessors = true;
+
+	/** Set when DynamicCompileEngine can not work in this JVM */
+	private static volatile boolean compilerUnavailable = false;
+
+	protected final Class<?> entityClass;
+	protected final BeanAccessor beanAccessor;
+
+	protected EntityAccessor(Class<?> entityClass) {
+		this.entityClass = entityClass;
+		this.beanAccessor = BeanAccessor.of(entityClass);
+	}
+
+	/**
+	 * @return The shared EntityAccessor of given entity class, generate it if not
+	 *         found
+	 */
+	public static EntityAccessor of(final Class<?> entityClass) {
+		EntityAccessor accessor = accessors.get(entityClass);
+		if (accessor != null)
+			return accessor;
+		FutureTask<EntityAccessor> task = new FutureTask<EntityAccessor>(new Callable<EntityAccessor>() {
+			@Override
+			public EntityAccessor call() {
+				EntityAccessor result = accessors.get(entityClass);
+				if (result == null) {
+					if (generateAccessors && !compilerUnavailable)
+						result = generate(entityClass);
+					if (result == null)
+						result = new EntityAccessor(entityClass);
+					accessors.put(entityClass, result);
+				}
+				return result;
+			}
+		});
+		FutureTask<EntityAccessor> running = building.putIfAbsent(entityClass, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				building.remove(entityClass, task);
+			}
+		}
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqlBoxException("Interrupted when wait EntityAccessor of " + entityClass, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new SqlBoxException("Fail to build EntityAccessor of " + entityClass, cause);
+		}
+	}
+
+	/**
+	 * Build accessors of given entity classes in advance, so the Java compiler
+	 * do not run at first CRUD call of these classes
+	 */
+	public static void warmUp(Class<?>... entityClasses) {
+		for (Class<?> entityClass : entityClasses)
+			of(entityClass);
+	}
+
+	/** Clear all cached accessors */
+	public static void clearAccessors() {
+		accessors.clear();
+	}
+
+	/** Read property value of entity by property index */
+	public Object getValue(Object entity, int index) {
+		return beanAccessor.getValue(entity, index);
+	}
+
+	/** Write property value of entity by property index */
+	public void setValue(Object entity, int index, Object value) {
+		beanAccessor.setValue(entity, index, value);
+	}
+
+	/** Read property value of entity by property name */
+	public Object getValue(Object entity, String propertyName) {
+		return getValue(entity, checkedIndexOf(propertyName));
+	}
+
+	/** Write property value of entity by property name */
+	public void setValue(Object entity, String propertyName, Object value) {
+		setValue(entity, checkedIndexOf(propertyName), value);
+	}
+
+	/** Create a new entity instance by its no-argument constructor */
+	public Object newInstance() {
+		try {
+			return entityClass.newInstance();
+		} catch (Exception e) {
+			throw new SqlBoxException("Fail to create new instance of " + entityClass, e);
+		}
+	}
+
+	private int checkedIndexOf(String propertyName) {
+		int index = beanAccessor.indexOf(propertyName);
+		if (index < 0)
+			throw new SqlBoxException("No property '" + propertyName + "' found in " + entityClass);
+		return index;
+	}
+
+	/** @return Index of property, or -1 if not found */
+	public int indexOf(String propertyName) {
+		return beanAccessor.indexOf(propertyName);
+	}
+
+	/** @return true if property exists and has a read method */
+	public boolean isReadable(String propertyName) {
+		return beanAccessor.isReadable(propertyName);
+	}
+
+	/** @return true if property exists and has a write method */
+	public boolean isWritable(String propertyName) {
+		return beanAccessor.isWritable(propertyName);
+	}
+
+	/** @return true if this accessor is a generated class */
+	public boolean isGenerated() {
+		return getClass() != EntityAccessor.class;
+	}
+
+	// ==========generate accessor class========
+	/**
+	 * Generate and compile an EntityAccessor subclass for entity class, return
+	 * null if can not
+	 */
+	private static EntityAccessor generate(Class<?> entityClass) {
+		if (!isPublicType(entityClass) || !isVisible(entityClass))
+			return null;
+		String className = GENERATED_PACKAGE + "."
+				+ entityClass.getName().replace('.', '_').replace('$', '_') + "_Accessor";
+		try {
+			Class<?> accessorClass = DynamicCompileEngine.instance.javaCodeToClass(className,
+					buildSource(className, entityClass));
+			EntityAccessor accessor = (EntityAccessor) accessorClass.newInstance();
+			return accessor.entityClass == entityClass ? accessor : null;
+		} catch (LinkageError e) {// NOSONAR DynamicCompileEngine not work
+			compilerUnavailable = true;
+			logFallback(entityClass, e);
+		} catch (Exception e) {// NOSONAR use reflection instead
+			logFallback(entityClass, e);
+		}
+		return null;
+	}
+
+	/** Log the reason of first fallback to reflection, later ones are not logged */
+	private static void logFallback(Class<?> entityClass, Throwable e) {
+		if (fallbackLogged.compareAndSet(false, true))
+			DefaultDbProLogger.getLog(EntityAccessor.class).warn("Can not generate EntityAccessor for "
+					+ entityClass.getName() + ", use reflection instead, reason: " + e);
+	}
+
+	/** @return true if entity class can be loaded by the compiler's class loader */
+	private static boolean isVisible(Class<?> entityClass) {
+		try {
+			return Class.forName(entityClass.getName(), false, EntityAccessor.class.getClassLoader()) == entityClass;
+		} catch (ClassNotFoundException e) {// NOSONAR
+			return false;
+		}
+	}
+
+	/** @return true if type can be referenced in source code of another package */
+	private static boolean isPublicType(Class<?> type) {
+		Class<?> c = type;
+		while (c.isArray())
+			c = c.getComponentType();
+		if (c.isPrimitive())
+			return true;
+		if (c.getCanonicalName() == null || c.getPackage() == null || c.getName().indexOf('.') < 0)
+			return false;
+		for (; c != null; c = c.getEnclosingClass())
+			if (!Modifier.isPublic(c.getModifiers()))
+				return false;
+		return true;
+	}
+
+	/** @return true if method can be called directly in generated source code */
+	private static boolean isCallable(Method method) {
+		return method != null && Modifier.isPublic(method.getModifiers()) && method.getExceptionTypes().length == 0;
+	}
+
+	private static String boxedName(Class<?> primitive) {
+		if (primitive == int.class)
+			return "Integer";
+		if (primitive == char.class)
+			return "Character";
+		String name = primitive.getName();
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	private static String buildSource(String className, Class<?> entityClass) {
+		BeanAccessor ba = BeanAccessor.of(entityClass);
+		String entityName = entityClass.getCanonicalName();
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(GENERATED_PACKAGE).append(";\n");
+		sb.append("public class ").append(className.substring(GENERATED_PACKAGE.length() + 1))
+				.append(" extends ").append(EntityAccessor.class.getName()).append(" {\n");
+		sb.append("public ").append(className.substring(GENERATED_PACKAGE.length() + 1)).append("() {super(")
+				.append(entityName).append(".class);}\n");
+
+		sb.append("public Object getValue(Object entity, int index) {\n");
+		sb.append(entityName).append(" b = (").append(entityName).append(") entity;\n");
+		sb.append("switch (index) {\n");
+		for (int i = 0; i < ba.getPropertyCount(); i++) {
+			Method read = ba.getReadMethod(i);
+			if (isCallable(read) && isPublicType(read.getReturnType()))
+				sb.append("case ").append(i).append(": return b.").append(read.getName()).append("();\n");
+		}
+		sb.append("default: return super.getValue(entity, index);\n}\n}\n");
+
+		sb.append("public void setValue(Object entity, int index, Object value) {\n");
+		sb.append(entityName).append(" b = (").append(entityName).append(") entity;\n");
+		sb.append("switch (index) {\n");
+		for (int i = 0; i < ba.getPropertyCount(); i++) {
+			Method write = ba.getWriteMethod(i);
+			if (!isCallable(write))
+				continue;
+			Class<?> type = write.getParameterTypes()[0];
+			if (!isPublicType(type))
+				continue;
+			sb.append("case ").append(i).append(": ");
+			if (type.isPrimitive()) {
+				String boxed = boxedName(type);
+				sb.append("if (value instanceof ").append(boxed).append(") {b.").append(write.getName()).append("(((")
+						.append(boxed).append(") value).").append(type.getName()).append("Value()); return;} break;\n");
+			} else {
+				String typeName = type.getCanonicalName();
+				sb.append("if (value == null || value instanceof ").append(typeName).append(") {b.")
+						.append(write.getName()).append("((").append(typeName).append(") value); return;} break;\n");
+			}
+		}
+		sb.append("default: break;\n}\n");
+		sb.append("super.setValue(entity, index, value);\n}\n");
+
+		if (hasPublicDefaultConstructor(entityClass))
+			sb.append("public Object newInstance() {return new ").append(entityName).append("();}\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static boolean hasPublicDefaultConstructor(Class<?> entityClass) {
+		if (Modifier.isAbstract(entityClass.getModifiers())
+				|| (entityClass.getEnclosingClass() != null && !Modifier.isStatic(entityClass.getModifiers())))
+			return false;
+		try {
+			Constructor<?> constructor = entityClass.getConstructor();
+			return constructor.getExceptionTypes().length == 0;
+		} catch (NoSuchMethodException e) {// NOSONAR
+			return false;
+		}
+	}
+
+	// getter ====
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	/** @return How many properties, "class" property not included */
+	public int getPropertyCount() {
+		return beanAccessor.getPropertyCount();
+	}
+
+	public String getPropertyName(int index) {
+		return beanAccessor.getPropertyName(index);
+	}
+
+	public Method getReadMethod(int index) {
+		return beanAccessor.getReadMethod(index);
+	}
+
+	public Method getWriteMethod(int index) {
+		return beanAccessor.getWriteMethod(index);
+	}
+
+	public static boolean isGenerateAccessors() {
+		return generateAccessors;
+	}
+
+	/**
+	 * @return false if DynamicCompileEngine failed with a LinkageError, then new
+	 *         accessors use reflection, setGenerateAccessors() is not changed
+	 */
+	public static boolean isCompilerAvailable() {
+		return !compilerUnavailable;
+	}
+
+	/**
+	 * If set false, new accessors will use reflection instead of generated
+	 * classes, default is true
+	 */
+	public static void setGenerateAccessors(boolean generateAccessors) {
+		EntityAccessor.generateAccessors = generateAccessors;
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jsqlbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.drinkjava2.jdialects.StrUtils;
+import com.github.drinkjava2.jdialects.annotation.jpa.GenerationType;
+import com.github.drinkjava2.jdialects.model.ColumnModel;
+import com.github.drinkjava2.jdialects.model.TableModel;
+
+/**
+ * EntityCrudPlan store the precomputed SQL and ordered property/column indexes
+ * of CRUD methods for an entity class and its TableModel, so insert, update,
+ * delete and load need not build SQL or match fields to columns for each
+ * entity. <br/>
+ * 
+ * A plan is built once for each entity class, and be rebuilt if TableModel of
+ * the box changed (table name, columns or their settings).
+ * 
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+final class EntityCrudPlan {// NOSONAR
+	private static final Set<String> NOT_ENTITY_FIELDS = new HashSet<String>(
+			Arrays.asList("class", "simpleName", "canonicalName", "box"));
+	/** How many settings of each column stored in snapshot */
+	private static final int SNAPSHOT_FIELDS = 8;
+	private static final ConcurrentHashMap<Class<?>, EntityCrudPlan> plans = new ConcurrentHashMap<Class<?>, EntityCrudPlan>();
+
+	// Snapshot of TableModel, used to check if TableModel changed
+	private final String tableName;
+	private final Object[] columnSnapshot;
+
+	final EntityAccessor accessor;
+
+	/** Error found when match readable properties to columns */
+	final String readError;
+	/** Error found when match writable properties to columns */
+	final String writeError;
+
+	final String insertSql;
+	/** Properties and columns to insert, in SQL parameter order */
+	final int[] insertProps;
+	final int[] insertCols;
+	/** true if the column's value is generated by IdGenerator */
+	final boolean[] insertIdGens;
+	/** Identity property, -1 if no */
+	final int identityProp;
+	/** Identity column name and property type, null if no */
+	final String identityColumn;
+	final Class<?> identityType;
+
+	/** null if no primary key */
+	final String updateSql;
+	final int[] updateProps;
+
+	/** null if no primary key */
+	final String deleteSql;
+	final int[] deleteProps;
+
+	/** null if no primary key */
+	final String loadSql;
+	/** Properties be loaded, in select columns order */
+	final int[] loadProps;
+	/** Primary key property names, in where clause order */
+	final String[] loadPkeyNames;
+
+	private EntityCrudPlan(Class<?> entityClass, TableModel model) {
+		this.tableName = model.getTableName();
+		this.columnSnapshot = snapshot(model);
+		this.accessor = EntityAccessor.of(entityClass);
+		List<ColumnModel> columns = model.getColumns();
+		int count = accessor.getPropertyCount();
+
+		String readErr = null;
+		String writeErr = null;
+		int[] colOfProp = new int[count];
+		for (int i = 0; i < count; i++) {
+			colOfProp[i] = -1;
+			String name = accessor.getPropertyName(i);
+			boolean readable = accessor.getReadMethod(i) != null;
+			boolean writable = accessor.getWriteMethod(i) != null;
+			if (NOT_ENTITY_FIELDS.contains(name) || (!readable && !writable))
+				continue;
+			try {
+				colOfProp[i] = findMatchColumn(name, columns);
+			} catch (SqlBoxException e) {
+				if (readable && readErr == null)
+					readErr = e.getMessage();
+				if (writable && writeErr == null)
+					writeErr = e.getMessage();
+			}
+		}
+		this.readError = readErr;
+		this.writeError = writeErr;
+
+		// insert
+		StringBuilder sb = new StringBuilder();
+		sb.append("insert into ").append(tableName).append(" (");
+		List<Integer> props = new ArrayList<Integer>();
+		List<Integer> cols = new ArrayList<Integer>();
+		List<Boolean> idGens = new ArrayList<Boolean>();
+		int identityP = -1;
+		int identityC = -1;
+		for (int i = 0; i < count; i++) {
+			if (colOfProp[i] < 0 || accessor.getReadMethod(i) == null)
+				continue;
+			ColumnModel col = columns.get(colOfProp[i]);
+			if (col.getTransientable() || !col.getInsertable())
+				continue;
+			boolean isIdGen = col.getIdGenerationType() != null || !StrUtils.isEmpty(col.getIdGeneratorName());
+			if (isIdGen && GenerationType.IDENTITY.equals(col.getIdGenerator().getGenerationType())) {
+				if (identityP >= 0)
+					throw new SqlBoxException("More than 1 identity field found for model '" + tableName + "'");
+				identityP = i;
+				identityC = colOfProp[i];
+				continue;
+			}
+			sb.append(col.getColumnName()).append(", ");
+			props.add(i);
+			cols.add(colOfProp[i]);
+			idGens.add(isIdGen);
+		}
+		if (!props.isEmpty())
+			sb.setLength(sb.length() - 2);// delete the last ", " character
+		sb.append(") values(").append(SqlBoxStrUtils.getQuestionsStr(props.size())).append(")");
+		this.insertSql = sb.toString();
+		this.insertProps = toArray(props);
+		this.insertCols = toArray(cols);
+		this.insertIdGens = new boolean[idGens.size()];
+		for (int i = 0; i < idGens.size(); i++)
+			insertIdGens[i] = idGens.get(i);
+		this.identityProp = identityP;
+		this.identityColumn = identityC < 0 ? null : columns.get(identityC).getColumnName();
+		this.identityType = identityP < 0 || accessor.getWriteMethod(identityP) == null ? null
+				: accessor.getWriteMethod(identityP).getParameterTypes()[0];
+
+		// update, normal columns first then primary key columns
+		sb.setLength(0);
+		sb.append("update ").append(tableName).append(" set ");
+		List<Integer> normalProps = new ArrayList<Integer>();
+		List<Integer> pkeyProps = new ArrayList<Integer>();
+		StringBuilder where = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (colOfProp[i] < 0 || accessor.getReadMethod(i) == null)
+				continue;
+			ColumnModel col = columns.get(colOfProp[i]);
+			if (col.getTransientable() || !col.getUpdatable())
+				continue;
+			if (!col.getPkey()) {
+				normalProps.add(i);
+				sb.append(col.getColumnName()).append("=?, ");
+			} else {
+				pkeyProps.add(i);
+				where.append(col.getColumnName()).append("=? and ");
+			}
+		}
+		if (!normalProps.isEmpty())
+			sb.setLength(sb.length() - 2);// delete the last ", " characters
+		if (pkeyProps.isEmpty())
+			this.updateSql = null;
+		else {
+			where.setLength(where.length() - 5);// delete the last " and "
+			this.updateSql = sb.append(" where ").append(where).toString();
+		}
+		normalProps.addAll(pkeyProps);
+		this.updateProps = toArray(normalProps);
+
+		// delete
+		sb.setLength(0);
+		sb.append("delete from ").append(tableName).append(" where ");
+		pkeyProps.clear();
+		for (int i = 0; i < count; i++) {
+			if (colOfProp[i] < 0 || accessor.getReadMethod(i) == null)
+				continue;
+			ColumnModel col = columns.get(colOfProp[i]);
+			if (!col.getTransientable() && col.getPkey()) {
+				sb.append(col.getColumnName()).append("=? and ");
+				pkeyProps.add(i);
+			}
+		}
+		sb.setLength(sb.length() - 5);// delete the last " and "
+		this.deleteSql = pkeyProps.isEmpty() ? null : sb.toString();
+		this.deleteProps = toArray(pkeyProps);
+
+		// load
+		sb.setLength(0);
+		sb.append("select ");
+		where.setLength(0);
+		List<Integer> loadP = new ArrayList<Integer>();
+		List<String> pkeyNames = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			if (colOfProp[i] < 0 || accessor.getWriteMethod(i) == null)
+				continue;
+			ColumnModel col = columns.get(colOfProp[i]);
+			if (col.getTransientable())
+				continue;
+			loadP.add(i);
+			sb.append(col.getColumnName()).append(", ");
+			if (col.getPkey()) {
+				pkeyNames.add(accessor.getPropertyName(i));
+				where.append(col.getColumnName()).append("=? and ");
+			}
+		}
+		if (pkeyNames.isEmpty())
+			this.loadSql = null;
+		else {
+			sb.setLength(sb.length() - 2);// delete the last ", "
+			where.setLength(where.length() - 5);// delete the last " and "
+			this.loadSql = sb.append(" from ").append(tableName).append(" where ").append(where).toString();
+		}
+		this.loadProps = toArray(loadP);
+		this.loadPkeyNames = pkeyNames.toArray(new String[pkeyNames.size()]);
+	}
+
+	/**
+	 * Return the plan of entity class, if not found or TableModel changed since
+	 * the plan built, build a new one
+	 */
+	static EntityCrudPlan of(Class<?> entityClass, TableModel model) {
+		EntityCrudPlan plan = plans.get(entityClass);
+		if (plan == null || !plan.matches(model)) {
+			plan = new EntityCrudPlan(entityClass, model);
+			plans.put(entityClass, plan);
+		}
+		return plan;
+	}
+
+	/** Remove all cached plans */
+	static void clearPlans() {
+		plans.clear();
+	}
+
+	private static int findMatchColumn(String entityField, List<ColumnModel> columns) {
+		int result = -1;
+		String underLineFieldName = SqlBoxStrUtils.camelToLowerCaseUnderline(entityField);
+		for (int i = 0; i < columns.size(); i++) {
+			ColumnModel col = columns.get(i);
+			if (entityField.equalsIgnoreCase(col.getEntityField())
+					|| underLineFieldName.equalsIgnoreCase(col.getColumnName())) {
+				if (result >= 0)
+					throw new SqlBoxException("Field '" + entityField + "' found duplicated columns definition");
+				result = i;
+			}
+		}
+		if (result < 0)
+			throw new SqlBoxException("Can not find database column match entity field '" + entityField + "'");
+		return result;
+	}
+
+	/** Store settings of columns used by plan into an array */
+	private static Object[] snapshot(TableModel model) {
+		List<ColumnModel> columns = model.getColumns();
+		Object[] result = new Object[columns.size() * SNAPSHOT_FIELDS];
+		int i = 0;
+		for (ColumnModel col : columns) {
+			result[i++] = col.getColumnName();
+			result[i++] = col.getEntityField();
+			result[i++] = col.getTransientable();
+			result[i++] = col.getInsertable();
+			result[i++] = col.getUpdatable();
+			result[i++] = col.getPkey();
+			result[i++] = col.getIdGenerationType();
+			result[i++] = col.getIdGeneratorName();
+		}
+		return result;
+	}
+
+	/** @return true if TableModel has same settings as when plan built */
+	private boolean matches(TableModel model) {
+		if (!equals(tableName, model.getTableName()))
+			return false;
+		List<ColumnModel> columns = model.getColumns();
+		if (columns.size() * SNAPSHOT_FIELDS != columnSnapshot.length)
+			return false;
+		int i = 0;
+		for (ColumnModel col : columns)
+			if (!equals(columnSnapshot[i++], col.getColumnName())
+					|| !equals(columnSnapshot[i++], col.getEntityField())
+					|| !equals(columnSnapshot[i++], col.getTransientable())
+					|| !equals(columnSnapshot[i++], col.getInsertable())
+					|| !equals(columnSnapshot[i++], col.getUpdatable())
+					|| !equals(columnSnapshot[i++], col.getPkey())
+					|| !equals(columnSnapshot[i++], col.getIdGenerationType())
+					|| !equals(columnSnapshot[i++], col.getIdGeneratorName()))
+				return false;
+		return true;
+	}
+
+	private static boolean equals(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] result = new int[list.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = list.get(i);
+		return result;
+	}
+}
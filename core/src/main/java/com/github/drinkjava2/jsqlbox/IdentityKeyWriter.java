@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jsqlbox;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.github.drinkjava2.jdbpro.handler.BatchRowsHandler;
+import com.github.drinkjava2.jdbpro.handler.GeneratedKeysHandler;
+import com.github.drinkjava2.jdbpro.improve.SqlBatchCache;
+
+/**
+ * IdentityKeyWriter is used to insert entities have identity column in batch
+ * mode, an entity is queued when its insert SQL be added to batch, after the
+ * batch executed, generated keys are written to queued entities in order. <br/>
+ *
+ * One writer is used for each CRUD plan in the pending batch of current
+ * session, it's stored in the session's SqlBatchCache, so it's removed with the
+ * batch groups when batch be flushed or ended. If rows of the batch are
+ * discarded, queued entities are forgotten.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+final class IdentityKeyWriter implements BatchRowsHandler<Object> {// NOSONAR
+	private final EntityCrudPlan plan;
+	private final GeneratedKeysHandler keysHandler;
+	private final LinkedList<Object> pending = new LinkedList<Object>();
+
+	private IdentityKeyWriter(EntityCrudPlan plan) {
+		this.plan = plan;
+		this.keysHandler = new GeneratedKeysHandler(plan.identityColumn);
+	}
+
+	/** @return The writer of given plan in current session's pending batch */
+	static IdentityKeyWriter of(SqlBoxContext ctx, EntityCrudPlan plan) {
+		SqlBatchCache cache = ctx.getCurrentSession().getBatchCache();
+		IdentityKeyWriter writer = (IdentityKeyWriter) cache.getAttribute(plan);
+		if (writer == null) {
+			writer = new IdentityKeyWriter(plan);
+			cache.setAttribute(plan, writer);
+		}
+		return writer;
+	}
+
+	/** Queue an entity, should be called before its insert SQL add to batch */
+	void add(Object entity) {
+		pending.add(entity);
+	}
+
+	/** Remove the last queued entity if its insert SQL not be added to batch */
+	void cancel(Object entity) {
+		if (!pending.isEmpty() && pending.getLast() == entity)
+			pending.removeLast();
+	}
+
+	@Override
+	public Object handle(ResultSet rs) throws SQLException {
+		List<Object> keys = keysHandler.handle(rs);
+		if (keys.size() != pending.size()) {
+			int queued = pending.size();
+			pending.clear();
+			throw new SqlBoxException(keys.size() + " generated keys be returned for " + queued
+					+ " inserted rows in batch, identity values can not be written back.");
+		}
+		for (Object key : keys)
+			plan.accessor.setValue(pending.removeFirst(), plan.identityProp,
+					SqlBoxContextUtils.toIdentityType(key, plan.identityType));
+		return null;
+	}
+
+	@Override
+	public void rowsDiscarded() {
+		pending.clear();
+	}
+}
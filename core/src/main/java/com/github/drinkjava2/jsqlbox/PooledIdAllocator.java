@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jsqlbox;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import com.github.drinkjava2.jdbpro.DbPro;
+import com.github.drinkjava2.jdbpro.DbProConfig;
+import com.github.drinkjava2.jdbpro.NormalJdbcTool;
+import com.github.drinkjava2.jdialects.Dialect;
+import com.github.drinkjava2.jdialects.Type;
+import com.github.drinkjava2.jdialects.id.AutoIdGenerator;
+import com.github.drinkjava2.jdialects.id.IdGenerator;
+import com.github.drinkjava2.jdialects.id.SequenceIdGenerator;
+import com.github.drinkjava2.jdialects.id.TableIdGenerator;
+
+/**
+ * PooledIdAllocator reserve a block of IDs from a sequence or table
+ * IdGenerator by one database access, and hand out IDs of the block from
+ * memory, a thread only need a lock when the block is used up. Two ways to
+ * reserve a block:<br/>
+ *
+ * 1) Pooled: if allocationSize of sequence or table generator is bigger than 1,
+ * each value v got from database reserve IDs from v to v+allocationSize-1.
+ * <br/>
+ * 2) Hi/Lo: if allocationSize is 1 and a block size is set by
+ * setBlockSize(idGenName, blockSize), each value v reserve IDs from
+ * v*blockSize to v*blockSize+blockSize-1. <br/>
+ *
+ * Other IdGenerators (UUID, identity...) are called directly.<br/>
+ *
+ * Note: all applications use the same sequence or table should use pooled
+ * IDs and same block size, otherwise IDs may be duplicated. Blocks are fetched
+ * out of current transaction, so a rolled back transaction will not cause a
+ * block be used twice, unused IDs in memory will be lost when JVM stop.
+ *
+ * @author Yong Zhu
+ * @since 1.7.0.3
+ */
+public final class PooledIdAllocator {// NOSONAR
+	private static final ConcurrentHashMap<String, Integer> blockSizes = new ConcurrentHashMap<String, Integer>();
+	private static final ConcurrentHashMap<List<Object>, IdPool> pools = new ConcurrentHashMap<List<Object>, IdPool>();
+
+	private PooledIdAllocator() {
+		// default constructor
+	}
+
+	/** A reserved block of IDs, from next to end-1 */
+	private static class Block {
+		final AtomicLong next;
+		final long end;
+		final Object sample;
+
+		Block(long start, long end, Object sample) {
+			this.next = new AtomicLong(start);
+			this.end = end;
+			this.sample = sample;
+		}
+	}
+
+	/** Pool of one IdGenerator in one database */
+	private static class IdPool {
+		private final AtomicReference<Block> current = new AtomicReference<Block>();
+		private final NormalJdbcTool fetchTool;
+		private final IdGenerator source;
+		private final int blockSize;
+		private final boolean hilo;
+
+		IdPool(NormalJdbcTool fetchTool, IdGenerator source, int blockSize, boolean hilo) {
+			this.fetchTool = fetchTool;
+			this.source = source;
+			this.blockSize = blockSize;
+			this.hilo = hilo;
+		}
+
+		Object next(Dialect dialect, Type type) {
+			for (;;) {
+				Block block = current.get();
+				if (block != null) {
+					long id = block.next.getAndIncrement();
+					if (id < block.end)
+						return toIdObject(id, block.sample);
+				}
+				synchronized (this) {
+					if (current.get() == block)
+						current.set(fetchBlock(dialect, type));
+				}
+			}
+		}
+
+		private Block fetchBlock(Dialect dialect, Type type) {
+			Object value = source.getNextID(fetchTool, dialect, type);
+			if (!(value instanceof Number))
+				throw new SqlBoxException("Can not reserve ID block from IdGenerator '" + source.getIdGenName()
+						+ "', it returned a non-numeric value: " + value);
+			long v = ((Number) value).longValue();
+			long start = hilo ? v * blockSize : v;
+			return new Block(start, start + blockSize, value);
+		}
+	}
+
+	/**
+	 * Set block size of IdGenerators with given name, it's used only if
+	 * allocationSize of the generator is 1 (Hi/Lo way), set 0 or 1 to cancel
+	 */
+	public static void setBlockSize(String idGenName, int blockSize) {
+		if (blockSize > 1)
+			blockSizes.put(idGenName, blockSize);
+		else
+			blockSizes.remove(idGenName);
+	}
+
+	/** @return Block size set for given IdGenerator name, 0 if not set */
+	public static int getBlockSize(String idGenName) {
+		Integer size = blockSizes.get(idGenName);
+		return size == null ? 0 : size;
+	}
+
+	/** Discard all reserved blocks, IDs not handed out will be lost */
+	public static void clearPools() {
+		pools.clear();
+	}
+
+	/**
+	 * Get next ID from the pool of IdGenerator, if the generator can not be
+	 * pooled, call its getNextID method directly
+	 */
+	public static Object nextId(NormalJdbcTool jdbc, IdGenerator idGenerator, Dialect dialect, Type type) {
+		IdGenerator source = sourceGenerator(idGenerator, dialect);
+		if (source == null)
+			return idGenerator.getNextID(jdbc, dialect, type);
+		int allocationSize = allocationSize(source);
+		boolean hilo = allocationSize <= 1;
+		int blockSize = hilo ? getBlockSize(idGenerator.getIdGenName()) : allocationSize;
+		if (blockSize <= 1)
+			return idGenerator.getNextID(jdbc, dialect, type);
+
+		DataSource ds = jdbc instanceof DbPro ? ((DbPro) jdbc).getDataSource() : null;
+		Object owner = ds == null ? jdbc : ds;
+		List<Object> key = Arrays.<Object> asList(owner, idGenerator.getIdGenName(), source.getIdGenName(),
+				blockSize, hilo);
+		IdPool pool = pools.get(key);
+		if (pool == null) {
+			IdPool newPool = new IdPool(ds == null ? jdbc : buildFetchTool(ds), source, blockSize, hilo);
+			pool = pools.putIfAbsent(key, newPool);
+			if (pool == null)
+				pool = newPool;
+		}
+		return pool.next(dialect, type);
+	}
+
+	/** Build a DbPro without ConnectionManager, so SQL is out of transaction */
+	private static DbPro buildFetchTool(DataSource ds) {
+		DbProConfig config = new DbProConfig();
+		config.setConnectionManager(null);
+		return new DbPro(ds, config);
+	}
+
+	/** @return The sequence or table IdGenerator which really access database */
+	private static IdGenerator sourceGenerator(IdGenerator idGenerator, Dialect dialect) {
+		if (idGenerator instanceof SequenceIdGenerator || idGenerator instanceof TableIdGenerator)
+			return idGenerator;
+		if (idGenerator instanceof AutoIdGenerator)
+			return sourceGenerator(((AutoIdGenerator) idGenerator).getSequenceOrTableIdGenerator(dialect), dialect);
+		return null;
+	}
+
+	private static int allocationSize(IdGenerator source) {
+		Integer size = null;
+		if (source instanceof SequenceIdGenerator)
+			size = ((SequenceIdGenerator) source).getAllocationSize();
+		else if (source instanceof TableIdGenerator)
+			size = ((TableIdGenerator) source).getAllocationSize();
+		return size == null ? 1 : size;
+	}
+
+	/** Build ID object in same type as the value returned by IdGenerator */
+	private static Object toIdObject(long id, Object sample) {
+		if (sample instanceof Integer && id <= Integer.MAX_VALUE && id >= Integer.MIN_VALUE)
+			return Integer.valueOf((int) id);
+		if (sample instanceof BigDecimal)
+			return BigDecimal.valueOf(id);
+		if (sample instanceof BigInteger)
+			return BigInteger.valueOf(id);
+		return Long.valueOf(id);
+	}
+}
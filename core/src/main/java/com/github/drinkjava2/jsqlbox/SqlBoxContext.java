@@ -11,6 +11,9 @@
  */
 package com.github.drinkjava2.jsqlbox;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
@@ -18,6 +21,9 @@ import javax.sql.DataSource;
 
 import com.github.drinkjava2.jdbpro.DbPro;
 import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+import com.github.drinkjava2.jdbpro.improve.RowReducer;
+import com.github.drinkjava2.jdbpro.improve.ScatterGather;
+import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
 import com.github.drinkjava2.jdialects.Dialect;
 import com.github.drinkjava2.jdialects.model.TableModel;
 import com.github.drinkjava2.jsqlbox.entitynet.EntityNet;
@@ -67,6 +73,20 @@ public class SqlBoxContext extends DbPro {// NOSONAR
 		this.allowShowSQL = config.getAllowSqlSql();
 		this.logger = config.getLogger();
 		this.batchSize = config.getBatchSize();
+		this.batchMode = config.getBatchMode();
+		this.maxBatchGroups = config.getMaxBatchGroups();
+		this.asyncBatchFlusher = config.getAsyncBatchFlusher();
+		this.asyncQueryExecutor = config.getAsyncQueryExecutor();
+		this.multiRowInsert = config.getMultiRowInsert();
+		this.singleFlightCache = config.getSingleFlightCache();
+		this.cacheRefreshSeconds = config.getCacheRefreshSeconds();
+		this.streamFetchSize = config.getStreamFetchSize();
+		this.fetchSize = config.getFetchSize();
+		this.maxRows = config.getMaxRows();
+		this.queryTimeout = config.getQueryTimeout();
+		this.statementCacheSize = config.getStatementCacheSize();
+		this.sqlLogger = config.getSqlLogger();
+		this.metricsListener = config.getMetricsListener();
 		this.handlers = config.getHandlers();
 	}
 
@@ -78,11 +98,81 @@ public class SqlBoxContext extends DbPro {// NOSONAR
 		this.allowShowSQL = config.getAllowSqlSql();
 		this.logger = config.getLogger();
 		this.batchSize = config.getBatchSize();
+		this.batchMode = config.getBatchMode();
+		this.maxBatchGroups = config.getMaxBatchGroups();
+		this.asyncBatchFlusher = config.getAsyncBatchFlusher();
+		this.asyncQueryExecutor = config.getAsyncQueryExecutor();
+		this.multiRowInsert = config.getMultiRowInsert();
+		this.singleFlightCache = config.getSingleFlightCache();
+		this.cacheRefreshSeconds = config.getCacheRefreshSeconds();
+		this.streamFetchSize = config.getStreamFetchSize();
+		this.fetchSize = config.getFetchSize();
+		this.maxRows = config.getMaxRows();
+		this.queryTimeout = config.getQueryTimeout();
+		this.statementCacheSize = config.getStatementCacheSize();
+		this.sqlLogger = config.getSqlLogger();
+		this.metricsListener = config.getMetricsListener();
 		this.handlers = config.getHandlers();
 		if (dialect == null)
 			dialect = Dialect.guessDialect(ds);
 	}
 
+	/**
+	 * Return max bind parameters of one multiple rows insert SQL according
+	 * dialect, 0 means this dialect do not support multiple rows insert
+	 */
+	@Override
+	protected int getMaxBindParams() {
+		if (dialect == null)
+			return 0;
+		if (dialect.isMySqlFamily() || dialect.toString().startsWith("MariaDB"))
+			return 65535;
+		if (dialect.isPostgresFamily() || dialect.isH2Family() || Dialect.HSQLDialect.equals(dialect)
+				|| Dialect.DB2Dialect.equals(dialect))
+			return 32767;
+		if (Dialect.SQLServer2008Dialect.equals(dialect) || Dialect.SQLServer2012Dialect.equals(dialect))
+			return 2000;// 2100 is the limit, keep some space
+		if (Dialect.SQLiteDialect.equals(dialect))
+			return 999;
+		return 0;
+	}
+
+	/**
+	 * @return true if JDBC driver of current dialect can return identity values by
+	 *         Statement.getGeneratedKeys(), if false, identity value will be
+	 *         queried by a follow-up SQL
+	 */
+	protected boolean supportGeneratedKeys() {
+		if (dialect == null)
+			return true;
+		if (dialect.isOracleFamily() || dialect.isInfomixFamily() || dialect.isSybaseFamily()
+				|| Dialect.AccessDialect.equals(dialect) || Dialect.FirebirdDialect.equals(dialect)
+				|| Dialect.InterbaseDialect.equals(dialect) || dialect.toString().startsWith("Ingres"))
+			return false;
+		return true;
+	}
+
+	/**
+	 * @return true if JDBC driver of current dialect return one generated key for
+	 *         each row of an executed batch
+	 */
+	protected boolean supportBatchGeneratedKeys() {
+		if (dialect == null)
+			return false;
+		return dialect.isMySqlFamily() || dialect.toString().startsWith("MariaDB") || dialect.isPostgresFamily();
+	}
+
+	/**
+	 * MySQL driver load whole result set into memory unless fetch size is
+	 * Integer.MIN_VALUE, so for MySQL family use it to stream rows one by one
+	 */
+	@Override
+	protected int getQueryStreamFetchSize() {
+		if (dialect != null && dialect.isMySqlFamily() && streamFetchSize != null && streamFetchSize > 0)
+			return Integer.MIN_VALUE;
+		return super.getQueryStreamFetchSize();
+	}
+
 	// ========== Dialect shortcut methods ===============
 	private void assertDialectNotNull() {
 		if (dialect == null)
@@ -238,6 +328,30 @@ public class SqlBoxContext extends DbPro {// NOSONAR
 		SqlBoxContextUtils.delete(this, entity);
 	}
 
+	/**
+	 * Insert entities to database by JDBC batches, return affected rows of each
+	 * entity
+	 */
+	public int[] insertAll(Collection<?> entities) {
+		return SqlBoxContextUtils.insertAll(this, entities);
+	}
+
+	/**
+	 * Update entities in database by their ID columns, use JDBC batches, return
+	 * affected rows of each entity
+	 */
+	public int[] updateAll(Collection<?> entities) {
+		return SqlBoxContextUtils.updateAll(this, entities);
+	}
+
+	/**
+	 * Delete entities in database by their ID columns, use JDBC batches, return
+	 * affected rows of each entity
+	 */
+	public int[] deleteAll(Collection<?> entities) {
+		return SqlBoxContextUtils.deleteAll(this, entities);
+	}
+
 	/** Load an entity from database by key, key can be one object or a Map */
 	public <T> T load(Class<?> entityClass, Object pkey) {
 		return SqlBoxContextUtils.load(this, entityClass, pkey);
@@ -248,6 +362,51 @@ public class SqlBoxContext extends DbPro {// NOSONAR
 		return this.netLoad(entityClass).getAllEntityList(entityClass);
 	}
 
+	// ========== Scatter/gather query methods ===============
+	/**
+	 * Run queries concurrently, each in its own connection, and concatenate
+	 * their rows in the order of query list. Note: queries are out of current
+	 * transaction.
+	 * 
+	 * @param maxConcurrency
+	 *            Max queries run at same time
+	 * @param sqls
+	 *            The queries
+	 * @return All rows as List<Map<String, Object>>
+	 */
+	public List<Map<String, Object>> scatterQuery(int maxConcurrency, List<PreparedSQL> sqls) {
+		return new ScatterGather(this, maxConcurrency, sqls).concat(new ArrayList<Map<String, Object>>(),
+				ScatterGather.TO_LIST);
+	}
+
+	/**
+	 * Run queries concurrently and do a k-way merge of their rows by given
+	 * comparator, result of each query must be already sorted by same order.
+	 * maxConcurrency can not less than query count.
+	 */
+	public List<Map<String, Object>> scatterQuery(int maxConcurrency, Comparator<Map<String, Object>> comparator,
+			List<PreparedSQL> sqls) {
+		return new ScatterGather(this, maxConcurrency, sqls).merge(comparator,
+				new ArrayList<Map<String, Object>>(), ScatterGather.TO_LIST);
+	}
+
+	/**
+	 * Run queries concurrently and reduce rows in the order they arrived, rows
+	 * are streamed into reducer so memory is bounded even for big result sets
+	 */
+	public <R> R scatterQuery(int maxConcurrency, R initial, RowReducer<R> reducer, List<PreparedSQL> sqls) {
+		return new ScatterGather(this, maxConcurrency, sqls).arrival(initial, reducer);
+	}
+
+	/**
+	 * Run queries concurrently and reduce rows in the order of comparator, rows
+	 * are streamed into reducer so memory is bounded even for big result sets
+	 */
+	public <R> R scatterQuery(int maxConcurrency, Comparator<Map<String, Object>> comparator, R initial,
+			RowReducer<R> reducer, List<PreparedSQL> sqls) {
+		return new ScatterGather(this, maxConcurrency, sqls).merge(comparator, initial, reducer);
+	}
+
 	// =========getter & setter =======
 	public Dialect getDialect() {
 		return dialect;
@@ -11,22 +11,24 @@
  */
 package com.github.drinkjava2.jsqlbox;
 
-import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.dbutils.handlers.ArrayHandler;
 
-import com.github.drinkjava2.jdialects.ClassCacheUtils;
+import com.github.drinkjava2.jdbpro.handler.GeneratedKeysHandler;
 import com.github.drinkjava2.jdialects.Dialect;
-import com.github.drinkjava2.jdialects.StrUtils;
 import com.github.drinkjava2.jdialects.TableModelUtils;
-import com.github.drinkjava2.jdialects.Type;
-import com.github.drinkjava2.jdialects.annotation.jpa.GenerationType;
 import com.github.drinkjava2.jdialects.id.IdGenerator;
 import com.github.drinkjava2.jdialects.id.IdentityIdGenerator;
 import com.github.drinkjava2.jdialects.model.ColumnModel;
@@ -63,33 +65,24 @@ public abstract class SqlBoxContextUtils {// NOSONAR
 		throw new SqlBoxException(sqlException);
 	}
 
-	private static ColumnModel findMatchColumnForJavaField(String entityField, SqlBox box) {
-		ColumnModel col = findMatchColumnForJavaField(entityField, box.getTableModel());
-//		if (col == null) {
-//			String tableName = box.getTableModel().getTableName();
-//			TableModel metaTableModel = box.getContext().getMetaTableModel(tableName);
-//			col = findMatchColumnForJavaField(entityField, metaTableModel);
-//		}
-		if (col == null)
-			throw new SqlBoxException("Can not find database column match entity field '" + entityField + "'");
-		return col;
+	/**
+	 * Return CRUD plan of entity class, build it if not found or box's
+	 * TableModel changed
+	 */
+	private static EntityCrudPlan crudPlan(Class<?> entityClass, SqlBox box, boolean forRead) {
+		EntityCrudPlan plan = EntityCrudPlan.of(entityClass, box.getTableModel());
+		String error = forRead ? plan.readError : plan.writeError;
+		if (error != null)
+			throw new SqlBoxException(error);
+		return plan;
 	}
 
-	private static ColumnModel findMatchColumnForJavaField(String entityField, TableModel tableModel) {
-		if (tableModel == null)
-			return null;
-		List<ColumnModel> columns = tableModel.getColumns();
-		ColumnModel result = null;
-		String underLineFieldName = SqlBoxStrUtils.camelToLowerCaseUnderline(entityField);
-		for (ColumnModel col : columns) {
-			if (entityField.equalsIgnoreCase(col.getEntityField())
-					|| underLineFieldName.equalsIgnoreCase(col.getColumnName())) {
-				if (result != null)
-					throw new SqlBoxException("Field '" + entityField + "' found duplicated columns definition");
-				result = col;
-			}
-		}
-		return result;
+	/**
+	 * Clear cached CRUD plans of all entity classes, usually no need call it
+	 * because a plan will be rebuilt if its TableModel changed
+	 */
+	public static void clearCrudPlans() {
+		EntityCrudPlan.clearPlans();
 	}
 
 	/**
@@ -99,90 +92,90 @@ public abstract class SqlBoxContextUtils {// NOSONAR
 	public static void insert(SqlBoxContext ctx, Object entityBean) {
 		SqlBox box = SqlBoxUtils.findAndBindSqlBox(ctx, entityBean);
 		checkBeanAndBoxExist(entityBean, box);
-		TableModel tableModel = box.getTableModel();
-		StringBuilder sb = new StringBuilder();
-		sb.append("insert into ").append(tableModel.getTableName()).append(" (");
+		EntityCrudPlan plan = crudPlan(entityBean.getClass(), box, true);
+		EntityAccessor accessor = plan.accessor;
+		List<ColumnModel> columns = box.getTableModel().getColumns();
 
-		List<Object> params = new ArrayList<Object>();
-		String identityFieldName = null;
-		Type identityType = null;
-		Map<String, Method> readMethods = ClassCacheUtils.getClassReadMethods(entityBean.getClass());
-
-		for (String fieldName : readMethods.keySet()) {
-			ColumnModel col = findMatchColumnForJavaField(fieldName, box);
-			if (!col.getTransientable() && col.getInsertable()) {
-				if (col.getIdGenerationType() != null || !StrUtils.isEmpty(col.getIdGeneratorName())) {
-					IdGenerator idGen = col.getIdGenerator();
-					if (GenerationType.IDENTITY.equals(idGen.getGenerationType())) {
-						if (identityFieldName != null)
-							throw new SqlBoxException(
-									"More than 1 identity field found for model '" + tableModel.getTableName() + "'");
-						identityFieldName = fieldName;
-					} else {
-						sb.append(col.getColumnName()).append(", ");
-						Object id = idGen.getNextID(ctx, ctx.getDialect(), col.getColumnType());
-						params.add(id);
-						ClassCacheUtils.writeValueToBeanField(entityBean, fieldName, id);
+		Object[] params = new Object[plan.insertProps.length];
+		for (int i = 0; i < params.length; i++) {
+			if (plan.insertIdGens[i]) {
+				ColumnModel col = columns.get(plan.insertCols[i]);
+				Object id = PooledIdAllocator.nextId(ctx, col.getIdGenerator(), ctx.getDialect(), col.getColumnType());
+				accessor.setValue(entityBean, plan.insertProps[i], id);
+				params[i] = id;
+			} else
+				params[i] = accessor.getValue(entityBean, plan.insertProps[i]);
+		}
+		if (plan.identityProp >= 0 && ctx.supportGeneratedKeys()) {// read identity by getGeneratedKeys
+			if (ctx.isBatchEnabled()) {
+				if (ctx.supportBatchGeneratedKeys()) {
+					IdentityKeyWriter writer = IdentityKeyWriter.of(ctx, plan);
+					writer.add(entityBean);
+					try {
+						ctx.nInsert(writer, plan.insertSql, params);
+					} catch (RuntimeException e) {
+						writer.cancel(entityBean);
+						throw e;
 					}
-				} else {
-					Object value = ClassCacheUtils.readValueFromBeanField(entityBean, fieldName);
-					sb.append(col.getColumnName()).append(", ");
-					params.add(value);
-				}
+				} else
+					ctx.nExecute(plan.insertSql, params);
+				return;
 			}
+			List<Object> keys = ctx.nInsert(new GeneratedKeysHandler(plan.identityColumn), plan.insertSql, params);
+			if (keys == null || keys.size() != 1)
+				throw new SqlBoxException((keys == null ? 0 : keys.size()) + " generated key be returned.");
+			accessor.setValue(entityBean, plan.identityProp, toIdentityType(keys.get(0), plan.identityType));
+			return;
 		}
-		if (!params.isEmpty())
-			sb.setLength(sb.length() - 2);// delete the last ", " character
-		sb.append(") values(").append(SqlBoxStrUtils.getQuestionsStr(params.size())).append(")");
-		int result = ctx.nExecute(sb.toString(), params.toArray(new Object[params.size()]));
+		int result = ctx.nExecute(plan.insertSql, params);
 		if (ctx.isBatchEnabled())
 			return;
 		if (result != 1)
 			throw new SqlBoxException(result + " row record be inserted.");
-		if (identityFieldName != null) {// write identity id to Bean field
-			Object identityId = IdentityIdGenerator.INSTANCE.getNextID(ctx, ctx.getDialect(), identityType);
-			ClassCacheUtils.writeValueToBeanField(entityBean, identityFieldName, identityId);
+		if (plan.identityProp >= 0) {// write identity id to Bean field
+			Object identityId = IdentityIdGenerator.INSTANCE.getNextID(ctx, ctx.getDialect(), null);
+			accessor.setValue(entityBean, plan.identityProp, toIdentityType(identityId, plan.identityType));
+		}
+	}
+
+	/**
+	 * Convert identity value returned by JDBC driver (usually Long or BigDecimal)
+	 * to the type of entity field, return value itself if can not convert
+	 */
+	static Object toIdentityType(Object key, Class<?> type) {
+		if (key == null || type == null || type.isInstance(key) || !(key instanceof Number || key instanceof String))
+			return key;
+		String str = key.toString();
+		try {
+			if (type == Integer.class || type == int.class)
+				return key instanceof Number ? ((Number) key).intValue() : Integer.valueOf(str);
+			if (type == Long.class || type == long.class)
+				return key instanceof Number ? ((Number) key).longValue() : Long.valueOf(str);
+			if (type == Short.class || type == short.class)
+				return key instanceof Number ? ((Number) key).shortValue() : Short.valueOf(str);
+			if (type == BigInteger.class)
+				return new BigDecimal(str).toBigInteger();
+			if (type == BigDecimal.class)
+				return new BigDecimal(str);
+			if (type == String.class)
+				return str;
+		} catch (NumberFormatException e) {// NOSONAR
+			return key;
 		}
+		return key;
 	}
 
 	/** Update entityBean according primary key */
 	public static int update(SqlBoxContext ctx, Object entityBean) {
 		SqlBox box = SqlBoxUtils.findAndBindSqlBox(ctx, entityBean);
 		checkBeanAndBoxExist(entityBean, box);
-		TableModel tableModel = box.getTableModel();
-
-		StringBuilder sb = new StringBuilder();
-		sb.append("update ").append(tableModel.getTableName()).append(" set ");
-
-		List<Object> normalParams = new ArrayList<Object>();
-		List<Object> pkeyParams = new ArrayList<Object>();
-		List<ColumnModel> pkeyColumns = new ArrayList<ColumnModel>();
-
-		Map<String, Method> readMethods = ClassCacheUtils.getClassReadMethods(entityBean.getClass());
-		for (String fieldName : readMethods.keySet()) {
-			ColumnModel col = findMatchColumnForJavaField(fieldName, box);
-			if (!col.getTransientable() && col.getUpdatable()) {
-				Object value = ClassCacheUtils.readValueFromBeanField(entityBean, fieldName);
-				if (!col.getPkey()) {
-					normalParams.add(value);
-					sb.append(col.getColumnName()).append("=?, ");
-				} else {
-					pkeyParams.add(value);
-					pkeyColumns.add(col);
-				}
-			}
-		}
-		if (!normalParams.isEmpty())
-			sb.setLength(sb.length() - 2);// delete the last ", " characters
-		if (pkeyColumns.isEmpty())
+		EntityCrudPlan plan = crudPlan(entityBean.getClass(), box, true);
+		if (plan.updateSql == null)
 			throw new SqlBoxException("No primary column setting found for entityBean");
-		sb.append(" where ");
-		for (ColumnModel col : pkeyColumns)
-			sb.append(col.getColumnName()).append("=? and ");
-		sb.setLength(sb.length() - 5);// delete the last " and " characters
-		for (Object pkeyParam : pkeyParams)
-			normalParams.add(pkeyParam);// join PKey values
-		return box.context.nUpdate(sb.toString(), normalParams.toArray(new Object[normalParams.size()]));
+		Object[] params = new Object[plan.updateProps.length];
+		for (int i = 0; i < params.length; i++)
+			params[i] = plan.accessor.getValue(entityBean, plan.updateProps[i]);
+		return box.context.nUpdate(plan.updateSql, params);
 	}
 
 	/**
@@ -191,25 +184,13 @@ public abstract class SqlBoxContextUtils {// NOSONAR
 	public static void delete(SqlBoxContext ctx, Object entityBean) {
 		SqlBox box = SqlBoxUtils.findAndBindSqlBox(ctx, entityBean);
 		checkBeanAndBoxExist(entityBean, box);
-		TableModel tableModel = box.getTableModel();
-
-		List<Object> pkeyParameters = new ArrayList<Object>();
-		StringBuilder sb = new StringBuilder();
-		sb.append("delete from ").append(tableModel.getTableName()).append(" where ");
-		Map<String, Method> readMethods = ClassCacheUtils.getClassReadMethods(entityBean.getClass());
-		for (String fieldName : readMethods.keySet()) {
-			ColumnModel col = findMatchColumnForJavaField(fieldName, box);
-			if (!col.getTransientable() && col.getPkey()) {
-				Object value = ClassCacheUtils.readValueFromBeanField(entityBean, fieldName);
-				sb.append(col.getColumnName()).append("=?, ");
-				pkeyParameters.add(value);
-			}
-		}
-		sb.setLength(sb.length() - 2);// delete the last "," character
-		if (pkeyParameters.isEmpty())
+		EntityCrudPlan plan = crudPlan(entityBean.getClass(), box, true);
+		if (plan.deleteSql == null)
 			throw new SqlBoxException("No primary key set for entityBean");
-		int rowAffected = box.context.nExecute(sb.toString(),
-				pkeyParameters.toArray(new Object[pkeyParameters.size()]));
+		Object[] params = new Object[plan.deleteProps.length];
+		for (int i = 0; i < params.length; i++)
+			params[i] = plan.accessor.getValue(entityBean, plan.deleteProps[i]);
+		int rowAffected = box.context.nExecute(plan.deleteSql, params);
 		if (ctx.isBatchEnabled())
 			return;
 		if (rowAffected <= 0)
@@ -218,6 +199,232 @@ public abstract class SqlBoxContextUtils {// NOSONAR
 			throw new SqlBoxException("Multiple rows affected when delete entityBean");
 	}
 
+	// ========== Collection CRUD methods ==========
+	/** Entities use same CRUD plan and SqlBoxContext, in collection order */
+	private static class EntityGroup {
+		final EntityCrudPlan plan;
+		final SqlBox box;
+		final SqlBoxContext ctx;
+		final List<Object> entities = new ArrayList<Object>();
+		final List<Integer> positions = new ArrayList<Integer>();
+
+		EntityGroup(EntityCrudPlan plan, SqlBox box, SqlBoxContext ctx) {
+			this.plan = plan;
+			this.box = box;
+			this.ctx = ctx;
+		}
+	}
+
+	/**
+	 * Group entities by CRUD plan and SqlBoxContext. Entities without binded box
+	 * use a box created once for each entity class, the box is not binded to
+	 * them.
+	 */
+	private static Collection<EntityGroup> groupEntities(SqlBoxContext ctx, Collection<?> entities,
+			boolean useBoxContext) {
+		Map<List<Object>, EntityGroup> groups = new LinkedHashMap<List<Object>, EntityGroup>();
+		Map<Class<?>, SqlBox> sharedBoxes = new HashMap<Class<?>, SqlBox>();
+		Map<SqlBox, EntityCrudPlan> plans = new IdentityHashMap<SqlBox, EntityCrudPlan>();
+		int position = 0;
+		for (Object entity : entities) {
+			SqlBoxException.assureNotNull(entity, "Entity in collection can not be null");
+			SqlBox box = SqlBoxUtils.getBindedBox(entity);
+			if (box == null) {
+				box = sharedBoxes.get(entity.getClass());
+				if (box == null) {
+					box = SqlBoxUtils.createSqlBox(ctx, entity.getClass());
+					box.setContext(ctx);
+					sharedBoxes.put(entity.getClass(), box);
+				}
+			}
+			EntityCrudPlan plan = plans.get(box);
+			if (plan == null) {
+				checkBeanAndBoxExist(entity, box);
+				plan = crudPlan(entity.getClass(), box, true);
+				plans.put(box, plan);
+			}
+			SqlBoxContext groupCtx = useBoxContext ? box.getContext() : ctx;
+			List<Object> key = Arrays.asList(plan, groupCtx);
+			EntityGroup group = groups.get(key);
+			if (group == null) {
+				group = new EntityGroup(plan, box, groupCtx);
+				groups.put(key, group);
+			}
+			group.entities.add(entity);
+			group.positions.add(position++);
+		}
+		return groups.values();
+	}
+
+	/**
+	 * Generate IDs of an IdGenerator column for given count of rows, sequence and
+	 * table generators take IDs from reserved blocks, see PooledIdAllocator
+	 */
+	private static Object[] nextIds(SqlBoxContext ctx, ColumnModel col, int count) {
+		IdGenerator idGenerator = col.getIdGenerator();
+		Object[] ids = new Object[count];
+		for (int i = 0; i < count; i++)
+			ids[i] = PooledIdAllocator.nextId(ctx, idGenerator, ctx.getDialect(), col.getColumnType());
+		return ids;
+	}
+
+	/**
+	 * Execute rows by JDBC batches, each batch at most batchSize rows, write
+	 * affected rows to result array at positions of the rows
+	 */
+	private static void executeBatches(SqlBoxContext ctx, String sql, Object[][] rows, List<Integer> positions,
+			int[] result) {
+		if (ctx.isBatchEnabled())
+			ctx.nBatchFlush();
+		int batchSize = ctx.getBatchSize() == null || ctx.getBatchSize() < 1 ? rows.length : ctx.getBatchSize();
+		for (int start = 0; start < rows.length; start += batchSize) {
+			int n = Math.min(batchSize, rows.length - start);
+			Object[][] batchRows = n == rows.length ? rows : Arrays.copyOfRange(rows, start, start + n);
+			int[] affected;
+			try {
+				affected = ctx.batch(sql, batchRows);
+			} catch (SQLException e) {
+				throw new SqlBoxException(e);
+			}
+			for (int i = 0; i < n; i++)
+				result[positions.get(start + i)] = affected[i];
+		}
+	}
+
+	/**
+	 * Insert entities into database by JDBC batches, entities are grouped by
+	 * class, SQL is built once for each group, IDs of each group are generated
+	 * before the batch and written to entities. Identity values are read back by
+	 * JDBC getGeneratedKeys, in batches if driver support it, otherwise one by
+	 * one, for dialects not support getGeneratedKeys by a follow-up query.
+	 * 
+	 * @return Affected rows of each entity in collection order, follow
+	 *         Statement.executeBatch() rule (may be Statement.SUCCESS_NO_INFO)
+	 */
+	public static int[] insertAll(SqlBoxContext ctx, Collection<?> entities) {
+		int[] result = new int[entities.size()];
+		for (EntityGroup group : groupEntities(ctx, entities, false)) {
+			EntityCrudPlan plan = group.plan;
+			EntityAccessor accessor = plan.accessor;
+			List<ColumnModel> columns = group.box.getTableModel().getColumns();
+			int rowCount = group.entities.size();
+			Object[][] rows = new Object[rowCount][plan.insertProps.length];
+			for (int i = 0; i < plan.insertProps.length; i++) {
+				if (plan.insertIdGens[i]) {
+					Object[] ids = nextIds(ctx, columns.get(plan.insertCols[i]), rowCount);
+					for (int row = 0; row < rowCount; row++) {
+						accessor.setValue(group.entities.get(row), plan.insertProps[i], ids[row]);
+						rows[row][i] = ids[row];
+					}
+				} else
+					for (int row = 0; row < rowCount; row++)
+						rows[row][i] = accessor.getValue(group.entities.get(row), plan.insertProps[i]);
+			}
+			if (plan.identityProp < 0) {
+				executeBatches(ctx, plan.insertSql, rows, group.positions, result);
+				continue;
+			}
+			if (ctx.isBatchEnabled())
+				ctx.nBatchFlush();
+			if (ctx.supportGeneratedKeys())
+				insertWithGeneratedKeys(ctx, group, rows, result);
+			else
+				for (int row = 0; row < rowCount; row++) {
+					try {
+						result[group.positions.get(row)] = ctx.batch(plan.insertSql, new Object[][] { rows[row] })[0];
+					} catch (SQLException e) {
+						throw new SqlBoxException(e);
+					}
+					Object identityId = IdentityIdGenerator.INSTANCE.getNextID(ctx, ctx.getDialect(), null);
+					accessor.setValue(group.entities.get(row), plan.identityProp,
+							toIdentityType(identityId, plan.identityType));
+				}
+		}
+		return result;
+	}
+
+	/**
+	 * Insert rows of an entity group has identity column, write generated keys to
+	 * entities in order. If driver return keys of whole batch, rows are inserted
+	 * by JDBC batches, otherwise inserted one by one.
+	 */
+	private static void insertWithGeneratedKeys(SqlBoxContext ctx, EntityGroup group, Object[][] rows,
+			int[] result) {
+		EntityCrudPlan plan = group.plan;
+		GeneratedKeysHandler handler = new GeneratedKeysHandler(plan.identityColumn);
+		int batchSize = 1;
+		if (ctx.supportBatchGeneratedKeys())
+			batchSize = ctx.getBatchSize() == null || ctx.getBatchSize() < 1 ? rows.length : ctx.getBatchSize();
+		for (int start = 0; start < rows.length; start += batchSize) {
+			int n = Math.min(batchSize, rows.length - start);
+			Object[][] batchRows = n == rows.length ? rows : Arrays.copyOfRange(rows, start, start + n);
+			List<Object> keys;
+			try {
+				keys = ctx.insertBatch(plan.insertSql, handler, batchRows);
+			} catch (SQLException e) {
+				throw new SqlBoxException(e);
+			}
+			if (keys == null || keys.size() != n)
+				throw new SqlBoxException((keys == null ? 0 : keys.size()) + " generated keys be returned for " + n
+						+ " inserted rows.");
+			for (int i = 0; i < n; i++) {
+				plan.accessor.setValue(group.entities.get(start + i), plan.identityProp,
+						toIdentityType(keys.get(i), plan.identityType));
+				result[group.positions.get(start + i)] = 1;
+			}
+		}
+	}
+
+	/**
+	 * Update entities according primary key by JDBC batches, entities are grouped
+	 * by class, SQL is built once for each group
+	 * 
+	 * @return Affected rows of each entity in collection order, follow
+	 *         Statement.executeBatch() rule (may be Statement.SUCCESS_NO_INFO)
+	 */
+	public static int[] updateAll(SqlBoxContext ctx, Collection<?> entities) {
+		int[] result = new int[entities.size()];
+		for (EntityGroup group : groupEntities(ctx, entities, true)) {
+			EntityCrudPlan plan = group.plan;
+			if (plan.updateSql == null)
+				throw new SqlBoxException("No primary column setting found for entityBean");
+			executeBatches(group.ctx, plan.updateSql, buildRows(group, plan.updateProps), group.positions, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Delete entities according primary key by JDBC batches, entities are grouped
+	 * by class, SQL is built once for each group. Different to delete() method,
+	 * no exception be thrown if an entity not found in database, check the
+	 * result array instead.
+	 * 
+	 * @return Affected rows of each entity in collection order, follow
+	 *         Statement.executeBatch() rule (may be Statement.SUCCESS_NO_INFO)
+	 */
+	public static int[] deleteAll(SqlBoxContext ctx, Collection<?> entities) {
+		int[] result = new int[entities.size()];
+		for (EntityGroup group : groupEntities(ctx, entities, true)) {
+			EntityCrudPlan plan = group.plan;
+			if (plan.deleteSql == null)
+				throw new SqlBoxException("No primary key set for entityBean");
+			executeBatches(group.ctx, plan.deleteSql, buildRows(group, plan.deleteProps), group.positions, result);
+		}
+		return result;
+	}
+
+	/** Read given properties of entities in group as parameter rows */
+	private static Object[][] buildRows(EntityGroup group, int[] props) {
+		EntityAccessor accessor = group.plan.accessor;
+		Object[][] rows = new Object[group.entities.size()][props.length];
+		for (int row = 0; row < rows.length; row++) {
+			Object entity = group.entities.get(row);
+			for (int i = 0; i < props.length; i++)
+				rows[row][i] = accessor.getValue(entity, props[i]);
+		}
+		return rows;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static <T> T load(SqlBoxContext ctx, Class<?> entityClass, Object pkeyValue) {
 		SqlBoxException.assureNotNull(entityClass, "entityClass can not be null");
@@ -231,59 +438,26 @@ public abstract class SqlBoxContextUtils {// NOSONAR
 			pkValueMap.put("ooxxooxx", pkeyValue);
 		}
 
-		Object entity = null;
-		try {
-			entity = entityClass.newInstance();
-		} catch (Exception e) {
-			throw new SqlBoxException(e);
-		}
-
+		Object entity = EntityAccessor.of(entityClass).newInstance();
 		SqlBox box = SqlBoxUtils.findAndBindSqlBox(ctx, entity);
-		TableModel model = box.getTableModel();
-
-		StringBuilder sb = new StringBuilder("select ");
-		List<Object> pkParams = new ArrayList<Object>();
-
-		List<ColumnModel> pkeyColumns = new ArrayList<ColumnModel>();
-		List<ColumnModel> allColumns = new ArrayList<ColumnModel>();
-		List<String> allFieldNames = new ArrayList<String>();
-
-		Map<String, Method> writeMethods = ClassCacheUtils.getClassWriteMethods(entityClass);
-
-		for (String fieldName : writeMethods.keySet()) {
-			ColumnModel col = findMatchColumnForJavaField(fieldName, box);
-			if (!col.getTransientable()) {
-				allColumns.add(col);
-				allFieldNames.add(fieldName);
-				sb.append(col.getColumnName()).append(", ");
-				if (col.getPkey()) {
-					pkeyColumns.add(col);
-					if (pkValueMap.size() == 1)
-						pkParams.add(pkValueMap.entrySet().iterator().next().getValue());
-					else
-						pkParams.add(pkValueMap.get(fieldName));
-				}
-			}
-		}
-		if (pkeyColumns.isEmpty())
+		EntityCrudPlan plan = crudPlan(entityClass, box, false);
+		if (plan.loadSql == null)
 			throw new SqlBoxException("No primary key set for entityBean");
-		sb.setLength(sb.length() - 2);// delete the last ", "
-		if (pkParams.size() != pkValueMap.size())
-			throw new SqlBoxException("Wrong number of primary key parameters: expected " + pkParams.size()
+		String[] pkeyNames = plan.loadPkeyNames;
+		if (pkeyNames.length != pkValueMap.size())
+			throw new SqlBoxException("Wrong number of primary key parameters: expected " + pkeyNames.length
 					+ ", was given " + pkValueMap.size());
-
-		sb.append(" from ").append(model.getTableName()).append(" where ");
-		for (ColumnModel col : pkeyColumns)
-			sb.append(col.getColumnName()).append("=? and ");
-		sb.setLength(sb.length() - 5);// delete the last " and "
+		Object[] pkParams = new Object[pkeyNames.length];
+		for (int i = 0; i < pkeyNames.length; i++)
+			if (pkValueMap.size() == 1)
+				pkParams[i] = pkValueMap.values().iterator().next();
+			else
+				pkParams[i] = pkValueMap.get(pkeyNames[i]);
 
 		try {
-			Object[] values = ctx.nQuery(new ArrayHandler(), sb.toString(),
-					pkParams.toArray(new Object[pkParams.size()]));
-			for (int i = 0; i < values.length; i++) {
-				Method writeMethod = writeMethods.get(allFieldNames.get(i));
-				writeMethod.invoke(entity, values[i]);
-			}
+			Object[] values = ctx.nQuery(new ArrayHandler(), plan.loadSql, pkParams);
+			for (int i = 0; i < values.length; i++)
+				plan.accessor.setValue(entity, plan.loadProps[i], values[i]);
 		} catch (Exception e) {
 			throw new SqlBoxException(e);
 		}
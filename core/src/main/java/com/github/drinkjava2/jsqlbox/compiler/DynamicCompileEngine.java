@@ -82,6 +82,13 @@ public class DynamicCompileEngine {
 			return;
 		}
 
+		// Java 9+ application class loader is not a URLClassLoader
+		if (!(weblogicClassloader instanceof URLClassLoader)) {
+			this.parentClassLoader = weblogicClassloader;
+			this.classpath = System.getProperty("java.class.path");
+			return;
+		}
+
 		// buildClassPath for Tomcat
 		this.parentClassLoader = (URLClassLoader) this.getClass().getClassLoader();
 		StringBuilder sb = new StringBuilder();
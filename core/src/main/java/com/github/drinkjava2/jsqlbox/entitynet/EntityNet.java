@@ -22,10 +22,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
-import com.github.drinkjava2.jdialects.ClassCacheUtils;
 import com.github.drinkjava2.jdialects.StrUtils;
 import com.github.drinkjava2.jdialects.model.ColumnModel;
 import com.github.drinkjava2.jdialects.model.TableModel;
+import com.github.drinkjava2.jsqlbox.EntityAccessor;
 
 /**
  * EntityNet is a child project to build entity net. it's a memory based Object
@@ -144,16 +144,17 @@ public class EntityNet {
 			if (StrUtils.isEmpty(alias))
 				throw new EntityNetException("No alias found for table '" + model.getTableName() + "'");
 			Set<String> loadedFields = new HashSet<String>();
+			EntityAccessor accessor = EntityAccessor.of(model.getEntityClass());
 
 			// create new Entity
 			for (Entry<String, Object> row : oneRow.entrySet()) { // u_userName
 				for (ColumnModel col : model.getColumns()) {
 					if (row.getKey().equalsIgnoreCase(alias + "_" + col.getColumnName())) {
 						if (entity == null)
-							entity = ClassCacheUtils.createNewEntity(model.getEntityClass());
+							entity = accessor.newInstance();
 						EntityNetException.assureNotEmpty(col.getEntityField(),
 								"EntityField not found for column '" + col.getColumnName() + "'");
-						ClassCacheUtils.writeValueToBeanField(entity, col.getEntityField(), row.getValue());
+						accessor.setValue(entity, col.getEntityField(), row.getValue());
 						loadedFields.add(col.getEntityField());
 					}
 				}
@@ -220,11 +221,13 @@ public class EntityNet {
 				oldFields = new HashSet<String>();
 				oldNode.setLoadedFields(oldFields);
 			}
+			EntityAccessor newAccessor = EntityAccessor.of(node.getEntity().getClass());
+			EntityAccessor oldAccessor = EntityAccessor.of(oldNode.getEntity().getClass());
 			for (String newField : newFields)
 				if (!oldFields.contains(newField)) {
 					oldFields.add(newField);
-					Object newValue = ClassCacheUtils.readValueFromBeanField(node.getEntity(), newField);
-					ClassCacheUtils.writeValueToBeanField(oldNode.getEntity(), newField, newValue);
+					Object newValue = newAccessor.getValue(node.getEntity(), newField);
+					oldAccessor.setValue(oldNode.getEntity(), newField, newValue);
 				}
 
 			// join parentRelations
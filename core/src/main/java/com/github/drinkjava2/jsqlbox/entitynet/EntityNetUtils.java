@@ -21,11 +21,11 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.WeakHashMap;
 
-import com.github.drinkjava2.jdialects.ClassCacheUtils;
 import com.github.drinkjava2.jdialects.StrUtils;
 import com.github.drinkjava2.jdialects.model.ColumnModel;
 import com.github.drinkjava2.jdialects.model.FKeyModel;
 import com.github.drinkjava2.jdialects.model.TableModel;
+import com.github.drinkjava2.jsqlbox.EntityAccessor;
 import com.github.drinkjava2.jsqlbox.SqlBox;
 import com.github.drinkjava2.jsqlbox.SqlBoxContext;
 import com.github.drinkjava2.jsqlbox.SqlBoxException;
@@ -186,6 +186,7 @@ public class EntityNetUtils {
 	public static String buildNodeId(TableModel model, Object entity) {
 		if (model == null || entity == null)
 			return null;
+		EntityAccessor accessor = EntityAccessor.of(entity.getClass());
 		StringBuilder sb = new StringBuilder();
 		for (ColumnModel col : model.getColumns()) {
 			if (col.getPkey() && !col.getTransientable()) {
@@ -193,7 +194,7 @@ public class EntityNetUtils {
 						"EntityField not found for FKey column '" + col.getColumnName() + "'");
 				if (sb.length() > 0)
 					sb.append(EntityNet.COMPOUND_COLUMNNAME_SEPARATOR);
-				sb.append(ClassCacheUtils.readValueFromBeanField(entity, col.getEntityField()));
+				sb.append(accessor.getValue(entity, col.getEntityField()));
 			}
 		}
 		if (sb.length() == 0)
@@ -206,13 +207,14 @@ public class EntityNetUtils {
 	 */
 	public static List<ParentRelation> transferFKeysToParentRelations(TableModel model, Object entity) {
 		List<ParentRelation> resultList = null;
+		EntityAccessor accessor = EntityAccessor.of(entity.getClass());
 		for (FKeyModel fkey : model.getFkeyConstraints()) {
 			String refTable = fkey.getRefTableAndColumns()[0];
 			String fkeyValues = "";
 			String fkeyColumns = "";
 			for (String colNames : fkey.getColumnNames()) {
 				String entityField = model.getColumn(colNames).getEntityField();
-				Object fKeyValue = ClassCacheUtils.readValueFromBeanField(entity, entityField);
+				Object fKeyValue = accessor.getValue(entity, entityField);
 				if (StrUtils.isEmpty(fKeyValue)) {
 					fkeyValues = null;
 					break;
@@ -11,13 +11,12 @@
  */
 package com.github.drinkjava2.jsqlbox.entitynet.tinyparser;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.github.drinkjava2.jdialects.ClassCacheUtils;
+import com.github.drinkjava2.jdbpro.improve.BeanAccessor;
 import com.github.drinkjava2.jdialects.StrUtils;
 
 /**
@@ -192,9 +191,9 @@ public class TinyParser {
 			} else if (presetValues != null && presetValues.containsKey(valueUpcase)) {// is presetValues?
 				item.guess(presetValues.get(valueUpcase));
 			} else if (bean != null) {// check is bean fields
-				Map<String, Method> readMethods = ClassCacheUtils.getClassReadMethods(bean.getClass());
-				if (readMethods.containsKey(valueStr))
-					item.guess(ClassCacheUtils.readValueFromBeanField(bean, valueStr));
+				BeanAccessor accessor = BeanAccessor.of(bean.getClass());
+				if (accessor.isReadable(valueStr))
+					item.guess(accessor.getValue(bean, valueStr));
 			}
 			if (item.type == 'U')// still not found
 				try { // is Long able?
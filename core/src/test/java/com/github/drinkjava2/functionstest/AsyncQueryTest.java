@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.functionstest.HandlersTest.CountAroundSqlHandler;
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+import com.github.drinkjava2.jdbpro.handler.ConcurrentCacheHandler;
+import com.github.drinkjava2.jdbpro.handler.Wrap;
+import com.github.drinkjava2.jdbpro.improve.AsyncQueryExecutor;
+import com.github.drinkjava2.jsqlbox.SqlBoxContext;
+import com.github.drinkjava2.jsqlbox.SqlBoxContextConfig;
+
+/**
+ * Unit test for asynchronous query methods
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class AsyncQueryTest extends TestBase {
+	private static final int LOOKUPS = 3000;
+
+	private AsyncQueryExecutor executor;
+	private SqlBoxContext ctx2;
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table async_tb" });
+		ctx.nExecute("create table async_tb (id int, name varchar(20))");
+		ctx.nBatchBegin();
+		for (int i = 0; i < LOOKUPS; i++)
+			ctx.nExecute("insert into async_tb (id, name) values(?,?)", i, "Name" + i);
+		ctx.nBatchEnd();
+		executor = new AsyncQueryExecutor(3, 1000); // same as pool size
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setAsyncQueryExecutor(executor);
+		ctx2 = new SqlBoxContext(dataSource, config);
+	}
+
+	@After
+	public void cleanUp() {
+		executor.close();
+	}
+
+	@Test
+	public void testAsyncQuery() throws Exception {
+		Future<String> f1 = ctx2.nQueryForObjectAsync("select name from async_tb where id=?", 1);
+		Future<Integer> f2 = ctx2.nUpdateAsync("update async_tb set name=? where id=?", "Tom", 2);
+		Assert.assertEquals("Name1", f1.get());
+		Assert.assertEquals(1, (int) f2.get());
+		Assert.assertEquals("Tom", ctx2.nQueryForObject("select name from async_tb where id=?", 2));
+
+		Map<String, Object> paramMap = new HashMap<String, Object>();
+		paramMap.put("id", 3);
+		Future<String> f3 = ctx2.tQueryAsync(new ScalarHandler<String>(),
+				"select name from async_tb where id=#{id}", paramMap);
+		Assert.assertEquals("Name3", f3.get());
+	}
+
+	@Test
+	public void testAsyncCacheAndHandlers() throws Exception {
+		ConcurrentCacheHandler.clearCache();
+		String sql = "select name from async_tb where id=?";
+		Object sync = ctx2.nQuery(new Wrap(new ScalarHandler<String>(), new ConcurrentCacheHandler()), sql, 4);
+		long hits = ConcurrentCacheHandler.getDefaultCache().getHitCount();
+		Future<String> f = ctx2.nQueryAsync(new Wrap(new ScalarHandler<String>(), new ConcurrentCacheHandler()),
+				sql, 4);
+		Assert.assertEquals(sync, f.get());
+		Assert.assertEquals(hits + 1, ConcurrentCacheHandler.getDefaultCache().getHitCount());
+
+		CountAroundSqlHandler counter = new CountAroundSqlHandler();
+		ctx2.getThreadedHandlers().add(counter);
+		Future<Long> count = ctx2.nQueryAsync(new ScalarHandler<Long>(), "select count(*) from async_tb");
+		Assert.assertEquals(LOOKUPS, count.get().longValue());
+		Assert.assertEquals(1, counter.sqlCount.get());
+		Assert.assertEquals(1, counter.resultCount.get());
+		Assert.assertTrue(ctx2.getThreadedHandlers().isEmpty());
+	}
+
+	@Test
+	public void testAsyncException() throws InterruptedException {
+		Future<Object> f = ctx2.nQueryForObjectAsync("select name from not_exist_table");
+		try {
+			f.get();
+			Assert.fail("Should throw ExecutionException");
+		} catch (ExecutionException e) {
+			Assert.assertNotNull(e.getCause());
+		}
+	}
+
+	@Test
+	public void speedTest() throws Exception {
+		String sql = "select name from async_tb where id=?";
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < LOOKUPS; i++)
+			Assert.assertEquals("Name" + i, ctx2.nQueryForObject(sql, i));
+		printTimeUsed(start, LOOKUPS + " sequential lookups");
+
+		start = System.currentTimeMillis();
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for (int i = 0; i < LOOKUPS; i++)
+			futures.add(ctx2.<String> nQueryForObjectAsync(sql, i));
+		for (int i = 0; i < LOOKUPS; i++)
+			Assert.assertEquals("Name" + i, futures.get(i).get());
+		printTimeUsed(start, LOOKUPS + " parallel lookups by 3 threads");
+	}
+
+	/** A task wait until latch be released */
+	private static Callable<Object> waitFor(final CountDownLatch latch) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				latch.await();
+				return null;
+			}
+		};
+	}
+
+	private static void waitUntil(Thread thread, Thread.State state) throws InterruptedException {
+		while (thread.getState() != state)
+			Thread.sleep(5);
+	}
+
+	@Test(timeout = 30000)
+	public void testSubmitBlockedWhenClose() throws Exception {
+		final AsyncQueryExecutor small = new AsyncQueryExecutor(1, 1);
+		CountDownLatch first = new CountDownLatch(1);
+		CountDownLatch second = new CountDownLatch(1);
+		small.submit(waitFor(first));// worker busy
+		small.submit(waitFor(second));// queue full
+		final AtomicBoolean ran = new AtomicBoolean();
+		final AtomicReference<Object> submitResult = new AtomicReference<Object>();
+		Thread submitter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					submitResult.set(small.submit(new Callable<Object>() {
+						@Override
+						public Object call() {
+							ran.set(true);
+							return null;
+						}
+					}));
+				} catch (DbProRuntimeException e) {
+					submitResult.set(e);
+				}
+			}
+		};
+		submitter.start();
+		waitUntil(submitter, Thread.State.WAITING);// blocked when put into full queue
+		Thread closer = new Thread() {
+			@Override
+			public void run() {
+				small.close();
+			}
+		};
+		closer.start();
+		while (!small.isClosed())
+			Thread.sleep(5);
+
+		first.countDown();// worker take second task, queue has space
+		submitter.join();
+		Assert.assertTrue(submitResult.get() instanceof DbProRuntimeException);
+		second.countDown();
+		closer.join();
+		Assert.assertFalse(ran.get());
+	}
+}
@@ -0,0 +1,459 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+import com.github.drinkjava2.jdbpro.improve.AsyncBatchFlusher;
+import com.github.drinkjava2.jdbpro.improve.BatchMode;
+import com.github.drinkjava2.jdbpro.improve.MultiRowInsert;
+import com.github.drinkjava2.jdbpro.improve.SqlBatchBuffer;
+import com.github.drinkjava2.jsqlbox.SqlBoxContext;
+import com.github.drinkjava2.jdialects.Dialect;
+import com.github.drinkjava2.jsqlbox.SqlBoxContextConfig;
+
+/**
+ * Unit test for batch methods of ImprovedQueryRunner
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class BatchTest extends TestBase {
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table batch_tb" });
+		ctx.nExecute("create table batch_tb (id int, name varchar(20))");
+		quietExecuteDDLs(new String[] { "drop table batch_child", "drop table batch_parent" });
+		ctx.nExecute("create table batch_parent (id int primary key)");
+		ctx.nExecute(
+				"create table batch_child (id int, pid int, constraint fk_batch_child foreign key (pid) references batch_parent(id))");
+	}
+
+	/** A SqlBoxContext count how many times JDBC executeBatch be called */
+	public static class BatchCountContext extends SqlBoxContext {
+		int batchCount = 0;
+
+		public BatchCountContext(DataSource ds, SqlBoxContextConfig config) {
+			super(ds, config);
+		}
+
+		@Override
+		protected int[] executeBatchBuffer(SqlBatchBuffer buffer) throws SQLException {
+			batchCount++;
+			return super.executeBatchBuffer(buffer);
+		}
+	}
+
+	private BatchCountContext insertParentAndChildren(BatchMode mode, int parents, int childrenPerParent) {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setBatchMode(mode);
+		config.setBatchSize(10);
+		BatchCountContext countCtx = new BatchCountContext(dataSource, config);
+		countCtx.nBatchBegin();
+		try {
+			int childId = 0;
+			for (int i = 0; i < parents; i++) {
+				countCtx.nExecute("insert into batch_parent (id) values(?)", i);
+				for (int j = 0; j < childrenPerParent; j++)
+					countCtx.nExecute("insert into batch_child (id, pid) values(?,?)", childId++, i);
+			}
+		} finally {
+			countCtx.nBatchEnd();
+		}
+		Assert.assertEquals(parents, ctx.nQueryForLongValue("select count(*) from batch_parent"));
+		Assert.assertEquals(parents * childrenPerParent, ctx.nQueryForLongValue("select count(*) from batch_child"));
+		return countCtx;
+	}
+
+	@Test
+	public void testSequentialBatchMode() {
+		BatchCountContext countCtx = insertParentAndChildren(BatchMode.SEQUENTIAL, 30, 1);
+		Assert.assertEquals(60, countCtx.batchCount);
+	}
+
+	@Test
+	public void testGroupedOrderedBatchMode() {
+		BatchCountContext countCtx = insertParentAndChildren(BatchMode.GROUPED_ORDERED, 30, 1);
+		Assert.assertEquals(6, countCtx.batchCount);
+	}
+
+	@Test
+	public void testGroupedOrderedBatchModeChildFullFirst() {
+		BatchCountContext countCtx = insertParentAndChildren(BatchMode.GROUPED_ORDERED, 20, 3);
+		Assert.assertTrue(countCtx.batchCount < 20);
+	}
+
+	@Test
+	public void testMaxBatchGroups() {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setBatchMode(BatchMode.GROUPED);
+		config.setMaxBatchGroups(20);
+		BatchCountContext countCtx = new BatchCountContext(dataSource, config);
+		countCtx.nBatchBegin();
+		try {
+			for (int i = 0; i < 250; i++) {// in-line SQL, one group for each row
+				countCtx.nExecute("insert into batch_tb (id, name) values(" + i + ", 'name')");
+				Assert.assertTrue(countCtx.getCurrentSession().getBatchCache().groupCount() <= 20);
+			}
+		} finally {
+			countCtx.nBatchEnd();
+		}
+		Assert.assertEquals(250, countCtx.batchCount);
+		Assert.assertEquals(250, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+	}
+
+	@Test
+	public void testBatchDifferentMethods() throws SQLException {
+		ctx.nBatchBegin();
+		for (int i = 0; i < 250; i++)
+			ctx.nExecute("insert into batch_tb (id, name) values(?,?)", i, "name" + i);
+		Assert.assertTrue(ctx.nQueryForLongValue("select count(*) from batch_tb") >= 200);
+		for (int i = 0; i < 10; i++)
+			ctx.nUpdate("update batch_tb set name=? where id=?", "newName", i);
+		ctx.update("update batch_tb set name='x' where id=10");
+		ctx.update("update batch_tb set name=? where id=11", "y");
+		Connection conn = ctx.prepareConnection();
+		try {
+			ctx.nExecute(conn, "insert into batch_tb (id, name) values(?,?)", 1000, "withConn");
+			ctx.update(conn, "update batch_tb set name='z' where id=12");
+		} finally {
+			ctx.nBatchEnd();
+			ctx.close(conn);
+		}
+		Assert.assertEquals(251, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+		Assert.assertEquals(10, ctx.nQueryForLongValue("select count(*) from batch_tb where name='newName'"));
+		Assert.assertEquals("x", ctx.nQueryForString("select name from batch_tb where id=10"));
+		Assert.assertEquals("y", ctx.nQueryForString("select name from batch_tb where id=11"));
+		Assert.assertEquals("z", ctx.nQueryForString("select name from batch_tb where id=12"));
+		Assert.assertEquals("withConn", ctx.nQueryForString("select name from batch_tb where id=1000"));
+	}
+
+	@Test
+	public void testBatchFlush() {
+		ctx.nBatchBegin();
+		try {
+			for (int i = 0; i < 5; i++)
+				ctx.nUpdate("insert into batch_tb (id, name) values(?,?)", i, "name" + i);
+			Assert.assertEquals(0, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+			ctx.nBatchFlush();
+			Assert.assertEquals(5, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+		} finally {
+			ctx.nBatchEnd();
+		}
+	}
+
+	@Test
+	public void testAsyncBatchFlusher() {
+		AsyncBatchFlusher flusher = new AsyncBatchFlusher(2, 4);
+		try {
+			SqlBoxContextConfig config = new SqlBoxContextConfig();
+			config.setBatchSize(10);
+			config.setAsyncBatchFlusher(flusher);
+			SqlBoxContext asyncCtx = new SqlBoxContext(dataSource, config);
+			long start = System.currentTimeMillis();
+			asyncCtx.nBatchBegin();
+			try {
+				for (int i = 0; i < 1000; i++)
+					asyncCtx.nExecute("insert into batch_tb (id, name) values(?,?)", i, "name" + i);
+				asyncCtx.nBatchFlushAndWait();
+				Assert.assertEquals(1000, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+				for (int i = 0; i < 5; i++)
+					asyncCtx.nExecute("insert into batch_tb (id, name) values(?,?)", i, "name" + i);
+			} finally {
+				asyncCtx.nBatchEnd();
+			}
+			printTimeUsed(start, "Async batch insert 1005 rows");
+			Assert.assertEquals(1005, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+			Assert.assertEquals(0, flusher.getInFlight());
+		} finally {
+			flusher.close();
+		}
+	}
+
+	@Test
+	public void testAsyncBatchFlusherError() {
+		AsyncBatchFlusher flusher = new AsyncBatchFlusher(1, 2);
+		try {
+			SqlBoxContextConfig config = new SqlBoxContextConfig();
+			config.setBatchSize(10);
+			config.setAsyncBatchFlusher(flusher);
+			SqlBoxContext asyncCtx = new SqlBoxContext(dataSource, config);
+			asyncCtx.nBatchBegin();
+			boolean foundError = false;
+			try {
+				for (int i = 0; i < 15; i++)
+					asyncCtx.nExecute("insert into not_exist_tb (id) values(?)", i);
+			} catch (DbProRuntimeException e) {
+				foundError = true;
+			} finally {
+				try {
+					asyncCtx.nBatchEnd();
+				} catch (DbProRuntimeException e) {
+					foundError = true;
+				}
+			}
+			Assert.assertTrue(foundError);
+			Assert.assertFalse(asyncCtx.isBatchEnabled());
+		} finally {
+			flusher.close();
+		}
+	}
+
+	/** A SqlBoxContext block flusher threads at prepareStatement until gate open */
+	public static class GatedContext extends SqlBoxContext {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		public GatedContext(DataSource ds, SqlBoxContextConfig config) {
+			super(ds, config);
+		}
+
+		@Override
+		protected PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+			if (Thread.currentThread().getName().startsWith("AsyncBatchFlusher")) {
+				entered.countDown();
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return super.prepareStatement(conn, sql);
+		}
+	}
+
+	private static void insertRows(SqlBoxContext context, int from, int count) {
+		for (int i = from; i < from + count; i++)
+			context.nExecute("insert into batch_tb (id, name) values(?,?)", i, "name" + i);
+	}
+
+	/**
+	 * Force a batch be submitted while close() is waiting in-flight batches, it
+	 * should be executed before close() return, batches submitted after close()
+	 * should be rejected
+	 */
+	@Test(timeout = 30000)
+	public void testAsyncBatchFlusherSubmitWhileClosing() throws InterruptedException {
+		final AsyncBatchFlusher flusher = new AsyncBatchFlusher(1, 4);
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setBatchSize(5);
+		config.setAsyncBatchFlusher(flusher);
+		GatedContext asyncCtx = new GatedContext(dataSource, config);
+		Thread closer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flusher.close();
+			}
+		});
+		asyncCtx.nBatchBegin();
+		try {
+			insertRows(asyncCtx, 0, 5);// first batch blocked in flusher thread
+			asyncCtx.entered.await();
+			closer.start();
+			while (closer.getState() != Thread.State.WAITING)
+				Thread.sleep(1);
+			insertRows(asyncCtx, 5, 5);// submitted while close() is waiting
+			Assert.assertFalse(flusher.isClosed());
+			asyncCtx.gate.countDown();
+			closer.join();
+			Assert.assertTrue(flusher.isClosed());
+			Assert.assertEquals(0, flusher.getInFlight());
+			Assert.assertEquals(10, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+			try {
+				insertRows(asyncCtx, 10, 5);
+				Assert.fail("Batch submitted after close should be rejected");
+			} catch (DbProRuntimeException e) {
+				Assert.assertTrue(e.getMessage().contains("closed"));
+			}
+		} finally {
+			asyncCtx.gate.countDown();
+			try {
+				asyncCtx.nBatchEnd();
+			} catch (DbProRuntimeException e) {// NOSONAR rejected rows
+			}
+		}
+		Assert.assertEquals(10, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+	}
+
+	/** A SqlBoxContext count how many statements be prepared */
+	public static class StatementCountContext extends SqlBoxContext {
+		int statementCount = 0;
+		List<String> sqls = new ArrayList<String>();
+
+		public StatementCountContext(DataSource ds, SqlBoxContextConfig config) {
+			super(ds, config);
+		}
+
+		@Override
+		protected PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+			statementCount++;
+			sqls.add(sql);
+			return super.prepareStatement(conn, sql);
+		}
+	}
+
+	@Test
+	public void testMultiRowInsertParse() {
+		MultiRowInsert m = MultiRowInsert.parse("insert into tb (a, b) values(?, ?)");
+		Assert.assertEquals(2, m.getParamCount());
+		Assert.assertEquals("insert into tb (a, b) values(?, ?),(?, ?),(?, ?)", m.buildSql(3));
+		m = MultiRowInsert.parse(" INSERT INTO tb (a, b, c) VALUES (?, '?,)', now()) ");
+		Assert.assertEquals(1, m.getParamCount());
+		Assert.assertEquals("INSERT INTO tb (a, b, c) VALUES (?, '?,)', now()),(?, '?,)', now())", m.buildSql(2));
+		Assert.assertNull(MultiRowInsert.parse("update tb set a=?"));
+		Assert.assertNull(MultiRowInsert.parse("insert into tb (a) select a from tb2 where b=?"));
+		Assert.assertNull(MultiRowInsert.parse("insert into tb (a) values(?) on duplicate key update a=?"));
+		Assert.assertNull(MultiRowInsert.parse("insert into tb (a) values(1)"));
+		Assert.assertNull(MultiRowInsert.parse("insert into tb (a) values(?),(?)"));
+	}
+
+	private List<List<?>> buildRows(int count) {
+		List<List<?>> rows = new ArrayList<List<?>>();
+		for (int i = 0; i < count; i++) {
+			List<Object> row = new ArrayList<Object>();
+			row.add(i);
+			row.add("name" + i);
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	@Test
+	public void testMultiRowInsertNBatch() {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setMultiRowInsert(true);
+		StatementCountContext multiCtx = new StatementCountContext(dataSource, config);
+		List<List<?>> rows = buildRows(2500);
+
+		long start = System.currentTimeMillis();
+		int[] result = multiCtx.nBatch("insert into batch_tb (id, name) values(?,?)", rows);
+		printTimeUsed(start, "Multiple rows insert 2500 rows");
+		Assert.assertEquals(2500, result.length);
+		Assert.assertEquals(2, multiCtx.statementCount);// 1000 + 1000 + 500 rows
+		Assert.assertEquals(2500, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+		Assert.assertEquals("name2499", ctx.nQueryForString("select name from batch_tb where id=2499"));
+
+		ctx.nExecute("delete from batch_tb");
+		start = System.currentTimeMillis();
+		ctx.nBatch("insert into batch_tb (id, name) values(?,?)", rows);
+		printTimeUsed(start, "JDBC batch insert 2500 rows");
+		Assert.assertEquals(2500, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+
+		multiCtx.statementCount = 0;
+		multiCtx.nBatch("update batch_tb set id=? where name=?", buildRows(3));
+		Assert.assertEquals(1, multiCtx.statementCount);// not insert, use JDBC batch
+	}
+
+	@Test
+	public void testMultiRowInsertBatchMode() throws SQLException {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setMultiRowInsert(true);
+		config.setBatchSize(100);
+		StatementCountContext multiCtx = new StatementCountContext(dataSource, config);
+		multiCtx.nBatchBegin();
+		try {
+			for (int i = 0; i < 250; i++)
+				multiCtx.nExecute("insert into batch_tb (id, name) values(?,?)", i, "name" + i);
+		} finally {
+			multiCtx.nBatchEnd();
+		}
+		Assert.assertEquals(3, multiCtx.statementCount);
+		Assert.assertEquals(250, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+
+		// insertBatch need generated keys, fall back to JDBC batch
+		multiCtx.nInsertBatch("insert into batch_tb (id, name) values(?,?)",
+				new ScalarHandler<Object>(), buildRows(3));
+		Assert.assertEquals(253, ctx.nQueryForLongValue("select count(*) from batch_tb"));
+	}
+
+	/** @return How many rows a multiple rows insert SQL insert */
+	private static int rowsOfSql(String sql) {
+		return sql.split("\\),\\(").length;
+	}
+
+	@Test
+	public void testMultiRowInsertMySqlDialect() {
+		HikariDataSource ds = new HikariDataSource();
+		ds.setJdbcUrl("jdbc:h2:mem:BatchMySqlMode;MODE=MYSQL;DB_CLOSE_DELAY=-1;TRACE_LEVEL_SYSTEM_OUT=0");
+		ds.setDriverClassName("org.h2.Driver");
+		ds.setUsername("sa");
+		ds.setPassword("");
+		try {
+			SqlBoxContextConfig config = new SqlBoxContextConfig();
+			config.setDialect(Dialect.MySQL57Dialect);
+			config.setMultiRowInsert(true);
+			StatementCountContext mysqlCtx = new StatementCountContext(ds, config);
+			mysqlCtx.nExecute("drop table if exists batch_tb");
+			mysqlCtx.nExecute("create table batch_tb (id int, name varchar(20))");
+
+			// 2 parameters each row, limited by MAX_ROWS_PER_INSERT
+			int[] result = mysqlCtx.nBatch("insert into batch_tb (id, name) values(?,?)", buildRows(2500));
+			Assert.assertEquals(2500, result.length);
+			Assert.assertEquals(2, mysqlCtx.sqls.size());
+			Assert.assertEquals(1000, rowsOfSql(mysqlCtx.sqls.get(0)));
+			Assert.assertEquals(500, rowsOfSql(mysqlCtx.sqls.get(1)));
+			Assert.assertEquals(2500, mysqlCtx.nQueryForLongValue("select count(*) from batch_tb"));
+
+			// 70 parameters each row, limited by MySQL's 65535 bind parameters
+			int columns = 70;
+			StringBuilder ddl = new StringBuilder("create table batch_wide (c0 int");
+			StringBuilder insert = new StringBuilder("insert into batch_wide (c0");
+			StringBuilder values = new StringBuilder("?");
+			for (int i = 1; i < columns; i++) {
+				ddl.append(", c").append(i).append(" int");
+				insert.append(", c").append(i);
+				values.append(",?");
+			}
+			mysqlCtx.nExecute("drop table if exists batch_wide");
+			mysqlCtx.nExecute(ddl.append(")").toString());
+			List<List<?>> rows = new ArrayList<List<?>>();
+			for (int i = 0; i < 2000; i++) {
+				List<Object> row = new ArrayList<Object>();
+				for (int j = 0; j < columns; j++)
+					row.add(i);
+				rows.add(row);
+			}
+			mysqlCtx.sqls.clear();
+			mysqlCtx.nBatch(insert.append(") values(").append(values).append(")").toString(), rows);
+			Assert.assertEquals(2, mysqlCtx.sqls.size());
+			Assert.assertEquals(65535 / columns, rowsOfSql(mysqlCtx.sqls.get(0)));// 936 + 936 + 128 rows
+			Assert.assertEquals(2000 - 2 * (65535 / columns), rowsOfSql(mysqlCtx.sqls.get(1)));
+			Assert.assertEquals(2000, mysqlCtx.nQueryForLongValue("select count(*) from batch_wide"));
+			Assert.assertEquals(1999, mysqlCtx.nQueryForLongValue("select max(c69) from batch_wide"));
+		} finally {
+			ds.close();
+		}
+	}
+
+}
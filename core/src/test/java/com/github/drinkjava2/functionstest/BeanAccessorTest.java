@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import static com.github.drinkjava2.jdbpro.inline.InlineQueryRunner.inline0;
+import static com.github.drinkjava2.jdbpro.inline.InlineQueryRunner.valuesQuesions;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.functionstest.SqlTemplateTest.User;
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+import com.github.drinkjava2.jdbpro.improve.BeanAccessor;
+
+/**
+ * Unit test for BeanAccessor
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class BeanAccessorTest extends TestBase {
+	private static final int REPEAT_TIMES = 100000;
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table accessor_tb" });
+		ctx.nExecute("create table accessor_tb (age int, name varchar(20))");
+	}
+
+	private static User newUser() {
+		User u = new User();
+		u.setName("Tom");
+		u.setAge(10);
+		return u;
+	}
+
+	@Test
+	public void testAccessor() {
+		BeanAccessor accessor = BeanAccessor.of(User.class);
+		Assert.assertSame(accessor, BeanAccessor.of(User.class));
+		Assert.assertEquals(2, accessor.getPropertyCount());
+		Assert.assertEquals("age", accessor.getPropertyName(0));
+		Assert.assertEquals(-1, accessor.indexOf("class"));
+		Assert.assertTrue(accessor.isReadable("name"));
+		Assert.assertFalse(accessor.isReadable("notExist"));
+
+		User u = newUser();
+		accessor.setValue(u, "name", "Sam");
+		Assert.assertEquals("Sam", accessor.getValue(u, "name"));
+		Assert.assertEquals(10, accessor.getValue(u, 0));
+	}
+
+	@Test(expected = DbProRuntimeException.class)
+	public void testNoProperty() {
+		BeanAccessor.of(User.class).getValue(newUser(), "notExist");
+	}
+
+	@Test
+	public void testInlineAndTemplate() {
+		ctx.iExecute("insert into accessor_tb (", inline0(newUser(), "", ", "), ") ", valuesQuesions());
+		Assert.assertEquals(1, ctx.iQueryForLongValue("select count(*) from accessor_tb where ",
+				inline0(newUser(), "=?", " and ")));
+
+		Map<String, Object> paramMap = new HashMap<String, Object>();
+		paramMap.put("u", newUser());
+		Assert.assertEquals(10, ctx.tQueryForLongValue(
+				"select age from accessor_tb where name=:u.name and age=#{u.age}", paramMap));
+	}
+
+	@Test
+	public void speedTest() throws Exception {
+		User u = newUser();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++) {
+			BeanInfo beanInfo = Introspector.getBeanInfo(User.class);
+			for (PropertyDescriptor pd : beanInfo.getPropertyDescriptors())
+				pd.getReadMethod().invoke(u);
+		}
+		printTimeUsed(start, "Introspector read all properties " + REPEAT_TIMES + " times");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			new PropertyDescriptor("name", User.class).getReadMethod().invoke(u);
+		printTimeUsed(start, "PropertyDescriptor read one property " + REPEAT_TIMES + " times");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++) {
+			BeanAccessor accessor = BeanAccessor.of(User.class);
+			for (int j = 0; j < accessor.getPropertyCount(); j++)
+				accessor.getValue(u, j);
+		}
+		printTimeUsed(start, "BeanAccessor read all properties " + REPEAT_TIMES + " times");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			BeanAccessor.of(User.class).getValue(u, "name");
+		printTimeUsed(start, "BeanAccessor read one property " + REPEAT_TIMES + " times");
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdialects.annotation.jpa.Id;
+import com.github.drinkjava2.jsqlbox.SqlBox;
+import com.github.drinkjava2.jsqlbox.SqlBoxContextUtils;
+import com.github.drinkjava2.jsqlbox.SqlBoxUtils;
+
+/**
+ * Unit test for CRUD plan cache of SqlBoxContextUtils
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class CrudPlanTest extends TestBase {
+	private static final int INSERT_TIMES = 3000;
+
+	public static class CrudUser {
+		@Id
+		private Integer id;
+		private String name;
+		private Integer age;
+		private String address;
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Integer getAge() {
+			return age;
+		}
+
+		public void setAge(Integer age) {
+			this.age = age;
+		}
+
+		public String getAddress() {
+			return address;
+		}
+
+		public void setAddress(String address) {
+			this.address = address;
+		}
+	}
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(ctx.toDropDDL(CrudUser.class));
+		for (String ddl : ctx.toCreateDDL(CrudUser.class))
+			ctx.nExecute(ddl);
+	}
+
+	private static CrudUser newUser(int id) {
+		CrudUser u = new CrudUser();
+		u.setId(id);
+		u.setName("Name" + id);
+		u.setAge(id % 100);
+		u.setAddress("Address" + id);
+		return u;
+	}
+
+	@Test
+	public void testCrud() {
+		ctx.insert(newUser(1));
+		CrudUser u = ctx.load(CrudUser.class, 1);
+		Assert.assertEquals("Name1", u.getName());
+		Assert.assertEquals("Address1", u.getAddress());
+		u.setName("Tom");
+		Assert.assertEquals(1, ctx.update(u));
+		Assert.assertEquals("Tom", ctx.nQueryForString("select name from CrudUser where id=?", 1));
+		ctx.delete(u);
+		Assert.assertEquals(0, ctx.nQueryForLongValue("select count(*) from CrudUser"));
+	}
+
+	@Test
+	public void testTableModelChanged() {
+		ctx.insert(newUser(1));
+
+		CrudUser u = newUser(2);
+		SqlBox box = SqlBoxUtils.createSqlBox(ctx, CrudUser.class);
+		box.getTableModel().getColumn("address").setTransientable(true);
+		SqlBoxUtils.bindBoxToBean(box, u);
+		ctx.insert(u);
+
+		ctx.insert(newUser(3));
+		Assert.assertEquals("Address1", ctx.nQueryForString("select address from CrudUser where id=1"));
+		Assert.assertNull(ctx.nQueryForObject("select address from CrudUser where id=2"));
+		Assert.assertEquals("Address3", ctx.nQueryForString("select address from CrudUser where id=3"));
+	}
+
+	@Test
+	public void speedTest() {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < INSERT_TIMES; i++) {
+			SqlBoxContextUtils.clearCrudPlans();
+			ctx.insert(newUser(i));
+		}
+		printTimeUsed(start, "Insert " + INSERT_TIMES + " entities, build plan each time");
+		ctx.nExecute("delete from CrudUser");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < INSERT_TIMES; i++)
+			ctx.insert(newUser(i));
+		printTimeUsed(start, "Insert " + INSERT_TIMES + " entities, use cached plan");
+		Assert.assertEquals(INSERT_TIMES, ctx.nQueryForLongValue("select count(*) from CrudUser"));
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import static com.github.drinkjava2.jdbpro.inline.InlineQueryRunner.question;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.dbutils.handlers.MapListHandler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.functionstest.HandlersTest.CountAroundSqlHandler;
+import com.github.drinkjava2.jdbpro.DbProSession;
+import com.github.drinkjava2.jdbpro.template.TemplateQueryRunner;
+import com.github.drinkjava2.jsqlbox.handler.PaginHandler;
+
+/**
+ * Unit test for DbProSession
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class DbProSessionTest extends TestBase {
+	private static final int REPEAT_TIMES = 20000;
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table session_tb" });
+		ctx.nExecute("create table session_tb (id int, name varchar(20))");
+	}
+
+	@Test
+	public void testInlineAndTemplate() {
+		DbProSession s = ctx.session();
+		s.iExecute("insert into session_tb (id, name) ", s.param(1, "Tom"), s.valuesQuesions());
+		s.iExecute("insert into session_tb (id, name) values(", s.question(2), ",", s.question("Sam"), ")");
+		Assert.assertEquals(2, s.iQueryForLongValue("select count(*) from session_tb where id>", s.question(0)));
+		Assert.assertEquals("Sam", s.xQueryForObject("select name from session_tb where ${col}=#{id}",
+				s.put("id", 2), s.replace("col", "id")));
+		Assert.assertEquals(1, s.nUpdate("update session_tb set name=? where id=?", "Jerry", 1));
+		Assert.assertEquals("Jerry", s.nQueryForObject("select name from session_tb where id=?", 1));
+
+		// Session parameters do not mix with ThreadLocal parameters
+		question(100);
+		s.param(1);
+		Assert.assertEquals("Jerry", s.iQueryForObject("select name from session_tb where id=?"));
+		Assert.assertEquals(0, ctx.iQueryForLongValue("select count(*) from session_tb where id=?"));
+	}
+
+	@Test
+	public void testHandOverToAnotherThread() throws Exception {
+		final DbProSession s = ctx.session();
+		final String sqlPiece = "insert into session_tb (id, name) values(" + s.question(1) + "," + s.question("Tom")
+				+ ")";
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Future<Integer> future = pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return s.iExecute(sqlPiece);
+				}
+			});
+			Assert.assertEquals(1, (int) future.get());
+		} finally {
+			pool.shutdown();
+		}
+		Assert.assertEquals(1, ctx.nQueryForLongValue("select count(*) from session_tb"));
+	}
+
+	@Test
+	public void testHandlers() {
+		for (int i = 0; i < 20; i++)
+			ctx.nExecute("insert into session_tb (id, name) values(?,?)", i, "name" + i);
+		DbProSession s = ctx.session();
+		CountAroundSqlHandler counter = new CountAroundSqlHandler();
+		List<Map<String, Object>> result = s.handlers(new PaginHandler(2, 5), counter).nQuery(new MapListHandler(),
+				"select * from session_tb order by id");
+		Assert.assertEquals(5, result.size());
+		Assert.assertEquals(5, result.get(0).get("id"));
+		Assert.assertEquals(1, counter.sqlCount.get());
+
+		// Handlers are cleared after a SQL method call
+		Assert.assertEquals(20, s.nQueryForLongValue("select count(*) from session_tb"));
+		Assert.assertEquals(1, counter.sqlCount.get());
+	}
+
+	@Test
+	public void testBatch() {
+		DbProSession s = ctx.session();
+		s.batchBegin();
+		for (int i = 0; i < 50; i++)
+			s.nExecute("insert into session_tb (id, name) values(?,?)", i, "name" + i);
+		Assert.assertTrue(s.isBatchEnabled());
+		Assert.assertFalse(ctx.isBatchEnabled());
+		Assert.assertEquals(0, ctx.nQueryForLongValue("select count(*) from session_tb"));
+		s.batchEnd();
+		Assert.assertFalse(s.isBatchEnabled());
+		Assert.assertEquals(50, ctx.nQueryForLongValue("select count(*) from session_tb"));
+	}
+
+	/** Access deprecated ThreadLocal fields kept for subclasses */
+	@SuppressWarnings("deprecation")
+	public static class LegacyRunner extends TemplateQueryRunner {
+		static Object[] params() {
+			return inlineThreadlocalParamCache.get().toArray();
+		}
+
+		static Object templateParam(String key) {
+			return templateThreadlocalParamMapCache.get().get(key);
+		}
+
+		static boolean isReplaceKey(String key) {
+			return directReplaceKeysCache.get().contains(key);
+		}
+	}
+
+	@Test
+	public void testDeprecatedThreadLocalFields() {
+		question(1, "Tom");
+		Assert.assertArrayEquals(new Object[] { 1, "Tom" }, LegacyRunner.params());
+		ctx.iExecute("insert into session_tb (id, name) values(?,?)");
+		Assert.assertEquals(0, LegacyRunner.params().length);
+
+		TemplateQueryRunner.put("id", 1);
+		TemplateQueryRunner.replace("col", "id");
+		Assert.assertEquals(1, LegacyRunner.templateParam("id"));
+		Assert.assertTrue(LegacyRunner.isReplaceKey("col"));
+		Assert.assertEquals("Tom", ctx.xQueryForObject("select name from session_tb where ${col}=#{id}"));
+		Assert.assertNull(LegacyRunner.templateParam("id"));
+		Assert.assertFalse(LegacyRunner.isReplaceKey("col"));
+	}
+
+	@Test
+	public void speedTest() {
+		ctx.nExecute("insert into session_tb (id, name) values(?,?)", 1, "Tom");
+		for (int i = 0; i < 1000; i++) {// warm up
+			ctx.iQueryForLongValue("select count(*) from session_tb where id=", question(1));
+			DbProSession s = ctx.session();
+			s.iQueryForLongValue("select count(*) from session_tb where id=", s.question(1));
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			ctx.iQueryForLongValue("select count(*) from session_tb where id=", question(1));
+		printTimeUsed(start, "ThreadLocal style " + REPEAT_TIMES + " queries");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++) {
+			DbProSession s = ctx.session();
+			s.iQueryForLongValue("select count(*) from session_tb where id=", s.question(1));
+		}
+		printTimeUsed(start, "New session per call " + REPEAT_TIMES + " queries");
+
+		start = System.currentTimeMillis();
+		DbProSession s = ctx.session();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			s.iQueryForLongValue("select count(*) from session_tb where id=", s.question(1));
+		printTimeUsed(start, "Reused session " + REPEAT_TIMES + " queries");
+	}
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.functionstest.HandlersTest.DemoUser;
+import com.github.drinkjava2.jdialects.ClassCacheUtils;
+import com.github.drinkjava2.jsqlbox.EntityAccessor;
+
+/**
+ * Unit test for EntityAccessor, generated and reflection accessors should have
+ * same behavior
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class EntityAccessorTest extends TestBase {
+	private static final int REPEAT_TIMES = 100000;
+
+	private static final Object[] VALUES = new Object[] { "a", "b", "c", "d", "e", "f", 1, 2, 3, 4, 5, 6, 7L, 8L,
+			9.0, 10.0, true, false, new Date(11), new BigDecimal("12") };
+
+	public static class WideEntity {
+		private String f01;
+		private String f02;
+		private String f03;
+		private String f04;
+		private String f05;
+		private String f06;
+		private Integer f07;
+		private Integer f08;
+		private Integer f09;
+		private int f10;
+		private int f11;
+		private int f12;
+		private long f13;
+		private Long f14;
+		private double f15;
+		private Double f16;
+		private boolean f17;
+		private Boolean f18;
+		private java.util.Date f19;
+		private java.math.BigDecimal f20;
+
+		public String getF01() {
+			return f01;
+		}
+
+		public void setF01(String f01) {
+			this.f01 = f01;
+		}
+
+		public String getF02() {
+			return f02;
+		}
+
+		public void setF02(String f02) {
+			this.f02 = f02;
+		}
+
+		public String getF03() {
+			return f03;
+		}
+
+		public void setF03(String f03) {
+			this.f03 = f03;
+		}
+
+		public String getF04() {
+			return f04;
+		}
+
+		public void setF04(String f04) {
+			this.f04 = f04;
+		}
+
+		public String getF05() {
+			return f05;
+		}
+
+		public void setF05(String f05) {
+			this.f05 = f05;
+		}
+
+		public String getF06() {
+			return f06;
+		}
+
+		public void setF06(String f06) {
+			this.f06 = f06;
+		}
+
+		public Integer getF07() {
+			return f07;
+		}
+
+		public void setF07(Integer f07) {
+			this.f07 = f07;
+		}
+
+		public Integer getF08() {
+			return f08;
+		}
+
+		public void setF08(Integer f08) {
+			this.f08 = f08;
+		}
+
+		public Integer getF09() {
+			return f09;
+		}
+
+		public void setF09(Integer f09) {
+			this.f09 = f09;
+		}
+
+		public int getF10() {
+			return f10;
+		}
+
+		public void setF10(int f10) {
+			this.f10 = f10;
+		}
+
+		public int getF11() {
+			return f11;
+		}
+
+		public void setF11(int f11) {
+			this.f11 = f11;
+		}
+
+		public int getF12() {
+			return f12;
+		}
+
+		public void setF12(int f12) {
+			this.f12 = f12;
+		}
+
+		public long getF13() {
+			return f13;
+		}
+
+		public void setF13(long f13) {
+			this.f13 = f13;
+		}
+
+		public Long getF14() {
+			return f14;
+		}
+
+		public void setF14(Long f14) {
+			this.f14 = f14;
+		}
+
+		public double getF15() {
+			return f15;
+		}
+
+		public void setF15(double f15) {
+			this.f15 = f15;
+		}
+
+		public Double getF16() {
+			return f16;
+		}
+
+		public void setF16(Double f16) {
+			this.f16 = f16;
+		}
+
+		public boolean isF17() {
+			return f17;
+		}
+
+		public void setF17(boolean f17) {
+			this.f17 = f17;
+		}
+
+		public Boolean getF18() {
+			return f18;
+		}
+
+		public void setF18(Boolean f18) {
+			this.f18 = f18;
+		}
+
+		public java.util.Date getF19() {
+			return f19;
+		}
+
+		public void setF19(java.util.Date f19) {
+			this.f19 = f19;
+		}
+
+		public java.math.BigDecimal getF20() {
+			return f20;
+		}
+
+		public void setF20(java.math.BigDecimal f20) {
+			this.f20 = f20;
+		}
+	}
+
+	private static void doReadWrite(EntityAccessor accessor) {
+		Assert.assertEquals(20, accessor.getPropertyCount());
+		WideEntity entity = (WideEntity) accessor.newInstance();
+		for (int i = 0; i < 20; i++)
+			accessor.setValue(entity, "f" + (i < 9 ? "0" : "") + (i + 1), VALUES[i]);
+		Assert.assertEquals("f", entity.getF06());
+		Assert.assertEquals(6, entity.getF12());
+		Assert.assertTrue(entity.isF17());
+		for (int i = 0; i < 20; i++)
+			Assert.assertEquals(VALUES[i], accessor.getValue(entity, i));
+
+		accessor.setValue(entity, "f01", null);
+		Assert.assertNull(entity.getF01());
+		accessor.setValue(entity, "f10", (short) 3);// widening like Method.invoke
+		Assert.assertEquals(3, entity.getF10());
+		accessor.setValue(entity, "f13", 5);
+		Assert.assertEquals(5L, entity.getF13());
+		try {
+			accessor.setValue(entity, "f10", null);
+			Assert.fail("Null can not be set to primitive property");
+		} catch (RuntimeException e) {
+			Assert.assertEquals(3, entity.getF10());
+		}
+		try {
+			accessor.getValue(entity, "notExist");
+			Assert.fail("Property not exist");
+		} catch (RuntimeException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGeneratedAccessor() {
+		EntityAccessor.clearAccessors();
+		EntityAccessor.warmUp(WideEntity.class);
+		EntityAccessor accessor = EntityAccessor.of(WideEntity.class);
+		Assert.assertSame(accessor, EntityAccessor.of(WideEntity.class));
+		doReadWrite(accessor);// same values no matter generated or reflection
+		Assume.assumeTrue(accessor.isGenerated());// need a working Java compiler
+		Assert.assertTrue(EntityAccessor.isCompilerAvailable());
+	}
+
+	@Test
+	public void testConcurrentOf() throws InterruptedException {
+		EntityAccessor.clearAccessors();
+		final int threadCount = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReferenceArray<EntityAccessor> results = new AtomicReferenceArray<EntityAccessor>(threadCount);
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						results.set(index, EntityAccessor.of(index % 2 == 0 ? WideEntity.class : DemoUser.class));
+					} catch (InterruptedException e) {// NOSONAR
+					}
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread t : threads)
+			t.join();
+		for (int i = 0; i < threadCount; i++)
+			Assert.assertSame(EntityAccessor.of(i % 2 == 0 ? WideEntity.class : DemoUser.class), results.get(i));
+	}
+
+	@Test
+	public void testReflectionAccessor() {
+		EntityAccessor.clearAccessors();
+		EntityAccessor.setGenerateAccessors(false);
+		try {
+			EntityAccessor accessor = EntityAccessor.of(WideEntity.class);
+			Assert.assertFalse(accessor.isGenerated());
+			doReadWrite(accessor);
+		} finally {
+			EntityAccessor.setGenerateAccessors(true);
+			EntityAccessor.clearAccessors();
+		}
+	}
+
+	private static String[] names() {
+		String[] names = new String[20];
+		for (int i = 0; i < 20; i++)
+			names[i] = "f" + (i < 9 ? "0" : "") + (i + 1);
+		return names;
+	}
+
+	private static void copyByIndex(EntityAccessor accessor, Object from, Object to) {
+		for (int i = 0; i < 20; i++)
+			accessor.setValue(to, i, accessor.getValue(from, i));
+	}
+
+	@Test
+	public void speedTest() {
+		String[] names = names();
+		WideEntity from = new WideEntity();
+		WideEntity to = new WideEntity();
+		for (int i = 0; i < 20; i++)
+			ClassCacheUtils.writeValueToBeanField(from, names[i], VALUES[i]);
+
+		EntityAccessor.clearAccessors();
+		EntityAccessor.setGenerateAccessors(false);
+		EntityAccessor reflection = EntityAccessor.of(WideEntity.class);
+		EntityAccessor.setGenerateAccessors(true);
+		EntityAccessor.clearAccessors();
+		EntityAccessor generated = EntityAccessor.of(WideEntity.class);
+		Assume.assumeTrue(generated.isGenerated());// need a working Java compiler
+		for (int i = 0; i < REPEAT_TIMES; i++) {// warm up
+			copyByIndex(reflection, from, to);
+			copyByIndex(generated, from, to);
+		}
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			for (String name : names)
+				ClassCacheUtils.writeValueToBeanField(to, name, ClassCacheUtils.readValueFromBeanField(from, name));
+		printTimeUsed(start, "ClassCacheUtils read/write 20 fields " + REPEAT_TIMES + " times");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			copyByIndex(reflection, from, to);
+		printTimeUsed(start, "Reflection EntityAccessor read/write 20 fields " + REPEAT_TIMES + " times");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			copyByIndex(generated, from, to);
+		printTimeUsed(start, "Generated EntityAccessor read/write 20 fields " + REPEAT_TIMES + " times");
+		Assert.assertEquals(new BigDecimal("12"), to.getF20());
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdialects.TableModelUtils;
+import com.github.drinkjava2.jdialects.annotation.jdia.UUID25;
+import com.github.drinkjava2.jdialects.annotation.jpa.Id;
+
+/**
+ * Unit test for insertAll, updateAll and deleteAll methods
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class EntityCollectionCrudTest extends TestBase {
+	private static final int ENTITY_COUNT = 3000;
+
+	public static class BatchUser {
+		@Id
+		@UUID25
+		private String id;
+		private String name;
+		private Integer age;
+
+		public String getId() {
+			return id;
+		}
+
+		public void setId(String id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Integer getAge() {
+			return age;
+		}
+
+		public void setAge(Integer age) {
+			this.age = age;
+		}
+	}
+
+	public static class BatchOrder {
+		@Id
+		private Integer id;
+		private Integer amount;
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+		public Integer getAmount() {
+			return amount;
+		}
+
+		public void setAmount(Integer amount) {
+			this.amount = amount;
+		}
+	}
+
+	@Before
+	public void init() {
+		super.init();
+		dropAndCreateDatabase(TableModelUtils.entity2Models(BatchUser.class, BatchOrder.class));
+	}
+
+	private static List<Object> buildEntities(int count) {
+		List<Object> entities = new ArrayList<Object>();
+		for (int i = 0; i < count; i++) {
+			BatchUser u = new BatchUser();
+			u.setName("Name" + i);
+			u.setAge(i);
+			entities.add(u);
+			BatchOrder o = new BatchOrder();
+			o.setId(i);
+			o.setAmount(i * 10);
+			entities.add(o);
+		}
+		return entities;
+	}
+
+	@Test
+	public void testInsertAll() {
+		List<Object> entities = buildEntities(10);
+		int[] result = ctx.insertAll(entities);
+		Assert.assertEquals(20, result.length);
+		for (int row : result)
+			Assert.assertEquals(1, row);
+		Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < 20; i += 2)
+			ids.add(((BatchUser) entities.get(i)).getId());
+		Assert.assertEquals(10, ids.size());
+		Assert.assertEquals(10, ctx.nQueryForLongValue("select count(*) from BatchUser"));
+		Assert.assertEquals(90, ctx.nQueryForLongValue("select amount from BatchOrder where id=?", 9));
+		BatchUser u = ctx.load(BatchUser.class, ((BatchUser) entities.get(4)).getId());
+		Assert.assertEquals("Name2", u.getName());
+	}
+
+	@Test
+	public void testUpdateAndDeleteAll() {
+		List<Object> entities = buildEntities(10);
+		ctx.insertAll(entities);
+		for (int i = 0; i < 20; i += 2)
+			((BatchUser) entities.get(i)).setAge(100);
+		int[] result = ctx.updateAll(entities);
+		Assert.assertEquals(20, result.length);
+		Assert.assertEquals(1, result[19]);
+		Assert.assertEquals(10, ctx.nQueryForLongValue("select count(*) from BatchUser where age=100"));
+
+		BatchOrder notExist = new BatchOrder();
+		notExist.setId(999);
+		List<Object> toDelete = new ArrayList<Object>(entities.subList(0, 4));
+		toDelete.add(notExist);
+		result = ctx.deleteAll(toDelete);
+		Assert.assertArrayEquals(new int[] { 1, 1, 1, 1, 0 }, result);
+		Assert.assertEquals(8, ctx.nQueryForLongValue("select count(*) from BatchUser"));
+		Assert.assertEquals(8, ctx.nQueryForLongValue("select count(*) from BatchOrder"));
+	}
+
+	@Test
+	public void testInsertAllInBatchMode() {
+		BatchOrder first = new BatchOrder();
+		first.setId(-1);
+		ctx.nBatchBegin();
+		try {
+			ctx.insert(first);
+			ctx.insertAll(buildEntities(5));
+		} finally {
+			ctx.nBatchEnd();
+		}
+		Assert.assertEquals(6, ctx.nQueryForLongValue("select count(*) from BatchOrder"));
+	}
+
+	@Test
+	public void speedTest() {
+		List<Object> entities = buildEntities(ENTITY_COUNT);
+		long start = System.currentTimeMillis();
+		ctx.nBatchBegin();
+		try {
+			for (Object entity : entities)
+				ctx.insert(entity);
+		} finally {
+			ctx.nBatchEnd();
+		}
+		printTimeUsed(start, "Insert " + entities.size() + " entities one by one in batch mode");
+		Assert.assertEquals(ENTITY_COUNT, ctx.nQueryForLongValue("select count(*) from BatchUser"));
+		ctx.nExecute("delete from BatchUser");
+		ctx.nExecute("delete from BatchOrder");
+
+		entities = buildEntities(ENTITY_COUNT);
+		start = System.currentTimeMillis();
+		ctx.insertAll(entities);
+		printTimeUsed(start, "Insert " + entities.size() + " entities by insertAll");
+		Assert.assertEquals(ENTITY_COUNT, ctx.nQueryForLongValue("select count(*) from BatchUser"));
+	}
+}
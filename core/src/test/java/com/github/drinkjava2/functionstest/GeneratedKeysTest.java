@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.handler.GeneratedKeysHandler;
+import com.github.drinkjava2.jdialects.TableModelUtils;
+import com.github.drinkjava2.jdialects.annotation.jdia.IdentityId;
+import com.github.drinkjava2.jdialects.annotation.jpa.Id;
+import com.github.drinkjava2.jsqlbox.SqlBoxContext;
+import com.github.drinkjava2.jsqlbox.SqlBoxContextConfig;
+
+/**
+ * Unit test for reading identity values by JDBC getGeneratedKeys
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class GeneratedKeysTest extends TestBase {
+
+	public static class IdentityUser {
+		@Id
+		@IdentityId
+		private Integer id;
+		private String name;
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	@Before
+	public void init() {
+		super.init();
+		dropAndCreateDatabase(TableModelUtils.entity2Models(IdentityUser.class));
+	}
+
+	private static IdentityUser newUser(String name) {
+		IdentityUser u = new IdentityUser();
+		u.setName(name);
+		return u;
+	}
+
+	@Test
+	public void testGeneratedKeysHandler() {
+		List<Object> keys = ctx.nInsert(new GeneratedKeysHandler("id"), "insert into IdentityUser (name) values(?)",
+				"Tom");
+		Assert.assertEquals(1, keys.size());
+		Assert.assertEquals(keys.get(0).toString(),
+				ctx.nQueryForObject("select id from IdentityUser where name=?", "Tom").toString());
+	}
+
+	@Test
+	public void testInsert() {
+		IdentityUser u1 = newUser("Tom");
+		ctx.insert(u1);
+		IdentityUser u2 = newUser("Sam");
+		ctx.insert(u2);
+		Assert.assertNotNull(u1.getId());
+		Assert.assertEquals(u1.getId().intValue() + 1, u2.getId().intValue());
+		IdentityUser loaded = ctx.load(IdentityUser.class, u2.getId());
+		Assert.assertEquals("Sam", loaded.getName());
+	}
+
+	@Test
+	public void testInsertAll() {
+		List<IdentityUser> users = new ArrayList<IdentityUser>();
+		for (int i = 0; i < 20; i++)
+			users.add(newUser("Name" + i));
+		int[] result = ctx.insertAll(users);
+		Assert.assertEquals(20, result.length);
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals(1, result[i]);
+			Integer id = users.get(i).getId();
+			Assert.assertEquals("Name" + i, ctx.nQueryForObject("select name from IdentityUser where id=?", id));
+		}
+	}
+
+	/** Pretend driver return generated keys of batch, H2 only return the last */
+	public static class BatchKeysContext extends SqlBoxContext {
+		public BatchKeysContext(DataSource ds, SqlBoxContextConfig config) {
+			super(ds, config);
+		}
+
+		@Override
+		protected boolean supportBatchGeneratedKeys() {
+			return true;
+		}
+	}
+
+	private SqlBoxContext createBatchKeysContext(int batchSize) {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setDialect(dialect);
+		config.setBatchSize(batchSize);
+		return new BatchKeysContext(dataSource, config);
+	}
+
+	@Test
+	public void testBatchKeysWrittenBack() {
+		SqlBoxContext ctx2 = createBatchKeysContext(1);
+		List<IdentityUser> users = new ArrayList<IdentityUser>();
+		ctx2.nBatchBegin();
+		try {
+			for (int i = 0; i < 5; i++) {
+				IdentityUser u = newUser("Name" + i);
+				users.add(u);
+				ctx2.insert(u);
+			}
+		} finally {
+			ctx2.nBatchEnd();
+		}
+		for (int i = 0; i < 5; i++) {
+			Integer id = users.get(i).getId();
+			Assert.assertNotNull(id);
+			Assert.assertEquals("Name" + i, ctx.nQueryForObject("select name from IdentityUser where id=?", id));
+		}
+	}
+
+	@Test
+	public void testBatchKeysMismatchFails() {
+		SqlBoxContext ctx2 = createBatchKeysContext(100);
+		List<IdentityUser> users = new ArrayList<IdentityUser>();
+		ctx2.nBatchBegin();
+		try {
+			for (int i = 0; i < 3; i++) {
+				IdentityUser u = newUser("Name" + i);
+				users.add(u);
+				ctx2.insert(u);
+			}
+			ctx2.nBatchEnd();
+			Assert.fail("H2 return only 1 generated key for a batch, should fail");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage().contains("1 generated keys be returned for 3 inserted rows"));
+		}
+		Assert.assertFalse(ctx2.isBatchEnabled());
+		for (IdentityUser u : users)
+			Assert.assertNull(u.getId());
+
+		IdentityUser u = newUser("Tom");// next batch not affected by the failed one
+		ctx2.nBatchBegin();
+		try {
+			ctx2.insert(u);
+		} finally {
+			ctx2.nBatchEnd();
+		}
+		Assert.assertEquals("Tom", ctx.nQueryForObject("select name from IdentityUser where id=?", u.getId()));
+	}
+
+	@Test
+	public void testInsertInBatchMode() {
+		ctx.nBatchBegin();
+		try {
+			for (int i = 0; i < 5; i++)
+				ctx.insert(newUser("Name" + i));
+		} finally {
+			ctx.nBatchEnd();
+		}
+		Assert.assertEquals(5, ctx.nQueryForLongValue("select count(*) from IdentityUser"));
+	}
+}
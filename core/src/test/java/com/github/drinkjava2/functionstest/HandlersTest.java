@@ -15,28 +15,48 @@
  */
 package com.github.drinkjava2.functionstest;
 
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
 
 import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.ResultSetHandler;
 import org.apache.commons.dbutils.handlers.MapListHandler;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
 import com.github.drinkjava2.jdbpro.handler.AroundSqlHandler;
+import com.github.drinkjava2.jdbpro.handler.CacheSqlHandler;
+import com.github.drinkjava2.jdbpro.handler.ConcurrentCacheHandler;
+import com.github.drinkjava2.jdbpro.handler.HandlerPipeline;
 import com.github.drinkjava2.jdbpro.handler.PrintSqlHandler;
+import com.github.drinkjava2.jdbpro.handler.SegmentedLruCache;
 import com.github.drinkjava2.jdbpro.handler.SimpleCacheHandler;
+import com.github.drinkjava2.jdbpro.handler.SqlCacheKey;
+import com.github.drinkjava2.jdbpro.handler.StatementOptionHandler;
 import com.github.drinkjava2.jdbpro.handler.Wrap;
+import com.github.drinkjava2.jdbpro.improve.TableCacheTags;
 import com.github.drinkjava2.jdialects.TableModelUtils;
 import com.github.drinkjava2.jdialects.annotation.jpa.Id;
 import com.github.drinkjava2.jdialects.annotation.jpa.Table;
 import com.github.drinkjava2.jdialects.model.TableModel;
 import com.github.drinkjava2.jsqlbox.ActiveRecord;
+import com.github.drinkjava2.jsqlbox.SqlBoxContext;
+import com.github.drinkjava2.jsqlbox.SqlBoxContextConfig;
+import com.github.drinkjava2.jsqlbox.SqlBoxStrUtils;
 import com.github.drinkjava2.jsqlbox.entitynet.EntityNet;
 import com.github.drinkjava2.jsqlbox.handler.EntityListHandler;
 import com.github.drinkjava2.jsqlbox.handler.EntityNetHandler;
@@ -114,6 +134,18 @@ public class HandlersTest extends TestBase {
 		Assert.assertTrue(result.size() == 99);
 	}
 
+	@Test
+	public void testSimpleCacheHandlerAliveSecondsNotShared() {
+		SimpleCacheHandler short10 = new SimpleCacheHandler(10);
+		SimpleCacheHandler long1000 = new SimpleCacheHandler(1000);
+		short10.writeToCache("sharedKey", "short");
+		Assert.assertNull(long1000.readFromCache("sharedKey"));
+		long1000.writeToCache("sharedKey", "long");
+		Assert.assertEquals("short", short10.readFromCache("sharedKey"));
+		Assert.assertEquals("long", long1000.readFromCache("sharedKey"));
+		SimpleCacheHandler.clearCache();
+	}
+
 	@Test
 	public void testSimpleCacheHandler() {
 		for (int i = 0; i < 10; i++) {// warm up
@@ -145,6 +177,342 @@ public class HandlersTest extends TestBase {
 
 	}
 
+	@Test
+	public void testConcurrentCacheHandler() {
+		SegmentedLruCache cache = new SegmentedLruCache(4, 100, 1024 * 1024);
+		for (int i = 0; i < 3; i++) {
+			List<DemoUser> result = ctx.nQuery(
+					new Wrap(new EntityListHandler(DemoUser.class), new ConcurrentCacheHandler(cache, 100)),
+					"select u.** from DemoUser u where u.age>?", 0);
+			Assert.assertTrue(result.size() == 99);
+		}
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(2, cache.getHitCount());
+
+		// Use as global handler
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		List<ResultSetHandler> handlers = new ArrayList<ResultSetHandler>();
+		handlers.add(new ConcurrentCacheHandler(cache, 100));
+		config.setHandlers(handlers);
+		SqlBoxContext cacheCtx = new SqlBoxContext(dataSource, config);
+		Assert.assertEquals(99, cacheCtx.nQueryForLongValue("select count(*) from DemoUser where age>?", 0));
+		Assert.assertEquals(99, cacheCtx.nQueryForLongValue("select count(*) from DemoUser where age>?", 0));
+		Assert.assertEquals(3, cache.getHitCount());
+	}
+
+	/** A CacheSqlHandler only accept String key */
+	@SuppressWarnings("rawtypes")
+	public static class StringKeyCacheHandler implements ResultSetHandler, CacheSqlHandler {
+		static final Map<String, Object> cache = new HashMap<String, Object>();
+
+		@Override
+		public Object handle(ResultSet result) throws SQLException {
+			return result;
+		}
+
+		@Override
+		public Object readFromCache(String key) {
+			return cache.get(key);
+		}
+
+		@Override
+		public void writeToCache(String key, Object value) {
+			cache.put(key, value);
+		}
+	}
+
+	@Test
+	public void testSqlCacheKey() {
+		String sql = "select * from DemoUser where id in (?,?)";
+		SqlCacheKey key1 = new SqlCacheKey(sql, 1, new byte[] { 1, 2 });
+		SqlCacheKey key2 = new SqlCacheKey(new String(sql), 1, new byte[] { 1, 2 });
+		Assert.assertEquals(key1, key2);
+		Assert.assertEquals(key1.hashCode(), key2.hashCode());
+		Assert.assertNotEquals(key1, new SqlCacheKey(sql, 1, new byte[] { 1, 3 }));
+		Assert.assertEquals(new SqlCacheKey("select 1"), new SqlCacheKey("select 1", (Object[]) null));
+		Assert.assertEquals("SQL:" + sql + "  Params:[1, [1, 2]]", key1.toString());
+
+		StringKeyCacheHandler.cache.clear();
+		Wrap wrap = new Wrap(new ScalarHandler<Object>(), new StringKeyCacheHandler());
+		Assert.assertEquals(99L, ((Number) ctx.nQuery(wrap, "select count(*) from DemoUser where age>?", 0)).longValue());
+		Assert.assertEquals(1, StringKeyCacheHandler.cache.size());
+		Assert.assertTrue(StringKeyCacheHandler.cache.keySet().iterator().next().startsWith("SQL:"));
+	}
+
+	@Test
+	public void testSqlCacheKeySpeed() {
+		Object[] params = new Object[1000];
+		for (int i = 0; i < params.length; i++)
+			params[i] = "id" + i;
+		String sql = "select * from DemoUser where id in (" + SqlBoxStrUtils.getQuestionsStr(1000) + ")";
+		Map<Object, Object> map = new HashMap<Object, Object>();
+		map.put("SQL:" + sql + "  Params:" + Arrays.toString(params), "value");
+		map.put(new SqlCacheKey(sql, params), "value");
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 2000; i++)
+			Assert.assertNotNull(map.get("SQL:" + sql + "  Params:" + Arrays.toString(params)));
+		printTimeUsed(start, "String cache key 1000 params");
+		start = System.currentTimeMillis();
+		for (int i = 0; i < 2000; i++)
+			Assert.assertNotNull(map.get(new SqlCacheKey(sql, params)));
+		printTimeUsed(start, "SqlCacheKey 1000 params");
+	}
+
+	/** A slow handler count how many times it be called */
+	public static class SlowCountHandler implements ResultSetHandler<Object> {
+		static final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Object handle(ResultSet rs) throws SQLException {
+			count.incrementAndGet();
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new ScalarHandler<Object>().handle(rs);
+		}
+	}
+
+	@Test
+	public void testSingleFlightCache() throws InterruptedException {
+		final SegmentedLruCache cache = new SegmentedLruCache();
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setSingleFlightCache(true);
+		final SqlBoxContext singleCtx = new SqlBoxContext(dataSource, config);
+		SlowCountHandler.count.set(0);
+		runInThreads(3, new Runnable() {
+			@Override
+			public void run() {
+				Object result = singleCtx.nQuery(new Wrap(new SlowCountHandler(), new ConcurrentCacheHandler(cache, 100)),
+						"select count(*) from DemoUser where age>?", 0);
+				Assert.assertEquals(99L, ((Number) result).longValue());
+			}
+		});
+		Assert.assertEquals(1, SlowCountHandler.count.get());
+	}
+
+	@Test
+	public void testSingleFlightWrapWithoutCache() throws InterruptedException {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setSingleFlightCache(true);
+		final SqlBoxContext singleCtx = new SqlBoxContext(dataSource, config);
+		Assert.assertFalse(HandlerPipeline.isCacheHandler(new Wrap(new SlowCountHandler())));
+		Assert.assertTrue(HandlerPipeline.isCacheHandler(new Wrap(new SlowCountHandler(), new ConcurrentCacheHandler())));
+		SlowCountHandler.count.set(0);
+		runInThreads(3, new Runnable() {
+			@Override
+			public void run() {
+				Object result = singleCtx.nQuery(new Wrap(new SlowCountHandler()),
+						"select count(*) from DemoUser where age>?", 0);
+				Assert.assertEquals(99L, ((Number) result).longValue());
+			}
+		});
+		Assert.assertEquals(3, SlowCountHandler.count.get());// not coalesced, each thread run its own query
+	}
+
+	@Test
+	public void testStaleWhileRevalidate() throws Exception {
+		SegmentedLruCache cache = new SegmentedLruCache();
+		SegmentedLruCache plainCache = new SegmentedLruCache();
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setCacheRefreshSeconds(100);
+		SqlBoxContext swrCtx = new SqlBoxContext(dataSource, config);
+		String sql = "select count(*) from DemoUser where age>?";
+		Assert.assertEquals(99L, ((Number) swrCtx
+				.nQuery(new Wrap(new ScalarHandler<Object>(), new ConcurrentCacheHandler(cache, 1)), sql, 0))
+						.longValue());
+		Assert.assertEquals(99L, ((Number) ctx
+				.nQuery(new Wrap(new ScalarHandler<Object>(), new ConcurrentCacheHandler(plainCache, 1)), sql, 0))
+						.longValue());
+
+		Connection conn = dataSource.getConnection();// change data without invalidate cache
+		try {
+			conn.createStatement().execute("delete from DemoUser where age=1");
+		} finally {
+			conn.close();
+		}
+		Thread.sleep(1100);// alive time passed
+		Assert.assertEquals(98L, ((Number) ctx
+				.nQuery(new Wrap(new ScalarHandler<Object>(), new ConcurrentCacheHandler(plainCache, 1)), sql, 0))
+						.longValue());// no refresh window, expired value evicted
+		Assert.assertEquals(99L, ((Number) swrCtx
+				.nQuery(new Wrap(new ScalarHandler<Object>(), new ConcurrentCacheHandler(cache, 1)), sql, 0))
+						.longValue());// stale value served, background refresh started
+		long result = 99L;
+		for (int i = 0; i < 50 && result == 99L; i++) {
+			Thread.sleep(20);
+			result = ((Number) swrCtx
+					.nQuery(new Wrap(new ScalarHandler<Object>(), new ConcurrentCacheHandler(cache, 1)), sql, 0))
+							.longValue();
+		}
+		Assert.assertEquals(98L, result);
+	}
+
+	@Test
+	public void testTableCacheTags() {
+		Assert.assertArrayEquals(new String[] { "demouser" },
+				TableCacheTags.findReadTables("select u.** from DemoUser u where u.age>?"));
+		List<String> tables = Arrays.asList(TableCacheTags.findReadTables(
+				"select * from a x, s.b as y left join c on x.id=c.id where x.id in (select id from d) and x.name='from e'"));
+		Assert.assertEquals(4, tables.size());
+		Assert.assertTrue(tables.containsAll(Arrays.asList("a", "b", "c", "d")));
+
+		String sql = "select count(*) from DemoUser where age>?";
+		Wrap cached = new Wrap(new ScalarHandler<Object>(), new SimpleCacheHandler(100000));
+		Assert.assertEquals(99L, ((Number) ctx.nQuery(cached, sql, 0)).longValue());
+		ctx.nExecute("delete from DemoUser where age=1");
+		Assert.assertEquals(98L, ((Number) ctx.nQuery(cached, sql, 0)).longValue());
+
+		// ORM CRUD methods
+		new DemoUser().put("id", "1000").put("userName", "user1000").put("age", 1000).insert();
+		Assert.assertEquals(99L, ((Number) ctx.nQuery(cached, sql, 0)).longValue());
+		DemoUser user = ctx.load(DemoUser.class, "1000");
+		user.setAge(0);
+		user.update();
+		Assert.assertEquals(98L, ((Number) ctx.nQuery(cached, sql, 0)).longValue());
+
+		// batch methods
+		ctx.nBatchBegin();
+		try {
+			for (int i = 0; i < 5; i++)
+				ctx.nExecute("delete from DemoUser where age=?", 10 + i);
+		} finally {
+			ctx.nBatchEnd();
+		}
+		Assert.assertEquals(93L, ((Number) ctx.nQuery(cached, sql, 0)).longValue());
+
+		// write other table do not affect
+		Object value = ctx.nQuery(cached, sql, 0);
+		ctx.nExecute("create table cache_tag_tb (id int)");
+		ctx.nExecute("insert into cache_tag_tb (id) values(1)");
+		ctx.nExecute("drop table cache_tag_tb");
+		Assert.assertSame(value, ctx.nQuery(cached, sql, 0));
+		SimpleCacheHandler.clearCache();
+
+		// writable CTE invalidate, read only CTE not
+		Object tagged = TableCacheTags.tag("v", TableCacheTags.snapshot(sql));
+		TableCacheTags.invalidate("with t as (select id from DemoUser) select * from t");
+		Assert.assertEquals("v", TableCacheTags.untag(tagged));
+		TableCacheTags.invalidate(
+				"with t as (select id from DemoUser where age=1) delete from DemoUser where id in (select id from t)");
+		Assert.assertNull(TableCacheTags.untag(tagged));
+
+		// query no table found is still evicted by unknown writes
+		tagged = TableCacheTags.tag("v", TableCacheTags.snapshot("select 1"));
+		TableCacheTags.invalidate("insert into cache_tag_tb (id) values(1)");
+		Assert.assertEquals("v", TableCacheTags.untag(tagged));
+		TableCacheTags.invalidate("call some_procedure()");
+		Assert.assertNull(TableCacheTags.untag(tagged));
+		tagged = TableCacheTags.tag("v", TableCacheTags.snapshot("select 1"));
+		TableCacheTags.invalidateAll();
+		Assert.assertNull(TableCacheTags.untag(tagged));
+	}
+
+	@Test
+	public void testSegmentedLruCache() throws InterruptedException {
+		SegmentedLruCache cache = new SegmentedLruCache(1, 3, 1024 * 1024);
+		cache.put("a", "A", 100000);
+		cache.put("b", "B", 100000);
+		cache.put("c", "C", 100000);
+		Assert.assertEquals("A", cache.get("a"));// a become newest
+		cache.put("d", "D", 100000);
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals("A", cache.get("a"));
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals(3, cache.size());
+
+		cache.put("e", "E", 50);
+		Thread.sleep(100);
+		Assert.assertNull(cache.get("e"));
+		Assert.assertEquals(1, cache.getExpirationCount());
+
+		cache = new SegmentedLruCache(1, 1000, 500);
+		for (int i = 0; i < 100; i++)
+			cache.put("key" + i, "value" + i, 100000);
+		Assert.assertTrue(cache.getEstimatedBytes() <= 500);
+		Assert.assertTrue(cache.getEvictionCount() > 0);
+
+		// segment count not exceed max entries, total capacity is max entries
+		cache = new SegmentedLruCache(16, 10, 1024 * 1024);
+		Assert.assertEquals(8, cache.getSegmentCount());
+		for (int i = 0; i < 1000; i++)
+			cache.put("key" + i, "value" + i, 100000);
+		Assert.assertTrue(cache.size() <= 10);
+		Assert.assertEquals(1, new SegmentedLruCache(16, 1, 1024).getSegmentCount());
+
+		// expired entries be removed before live least recently used ones
+		cache = new SegmentedLruCache(1, 3, 1024 * 1024);
+		cache.put("b", "B", 100000);
+		cache.put("c", "C", 100000);
+		cache.put("a", "A", 50);
+		Thread.sleep(100);
+		cache.put("d", "D", 100000);
+		Assert.assertEquals(0, cache.getEvictionCount());
+		Assert.assertEquals(1, cache.getExpirationCount());
+		Assert.assertEquals("B", cache.get("b"));
+		Assert.assertEquals("C", cache.get("c"));
+
+		// a too big value is not cached, and old value of the key is removed
+		cache = new SegmentedLruCache(1, 10, 500);
+		cache.put("k", "small", 100000);
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			big.append('x');
+		cache.put("k", big.toString(), 100000);
+		Assert.assertNull(cache.get("k"));
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getEstimatedBytes());
+	}
+
+	@Test(expected = DbProRuntimeException.class)
+	public void testConcurrentCacheHandlerZeroAliveSeconds() {
+		new ConcurrentCacheHandler(0);
+	}
+
+	@Test
+	public void testCacheHandlersMultipleThreads() throws InterruptedException {
+		final SegmentedLruCache cache = new SegmentedLruCache();
+		final SimpleCacheHandler simple = new SimpleCacheHandler();
+		final ConcurrentCacheHandler concurrent = new ConcurrentCacheHandler(cache, 1000);
+		for (int i = 0; i < 200; i++) {
+			simple.writeToCache("key" + i, "value" + i);
+			concurrent.writeToCache("key" + i, "value" + i);
+		}
+		for (int round = 0; round < 2; round++) {
+			long start = System.currentTimeMillis();
+			runInThreads(8, new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200000; i++)
+						simple.readFromCache("key" + (i % 200));
+				}
+			});
+			printTimeUsed(start, "SimpleCacheHandler 8 threads read");
+			start = System.currentTimeMillis();
+			runInThreads(8, new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200000; i++)
+						Assert.assertNotNull(concurrent.readFromCache("key" + (i % 200)));
+				}
+			});
+			printTimeUsed(start, "ConcurrentCacheHandler 8 threads read");
+		}
+		SimpleCacheHandler.clearCache();
+	}
+
+	private static void runInThreads(int count, Runnable runnable) throws InterruptedException {
+		Thread[] threads = new Thread[count];
+		for (int i = 0; i < count; i++) {
+			threads[i] = new Thread(runnable);
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+	}
+
 	@Test
 	public void testEntityMapListHandler() {
 		List<Map<String, Object>> result = ctx.nQuery(new EntitySqlMapListHandler(DemoUser.class),
@@ -203,4 +571,118 @@ public class HandlersTest extends TestBase {
 		Assert.assertTrue(result2.size() == 99);
 	}
 
-}
\ No newline at end of file
+	/** An AroundSqlHandler count how many times it be called */
+	@SuppressWarnings("rawtypes")
+	public static class CountAroundSqlHandler implements ResultSetHandler, AroundSqlHandler {
+		AtomicInteger sqlCount = new AtomicInteger();
+		AtomicInteger resultCount = new AtomicInteger();
+
+		@Override
+		public String handleSql(QueryRunner query, String sql, Object... params) {
+			sqlCount.incrementAndGet();
+			return sql;
+		}
+
+		@Override
+		public Object handleResult(QueryRunner query, Object result) {
+			resultCount.incrementAndGet();
+			return result;
+		}
+
+		@Override
+		public Object handle(ResultSet result) throws SQLException {
+			return result;
+		}
+	}
+
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testHandlerPipeline() {
+		CountAroundSqlHandler around = new CountAroundSqlHandler();
+		SimpleCacheHandler cache = new SimpleCacheHandler();
+		HandlerPipeline pipeline = HandlerPipeline.compile(new MapListHandler(), around, cache);
+		Assert.assertFalse(pipeline.isEmpty());
+		Assert.assertEquals(1, pipeline.getAroundSqlHandlers().length);
+		Assert.assertSame(cache, pipeline.getFirstCacheHandler());
+		Assert.assertTrue(HandlerPipeline.compile(new MapListHandler()).isEmpty());
+		Assert.assertTrue(HandlerPipeline.compile((List<ResultSetHandler>) null).isEmpty());
+
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		List<ResultSetHandler> handlers = new ArrayList<ResultSetHandler>();
+		config.setHandlers(handlers);
+		SqlBoxContext pipelineCtx = new SqlBoxContext(dataSource, config);
+		Assert.assertEquals(99, pipelineCtx.nQueryForLongValue("select count(*) from DemoUser where age>?", 0));
+		Assert.assertEquals(0, around.sqlCount.get());
+
+		// Handlers list changed, pipeline be compiled again
+		handlers.add(around);
+		Assert.assertEquals(99, pipelineCtx.nQueryForLongValue("select count(*) from DemoUser where age>?", 0));
+		Assert.assertEquals(1, around.sqlCount.get());
+		Assert.assertEquals(1, around.resultCount.get());
+
+		// Global pipeline, threaded handler and call handler all work together
+		CountAroundSqlHandler callHandler = new CountAroundSqlHandler();
+		List<Map<String, Object>> result = pipelineCtx.nQuery(new Wrap(new MapListHandler(), callHandler),
+				"select u.* from DemoUser u where u.age>?", 0);
+		Assert.assertEquals(99, result.size());
+		Assert.assertEquals(2, around.sqlCount.get());
+		Assert.assertEquals(1, callHandler.sqlCount.get());
+		Assert.assertEquals(1, callHandler.resultCount.get());
+
+		// Handler replaced without size change, pipeline be compiled again
+		CountAroundSqlHandler replaced = new CountAroundSqlHandler();
+		handlers.set(0, replaced);
+		Assert.assertEquals(99, pipelineCtx.nQueryForLongValue("select count(*) from DemoUser where age>?", 0));
+		Assert.assertEquals(2, around.sqlCount.get());
+		Assert.assertEquals(1, replaced.sqlCount.get());
+		handlers.remove(0);
+		handlers.add(around);
+		Assert.assertEquals(99, pipelineCtx.nQueryForLongValue("select count(*) from DemoUser where age>?", 0));
+		Assert.assertEquals(3, around.sqlCount.get());
+		Assert.assertEquals(1, replaced.sqlCount.get());
+	}
+
+	/** A SqlBoxContext record fetchSize, maxRows and queryTimeout of statements */
+	public static class StatementOptionContext extends SqlBoxContext {
+		int[] last = new int[3];
+
+		public StatementOptionContext(DataSource ds, SqlBoxContextConfig config) {
+			super(ds, config);
+		}
+
+		@Override
+		protected void applyStatementOption(Statement stmt) throws SQLException {
+			super.applyStatementOption(stmt);
+			last = new int[] { stmt.getFetchSize(), stmt.getMaxRows(), stmt.getQueryTimeout() };
+		}
+	}
+
+	@Test
+	public void testStatementOptionHandler() {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setFetchSize(50);
+		config.setMaxRows(20);
+		config.setQueryTimeout(10);
+		StatementOptionContext ctx2 = new StatementOptionContext(dataSource, config);
+
+		List<Map<String, Object>> result = ctx2.nQuery(new MapListHandler(), "select * from DemoUser");
+		Assert.assertEquals(20, result.size());
+		Assert.assertArrayEquals(new int[] { 50, 20, 10 }, ctx2.last);
+
+		result = ctx2.nQuery(new Wrap(new MapListHandler(), new StatementOptionHandler(100, 30, null)),
+				"select * from DemoUser");
+		Assert.assertEquals(30, result.size());
+		Assert.assertArrayEquals(new int[] { 100, 30, 10 }, ctx2.last);
+
+		result = ctx2.nQuery(new Wrap(new MapListHandler(), new StatementOptionHandler(null, 0, 5)),
+				"select * from DemoUser");
+		Assert.assertEquals(100, result.size());
+		Assert.assertArrayEquals(new int[] { 50, 0, 5 }, ctx2.last);
+
+		// option only used by one SQL method call
+		result = ctx2.nQuery(new MapListHandler(), "select * from DemoUser");
+		Assert.assertEquals(20, result.size());
+		Assert.assertArrayEquals(new int[] { 50, 20, 10 }, ctx2.last);
+	}
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdialects.TableModelUtils;
+import com.github.drinkjava2.jdialects.Type;
+import com.github.drinkjava2.jdialects.id.IdGenerator;
+import com.github.drinkjava2.jdialects.model.TableModel;
+import com.github.drinkjava2.jsqlbox.PooledIdAllocator;
+
+/**
+ * Unit test for PooledIdAllocator, IDs must be unique when many threads get
+ * IDs at same time
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class PooledIdAllocatorTest extends TestBase {
+	private static final int THREADS = 8;
+	private static final int IDS_PER_THREAD = 2000;
+
+	public static class PooledOrder {
+		private Long id;
+		private String name;
+
+		public static void config(TableModel t) {
+			t.sequenceGenerator("pooled_seq", "pooled_seq", 1, 50);
+			t.column("id").pkey().idGenerator("pooled_seq");
+		}
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	@Before
+	public void init() {
+		super.init();
+		PooledIdAllocator.clearPools();
+		TableModel hilo = new TableModel("hilo_tb");
+		hilo.tableGenerator("hilo_gen", "hilo_ids", "pk", "val", "hilo_tb", 1, 1);
+		hilo.column("id").LONG().pkey().idGenerator("hilo_gen");
+		dropAndCreateDatabase(TableModelUtils.entity2Model(PooledOrder.class), hilo);
+	}
+
+	/** Get IDs by many threads at same time, return count of unique IDs */
+	private int getIdsConcurrently(final IdGenerator gen) throws Exception {
+		final Set<Object> ids = Collections.synchronizedSet(new HashSet<Object>());
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int t = 0; t < THREADS; t++)
+				futures.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						for (int i = 0; i < IDS_PER_THREAD; i++)
+							ids.add(PooledIdAllocator.nextId(ctx, gen, dialect, Type.BIGINT));
+						return null;
+					}
+				}));
+			for (Future<Object> f : futures)
+				f.get();
+		} finally {
+			pool.shutdown();
+		}
+		return ids.size();
+	}
+
+	@Test
+	public void testPooledSequence() throws Exception {
+		IdGenerator gen = TableModelUtils.entity2Model(PooledOrder.class).getIdGenerator("pooled_seq");
+		Assert.assertEquals(THREADS * IDS_PER_THREAD, getIdsConcurrently(gen));
+		long dbValue = ((Number) gen.getNextID(ctx, dialect, Type.BIGINT)).longValue();
+		// each database access reserved 50 IDs
+		Assert.assertTrue((dbValue - 1) / 50 <= THREADS * IDS_PER_THREAD / 50 + 1);
+	}
+
+	@Test
+	public void testHiLoTableGenerator() throws Exception {
+		PooledIdAllocator.setBlockSize("hilo_gen", 100);
+		try {
+			TableModel model = new TableModel("hilo_tb");
+			model.tableGenerator("hilo_gen", "hilo_ids", "pk", "val", "hilo_tb", 1, 1);
+			IdGenerator gen = model.getIdGenerator("hilo_gen");
+			Assert.assertEquals(THREADS * IDS_PER_THREAD, getIdsConcurrently(gen));
+			long hi = ctx.nQueryForLongValue("select val from hilo_ids where pk='hilo_tb'");
+			Assert.assertTrue(hi <= THREADS * IDS_PER_THREAD / 100 + 2);
+		} finally {
+			PooledIdAllocator.setBlockSize("hilo_gen", 0);
+		}
+	}
+
+	@Test
+	public void testConcurrentInsert() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int t = 0; t < THREADS; t++)
+				futures.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						for (int i = 0; i < 200; i++) {
+							PooledOrder order = new PooledOrder();
+							order.setName("Order" + i);
+							ctx.insert(order);
+						}
+						return null;
+					}
+				}));
+			for (Future<Object> f : futures)
+				f.get();// primary key violation will be thrown here
+		} finally {
+			pool.shutdown();
+		}
+		Assert.assertEquals(THREADS * 200, ctx.nQueryForLongValue("select count(*) from PooledOrder"));
+	}
+
+	@Test
+	public void speedTest() {
+		IdGenerator gen = TableModelUtils.entity2Model(PooledOrder.class).getIdGenerator("pooled_seq");
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < IDS_PER_THREAD; i++)
+			gen.getNextID(ctx, dialect, Type.BIGINT);
+		printTimeUsed(start, "Get " + IDS_PER_THREAD + " IDs from sequence directly");
+		start = System.currentTimeMillis();
+		for (int i = 0; i < IDS_PER_THREAD; i++)
+			PooledIdAllocator.nextId(ctx, gen, dialect, Type.BIGINT);
+		printTimeUsed(start, "Get " + IDS_PER_THREAD + " IDs from PooledIdAllocator");
+	}
+}
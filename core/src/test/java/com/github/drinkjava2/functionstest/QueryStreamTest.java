@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.dbutils.handlers.MapListHandler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+import com.github.drinkjava2.jdbpro.handler.Wrap;
+import com.github.drinkjava2.jdbpro.improve.QueryStream;
+import com.github.drinkjava2.jdbpro.improve.RowCallback;
+import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
+import com.github.drinkjava2.jsqlbox.handler.PaginHandler;
+
+/**
+ * Unit test for streaming query methods
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class QueryStreamTest extends TestBase {
+	private static final int ROWS = 2000;
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table stream_tb" });
+		ctx.nExecute("create table stream_tb (id int, name varchar(20))");
+		ctx.nBatchBegin();
+		for (int i = 0; i < ROWS; i++)
+			ctx.nExecute("insert into stream_tb (id, name) values (?,?)", i, "name" + i);
+		ctx.nBatchEnd();
+	}
+
+	@Test
+	public void testQueryStream() {
+		QueryStream stream = ctx.nQueryStream("select * from stream_tb where id>=? order by id", 10);
+		try {
+			int expected = 10;
+			while (stream.hasNext()) {
+				Map<String, Object> row = stream.next();
+				Assert.assertEquals(expected, ((Number) row.get("ID")).intValue());
+				expected++;
+			}
+			Assert.assertEquals(ROWS, expected);
+			Assert.assertEquals(ROWS - 10, stream.getRowCount());
+			Assert.assertTrue(stream.isClosed());
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void testQueryEach() {
+		final int[] sum = new int[1];
+		int rows = ctx.nQueryEach(new RowCallback() {
+			@Override
+			public boolean handleRow(ResultSet rs) throws SQLException {
+				sum[0] += rs.getInt("id");
+				return true;
+			}
+		}, "select id from stream_tb");
+		Assert.assertEquals(ROWS, rows);
+		Assert.assertEquals(ROWS * (ROWS - 1) / 2, sum[0]);
+
+		rows = ctx.nQueryEach(new RowCallback() {
+			@Override
+			public boolean handleRow(ResultSet rs) throws SQLException {
+				return rs.getInt("id") < 9;
+			}
+		}, "select id from stream_tb order by id");
+		Assert.assertEquals(10, rows);
+	}
+
+	@Test
+	public void testQueryStreamCloseEarly() throws SQLException {
+		Connection conn = ctx.prepareConnection();
+		try {
+			QueryStream stream = ctx.nQueryStream(conn, "select * from stream_tb order by id");
+			Assert.assertEquals("name0", stream.next().get("NAME"));
+			stream.close();
+			Assert.assertTrue(stream.isClosed());
+			Assert.assertFalse(stream.hasNext());
+			Assert.assertFalse(conn.isClosed());// not got by stream, not closed
+		} finally {
+			ctx.close(conn);
+		}
+	}
+
+	@Test
+	public void testQueryStreamAroundSqlHandler() {
+		PreparedSQL ps = new PreparedSQL("select * from stream_tb order by id", null);
+		ps.setHandlers(new ResultSetHandler<?>[] { new PaginHandler(2, 10) });
+		final int[] first = new int[] { -1 };
+		int rows = ctx.nQueryEach(new RowCallback() {
+			@Override
+			public boolean handleRow(ResultSet rs) throws SQLException {
+				if (first[0] < 0)
+					first[0] = rs.getInt("id");
+				return true;
+			}
+		}, ps);
+		Assert.assertEquals(10, rows);
+		Assert.assertEquals(10, first[0]);
+
+		ps = new PreparedSQL("select * from stream_tb order by id", null);
+		ps.setHandlers(new ResultSetHandler<?>[] { new Wrap(new PaginHandler(3, 5)) });
+		QueryStream stream = ctx.nQueryStream(ps);
+		try {
+			Assert.assertEquals(10, ((Number) stream.next().get("ID")).intValue());
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test(expected = DbProRuntimeException.class)
+	public void testQueryStreamError() {
+		ctx.nQueryStream("select * from not_exist_tb");
+	}
+
+	@Test
+	public void testQueryStreamSpeed() {
+		int repeat = 10;
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < repeat; i++)
+			ctx.nQuery(new MapListHandler(), "select * from stream_tb");
+		printTimeUsed(start, "Load " + ROWS + " rows as List " + repeat + " times");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < repeat; i++) {
+			QueryStream stream = ctx.nQueryStream("select * from stream_tb");
+			try {
+				while (stream.hasNext())
+					stream.next();
+			} finally {
+				stream.close();
+			}
+		}
+		printTimeUsed(start, "Stream " + ROWS + " rows " + repeat + " times");
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.DbProRuntimeException;
+import com.github.drinkjava2.jdbpro.improve.RowReducer;
+import com.github.drinkjava2.jdbpro.improve.ScatterGather;
+import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
+
+/**
+ * Unit test for scatter/gather query methods
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class ScatterGatherTest extends TestBase {
+	private static final int TENANTS = 3; // test pool has 3 connections
+	private static final int ROWS = 3000;
+
+	private static final Comparator<Map<String, Object>> BY_ID = new Comparator<Map<String, Object>>() {
+		@Override
+		public int compare(Map<String, Object> r1, Map<String, Object> r2) {
+			return ((Integer) r1.get("id")).compareTo((Integer) r2.get("id"));
+		}
+	};
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table scatter_tb" });
+		ctx.nExecute("create table scatter_tb (id int, tenant int, name varchar(20))");
+		ctx.nBatchBegin();
+		for (int i = 0; i < ROWS; i++)
+			ctx.nExecute("insert into scatter_tb (id, tenant, name) values(?,?,?)", i, i % TENANTS, "Name" + i);
+		ctx.nBatchEnd();
+	}
+
+	private static List<PreparedSQL> tenantQueries() {
+		List<PreparedSQL> sqls = new ArrayList<PreparedSQL>();
+		for (int i = 0; i < TENANTS; i++)
+			sqls.add(new PreparedSQL("select id, name from scatter_tb where tenant=? order by id", new Object[] { i }));
+		return sqls;
+	}
+
+	@Test
+	public void testConcat() {
+		List<Map<String, Object>> rows = ctx.scatterQuery(2, tenantQueries());
+		Assert.assertEquals(ROWS, rows.size());
+		int perTenant = ROWS / TENANTS;
+		for (int i = 0; i < ROWS; i++) // rows of tenant 0 first, then tenant 1...
+			Assert.assertEquals((i % perTenant) * TENANTS + i / perTenant, rows.get(i).get("id"));
+		Assert.assertEquals(0, ctx.scatterQuery(2, new ArrayList<PreparedSQL>()).size());
+	}
+
+	@Test
+	public void testOrderedMerge() {
+		List<Map<String, Object>> rows = ctx.scatterQuery(TENANTS, BY_ID, tenantQueries());
+		Assert.assertEquals(ROWS, rows.size());
+		for (int i = 0; i < ROWS; i++)
+			Assert.assertEquals(i, rows.get(i).get("id"));
+		Assert.assertEquals("Name5", rows.get(5).get("name"));
+	}
+
+	@Test(expected = DbProRuntimeException.class)
+	public void testOrderedMergeNeedEnoughConcurrency() {
+		ctx.scatterQuery(TENANTS - 1, BY_ID, tenantQueries());
+	}
+
+	@Test
+	public void testReducer() {
+		long sum = ctx.scatterQuery(2, 0L, new RowReducer<Long>() {
+			@Override
+			public Long reduce(Long result, Map<String, Object> row) {
+				return result + (Integer) row.get("id");
+			}
+		}, tenantQueries());
+		Assert.assertEquals((long) ROWS * (ROWS - 1) / 2, sum);
+
+		// merged into a reducer, only keep the last 10 ids
+		final List<Integer> last = new ArrayList<Integer>();
+		ctx.scatterQuery(TENANTS, BY_ID, last, new RowReducer<List<Integer>>() {
+			@Override
+			public List<Integer> reduce(List<Integer> result, Map<String, Object> row) {
+				if (result.size() == 10)
+					result.remove(0);
+				result.add((Integer) row.get("id"));
+				return result;
+			}
+		}, tenantQueries());
+		Assert.assertEquals(10, last.size());
+		Assert.assertEquals(ROWS - 1, (int) last.get(9));
+	}
+
+	@Test(timeout = 30000)
+	public void testReuse() {
+		ScatterGather sg = new ScatterGather(ctx, TENANTS, tenantQueries());
+		for (int i = 0; i < 2; i++) {
+			Assert.assertEquals(ROWS, sg.concat(new ArrayList<Map<String, Object>>(), ScatterGather.TO_LIST).size());
+			Assert.assertEquals(ROWS, sg.merge(BY_ID, new ArrayList<Map<String, Object>>(), ScatterGather.TO_LIST).size());
+			Assert.assertEquals(ROWS, sg.arrival(new ArrayList<Map<String, Object>>(), ScatterGather.TO_LIST).size());
+		}
+	}
+
+	@Test
+	public void testFailure() {
+		List<PreparedSQL> sqls = tenantQueries();
+		sqls.add(new PreparedSQL("select id from not_exist_table", null));
+		try {
+			ctx.scatterQuery(2, sqls);
+			Assert.fail("Should throw DbProRuntimeException");
+		} catch (DbProRuntimeException e) {
+			Assert.assertNotNull(e.getCause());
+		}
+		// Connections are released after failure
+		Assert.assertEquals(ROWS, ctx.scatterQuery(3, tenantQueries()).size());
+	}
+
+	@Test
+	public void speedTest() {
+		int repeat = 20;
+		long start = System.currentTimeMillis();
+		for (int n = 0; n < repeat; n++) {
+			List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+			for (PreparedSQL sql : tenantQueries())
+				rows.addAll(ctx.nQueryForMapList(sql.getSql(), sql.getParams()));
+			Assert.assertEquals(ROWS, rows.size());
+		}
+		printTimeUsed(start, "Sequential query " + TENANTS + " tenants");
+
+		start = System.currentTimeMillis();
+		for (int n = 0; n < repeat; n++)
+			Assert.assertEquals(ROWS, ctx.scatterQuery(3, tenantQueries()).size());
+		printTimeUsed(start, "Scatter query " + TENANTS + " tenants");
+	}
+}
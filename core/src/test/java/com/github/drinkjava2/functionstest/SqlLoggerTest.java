@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.dbutils.handlers.MapListHandler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.DbProLogger;
+import com.github.drinkjava2.jdbpro.improve.AsyncSqlLogger;
+import com.github.drinkjava2.jdbpro.improve.QueryStream;
+import com.github.drinkjava2.jsqlbox.SqlBoxContext;
+import com.github.drinkjava2.jsqlbox.SqlBoxContextConfig;
+
+/**
+ * Unit test for AsyncSqlLogger
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class SqlLoggerTest extends TestBase {
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table log_tb" });
+		ctx.nExecute("create table log_tb (id int, name varchar(20))");
+	}
+
+	/** A DbProLogger store messages in a list */
+	public static class ListLogger implements DbProLogger {
+		List<String> messages = new ArrayList<String>();
+
+		@Override
+		public synchronized void info(String msg) {
+			messages.add(msg);
+		}
+
+		@Override
+		public void warn(String msg) {
+			info(msg);
+		}
+
+		@Override
+		public void error(String msg) {
+			info(msg);
+		}
+
+		@Override
+		public void debug(String msg) {
+			info(msg);
+		}
+	}
+
+	private SqlBoxContext createContext(AsyncSqlLogger sqlLogger) {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setSqlLogger(sqlLogger);
+		return new SqlBoxContext(dataSource, config);
+	}
+
+	@Test
+	public void testAsyncSqlLogger() {
+		ListLogger logger = new ListLogger();
+		AsyncSqlLogger sqlLogger = new AsyncSqlLogger(logger, 1, 0);
+		SqlBoxContext ctx2 = createContext(sqlLogger);
+		for (int i = 0; i < 10; i++)
+			ctx2.nUpdate("insert into log_tb (id, name) values (?,?)", i, "name" + i);
+		ctx2.nQuery(new MapListHandler(), "select * from log_tb where id<?", 5);
+		QueryStream stream = ctx2.nQueryStream("select * from log_tb");
+		while (stream.hasNext())
+			stream.next();
+		ctx2.nBatchBegin();
+		for (int i = 0; i < 10; i++)
+			ctx2.nUpdate("insert into log_tb (id, name) values (?,?)", i, "name" + i);
+		ctx2.nBatchEnd();
+		sqlLogger.flush();
+		Assert.assertEquals(13, sqlLogger.getLoggedCount());
+		Assert.assertTrue(logger.messages.get(0).startsWith("SQL: insert into log_tb"));
+		Assert.assertTrue(logger.messages.get(0).contains("Parameters: [0, name0]"));
+		Assert.assertTrue(logger.messages.get(0).contains("Rows: 1"));
+		Assert.assertTrue(logger.messages.get(0).contains(" ms"));
+		Assert.assertTrue(logger.messages.get(10).contains("Rows: 5"));
+		Assert.assertTrue(logger.messages.get(11).contains("Rows: 10"));
+		Assert.assertTrue(logger.messages.get(12).contains("Rows: 10"));
+		Assert.assertFalse(logger.messages.get(12).contains("Parameters"));
+		sqlLogger.close();
+	}
+
+	@Test
+	public void testSampleAndSlowThreshold() {
+		ListLogger logger = new ListLogger();
+		AsyncSqlLogger sqlLogger = new AsyncSqlLogger(logger, 0.1, 0);
+		SqlBoxContext ctx2 = createContext(sqlLogger);
+		for (int i = 0; i < 100; i++)
+			ctx2.nQueryForLongValue("select count(*) from log_tb");
+		sqlLogger.flush();
+		Assert.assertEquals(10, sqlLogger.getLoggedCount());
+		sqlLogger.close();
+
+		AsyncSqlLogger slowLogger = new AsyncSqlLogger(logger, 1, 100000);
+		ctx2 = createContext(slowLogger);
+		for (int i = 0; i < 100; i++)
+			ctx2.nQueryForLongValue("select count(*) from log_tb");
+		slowLogger.flush();
+		Assert.assertEquals(0, slowLogger.getLoggedCount());
+		slowLogger.close();
+	}
+
+	@Test
+	public void testQueueFull() {
+		AsyncSqlLogger sqlLogger = new AsyncSqlLogger(new DbProLogger() {
+			@Override
+			public void info(String msg) {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void warn(String msg) {// NOSONAR
+			}
+
+			@Override
+			public void error(String msg) {// NOSONAR
+			}
+
+			@Override
+			public void debug(String msg) {// NOSONAR
+			}
+		}, 1, 0, 2);
+		SqlBoxContext ctx2 = createContext(sqlLogger);
+		for (int i = 0; i < 20; i++)
+			ctx2.nQueryForLongValue("select count(*) from log_tb");
+		sqlLogger.flush();
+		Assert.assertTrue(sqlLogger.getDroppedCount() > 0);
+		Assert.assertEquals(20, sqlLogger.getDroppedCount() + sqlLogger.getLoggedCount());
+		sqlLogger.close();
+	}
+
+	@Test
+	public void testSqlLoggerSpeed() {
+		int repeat = 5000;
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setLogger(new ListLogger());
+		config.setAllowSqlSql(true);
+		SqlBoxContext ctx2 = new SqlBoxContext(dataSource, config);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < repeat; i++)
+			ctx2.nQueryForLongValue("select count(*) from log_tb where id>?", i);
+		printTimeUsed(start, "allowShowSQL, " + repeat + " queries");
+
+		AsyncSqlLogger sqlLogger = new AsyncSqlLogger(new ListLogger(), 0.01, 0);
+		ctx2 = createContext(sqlLogger);
+		start = System.currentTimeMillis();
+		for (int i = 0; i < repeat; i++)
+			ctx2.nQueryForLongValue("select count(*) from log_tb where id>?", i);
+		printTimeUsed(start, "AsyncSqlLogger 1% sample, " + repeat + " queries");
+		sqlLogger.close();
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.dbutils.handlers.MapListHandler;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.handler.ConcurrentCacheHandler;
+import com.github.drinkjava2.jdbpro.handler.Wrap;
+import com.github.drinkjava2.jdbpro.improve.InMemorySqlMetrics;
+import com.github.drinkjava2.jdbpro.improve.SqlFingerprint;
+import com.github.drinkjava2.jsqlbox.SqlBoxContext;
+import com.github.drinkjava2.jsqlbox.SqlBoxContextConfig;
+
+/**
+ * Unit test for SqlMetricsListener, InMemorySqlMetrics and SqlFingerprint
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class SqlMetricsTest extends TestBase {
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table metrics_tb" });
+		ctx.nExecute("create table metrics_tb (id int, name varchar(20))");
+	}
+
+	private SqlBoxContext createContext(InMemorySqlMetrics metrics) {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setMetricsListener(metrics);
+		return new SqlBoxContext(dataSource, config);
+	}
+
+	@Test
+	public void testSqlFingerprint() {
+		Assert.assertEquals("select * from users where id in(?) and name=?",
+				SqlFingerprint.normalize("select * from Users where id in (1, 2 ,3) and name='Tom'"));
+		Assert.assertEquals("select * from users where id in(?) and name=?",
+				SqlFingerprint.normalize("SELECT *  FROM users\n WHERE id IN (?,?) AND name = ?;"));
+		Assert.assertEquals("select name from t1 where a=? and b=?",
+				SqlFingerprint.normalize("select name /* comment */ from t1 where a='it''s' and b=1.5 -- comment"));
+		Assert.assertEquals("insert into t(a,b) values(?,?)",
+				SqlFingerprint.normalize("insert into t (a, b) values (?,?), (?,?),(1,'x')"));
+		Assert.assertEquals("select \"Name\" from t", SqlFingerprint.normalize("select \"Name\" from T"));
+		Assert.assertSame(SqlFingerprint.of("select 1"), SqlFingerprint.of("select 1"));
+	}
+
+	@Test
+	public void testMetrics() {
+		InMemorySqlMetrics metrics = new InMemorySqlMetrics();
+		SqlBoxContext ctx2 = createContext(metrics);
+		for (int i = 0; i < 10; i++)
+			ctx2.nExecute("insert into metrics_tb (id, name) values (?,?)", i, "name" + i);
+		for (int i = 0; i < 5; i++)
+			ctx2.nQuery(new MapListHandler(), "select * from metrics_tb where id<" + (i + 5));
+		String insert = "insert into metrics_tb(id,name) values(?,?)";
+		String select = "select * from metrics_tb where id<?";
+		Assert.assertEquals(10, metrics.getCount(insert));
+		Assert.assertEquals(5, metrics.getCount(select));
+		InMemorySqlMetrics.Snapshot snapshot = metrics.getSnapshot(select);
+		Assert.assertEquals(5 + 6 + 7 + 8 + 9, snapshot.getRows());
+		Assert.assertEquals(10, metrics.getSnapshot(insert).getRows());
+		Assert.assertTrue(snapshot.getPercentileMillis(50) <= snapshot.getPercentileMillis(99));
+		Assert.assertTrue(snapshot.getPercentileMillis(99) <= snapshot.getMaxMillis());
+		Assert.assertTrue(snapshot.getMaxMillis() > 0);
+		System.out.print(metrics.getReport());
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getTotalCount());
+	}
+
+	@Test
+	public void testCacheHitAndBatch() {
+		InMemorySqlMetrics metrics = new InMemorySqlMetrics();
+		SqlBoxContext ctx2 = createContext(metrics);
+		ctx2.nBatchBegin();
+		for (int i = 0; i < 30; i++)
+			ctx2.nExecute("insert into metrics_tb (id, name) values (?,?)", i, "name" + i);
+		ctx2.nBatchEnd();
+		InMemorySqlMetrics.Snapshot batch = metrics.getSnapshot("insert into metrics_tb(id,name) values(?,?)");
+		Assert.assertTrue(batch.getBatches() >= 1);
+		Assert.assertEquals(30, batch.getBatchItems());
+		Assert.assertEquals(30, batch.getRows());
+
+		ConcurrentCacheHandler.clearCache();
+		for (int i = 0; i < 4; i++)
+			ctx2.nQuery(new Wrap(new ScalarHandler<Object>(), new ConcurrentCacheHandler()),
+					"select count(*) from metrics_tb where id>?", 10);
+		String fingerprint = "select count(*) from metrics_tb where id>?";
+		Assert.assertEquals(1, metrics.getCount(fingerprint));
+		Assert.assertEquals(3, metrics.getSnapshot(fingerprint).getCacheHits());
+		Assert.assertEquals(3, metrics.getTotalCacheHits());
+	}
+
+	@Test
+	public void testPercentile() {
+		InMemorySqlMetrics metrics = new InMemorySqlMetrics();
+		for (int i = 1; i <= 100; i++)
+			metrics.onExecute("select 1", i * 1000000L, 1, 0);
+		InMemorySqlMetrics.Snapshot snapshot = metrics.getSnapshot("select ?");
+		Assert.assertEquals(100, snapshot.getCount());
+		Assert.assertEquals(50.5, snapshot.getMeanMillis(), 0.001);
+		Assert.assertEquals(100, snapshot.getMaxMillis(), 0.001);
+		double p50 = snapshot.getPercentileMillis(50);
+		double p99 = snapshot.getPercentileMillis(99);
+		Assert.assertTrue(p50 >= 50 && p50 <= 50 * 1.25);
+		Assert.assertTrue(p99 >= 99 && p99 <= 100);
+		Assert.assertEquals(1, snapshot.getPercentileMillis(0), 0.25);
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		InMemorySqlMetrics metrics = new InMemorySqlMetrics();
+		metrics.onExecute("select * from metrics_tb", 2000000L, 3, 0);
+		String name = "com.github.drinkjava2.jdbpro:type=SqlMetrics,name=test";
+		metrics.registerMBean(name);
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			Assert.assertEquals(1L, server.getAttribute(objectName, "TotalCount"));
+			Assert.assertEquals(1, server.getAttribute(objectName, "FingerprintCount"));
+			Object count = server.invoke(objectName, "getCount", new Object[] { "select * from metrics_tb" },
+					new String[] { String.class.getName() });
+			Assert.assertEquals(1L, count);
+		} finally {
+			metrics.unregisterMBean();
+		}
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer()
+				.isRegistered(new ObjectName("com.github.drinkjava2.jdbpro:type=SqlMetrics,name=test")));
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.inline.PreparedSQL;
+import com.github.drinkjava2.jdbpro.template.BasicSqlTemplate;
+import com.github.drinkjava2.jdbpro.template.BasicSqlTemplate.BasicSqlTemplateException;
+import com.github.drinkjava2.jdbpro.template.CompiledSqlTemplate;
+import com.github.drinkjava2.jdbpro.template.NamedParamSqlTemplate;
+
+/**
+ * Unit test for BasicSqlTemplate and CompiledSqlTemplate
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class SqlTemplateTest extends TestBase {
+	private static final int REPEAT_TIMES = 20000;
+
+	public static class User {
+		private String name;
+		private Integer age;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Integer getAge() {
+			return age;
+		}
+
+		public void setAge(Integer age) {
+			this.age = age;
+		}
+	}
+
+	private static Map<String, Object> params() {
+		User u = new User();
+		u.setName("Tom");
+		u.setAge(10);
+		Map<String, Object> paramMap = new HashMap<String, Object>();
+		paramMap.put("id", 1);
+		paramMap.put("u", u);
+		paramMap.put("tb", "users");
+		return paramMap;
+	}
+
+	@Test
+	public void testRender() {
+		Set<String> replaceSet = new HashSet<String>(Arrays.asList("tb"));
+		String template = "select * from ${tb} where id=#{id} and name=#{u.name} and age>#{u.age}";
+		for (int i = 0; i < 2; i++) {// second time from cache
+			PreparedSQL ps = BasicSqlTemplate.instance().render(template, params(), replaceSet);
+			Assert.assertEquals("select * from users where id=? and name=? and age>?", ps.getSql());
+			Assert.assertArrayEquals(new Object[] { 1, "Tom", 10 }, ps.getParams());
+		}
+		Assert.assertEquals(8, CompiledSqlTemplate.compile(template, "#{", "}").getSegmentCount());
+
+		PreparedSQL ps = BasicSqlTemplate.instance().render("#{id}", params(), null);
+		Assert.assertEquals("?", ps.getSql());
+		ps = BasicSqlTemplate.instance().render("", params(), null);
+		Assert.assertEquals("", ps.getSql());
+		ps = new BasicSqlTemplate("[", "]").render("select [id] from t", params());
+		Assert.assertEquals("select ? from t", ps.getSql());
+		ps = NamedParamSqlTemplate.instance().render("select * from t where id=:id and name=:u.name", params(),
+				null);
+		Assert.assertEquals("select * from t where id=? and name=?", ps.getSql());
+		Assert.assertArrayEquals(new Object[] { 1, "Tom" }, ps.getParams());
+	}
+
+	@Test
+	public void testNamedParamTemplate() {
+		Set<String> replaceSet = new HashSet<String>(Arrays.asList("tb"));
+		PreparedSQL ps = NamedParamSqlTemplate.instance().render(
+				"select id::text, ':id' from ${tb} where id=:id and name like '${tb}%' -- it's :id\n"
+						+ "and age>#{u.age} /* :id */ and name=:u.name",
+				params(), replaceSet);
+		Assert.assertEquals("select id::text, ':id' from users where id=? and name like 'users%' -- it's :id\n"
+				+ "and age>? /* :id */ and name=?", ps.getSql());
+		Assert.assertArrayEquals(new Object[] { 1, 10, "Tom" }, ps.getParams());
+
+		ps = NamedParamSqlTemplate.instance().render("select 'it''s :id', :id, x := 1", params(), null);
+		Assert.assertEquals("select 'it''s :id', ?, x := 1", ps.getSql());
+		Assert.assertArrayEquals(new Object[] { 1 }, ps.getParams());
+
+		ps = NamedParamSqlTemplate.instance().render("select :id:id#{id}", params(), null);
+		Assert.assertEquals("select ???", ps.getSql());
+		Assert.assertSame(NamedParamSqlTemplate.compile("select :id"), NamedParamSqlTemplate.compile("select :id"));
+	}
+
+	@Test(expected = BasicSqlTemplateException.class)
+	public void testMissingEndDelimiter() {
+		BasicSqlTemplate.instance().render("select * from t where id=#{id", params(), null);
+	}
+
+	@Test(expected = BasicSqlTemplateException.class)
+	public void testMissingParameter() {
+		BasicSqlTemplate.instance().render("select * from t where id=#{id2}", params(), null);
+	}
+
+	@Test(expected = BasicSqlTemplateException.class)
+	public void testWrongDirectReplace() {
+		BasicSqlTemplate.instance().render("select * from ${tb}", params(), null);
+	}
+
+	@Test
+	public void testCacheSizeLimited() {
+		for (int i = 0; i < 5000; i++)
+			BasicSqlTemplate.instance().render("select " + i + " from t where id=#{id}", params(), null);
+		Assert.assertTrue(CompiledSqlTemplate.getCacheSize() <= 2000);
+	}
+
+	@Test
+	public void speedTest() {
+		String template = "select * from users where id=#{id} and name=#{u.name} and age>#{u.age} order by id";
+		Map<String, Object> paramMap = params();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++) {
+			CompiledSqlTemplate.clearCache();
+			BasicSqlTemplate.instance().render(template, paramMap, null);
+		}
+		printTimeUsed(start, "Parse and render template " + REPEAT_TIMES + " times");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			BasicSqlTemplate.instance().render(template, paramMap, null);
+		printTimeUsed(start, "Render compiled template " + REPEAT_TIMES + " times");
+
+		String namedTemplate = "select * from users where id=:id and name=:u.name and age>:u.age order by id";
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++) {
+			NamedParamSqlTemplate.clearCache();
+			NamedParamSqlTemplate.instance().render(namedTemplate, paramMap, null);
+		}
+		printTimeUsed(start, "Parse and render named template " + REPEAT_TIMES + " times");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < REPEAT_TIMES; i++)
+			NamedParamSqlTemplate.instance().render(namedTemplate, paramMap, null);
+		printTimeUsed(start, "Render compiled named template " + REPEAT_TIMES + " times");
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2016 Original Author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.functionstest;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.drinkjava2.config.TestBase;
+import com.github.drinkjava2.jdbpro.improve.PreparedStatementCache;
+import com.github.drinkjava2.jdbpro.improve.QueryStream;
+import com.github.drinkjava2.jsqlbox.SqlBoxContext;
+import com.github.drinkjava2.jsqlbox.SqlBoxContextConfig;
+import com.github.drinkjava2.jtransactions.ConnectionManager;
+
+/**
+ * Unit test for PreparedStatement cache of ImprovedQueryRunner
+ *
+ * @author Yong Zhu
+ * @since 1.0.8
+ */
+public class StatementCacheTest extends TestBase {
+
+	@Before
+	public void init() {
+		super.init();
+		quietExecuteDDLs(new String[] { "drop table stmt_tb" });
+		ctx.nExecute("create table stmt_tb (id int, name varchar(20))");
+	}
+
+	/**
+	 * A ConnectionManager simulate a transaction, always return same connection
+	 * and only really close it when endTransaction be called
+	 */
+	public static class TxConnectionManager implements ConnectionManager {
+		Connection conn;
+
+		@Override
+		public Connection getConnection(DataSource ds) throws SQLException {
+			if (conn == null) {
+				conn = ds.getConnection();
+				conn.setAutoCommit(false);
+			}
+			return conn;
+		}
+
+		@Override
+		public void releaseConnection(Connection conn, DataSource ds) throws SQLException {
+			if (this.conn != conn)
+				conn.close();
+		}
+
+		public void endTransaction() throws SQLException {
+			conn.commit();
+			conn.close();
+			conn = null;
+		}
+	}
+
+	private SqlBoxContext createContext(int cacheSize, ConnectionManager cm) {
+		SqlBoxContextConfig config = new SqlBoxContextConfig();
+		config.setStatementCacheSize(cacheSize);
+		config.setConnectionManager(cm);
+		return new SqlBoxContext(dataSource, config);
+	}
+
+	@Test
+	public void testStatementCacheInTransaction() throws SQLException {
+		TxConnectionManager cm = new TxConnectionManager();
+		SqlBoxContext ctx2 = createContext(10, cm);
+		PreparedStatementCache cache = ctx2.getStatementCache();
+		for (int i = 0; i < 100; i++) {
+			ctx2.nUpdate("insert into stmt_tb (id, name) values (?,?)", i, "name" + i);
+			Assert.assertEquals(i + 1, ctx2.nQueryForLongValue("select count(*) from stmt_tb"));
+		}
+		Assert.assertEquals(2, cache.getMissCount());
+		Assert.assertEquals(198, cache.getHitCount());
+		Assert.assertEquals(2, cache.size());
+
+		QueryStream stream = ctx2.nQueryStream("select * from stmt_tb where id<?", 10);
+		try {
+			// same SQL nested on same connection do not share statement
+			Assert.assertEquals(100, ctx2.nQueryForLongValue("select count(*) from stmt_tb"));
+			Assert.assertEquals(10, ctx2.nQueryForLongValue("select count(*) from stmt_tb where id<?", 10));
+			int rows = 0;
+			while (stream.hasNext()) {
+				stream.next();
+				rows++;
+			}
+			Assert.assertEquals(10, rows);
+		} finally {
+			stream.close();
+		}
+
+		Connection conn = cm.conn;
+		cm.endTransaction();
+		ctx2.nQueryForLongValue("select count(*) from stmt_tb");
+		Assert.assertTrue(cache.contains(conn));// not checked every time
+		for (int i = 0; i < PreparedStatementCache.SWEEP_INTERVAL / 2; i++)
+			ctx2.nQueryForLongValue("select count(*) from stmt_tb");
+		Assert.assertFalse(cache.contains(conn));// closed connection dropped by periodical check
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(100, ctx.nQueryForLongValue("select count(*) from stmt_tb"));
+	}
+
+	@Test
+	public void testFailedBatchNotReused() throws SQLException {
+		TxConnectionManager cm = new TxConnectionManager();
+		SqlBoxContext ctx2 = createContext(10, cm);
+		String sql = "insert into stmt_tb (id) values (?)";
+		try {
+			ctx2.batch(sql, new Object[][] { { 1 }, { 2 }, { 3, 4 } });
+			Assert.fail("Wrong number of parameters should fail");
+		} catch (SQLException e) {
+			// expected
+		}
+		int[] result = ctx2.batch(sql, new Object[][] { { 10 } });
+		Assert.assertEquals(1, result.length);
+		Assert.assertEquals(1, ctx2.nQueryForLongValue("select count(*) from stmt_tb"));
+		ctx2.batch(sql, new Object[][] { { 11 }, { 12 } });
+		Assert.assertEquals(1, ctx2.getStatementCache().getHitCount());
+		cm.endTransaction();
+		Assert.assertEquals(3, ctx.nQueryForLongValue("select count(*) from stmt_tb"));
+	}
+
+	@Test
+	public void testStatementCacheLru() throws SQLException {
+		SqlBoxContext ctx2 = createContext(2, new TxConnectionManager());
+		PreparedStatementCache cache = ctx2.getStatementCache();
+		for (int i = 0; i < 3; i++) {
+			ctx2.nQueryForLongValue("select count(*) from stmt_tb where id>?", 0);
+			ctx2.nQueryForLongValue("select count(*) from stmt_tb where id>? and id<?", 0, 1);
+			ctx2.nQueryForLongValue("select count(*) from stmt_tb where id>? or id<?", 0, 1);
+		}
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(9, cache.getMissCount());
+	}
+
+	@Test
+	public void testStatementCacheNoTransaction() throws SQLException {
+		SqlBoxContext ctx2 = createContext(10, null);
+		for (int i = 0; i < 10; i++)
+			ctx2.nUpdate("insert into stmt_tb (id, name) values (?,?)", i, "name" + i);
+		Assert.assertEquals(0, ctx2.getStatementCache().size());
+		Assert.assertEquals(0, ctx2.getStatementCache().getHitCount());
+
+		Connection conn = ctx2.prepareConnection();
+		try {
+			for (int i = 0; i < 10; i++)
+				ctx2.nUpdate(conn, "insert into stmt_tb (id, name) values (?,?)", i, "name" + i);
+			Assert.assertEquals(9, ctx2.getStatementCache().getHitCount());
+		} finally {
+			ctx2.close(conn);
+		}
+		Assert.assertEquals(0, ctx2.getStatementCache().size());
+		Assert.assertNull(createContext(0, null).getStatementCache());
+	}
+
+	@Test
+	public void testStatementCacheExecute() throws SQLException {
+		TxConnectionManager cm = new TxConnectionManager();
+		SqlBoxContext ctx2 = createContext(10, cm);
+		for (int i = 0; i < 10; i++) {
+			ctx2.nExecute("insert into stmt_tb (id, name) values (?,?)", i, "name" + i);
+			ctx2.nUpdate("insert into stmt_tb (id, name) values (?,?)", i, "name" + i);
+		}
+		cm.endTransaction();
+		Assert.assertEquals(2, ctx2.getStatementCache().getMissCount());
+		Assert.assertEquals(18, ctx2.getStatementCache().getHitCount());
+		Assert.assertEquals(20, ctx.nQueryForLongValue("select count(*) from stmt_tb"));
+	}
+
+	@Test
+	public void testStatementCacheSpeed() throws SQLException {
+		int repeat = 3000;
+		for (int cacheSize = 0; cacheSize <= 20; cacheSize += 20) {
+			TxConnectionManager cm = new TxConnectionManager();
+			SqlBoxContext ctx2 = createContext(cacheSize, cm);
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < repeat; i++)
+				ctx2.nUpdate("insert into stmt_tb (id, name) values (?,?)", i, "name" + i);
+			cm.endTransaction();
+			printTimeUsed(start, "Insert " + repeat + " rows, statementCacheSize=" + cacheSize);
+		}
+	}
+}